@@ -0,0 +1,92 @@
+package org.jenkinsci.plugins.infonovabuildstats.benchmarks;
+
+import org.jenkinsci.plugins.infonovabuildstats.AgentStatisticFactory;
+import org.jenkinsci.plugins.infonovabuildstats.model.AgentStatistic;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Record creation on the listener threads: the constructor of {@link AgentStatistic} (project extraction,
+ * defaultIfBlank) and the label clean-up of {@link AgentStatisticFactory#extractNodeLabels}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class AgentStatisticBenchmark {
+
+    /* Power of two, the inputs are cycled */
+    private static final int INPUT_COUNT = 4096;
+
+    private final String[] agentNames = new String[INPUT_COUNT];
+    private final String[] labels = new String[INPUT_COUNT];
+    private final String[] labelStrings = new String[INPUT_COUNT];
+    private final String[] jobNames = new String[INPUT_COUNT];
+    private final String[] frameworks = new String[INPUT_COUNT];
+    private final String[] principals = new String[INPUT_COUNT];
+    private final Date[] onlineDates = new Date[INPUT_COUNT];
+    private final Date[] offlineDates = new Date[INPUT_COUNT];
+    private final int[] memory = new int[INPUT_COUNT];
+    private final double[] cpus = new double[INPUT_COUNT];
+
+    private int index;
+
+    @Setup
+    public void setUp() {
+        SyntheticAgentStatistics generator = new SyntheticAgentStatistics(42L, System.currentTimeMillis(),
+            TimeUnit.DAYS.toMillis(1));
+        for (int i = 0; i < INPUT_COUNT; i++) {
+            long offlineMillis = generator.nextOfflineMillis();
+            agentNames[i] = i % 50 == 0 ? "" : generator.nextAgentName();
+            labelStrings[i] = generator.nextLabelString();
+            labels[i] = AgentStatisticFactory.normalizeLabelString(labelStrings[i]);
+            jobNames[i] = generator.nextJobName();
+            frameworks[i] = generator.nextFramework();
+            principals[i] = generator.nextPrincipal();
+            onlineDates[i] = new Date(offlineMillis - generator.nextOnlineMillis());
+            offlineDates[i] = new Date(offlineMillis);
+            memory[i] = generator.nextMemory();
+            cpus[i] = generator.nextCpus();
+        }
+    }
+
+    private int nextIndex() {
+        index = (index + 1) & (INPUT_COUNT - 1);
+        return index;
+    }
+
+    @Benchmark
+    public AgentStatistic createOnOnline() {
+        int i = nextIndex();
+        return AgentStatistic.createOnOnlineAgentStatistic(agentNames[i], labels[i], jobNames[i], onlineDates[i],
+            "mesos-agent-1.example.com", frameworks[i], principals[i], "http://jenkins.example.com/",
+            memory[i], cpus[i]);
+    }
+
+    @Benchmark
+    public AgentStatistic createOnOffline() {
+        int i = nextIndex();
+        AgentStatistic online = AgentStatistic.createOnOnlineAgentStatistic(agentNames[i], labels[i], jobNames[i],
+            onlineDates[i], "mesos-agent-1.example.com", frameworks[i], principals[i],
+            "http://jenkins.example.com/", memory[i], cpus[i]);
+        return AgentStatistic.createOnOfflineAgentStatistic(online, offlineDates[i]);
+    }
+
+    @Benchmark
+    public String extractNodeLabels() {
+        return AgentStatisticFactory.normalizeLabelString(labelStrings[nextIndex()]);
+    }
+}
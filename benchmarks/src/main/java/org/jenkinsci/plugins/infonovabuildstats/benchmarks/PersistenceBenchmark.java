@@ -0,0 +1,94 @@
+package org.jenkinsci.plugins.infonovabuildstats.benchmarks;
+
+import org.apache.commons.io.FileUtils;
+import org.jenkinsci.plugins.infonovabuildstats.business.InfonovaBuildStatsPluginSaver;
+import org.jenkinsci.plugins.infonovabuildstats.model.AgentStatistic;
+import org.jenkinsci.plugins.infonovabuildstats.model.JobBuildResultSharder;
+import org.jenkinsci.plugins.infonovabuildstats.model.ShardStrategy;
+import org.jenkinsci.plugins.infonovabuildstats.model.TimeShardStrategy;
+import org.jenkinsci.plugins.infonovabuildstats.storage.StorageFormat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One flush end-to-end: draining the queue of the sharder, grouping and appending to the history files
+ * of a temp folder. The folder is emptied after every iteration, so the appends do not slow down with
+ * growing files.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+public class PersistenceBenchmark {
+
+    /* The default flush batch size */
+    @Param({ "500" })
+    public int batchSize;
+
+    @Param({ "XML", "BINARY" })
+    public String storageFormat;
+
+    private File folder;
+
+    private List<AgentStatistic> batch;
+
+    private JobBuildResultSharder sharder;
+
+    private ShardStrategy shardStrategy;
+
+    @Setup(Level.Trial)
+    public void setUpTrial() throws IOException {
+        new InfonovaBuildStatsPluginSaver(null);
+        folder = Files.createTempDirectory("infonova-build-stats-bench").toFile();
+        batch = new SyntheticAgentStatistics(42L, System.currentTimeMillis(), TimeUnit.HOURS.toMillis(1))
+            .batch(batchSize);
+        sharder = new JobBuildResultSharder();
+        shardStrategy = new TimeShardStrategy(ShardStrategy.Granularity.DAILY, ShardStrategy.Partition.NONE);
+    }
+
+    /**
+     * Queues the batch through the bounded path of the flush scheduler, the queue is drained by every invocation.
+     */
+    @Setup(Level.Invocation)
+    public void queueBatch() {
+        for (AgentStatistic agentStatistic : batch) {
+            if (!sharder.tryQueueResultToAdd(agentStatistic, batchSize)) {
+                throw new IllegalStateException("Queue of the sharder was not drained by the last invocation");
+            }
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void cleanFolder() throws IOException {
+        FileUtils.cleanDirectory(folder);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteFolder() throws IOException {
+        FileUtils.deleteDirectory(folder);
+    }
+
+    @Benchmark
+    public List<AgentStatistic> applyQueuedResultsInFiles() {
+        return sharder.applyQueuedResultsInFiles(folder, StorageFormat.fromName(storageFormat), shardStrategy);
+    }
+}
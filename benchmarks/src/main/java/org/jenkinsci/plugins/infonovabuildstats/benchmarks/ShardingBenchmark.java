@@ -0,0 +1,61 @@
+package org.jenkinsci.plugins.infonovabuildstats.benchmarks;
+
+import org.jenkinsci.plugins.infonovabuildstats.model.AgentStatistic;
+import org.jenkinsci.plugins.infonovabuildstats.model.JobBuildResultSharder;
+import org.jenkinsci.plugins.infonovabuildstats.model.ShardStrategy;
+import org.jenkinsci.plugins.infonovabuildstats.model.TimeShardStrategy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Grouping of one flush batch by target file, see {@link JobBuildResultSharder#toJobResultFilenameMap}.
+ * The records of a batch span two days, so every batch crosses at least one shard boundary.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class ShardingBenchmark {
+
+    /* The default flush batch size */
+    @Param({ "500" })
+    public int batchSize;
+
+    @Param({ "DAILY", "HOURLY", "MONTHLY" })
+    public String granularity;
+
+    @Param({ "NONE", "PROJECT" })
+    public String partition;
+
+    private List<AgentStatistic> batch;
+
+    private ShardStrategy shardStrategy;
+
+    @Setup
+    public void setUp() {
+        batch = new SyntheticAgentStatistics(42L, System.currentTimeMillis(), TimeUnit.DAYS.toMillis(2))
+            .batch(batchSize);
+        shardStrategy = new TimeShardStrategy(ShardStrategy.Granularity.fromName(granularity),
+            ShardStrategy.Partition.fromName(partition));
+    }
+
+    @Benchmark
+    public Map<String, List<AgentStatistic>> toJobResultFilenameMap() {
+        return JobBuildResultSharder.toJobResultFilenameMap(batch, shardStrategy);
+    }
+}
@@ -0,0 +1,183 @@
+package org.jenkinsci.plugins.infonovabuildstats.benchmarks;
+
+import org.jenkinsci.plugins.infonovabuildstats.AgentStatisticFactory;
+import org.jenkinsci.plugins.infonovabuildstats.model.AgentStatistic;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates agent lifecycles resembling the ones of a busy controller with a mesos cloud:
+ * few projects and jobs cause most of the agents (zipf distributed), most agents carry one of a handful
+ * of label sets, the online time is log-normal around ten minutes and some agents are static ones
+ * without a linked job. Seeded, so every fork of a benchmark sees the same records.
+ */
+public class SyntheticAgentStatistics {
+
+    private static final int PROJECT_COUNT = 40;
+
+    private static final int JOBS_PER_PROJECT = 25;
+
+    private static final String[] LABEL_STRINGS = {
+        "jobEnvProperties java8 maven3",
+        "java8 maven3 docker jobEnvProperties",
+        " linux  java7 maven3 jobEnvProperties",
+        "jobEnvProperties nodejs docker",
+        "jobEnvProperties windows msbuild",
+        "integration-test java8 jobEnvProperties oracle12",
+        "jobEnvProperties",
+        "master"
+    };
+
+    /* Share of the label strings above */
+    private static final double[] LABEL_WEIGHTS = { 40, 20, 12, 10, 6, 6, 4, 2 };
+
+    private static final String[] FRAMEWORKS = { "jenkins-build", "jenkins-test", "N/A" };
+
+    private static final double[] FRAMEWORK_WEIGHTS = { 70, 25, 5 };
+
+    private static final String[] PRINCIPALS = { "jenkins", "jenkins-test", "" };
+
+    private static final double[] CPUS = { 0.5, 1.0, 2.0, 4.0 };
+
+    private static final int[] MEMORY = { 1024, 2048, 4096, 8192 };
+
+    /* Share of static agents without linked job and of jobs outside of a project folder */
+    private static final double STATIC_AGENT_SHARE = 0.05;
+    private static final double TOP_LEVEL_JOB_SHARE = 0.03;
+
+    private static final long MEDIAN_ONLINE_MILLIS = 10L * 60L * 1000L;
+
+    private final Random random;
+
+    private final double[] projectWeights = zipf(PROJECT_COUNT, 1.1);
+    private final double[] jobWeights = zipf(JOBS_PER_PROJECT, 1.3);
+    private final double[] labelWeights = cumulative(LABEL_WEIGHTS);
+    private final double[] frameworkWeights = cumulative(FRAMEWORK_WEIGHTS);
+
+    private final long startMillis;
+    private final long spanMillis;
+
+    private int agentCounter;
+
+    /**
+     * @param seed - seed of the random numbers
+     * @param startMillis - offline date of the first record
+     * @param spanMillis - the offline dates are spread over [startMillis, startMillis + spanMillis)
+     */
+    public SyntheticAgentStatistics(long seed, long startMillis, long spanMillis) {
+        this.random = new Random(seed);
+        this.startMillis = startMillis;
+        this.spanMillis = spanMillis;
+    }
+
+    /**
+     * @return String - a raw node label string, as returned by Node#getLabelString()
+     */
+    public String nextLabelString() {
+        return LABEL_STRINGS[sample(labelWeights)];
+    }
+
+    /**
+     * @return String - the full name of the linked job, "N/A" for static agents
+     */
+    public String nextJobName() {
+        if (random.nextDouble() < STATIC_AGENT_SHARE) {
+            return "N/A";
+        }
+        int job = sample(jobWeights);
+        if (random.nextDouble() < TOP_LEVEL_JOB_SHARE) {
+            return "seed-job-" + job;
+        }
+        int project = sample(projectWeights);
+        return "project-" + project + "/" + (job % 3 == 0 ? "build/" : "") + "job-" + job;
+    }
+
+    public String nextAgentName() {
+        return "mesos-jenkins-" + Integer.toHexString(0x10000000 + agentCounter++);
+    }
+
+    public String nextFramework() {
+        return FRAMEWORKS[sample(frameworkWeights)];
+    }
+
+    public String nextPrincipal() {
+        return PRINCIPALS[random.nextInt(PRINCIPALS.length)];
+    }
+
+    public double nextCpus() {
+        return CPUS[random.nextInt(CPUS.length)];
+    }
+
+    public int nextMemory() {
+        return MEMORY[random.nextInt(MEMORY.length)];
+    }
+
+    public long nextOfflineMillis() {
+        return startMillis + (long) (random.nextDouble() * spanMillis);
+    }
+
+    public long nextOnlineMillis() {
+        return Math.min(12L * 60L * 60L * 1000L,
+            (long) (MEDIAN_ONLINE_MILLIS * Math.exp(random.nextGaussian())));
+    }
+
+    /**
+     * @return AgentStatistic - a complete record of an agent which went offline
+     */
+    public AgentStatistic next() {
+        long offlineMillis = nextOfflineMillis();
+        return AgentStatistic.createPersistedAgentStatistic(
+            nextAgentName(),
+            AgentStatisticFactory.normalizeLabelString(nextLabelString()),
+            nextJobName(),
+            new Date(offlineMillis - nextOnlineMillis()),
+            new Date(offlineMillis),
+            "mesos-agent-" + random.nextInt(64) + ".example.com",
+            nextFramework(),
+            nextPrincipal(),
+            "http://jenkins.example.com/",
+            nextMemory(),
+            nextCpus());
+    }
+
+    /**
+     * @return List of count records, ordered by offline date like the records of one flush
+     */
+    public List<AgentStatistic> batch(int count) {
+        List<AgentStatistic> batch = new ArrayList<AgentStatistic>(count);
+        for (int i = 0; i < count; i++) {
+            batch.add(next());
+        }
+        Collections.sort(batch, new AgentStatistic.ChronologicalComparator());
+        return batch;
+    }
+
+    private int sample(double[] cumulativeWeights) {
+        double value = random.nextDouble() * cumulativeWeights[cumulativeWeights.length - 1];
+        int index = Arrays.binarySearch(cumulativeWeights, value);
+        return index >= 0 ? index : -index - 1;
+    }
+
+    private static double[] zipf(int count, double exponent) {
+        double[] weights = new double[count];
+        for (int i = 0; i < count; i++) {
+            weights[i] = 1.0 / Math.pow(i + 1, exponent);
+        }
+        return cumulative(weights);
+    }
+
+    private static double[] cumulative(double[] weights) {
+        double[] cumulative = new double[weights.length];
+        double sum = 0;
+        for (int i = 0; i < weights.length; i++) {
+            sum += weights[i];
+            cumulative[i] = sum;
+        }
+        return cumulative;
+    }
+}
@@ -0,0 +1,88 @@
+package org.jenkinsci.plugins.infonovabuildstats.benchmarks;
+
+import com.thoughtworks.xstream.converters.basic.DateConverter;
+import hudson.util.XStream2;
+import org.jenkinsci.plugins.infonovabuildstats.history.AgentStatisticXmlWriter;
+import org.jenkinsci.plugins.infonovabuildstats.model.AgentStatistic;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serialization of one record the way the sharder appends it to an XML file, with the
+ * {@link AgentStatisticXmlWriter} and with the reflective XStream setup the plugin used before.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class XmlCodecBenchmark {
+
+    private static final int RECORD_COUNT = 1024;
+
+    private static final String[] FIELDS = {"lastJobName", "agentLabel", "agentName", "onlineDate", "offlineDate",
+        "onlineTimeMillis", "mesosAgent", "memory", "cpus", "principal", "framework", "project", "jenkinsUrl",
+        "provisioningMillis"};
+
+    private List<AgentStatistic> records;
+
+    private AgentStatisticXmlWriter writer;
+
+    private XStream2 xstream;
+
+    private ByteArrayOutputStream out;
+
+    private int index;
+
+    @Setup
+    public void setUp() {
+        records = new SyntheticAgentStatistics(42L, System.currentTimeMillis(), TimeUnit.DAYS.toMillis(1))
+            .batch(RECORD_COUNT);
+        writer = new AgentStatisticXmlWriter(null);
+        out = new ByteArrayOutputStream(64 * 1024);
+
+        // the aliases and date converters the plugin registered with Jenkins.XSTREAM
+        xstream = new XStream2();
+        DateConverter dateConverter = new DateConverter(null, "yyyy-MM-dd HH:mm:ss.SSS", null,
+            Locale.getDefault(), TimeZone.getDefault(), true);
+        xstream.registerLocalConverter(AgentStatistic.class, "onlineDate", dateConverter);
+        xstream.registerLocalConverter(AgentStatistic.class, "offlineDate", dateConverter);
+        xstream.alias("jbr", AgentStatistic.class);
+        for (String field : FIELDS) {
+            xstream.aliasField(field, AgentStatistic.class, field);
+        }
+    }
+
+    @Benchmark
+    public int codec() throws IOException {
+        index = (index + 1) & (RECORD_COUNT - 1);
+        out.reset();
+        return writer.write(records.get(index), out);
+    }
+
+    @Benchmark
+    public int xstream() throws IOException {
+        index = (index + 1) & (RECORD_COUNT - 1);
+        out.reset();
+        byte[] fragment = xstream.toXML(records.get(index)).getBytes(Charset.defaultCharset());
+        out.write(fragment);
+        return fragment.length;
+    }
+}
@@ -4,6 +4,7 @@ import hudson.model.Computer;
 import hudson.model.Node;
 import jenkins.model.Jenkins;
 import org.jenkinsci.plugins.infonovabuildstats.model.AgentStatistic;
+import org.jenkinsci.plugins.infonovabuildstats.utils.StringDictionary;
 import org.jenkinsci.plugins.mesos.JenkinsScheduler;
 import org.jenkinsci.plugins.mesos.Mesos;
 import org.jenkinsci.plugins.mesos.MesosSlave;
@@ -19,6 +20,9 @@ import java.util.Date;
 public class AgentStatisticFactory {
 
     public static final AgentStatisticFactory INSTANCE = new AgentStatisticFactory();
+
+    private static final String JOB_ENV_PROPERTIES_LABEL = "jobEnvProperties";
+
     private final Jenkins jenkins;
 
     /**
@@ -38,10 +42,37 @@ public class AgentStatisticFactory {
      */
     @CheckForNull
     public AgentStatistic createAgentStatisticFrom(Node node) {
+        return snapshot(node).resolve();
+    }
+
+    /**
+     * Captures name, label, online date and provisioning latency of the node, without asking the mesos cloud.
+     * Cheap enough to be called on the agent launch thread, the details are resolved by
+     * {@link PendingAgentStatistic#resolve()}.
+     *
+     * @param node - The computer which came online.
+     * @return PendingAgentStatistic - the snapshot of the node
+     */
+    public PendingAgentStatistic snapshot(Node node) {
+        //node online date
+        Date onlineDate = new Date();
+        long provisioningMillis = 0L;
+        if (node instanceof MesosSlave) {
+            // the linked item is a plain field of the agent, claiming it does not block
+            provisioningMillis = ProvisioningTracker.INSTANCE.claim(((MesosSlave) node).getLinkedItem(),
+                onlineDate.getTime());
+        }
+        return new PendingAgentStatistic(node, node.getDisplayName(), extractNodeLabels(node), onlineDate,
+            provisioningMillis);
+    }
+
+    /**
+     * Resolves the linked job, cpus, memory, mesos host and framework of the snapshot's node.
+     */
+    AgentStatistic enrich(PendingAgentStatistic pending) {
 
         String lastJobName = "N/A";
-        String agentName = node.getDisplayName();
-        String agentLabel = extractNodeLabels(node);
+        String agentName = pending.getAgentName();
         String mesosAgent = "N/A";
         String framework = "N/A";
 
@@ -49,6 +80,7 @@ public class AgentStatisticFactory {
         double cpus = 0.0;
         String principal = "";
 
+        Node node = pending.getNode();
 
         if (node instanceof MesosSlave) {
             MesosSlave mesosSlave = (MesosSlave) node;
@@ -72,11 +104,9 @@ public class AgentStatisticFactory {
             framework = mesosSlave.getCloud().getFrameworkName();
         }
 
-        //node online date
-        Date onlineDate = new Date();
-        return AgentStatistic.createOnOnlineAgentStatistic(agentName, agentLabel, lastJobName, onlineDate,
-                mesosAgent, framework,
-                principal, jenkins.getRootUrl(), memory, cpus);
+        return AgentStatistic.createOnOnlineAgentStatistic(agentName, pending.getAgentLabel(), lastJobName,
+                pending.getOnlineDate(), mesosAgent, framework,
+                principal, jenkins.getRootUrl(), memory, cpus, pending.getProvisioningMillis());
     }
 
     /**
@@ -87,10 +117,41 @@ public class AgentStatisticFactory {
         if (node == null) {
             return "";
         } else {
-            // first delete jobEnvProperties Label
-            String label = node.getLabelString().replaceAll("jobEnvProperties", "");
-            // second remove all spaces
-            return label.replaceAll("\\s", "");
+            return normalizeLabelString(node.getLabelString());
         }
     }
+
+    /**
+     * Removes the label "jobEnvProperties" and all whitespace in a single pass, the result is the shared
+     * instance of the {@link StringDictionary}. Label strings without anything to remove are not copied.
+     *
+     * @param labelString The label string of a node
+     * @return String label without label "jobEnvProperties" and without spaces
+     */
+    public static String normalizeLabelString(String labelString) {
+        StringBuilder label = null;
+        int length = labelString.length();
+        for (int i = 0; i < length; i++) {
+            char c = labelString.charAt(i);
+            boolean envProperties = c == 'j' && labelString.startsWith(JOB_ENV_PROPERTIES_LABEL, i);
+            if (envProperties || isWhitespace(c)) {
+                if (label == null) {
+                    label = new StringBuilder(length).append(labelString, 0, i);
+                }
+                if (envProperties) {
+                    i += JOB_ENV_PROPERTIES_LABEL.length() - 1;
+                }
+            } else if (label != null) {
+                label.append(c);
+            }
+        }
+        return StringDictionary.INSTANCE.canonicalize(label == null ? labelString : label.toString());
+    }
+
+    /**
+     * Same characters as the regex class \s
+     */
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
 }
@@ -2,10 +2,17 @@ package org.jenkinsci.plugins.infonovabuildstats;
 
 import hudson.Extension;
 import hudson.model.Descriptor;
+import hudson.util.ListBoxModel;
 import jenkins.model.GlobalConfiguration;
+import jenkins.model.Jenkins;
 import net.sf.json.JSONObject;
+import org.jenkinsci.plugins.infonovabuildstats.model.ShardStrategy;
+import org.jenkinsci.plugins.infonovabuildstats.storage.JournalFsyncPolicy;
+import org.jenkinsci.plugins.infonovabuildstats.storage.StorageFormat;
 import org.kohsuke.stapler.StaplerRequest;
 
+import javax.annotation.CheckForNull;
+
 /**
  * Holds the config for the infonova build stats plugin.
  * Configuration in "Configure system" to enable or disable build stats collection.
@@ -17,8 +24,65 @@ import org.kohsuke.stapler.StaplerRequest;
 @Extension
 public class InfonovaBuildStatsConfig extends GlobalConfiguration {
 
+    public static final int DEFAULT_FLUSH_BATCH_SIZE = 500;
+
+    public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 10000;
+
+    public static final int DEFAULT_FLUSH_QUEUE_CAPACITY = 100000;
+
+    public static final int DEFAULT_RETENTION_BANDWIDTH_KB_PER_SECOND = 4096;
+
+    public static final int DEFAULT_LIVE_HISTORY_HOURS = 24;
+
+    public static final double DEFAULT_ZOMBIE_P95_MULTIPLE = 3.0;
+
     private boolean collectBuildStats;
 
+    /* Number of pending records which triggers an immediate flush */
+    private int flushBatchSize = DEFAULT_FLUSH_BATCH_SIZE;
+
+    /* Maximum time a pending record waits until it is flushed */
+    private long flushIntervalMillis = DEFAULT_FLUSH_INTERVAL_MILLIS;
+
+    /* Maximum number of pending records, further records are dropped */
+    private int flushQueueCapacity = DEFAULT_FLUSH_QUEUE_CAPACITY;
+
+    /* Format of newly written history files, see StorageFormat */
+    private String storageFormat = StorageFormat.XML.name();
+
+    /* Period one history file covers, see ShardStrategy.Granularity */
+    private String shardGranularity = ShardStrategy.Granularity.DAILY.name();
+
+    /* Optional split of the history files by project or framework, see ShardStrategy.Partition */
+    private String shardPartition = ShardStrategy.Partition.NONE.name();
+
+    /* When the journal of pending records is forced to disk, see JournalFsyncPolicy */
+    private String journalFsyncPolicy = JournalFsyncPolicy.ALWAYS.name();
+
+    /* Compact closed days into monthly columnar segments, see HistoryCompactor */
+    private boolean compactHistory;
+
+    /* Days the raw agent records are kept, 0 for ever, see HistoryRetention */
+    private int rawRetentionDays;
+
+    /* Months the hourly rollups are kept before they are downsampled to daily rollups, 0 for ever */
+    private int hourlyRollupRetentionMonths;
+
+    /* Average disk bandwidth of the retention */
+    private int retentionBandwidthKbPerSecond = DEFAULT_RETENTION_BANDWIDTH_KB_PER_SECOND;
+
+    /* Hours of completed agent lifecycles the live dashboard shows, bounded by the capacity of its ring */
+    private int liveHistoryHours = DEFAULT_LIVE_HISTORY_HOURS;
+
+    /* label=hours per line, agents online longer are flagged, see ZombieAgentDetector */
+    private String zombieThresholds;
+
+    /* Agents online longer than this multiple of their label's historical p95 are flagged, 0 for never */
+    private double zombieP95Multiple = DEFAULT_ZOMBIE_P95_MULTIPLE;
+
+    /* Show the flagged agents on the manage page */
+    private boolean zombieMonitorEnabled;
+
     public InfonovaBuildStatsConfig() {
         load();
     }
@@ -38,4 +102,184 @@ public class InfonovaBuildStatsConfig extends GlobalConfiguration {
         this.collectBuildStats = collectBuildStats;
     }
 
+    public int getFlushBatchSize() {
+        return flushBatchSize > 0 ? flushBatchSize : DEFAULT_FLUSH_BATCH_SIZE;
+    }
+
+    public void setFlushBatchSize(int flushBatchSize) {
+        this.flushBatchSize = flushBatchSize;
+    }
+
+    public long getFlushIntervalMillis() {
+        return flushIntervalMillis > 0 ? flushIntervalMillis : DEFAULT_FLUSH_INTERVAL_MILLIS;
+    }
+
+    public void setFlushIntervalMillis(long flushIntervalMillis) {
+        this.flushIntervalMillis = flushIntervalMillis;
+    }
+
+    public int getFlushQueueCapacity() {
+        return flushQueueCapacity > 0 ? flushQueueCapacity : DEFAULT_FLUSH_QUEUE_CAPACITY;
+    }
+
+    public void setFlushQueueCapacity(int flushQueueCapacity) {
+        this.flushQueueCapacity = flushQueueCapacity;
+    }
+
+    public String getStorageFormat() {
+        return getStorageFormatValue().name();
+    }
+
+    public void setStorageFormat(String storageFormat) {
+        this.storageFormat = storageFormat;
+    }
+
+    public StorageFormat getStorageFormatValue() {
+        return StorageFormat.fromName(storageFormat);
+    }
+
+    public String getShardGranularity() {
+        return getShardGranularityValue().name();
+    }
+
+    public void setShardGranularity(String shardGranularity) {
+        this.shardGranularity = shardGranularity;
+    }
+
+    public ShardStrategy.Granularity getShardGranularityValue() {
+        return ShardStrategy.Granularity.fromName(shardGranularity);
+    }
+
+    public String getShardPartition() {
+        return getShardPartitionValue().name();
+    }
+
+    public void setShardPartition(String shardPartition) {
+        this.shardPartition = shardPartition;
+    }
+
+    public ShardStrategy.Partition getShardPartitionValue() {
+        return ShardStrategy.Partition.fromName(shardPartition);
+    }
+
+    public String getJournalFsyncPolicy() {
+        return getJournalFsyncPolicyValue().name();
+    }
+
+    public void setJournalFsyncPolicy(String journalFsyncPolicy) {
+        this.journalFsyncPolicy = journalFsyncPolicy;
+    }
+
+    public JournalFsyncPolicy getJournalFsyncPolicyValue() {
+        return JournalFsyncPolicy.fromName(journalFsyncPolicy);
+    }
+
+    public boolean isCompactHistory() {
+        return compactHistory;
+    }
+
+    public void setCompactHistory(boolean compactHistory) {
+        this.compactHistory = compactHistory;
+    }
+
+    public int getRawRetentionDays() {
+        return Math.max(0, rawRetentionDays);
+    }
+
+    public void setRawRetentionDays(int rawRetentionDays) {
+        this.rawRetentionDays = rawRetentionDays;
+    }
+
+    public int getHourlyRollupRetentionMonths() {
+        return Math.max(0, hourlyRollupRetentionMonths);
+    }
+
+    public void setHourlyRollupRetentionMonths(int hourlyRollupRetentionMonths) {
+        this.hourlyRollupRetentionMonths = hourlyRollupRetentionMonths;
+    }
+
+    public int getRetentionBandwidthKbPerSecond() {
+        return retentionBandwidthKbPerSecond > 0 ? retentionBandwidthKbPerSecond
+            : DEFAULT_RETENTION_BANDWIDTH_KB_PER_SECOND;
+    }
+
+    public void setRetentionBandwidthKbPerSecond(int retentionBandwidthKbPerSecond) {
+        this.retentionBandwidthKbPerSecond = retentionBandwidthKbPerSecond;
+    }
+
+    public int getLiveHistoryHours() {
+        return liveHistoryHours > 0 ? liveHistoryHours : DEFAULT_LIVE_HISTORY_HOURS;
+    }
+
+    public void setLiveHistoryHours(int liveHistoryHours) {
+        this.liveHistoryHours = liveHistoryHours;
+    }
+
+    public String getZombieThresholds() {
+        return zombieThresholds;
+    }
+
+    public void setZombieThresholds(String zombieThresholds) {
+        this.zombieThresholds = zombieThresholds;
+    }
+
+    public double getZombieP95Multiple() {
+        return Math.max(0, zombieP95Multiple);
+    }
+
+    public void setZombieP95Multiple(double zombieP95Multiple) {
+        this.zombieP95Multiple = zombieP95Multiple;
+    }
+
+    public boolean isZombieMonitorEnabled() {
+        return zombieMonitorEnabled;
+    }
+
+    public void setZombieMonitorEnabled(boolean zombieMonitorEnabled) {
+        this.zombieMonitorEnabled = zombieMonitorEnabled;
+    }
+
+    public ListBoxModel doFillStorageFormatItems() {
+        ListBoxModel items = new ListBoxModel();
+        items.add("XML (jbr fragments)", StorageFormat.XML.name());
+        items.add("Binary (fixed-width records with dictionary)", StorageFormat.BINARY.name());
+        return items;
+    }
+
+    public ListBoxModel doFillShardGranularityItems() {
+        ListBoxModel items = new ListBoxModel();
+        items.add("One file per hour", ShardStrategy.Granularity.HOURLY.name());
+        items.add("One file per day", ShardStrategy.Granularity.DAILY.name());
+        items.add("One file per month", ShardStrategy.Granularity.MONTHLY.name());
+        return items;
+    }
+
+    public ListBoxModel doFillShardPartitionItems() {
+        ListBoxModel items = new ListBoxModel();
+        items.add("None", ShardStrategy.Partition.NONE.name());
+        items.add("By project", ShardStrategy.Partition.PROJECT.name());
+        items.add("By framework", ShardStrategy.Partition.FRAMEWORK.name());
+        return items;
+    }
+
+    public ListBoxModel doFillJournalFsyncPolicyItems() {
+        ListBoxModel items = new ListBoxModel();
+        items.add("Every commit", JournalFsyncPolicy.ALWAYS.name());
+        items.add("At most once per second", JournalFsyncPolicy.INTERVAL.name());
+        items.add("Never (left to the operating system)", JournalFsyncPolicy.NEVER.name());
+        return items;
+    }
+
+    /**
+     * @return InfonovaBuildStatsConfig - the registered config or null if jenkins is not yet initialized
+     */
+    @CheckForNull
+    public static InfonovaBuildStatsConfig get() {
+        if (Jenkins.getInstance() == null) {
+            // GlobalConfiguration.all() needs the instance
+            return null;
+        }
+        return GlobalConfiguration.all().get(InfonovaBuildStatsConfig.class);
+    }
+
 }
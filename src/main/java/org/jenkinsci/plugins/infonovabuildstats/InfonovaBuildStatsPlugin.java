@@ -8,14 +8,45 @@ import hudson.model.TaskListener;
 import hudson.model.listeners.ItemListener;
 import hudson.slaves.ComputerListener;
 import jenkins.model.Jenkins;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+import org.apache.commons.io.FileUtils;
+import org.jenkinsci.plugins.infonovabuildstats.backfill.BackfillImporter;
 import org.jenkinsci.plugins.infonovabuildstats.business.InfonovaBuildStatsBusiness;
+import org.jenkinsci.plugins.infonovabuildstats.export.AgentStatisticExporter;
+import org.jenkinsci.plugins.infonovabuildstats.export.ExportFormat;
+import org.jenkinsci.plugins.infonovabuildstats.history.HistoryFile;
+import org.jenkinsci.plugins.infonovabuildstats.live.LiveAgentStatistics;
+import org.jenkinsci.plugins.infonovabuildstats.live.ZombieAgentDetector;
+import org.jenkinsci.plugins.infonovabuildstats.merge.HistoryMerger;
+import org.jenkinsci.plugins.infonovabuildstats.metrics.Histogram;
+import org.jenkinsci.plugins.infonovabuildstats.metrics.InfonovaBuildStatsMetrics;
 import org.jenkinsci.plugins.infonovabuildstats.model.AgentStatistic;
 import org.jenkinsci.plugins.infonovabuildstats.model.JobBuildResultSharder;
+import org.jenkinsci.plugins.infonovabuildstats.query.AgentStatisticFilter;
+import org.jenkinsci.plugins.infonovabuildstats.query.AgentStatisticQueryEngine;
+import org.jenkinsci.plugins.infonovabuildstats.rollup.Rollup;
+import org.jenkinsci.plugins.infonovabuildstats.rollup.RollupDimension;
+import org.jenkinsci.plugins.infonovabuildstats.rollup.RollupStore;
+import org.jenkinsci.plugins.infonovabuildstats.timeline.ConcurrencyTimeline;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+import org.kohsuke.stapler.interceptor.RequirePOST;
 
 import javax.inject.Inject;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -32,6 +63,16 @@ public class InfonovaBuildStatsPlugin extends Plugin {
 
     private JobBuildResultSharder jobBuildResultsSharder = new JobBuildResultSharder();
 
+    transient private AgentStatisticQueryEngine queryEngine;
+
+    private static final int MAX_CONCURRENT_EXPORTS = 2;
+
+    /* Exports hold a request thread until the client has read everything, so only a few may run at once */
+    transient private final Semaphore exportPermits = new Semaphore(MAX_CONCURRENT_EXPORTS);
+
+    /* One month of minute buckets */
+    private static final int MAX_TIMELINE_BUCKETS = 31 * 24 * 60;
+
     /**
      * Highered visibility of load method
      */
@@ -79,6 +120,449 @@ public class InfonovaBuildStatsPlugin extends Plugin {
         return jobBuildResultsSharder;
     }
 
+    /**
+     * @return AgentStatisticQueryEngine - the query engine over the persisted history, created on first use
+     */
+    public synchronized AgentStatisticQueryEngine getQueryEngine() {
+        if (queryEngine == null) {
+            queryEngine = new AgentStatisticQueryEngine(JobBuildResultSharder.getJobResultFolder(),
+                AgentStatisticQueryEngine.defaultParallelism());
+        }
+        return queryEngine;
+    }
+
+    /**
+     * Serves the metrics of the stats pipeline as JSON, see {@link InfonovaBuildStatsMetrics}.
+     */
+    public void doMetrics(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        Jenkins.getInstance().checkPermission(Jenkins.READ);
+        rsp.setContentType("application/json;charset=UTF-8");
+        rsp.setHeader("Cache-Control", "no-cache");
+        rsp.getWriter().write(InfonovaBuildStatsMetrics.INSTANCE.toJSON().toString());
+    }
+
+    /**
+     * Streams the history records of a date range as NDJSON or CSV, see {@link AgentStatisticExporter}.
+     * Parameters: from, to (millis or yyyy-MM-dd['T'HH:mm[:ss]], to is exclusive), project, agentLabel, framework,
+     * mesosAgent, format (ndjson or csv) and gzip (default true, only applied if the client accepts it).
+     * At most {@value #MAX_CONCURRENT_EXPORTS} exports run at once, further requests are answered with 503.
+     */
+    public void doExport(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        Jenkins.getInstance().checkPermission(Jenkins.READ);
+
+        AgentStatisticFilter filter;
+        try {
+            filter = new AgentStatisticFilter()
+                .from(AgentStatisticExporter.parseDate(req.getParameter("from")))
+                .to(AgentStatisticExporter.parseDate(req.getParameter("to")))
+                .project(req.getParameter("project"))
+                .agentLabel(req.getParameter("agentLabel"))
+                .framework(req.getParameter("framework"))
+                .mesosAgent(req.getParameter("mesosAgent"));
+        } catch (IllegalArgumentException e) {
+            rsp.sendError(StaplerResponse.SC_BAD_REQUEST, e.getMessage());
+            return;
+        }
+        ExportFormat format = ExportFormat.fromName(req.getParameter("format"));
+
+        if (!exportPermits.tryAcquire()) {
+            rsp.setHeader("Retry-After", "60");
+            rsp.sendError(StaplerResponse.SC_SERVICE_UNAVAILABLE, "Too many concurrent exports, retry later");
+            return;
+        }
+        try {
+            rsp.setContentType(format.getContentType() + ";charset=UTF-8");
+            rsp.setHeader("Cache-Control", "no-cache");
+            rsp.setHeader("Content-Disposition", "attachment; filename=agentStatistics" + format.getExtension());
+            // no content length, so the response is sent chunked
+            OutputStream out = "false".equalsIgnoreCase(req.getParameter("gzip"))
+                ? rsp.getOutputStream() : rsp.getCompressedOutputStream(req);
+            Writer writer = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"), 64 * 1024);
+
+            long start = System.currentTimeMillis();
+            AgentStatisticExporter exporter = new AgentStatisticExporter(writer, format);
+            try {
+                exporter.export(JobBuildResultSharder.getJobResultFolder(), filter);
+                writer.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.INFO, "Export aborted after " + exporter.getCount() + " records", e);
+                return;
+            }
+            LOGGER.log(Level.FINE, "Exported " + exporter.getCount() + " records with " + filter + " in "
+                + (System.currentTimeMillis() - start) + " ms");
+        } finally {
+            exportPermits.release();
+        }
+    }
+
+    /**
+     * Streams the own history merged with the history folders of other controllers, ordered by offline date and
+     * without duplicates, see {@link HistoryMerger}. Parameters: folder (repeatable, absolute or relative to
+     * JENKINS_HOME, e.g. a copy of the infonova-build-stats folder of another controller), from, to, format and gzip
+     * like {@link #doExport}. Shares the permits of the exports.
+     */
+    public void doMergedExport(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        // reads arbitrary folders of the controller
+        Jenkins.getInstance().checkPermission(Jenkins.ADMINISTER);
+
+        AgentStatisticFilter filter;
+        List<File> historyFolders = new ArrayList<File>();
+        historyFolders.add(JobBuildResultSharder.getJobResultFolder());
+        try {
+            filter = new AgentStatisticFilter()
+                .from(AgentStatisticExporter.parseDate(req.getParameter("from")))
+                .to(AgentStatisticExporter.parseDate(req.getParameter("to")));
+            String[] folders = req.getParameterValues("folder");
+            if (folders == null || folders.length == 0) {
+                throw new IllegalArgumentException("No history folder to merge");
+            }
+            for (String folder : folders) {
+                File historyFolder = new File(folder);
+                if (!historyFolder.isAbsolute()) {
+                    historyFolder = new File(Jenkins.getInstance().getRootDir(), folder);
+                }
+                if (!historyFolder.isDirectory()) {
+                    throw new IllegalArgumentException("Not a history folder: " + folder);
+                }
+                historyFolders.add(historyFolder);
+            }
+        } catch (IllegalArgumentException e) {
+            rsp.sendError(StaplerResponse.SC_BAD_REQUEST, e.getMessage());
+            return;
+        }
+        ExportFormat format = ExportFormat.fromName(req.getParameter("format"));
+
+        if (!exportPermits.tryAcquire()) {
+            rsp.setHeader("Retry-After", "60");
+            rsp.sendError(StaplerResponse.SC_SERVICE_UNAVAILABLE, "Too many concurrent exports, retry later");
+            return;
+        }
+        File tempFolder = null;
+        try {
+            tempFolder = Files.createTempDirectory("infonova-build-stats-merge").toFile();
+            rsp.setContentType(format.getContentType() + ";charset=UTF-8");
+            rsp.setHeader("Cache-Control", "no-cache");
+            rsp.setHeader("Content-Disposition", "attachment; filename=mergedAgentStatistics" + format.getExtension());
+            OutputStream out = "false".equalsIgnoreCase(req.getParameter("gzip"))
+                ? rsp.getOutputStream() : rsp.getCompressedOutputStream(req);
+            Writer writer = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"), 64 * 1024);
+
+            long start = System.currentTimeMillis();
+            HistoryMerger merger = new HistoryMerger(historyFolders, filter, tempFolder);
+            AgentStatisticExporter exporter = new AgentStatisticExporter(writer, format);
+            try {
+                exporter.export(merger);
+                writer.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.INFO, "Merged export aborted after " + exporter.getCount() + " records", e);
+                return;
+            }
+            LOGGER.log(Level.FINE, "Exported " + exporter.getCount() + " merged records of " + historyFolders
+                + " in " + (System.currentTimeMillis() - start) + " ms, dropped " + merger.getDuplicateRecords()
+                + " duplicates");
+        } finally {
+            FileUtils.deleteQuietly(tempFolder);
+            exportPermits.release();
+        }
+    }
+
+    /**
+     * Serves the concurrency timeline of a window as JSON, see {@link ConcurrencyTimeline}.
+     * Parameters: from, to (millis or yyyy-MM-dd['T'HH:mm[:ss]], default the last 24 hours), groupBy (agentLabel,
+     * framework or project, default agentLabel), resolution (minutes per bucket, default 1), project, agentLabel,
+     * framework and mesosAgent. A window has at most {@value #MAX_TIMELINE_BUCKETS} buckets.
+     */
+    public void doTimeline(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        Jenkins.getInstance().checkPermission(Jenkins.READ);
+
+        AgentStatisticFilter filter;
+        long from;
+        long to;
+        long bucketMillis;
+        try {
+            Date toDate = AgentStatisticExporter.parseDate(req.getParameter("to"));
+            to = toDate != null ? toDate.getTime() : System.currentTimeMillis();
+            Date fromDate = AgentStatisticExporter.parseDate(req.getParameter("from"));
+            from = fromDate != null ? fromDate.getTime() : to - TimeUnit.DAYS.toMillis(1);
+            String resolution = req.getParameter("resolution");
+            bucketMillis = TimeUnit.MINUTES.toMillis(resolution == null ? 1 : Integer.parseInt(resolution.trim()));
+            if (bucketMillis <= 0 || bucketMillis > TimeUnit.DAYS.toMillis(1)) {
+                throw new IllegalArgumentException("Resolution must be between 1 and 1440 minutes");
+            }
+            filter = new AgentStatisticFilter()
+                .project(req.getParameter("project"))
+                .agentLabel(req.getParameter("agentLabel"))
+                .framework(req.getParameter("framework"))
+                .mesosAgent(req.getParameter("mesosAgent"));
+        } catch (IllegalArgumentException e) {
+            rsp.sendError(StaplerResponse.SC_BAD_REQUEST, e.getMessage());
+            return;
+        }
+        RollupDimension groupBy = RollupDimension.fromName(req.getParameter("groupBy"), RollupDimension.AGENT_LABEL);
+
+        long start = System.currentTimeMillis();
+        ConcurrencyTimeline timeline;
+        try {
+            InfonovaBuildStatsComputerListener listener = InfonovaBuildStatsComputerListener.get();
+            timeline = ConcurrencyTimeline.query(getQueryEngine(), filter, groupBy, from, to, bucketMillis,
+                MAX_TIMELINE_BUCKETS, listener != null
+                    ? listener.getOnlineAgents() : Collections.<PendingAgentStatistic>emptyList());
+        } catch (IllegalArgumentException e) {
+            rsp.sendError(StaplerResponse.SC_BAD_REQUEST, e.getMessage());
+            return;
+        }
+        LOGGER.log(Level.FINE, "Swept " + timeline.getIntervalCount() + " intervals into "
+            + timeline.getBucketCount() + " buckets in " + (System.currentTimeMillis() - start) + " ms");
+
+        rsp.setContentType("application/json;charset=UTF-8");
+        rsp.setHeader("Cache-Control", "no-cache");
+        Writer writer = new BufferedWriter(new OutputStreamWriter(rsp.getCompressedOutputStream(req), "UTF-8"),
+            64 * 1024);
+        timeline.writeJSON(writer, groupBy);
+        writer.close();
+    }
+
+    /**
+     * Serves the live statistics of the online and recently completed agents as JSON, from memory, see
+     * {@link LiveAgentStatistics}. Polled by the live page, answered with 304 while nothing changed.
+     */
+    public void doLiveStats(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        Jenkins.getInstance().checkPermission(Jenkins.READ);
+
+        InfonovaBuildStatsComputerListener listener = InfonovaBuildStatsComputerListener.get();
+        Collection<PendingAgentStatistic> online = listener != null
+            ? listener.getOnlineAgents() : Collections.<PendingAgentStatistic>emptyList();
+        long onlineVersion = listener != null ? listener.getOnlineVersion() : 0L;
+        InfonovaBuildStatsConfig config = InfonovaBuildStatsConfig.get();
+        long windowMillis = TimeUnit.HOURS.toMillis(config != null
+            ? config.getLiveHistoryHours() : InfonovaBuildStatsConfig.DEFAULT_LIVE_HISTORY_HOURS);
+
+        LiveAgentStatistics.Snapshot snapshot = business.getLiveStatistics().snapshot(online, onlineVersion,
+            windowMillis);
+        rsp.setHeader("ETag", snapshot.getETag());
+        rsp.setHeader("Cache-Control", "no-cache");
+        if (snapshot.getETag().equals(req.getHeader("If-None-Match"))) {
+            rsp.setStatus(StaplerResponse.SC_NOT_MODIFIED);
+            return;
+        }
+        rsp.setContentType("application/json;charset=UTF-8");
+        rsp.getWriter().write(snapshot.getJson());
+    }
+
+    /**
+     * Serves the agents online longer than expected as JSON, see {@link ZombieAgentDetector}.
+     */
+    public void doZombies(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        Jenkins.getInstance().checkPermission(Jenkins.READ);
+
+        ZombieAgentDetector detector = business.getZombieDetector();
+        JSONArray agents = new JSONArray();
+        for (ZombieAgentDetector.Flag flag : detector.getFlagged()) {
+            PendingAgentStatistic agent = flag.getAgent();
+            AgentStatistic resolved = agent.getResolved();
+            JSONObject json = new JSONObject();
+            json.put("agentName", agent.getAgentName());
+            json.put("agentLabel", agent.getAgentLabel());
+            json.put("onlineDate", agent.getOnlineDate().getTime());
+            json.put("onlineMillis", flag.getOnlineMillis());
+            json.put("limitMillis", flag.getLimitMillis());
+            json.put("reason", flag.getReason());
+            json.put("flaggedAt", flag.getFlaggedAt());
+            if (resolved != null) {
+                json.put("mesosAgent", resolved.getMesosAgent());
+                json.put("framework", resolved.getFramework());
+                json.put("cpus", resolved.getCpus());
+                json.put("memory", resolved.getMemory());
+            }
+            agents.add(json);
+        }
+        JSONObject result = new JSONObject();
+        result.put("thresholdMillis", detector.getThresholds());
+        result.put("historicalP95Millis", detector.getHistoricalP95());
+        result.put("agents", agents);
+
+        rsp.setContentType("application/json;charset=UTF-8");
+        rsp.setHeader("Cache-Control", "no-cache");
+        rsp.getWriter().write(result.toString());
+    }
+
+    /**
+     * Serves the provisioning latency percentiles per agent label as JSON, see {@link ProvisioningTracker}.
+     * Parameters: from, to (millis or yyyy-MM-dd['T'HH:mm[:ss]] of the offline date, default the 30 days before today
+     * and today), project, agentLabel, framework and mesosAgent. Records without a known latency are not counted.
+     * The result of the past days is cached, so a repeated request only scans the history of the current day.
+     */
+    public void doProvisioningLatency(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        Jenkins.getInstance().checkPermission(Jenkins.READ);
+
+        AgentStatisticFilter filter;
+        try {
+            Date from = AgentStatisticExporter.parseDate(req.getParameter("from"));
+            if (from == null) {
+                // whole days, so repeated requests share the cached result of the closed days
+                Calendar calendar = Calendar.getInstance();
+                calendar.setTimeInMillis(HistoryFile.startOfToday());
+                calendar.add(Calendar.DAY_OF_MONTH, -30);
+                from = calendar.getTime();
+            }
+            filter = new AgentStatisticFilter()
+                .from(from)
+                .to(AgentStatisticExporter.parseDate(req.getParameter("to")))
+                .project(req.getParameter("project"))
+                .agentLabel(req.getParameter("agentLabel"))
+                .framework(req.getParameter("framework"))
+                .mesosAgent(req.getParameter("mesosAgent"));
+        } catch (IllegalArgumentException e) {
+            rsp.sendError(StaplerResponse.SC_BAD_REQUEST, e.getMessage());
+            return;
+        }
+
+        Map<String, Histogram> histograms = getQueryEngine().execute(filter, ProvisioningTracker.latencyCollector());
+        List<String> labels = new ArrayList<String>(histograms.keySet());
+        Collections.sort(labels, new Comparator<String>() {
+            public int compare(String left, String right) {
+                // agents without label last
+                return left == null ? (right == null ? 0 : 1) : right == null ? -1 : left.compareTo(right);
+            }
+        });
+        JSONArray byLabel = new JSONArray();
+        for (String label : labels) {
+            Histogram histogram = histograms.get(label);
+            JSONObject json = new JSONObject();
+            json.put("agentLabel", label);
+            json.put("count", histogram.getCount());
+            json.put("meanMillis", (long) histogram.getMean());
+            json.put("p50Millis", histogram.getValueAtPercentile(50));
+            json.put("p90Millis", histogram.getValueAtPercentile(90));
+            json.put("p95Millis", histogram.getValueAtPercentile(95));
+            json.put("p99Millis", histogram.getValueAtPercentile(99));
+            json.put("maxMillis", histogram.getMax());
+            byLabel.add(json);
+        }
+        JSONObject result = new JSONObject();
+        result.put("byLabel", byLabel);
+
+        rsp.setContentType("application/json;charset=UTF-8");
+        rsp.setHeader("Cache-Control", "no-cache");
+        rsp.getWriter().write(result.toString());
+    }
+
+    /**
+     * Serves the cpu and memory usage per project, agent label, framework or principal as JSON, from the rollups
+     * (see {@link RollupStore}) instead of the history files. Parameters: from, to (millis or
+     * yyyy-MM-dd['T'HH:mm[:ss]], default the 30 days before today and now, rounded down to full hours) and groupBy
+     * (project, agentLabel, framework or principal, default project).
+     */
+    public void doRollups(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        Jenkins.getInstance().checkPermission(Jenkins.READ);
+
+        long from;
+        long to;
+        try {
+            Date toDate = AgentStatisticExporter.parseDate(req.getParameter("to"));
+            to = toDate != null ? toDate.getTime() : System.currentTimeMillis();
+            Date fromDate = AgentStatisticExporter.parseDate(req.getParameter("from"));
+            if (fromDate != null) {
+                from = fromDate.getTime();
+            } else {
+                Calendar calendar = Calendar.getInstance();
+                calendar.setTimeInMillis(HistoryFile.startOfToday());
+                calendar.add(Calendar.DAY_OF_MONTH, -30);
+                from = calendar.getTimeInMillis();
+            }
+        } catch (IllegalArgumentException e) {
+            rsp.sendError(StaplerResponse.SC_BAD_REQUEST, e.getMessage());
+            return;
+        }
+        RollupDimension groupBy = RollupDimension.fromName(req.getParameter("groupBy"), RollupDimension.PROJECT);
+
+        Map<String, Rollup> rollups = business.getRollupStore().query(from, to, groupBy);
+        JSONArray groups = new JSONArray();
+        for (Map.Entry<String, Rollup> entry : rollups.entrySet()) {
+            Rollup rollup = entry.getValue();
+            JSONObject json = new JSONObject();
+            json.put("value", entry.getKey());
+            json.put("cpuSeconds", rollup.getCpuSeconds());
+            json.put("cpuHours", rollup.getCpuHours());
+            json.put("mbSeconds", rollup.getMbSeconds());
+            json.put("agentCount", rollup.getAgentCount());
+            groups.add(json);
+        }
+        JSONObject result = new JSONObject();
+        result.put("from", from);
+        result.put("to", to);
+        result.put("groupBy", groupBy.name());
+        result.put("rollups", groups);
+
+        rsp.setContentType("application/json;charset=UTF-8");
+        rsp.setHeader("Cache-Control", "no-cache");
+        rsp.getWriter().write(result.toString());
+    }
+
+    /**
+     * Starts or resumes the backfill of the agent history from the build records, see {@link BackfillImporter}.
+     * Parameters: parallelism (jobs walked concurrently, default half of the processors) and restart (discard the
+     * checkpoint and import the builds before the oldest record, default false). Answered with 409 if a backfill
+     * is running already.
+     */
+    @RequirePOST
+    public void doBackfillStart(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        Jenkins.getInstance().checkPermission(Jenkins.ADMINISTER);
+
+        int parallelism;
+        try {
+            String value = req.getParameter("parallelism");
+            parallelism = value == null
+                ? AgentStatisticQueryEngine.defaultParallelism() : Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            rsp.sendError(StaplerResponse.SC_BAD_REQUEST, "Invalid parallelism");
+            return;
+        }
+        parallelism = Math.max(1, Math.min(parallelism, Runtime.getRuntime().availableProcessors()));
+        if (!business.getBackfillImporter().start(parallelism, Boolean.parseBoolean(req.getParameter("restart")))) {
+            rsp.sendError(StaplerResponse.SC_CONFLICT, "A backfill is running already");
+            return;
+        }
+        rsp.sendRedirect2("backfill");
+    }
+
+    /**
+     * Cancels the running backfill, it resumes from its checkpoint when started again.
+     */
+    @RequirePOST
+    public void doBackfillCancel(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        Jenkins.getInstance().checkPermission(Jenkins.ADMINISTER);
+        business.getBackfillImporter().cancel();
+        rsp.sendRedirect2("backfill");
+    }
+
+    /**
+     * Serves the state and progress of the current or last backfill as JSON, polled by the backfill page.
+     */
+    public void doBackfillStatus(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        Jenkins.getInstance().checkPermission(Jenkins.READ);
+        rsp.setContentType("application/json;charset=UTF-8");
+        rsp.setHeader("Cache-Control", "no-cache");
+        rsp.getWriter().write(business.getBackfillImporter().toJSON().toString());
+    }
+
+    @Override
+    public void start() throws Exception {
+        super.start();
+        InfonovaBuildStatsMetrics.register();
+    }
+
+    @Override
+    public synchronized void stop() throws Exception {
+        InfonovaBuildStatsMetrics.unregister();
+        business.shutdown();
+        if (queryEngine != null) {
+            queryEngine.shutdown();
+            queryEngine = null;
+        }
+        super.stop();
+    }
+
     /**
      * Inner class for loading the plugin, when jenkins instance is loaded
      */
@@ -109,23 +593,48 @@ public class InfonovaBuildStatsPlugin extends Plugin {
         @Inject
         private InfonovaBuildStatsConfig config;
 
-        private Map<String, AgentStatistic> agentStatisticMap = Collections.synchronizedMap(new HashMap<String, AgentStatistic>());
+        /* Concurrent, so the live statistics iterate the online agents without a lock */
+        private final ConcurrentMap<String, PendingAgentStatistic> agentStatisticMap = new ConcurrentHashMap<String, PendingAgentStatistic>();
+
+        /* Changes whenever an agent comes online or goes offline */
+        private final AtomicLong onlineVersion = new AtomicLong();
+
+        /**
+         * @return InfonovaBuildStatsComputerListener - the registered listener, null if it is not loaded
+         */
+        public static InfonovaBuildStatsComputerListener get() {
+            return ComputerListener.all().get(InfonovaBuildStatsComputerListener.class);
+        }
+
+        /**
+         * @return Collection - the snapshots of the currently online agents, a live view
+         */
+        public Collection<PendingAgentStatistic> getOnlineAgents() {
+            return Collections.unmodifiableCollection(agentStatisticMap.values());
+        }
+
+        public long getOnlineVersion() {
+            return onlineVersion.get();
+        }
 
         @Override
         public void onOnline(Computer c, TaskListener listener) throws IOException, InterruptedException {
             String displayName = c.getDisplayName();
 
+            InfonovaBuildStatsMetrics.INSTANCE.markOnline();
+
             try {
                 // Only collect job data if config is enabled
                 if (config.isCollectBuildStats()) {
                     Node node = c.getNode();
                     if (node != null) {
-                        AgentStatistic agentStatistic = AgentStatisticFactory.INSTANCE.createAgentStatisticFrom(node);
-                        if (agentStatistic != null) {
-                            agentStatisticMap.put(displayName, agentStatistic);
-                        } else {
-                            LOGGER.log(Level.WARNING, "Unable to create agentStatistic for " + displayName + ", factory returned a null object");
-                        }
+                        // the mesos details are resolved by the enrichment thread, not on the agent launch thread
+                        long start = System.nanoTime();
+                        PendingAgentStatistic pending = AgentStatisticFactory.INSTANCE.snapshot(node);
+                        InfonovaBuildStatsMetrics.INSTANCE.recordFactoryNanos(System.nanoTime() - start);
+                        agentStatisticMap.put(displayName, pending);
+                        onlineVersion.incrementAndGet();
+                        getPluginBusiness().onComputerOnline(pending);
                     } else {
                         LOGGER.log(Level.WARNING, "Unable to collect node for " + displayName + ", node is null");
                     }
@@ -139,12 +648,14 @@ public class InfonovaBuildStatsPlugin extends Plugin {
         public void onOffline(Computer c) {
             String displayName = c.getDisplayName();
 
+            InfonovaBuildStatsMetrics.INSTANCE.markOffline();
+
             try {
                 // Only collect job data if config is enabled
                 if (config.isCollectBuildStats()) {
-                    AgentStatistic agentStatistic = agentStatisticMap.get(displayName);
-                    if (agentStatistic != null) {
-                        getPluginBusiness().onComputerOffline(AgentStatistic.createOnOfflineAgentStatistic(agentStatistic, new Date()));
+                    PendingAgentStatistic pending = agentStatisticMap.get(displayName);
+                    if (pending != null) {
+                        getPluginBusiness().onComputerOffline(pending, new Date());
                     } else {
                         LOGGER.log(Level.WARNING, "Unable to find node for " + displayName);
                     }
@@ -152,7 +663,9 @@ public class InfonovaBuildStatsPlugin extends Plugin {
             } catch (Exception e) {
                 LOGGER.log(Level.SEVERE, "Error while processing offline computer " + displayName, e);
             } finally {
-                agentStatisticMap.remove(displayName);
+                if (agentStatisticMap.remove(displayName) != null) {
+                    onlineVersion.incrementAndGet();
+                }
             }
         }
     }
@@ -0,0 +1,79 @@
+package org.jenkinsci.plugins.infonovabuildstats;
+
+import hudson.model.Node;
+import org.jenkinsci.plugins.infonovabuildstats.model.AgentStatistic;
+
+import java.util.Date;
+
+/**
+ * What the computer listener knows about an online agent before the mesos details are resolved, see
+ * {@link AgentStatisticFactory#snapshot(Node)}. The details are resolved once, by the enrichment stage or,
+ * if that did not get to it, when the agent goes offline.
+ */
+public class PendingAgentStatistic {
+
+    private final String agentName;
+
+    private final String agentLabel;
+
+    private final Date onlineDate;
+
+    /* 0 if unknown, see ProvisioningTracker */
+    private final long provisioningMillis;
+
+    /* Released once resolved */
+    private Node node;
+
+    /* Volatile, so the live statistics read it without the lock */
+    private volatile AgentStatistic resolved;
+
+    PendingAgentStatistic(Node node, String agentName, String agentLabel, Date onlineDate, long provisioningMillis) {
+        this.node = node;
+        this.agentName = agentName;
+        this.agentLabel = agentLabel;
+        this.onlineDate = onlineDate;
+        this.provisioningMillis = provisioningMillis;
+    }
+
+    public String getAgentName() {
+        return agentName;
+    }
+
+    public String getAgentLabel() {
+        return agentLabel;
+    }
+
+    public Date getOnlineDate() {
+        return onlineDate;
+    }
+
+    public long getProvisioningMillis() {
+        return provisioningMillis;
+    }
+
+    Node getNode() {
+        return node;
+    }
+
+    /**
+     * @return AgentStatistic - the online statistic including the mesos details, resolved on the first call
+     */
+    public synchronized AgentStatistic resolve() {
+        if (resolved == null) {
+            resolved = AgentStatisticFactory.INSTANCE.enrich(this);
+            node = null;
+        }
+        return resolved;
+    }
+
+    /**
+     * @return AgentStatistic - the online statistic if it is resolved already, null otherwise
+     */
+    public AgentStatistic getResolved() {
+        return resolved;
+    }
+
+    public synchronized boolean isResolved() {
+        return resolved != null;
+    }
+}
@@ -0,0 +1,246 @@
+package org.jenkinsci.plugins.infonovabuildstats;
+
+import hudson.Extension;
+import hudson.model.Item;
+import hudson.model.Queue;
+import hudson.model.queue.QueueListener;
+import org.jenkinsci.plugins.infonovabuildstats.metrics.Histogram;
+import org.jenkinsci.plugins.infonovabuildstats.model.AgentStatistic;
+import org.jenkinsci.plugins.infonovabuildstats.query.CacheableAgentStatisticCollector;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Correlates the build queue with the mesos agents provisioned for it: a queue item is remembered from entering the
+ * queue until it leaves, keyed by the full name of its task, which is what {@code MesosSlave.getLinkedItem()}
+ * refers to. When an agent linked to an item comes online it claims the oldest waiting item of that name, the
+ * time in between is its provisioning latency.
+ *
+ * Every linked item has its own small set of waiting items, so the queue thread and the agent launch threads only
+ * contend if they work on the same job.
+ */
+public class ProvisioningTracker {
+
+    public static final ProvisioningTracker INSTANCE = new ProvisioningTracker();
+
+    /* Waiting items remembered per linked item, the oldest ones are dropped beyond */
+    static final int MAX_WAITING_PER_ITEM = 64;
+
+    private final ConcurrentMap<String, Waiting> waiting = new ConcurrentHashMap<String, Waiting>();
+
+    /**
+     * Remembers an item which entered the queue.
+     */
+    public void onEnter(String linkedItem, long itemId, long inQueueSince) {
+        while (true) {
+            Waiting items = waiting.get(linkedItem);
+            if (items == null) {
+                items = new Waiting();
+                Waiting existing = waiting.putIfAbsent(linkedItem, items);
+                if (existing != null) {
+                    items = existing;
+                }
+            }
+            if (items.add(itemId, inQueueSince)) {
+                return;
+            }
+            // the set was emptied and removed concurrently, retry with a new one
+        }
+    }
+
+    /**
+     * Forgets an item which left the queue, either built or cancelled.
+     */
+    public void onLeft(String linkedItem, long itemId) {
+        Waiting items = waiting.get(linkedItem);
+        if (items != null && items.remove(itemId)) {
+            waiting.remove(linkedItem, items);
+        }
+    }
+
+    /**
+     * Claims the oldest waiting item of the linked item which no other agent claimed before.
+     *
+     * @return long - millis from the item entering the queue until the given time, 0 if there is no such item
+     */
+    public long claim(String linkedItem, long onlineMillis) {
+        if (linkedItem == null) {
+            return 0L;
+        }
+        Waiting items = waiting.get(linkedItem);
+        if (items == null) {
+            return 0L;
+        }
+        long inQueueSince = items.claim();
+        return inQueueSince > 0 ? Math.max(0L, onlineMillis - inQueueSince) : 0L;
+    }
+
+    /**
+     * @return int - number of linked items with waiting items
+     */
+    public int size() {
+        return waiting.size();
+    }
+
+    /**
+     * @return String - the name the mesos cloud links its agents to, the full name of the job
+     */
+    static String linkedItemOf(Queue.Task task) {
+        return task instanceof Item ? ((Item) task).getFullName() : task.getFullDisplayName();
+    }
+
+    /**
+     * @return CacheableAgentStatisticCollector - collects the provisioning latencies of the records per agent label,
+     *                                            records without a known latency are skipped
+     */
+    public static CacheableAgentStatisticCollector<Map<String, Histogram>> latencyCollector() {
+        return new CacheableAgentStatisticCollector<Map<String, Histogram>>() {
+            @Override
+            public Map<String, Histogram> create() {
+                return new HashMap<String, Histogram>();
+            }
+
+            @Override
+            public void accumulate(Map<String, Histogram> container, AgentStatistic agentStatistic) {
+                if (agentStatistic.getProvisioningMillis() <= 0) {
+                    return;
+                }
+                Histogram histogram = container.get(agentStatistic.getAgentLabel());
+                if (histogram == null) {
+                    histogram = new Histogram();
+                    container.put(agentStatistic.getAgentLabel(), histogram);
+                }
+                histogram.record(agentStatistic.getProvisioningMillis());
+            }
+
+            @Override
+            public Map<String, Histogram> combine(Map<String, Histogram> left, Map<String, Histogram> right) {
+                for (Map.Entry<String, Histogram> entry : right.entrySet()) {
+                    Histogram histogram = left.get(entry.getKey());
+                    if (histogram == null) {
+                        left.put(entry.getKey(), entry.getValue());
+                    } else {
+                        histogram.add(entry.getValue());
+                    }
+                }
+                return left;
+            }
+
+            @Override
+            public String getCacheKey() {
+                return "provisioningLatencyByLabel";
+            }
+
+            @Override
+            public Map<String, Histogram> copy(Map<String, Histogram> container) {
+                Map<String, Histogram> copy = new HashMap<String, Histogram>();
+                for (Map.Entry<String, Histogram> entry : container.entrySet()) {
+                    copy.put(entry.getKey(), entry.getValue().copy());
+                }
+                return copy;
+            }
+
+            @Override
+            public long estimateBytes(Map<String, Histogram> container) {
+                return container.size() * Histogram.estimateBytes();
+            }
+        };
+    }
+
+    /**
+     * The waiting items of one linked item in queue order, as parallel arrays.
+     */
+    private static final class Waiting {
+
+        private long[] ids = new long[4];
+
+        private long[] inQueueSince = new long[4];
+
+        private boolean[] claimed = new boolean[4];
+
+        private int size;
+
+        /* set once emptied, the set is removed from the map and must not be used anymore */
+        private boolean removed;
+
+        synchronized boolean add(long itemId, long since) {
+            if (removed) {
+                return false;
+            }
+            if (size == MAX_WAITING_PER_ITEM) {
+                // items which never left, e.g. missed events, must not pile up
+                removeAt(0);
+            }
+            if (size == ids.length) {
+                int capacity = Math.min(MAX_WAITING_PER_ITEM, size * 2);
+                ids = Arrays.copyOf(ids, capacity);
+                inQueueSince = Arrays.copyOf(inQueueSince, capacity);
+                claimed = Arrays.copyOf(claimed, capacity);
+            }
+            ids[size] = itemId;
+            inQueueSince[size] = since;
+            claimed[size] = false;
+            size++;
+            return true;
+        }
+
+        /**
+         * @return boolean - true if the set became empty and was marked removed
+         */
+        synchronized boolean remove(long itemId) {
+            for (int i = 0; i < size; i++) {
+                if (ids[i] == itemId) {
+                    removeAt(i);
+                    break;
+                }
+            }
+            if (size == 0 && !removed) {
+                removed = true;
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * @return long - queue entry time of the oldest unclaimed item, 0 if all are claimed
+         */
+        synchronized long claim() {
+            for (int i = 0; i < size; i++) {
+                if (!claimed[i]) {
+                    claimed[i] = true;
+                    return inQueueSince[i];
+                }
+            }
+            return 0L;
+        }
+
+        private void removeAt(int i) {
+            int moved = size - i - 1;
+            System.arraycopy(ids, i + 1, ids, i, moved);
+            System.arraycopy(inQueueSince, i + 1, inQueueSince, i, moved);
+            System.arraycopy(claimed, i + 1, claimed, i, moved);
+            size--;
+        }
+    }
+
+    /**
+     * Feeds the queue events into the tracker.
+     */
+    @Extension
+    public static class ProvisioningQueueListener extends QueueListener {
+
+        @Override
+        public void onEnterWaiting(Queue.WaitingItem item) {
+            INSTANCE.onEnter(linkedItemOf(item.task), item.getId(), item.getInQueueSince());
+        }
+
+        @Override
+        public void onLeft(Queue.LeftItem item) {
+            INSTANCE.onLeft(linkedItemOf(item.task), item.getId());
+        }
+    }
+}
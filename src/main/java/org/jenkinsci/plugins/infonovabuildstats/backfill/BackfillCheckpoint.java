@@ -0,0 +1,187 @@
+package org.jenkinsci.plugins.infonovabuildstats.backfill;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Progress of a backfill which survives a restart: the cutoff of the backfill, the jobs whose builds are
+ * written to the history files already and the jobs of the batch which is being written.
+ *
+ * <pre>
+ * checkpoint := magic:int cutoffMillis:long complete:boolean jobCount:int jobFullName:UTF*
+ *               pendingCount:int pendingJobFullName:UTF*
+ * </pre>
+ *
+ * Rewritten atomically before and after every batch, so a resumed backfill continues with the batch which was not
+ * completely written and knows that some of its records may be in the history files already. Checkpoints of
+ * older versions have no pending jobs.
+ */
+public class BackfillCheckpoint {
+
+    public static final String CHECKPOINT_FILE = "backfill.checkpoint";
+
+    private static final int MAGIC = 0x49424247; // "IBBG"
+
+    /* checkpoint without pending jobs */
+    private static final int MAGIC_V1 = 0x49424246; // "IBBF"
+
+    private final File file;
+
+    private final long cutoffMillis;
+
+    private final Set<String> doneJobs;
+
+    /* jobs of the batch which is being written, in batch order */
+    private final List<String> pendingJobs;
+
+    private boolean complete;
+
+    BackfillCheckpoint(File file, long cutoffMillis, Set<String> doneJobs, List<String> pendingJobs,
+                       boolean complete) {
+        this.file = file;
+        this.cutoffMillis = cutoffMillis;
+        this.doneJobs = doneJobs;
+        this.pendingJobs = pendingJobs;
+        this.complete = complete;
+    }
+
+    /**
+     * @return BackfillCheckpoint - a new checkpoint without done jobs, not yet written
+     */
+    static BackfillCheckpoint create(File folder, long cutoffMillis) {
+        return new BackfillCheckpoint(new File(folder, CHECKPOINT_FILE), cutoffMillis, new HashSet<String>(),
+            new ArrayList<String>(), false);
+    }
+
+    /**
+     * @return BackfillCheckpoint - the checkpoint of the folder, null if there is none
+     */
+    static BackfillCheckpoint load(File folder) throws IOException {
+        File file = new File(folder, CHECKPOINT_FILE);
+        if (!file.exists()) {
+            return null;
+        }
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            int magic = in.readInt();
+            if (magic != MAGIC && magic != MAGIC_V1) {
+                throw new IOException("Not a backfill checkpoint: " + file);
+            }
+            long cutoffMillis = in.readLong();
+            boolean complete = in.readBoolean();
+            int jobCount = in.readInt();
+            Set<String> doneJobs = new HashSet<String>(jobCount * 2);
+            for (int i = 0; i < jobCount; i++) {
+                doneJobs.add(in.readUTF());
+            }
+            List<String> pendingJobs = new ArrayList<String>();
+            if (magic == MAGIC) {
+                int pendingCount = in.readInt();
+                for (int i = 0; i < pendingCount; i++) {
+                    pendingJobs.add(in.readUTF());
+                }
+            }
+            return new BackfillCheckpoint(file, cutoffMillis, doneJobs, pendingJobs, complete);
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+    }
+
+    /**
+     * Deletes the checkpoint of the folder, the next backfill starts over with a new cutoff.
+     */
+    static void delete(File folder) {
+        FileUtils.deleteQuietly(new File(folder, CHECKPOINT_FILE));
+    }
+
+    /**
+     * @return long - only builds which finished before are imported
+     */
+    public long getCutoffMillis() {
+        return cutoffMillis;
+    }
+
+    public boolean isDone(String jobFullName) {
+        return doneJobs.contains(jobFullName);
+    }
+
+    public int getDoneCount() {
+        return doneJobs.size();
+    }
+
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * @return List - the jobs of the batch which was being written when the backfill stopped, empty if none
+     */
+    public List<String> getPendingJobs() {
+        return Collections.unmodifiableList(pendingJobs);
+    }
+
+    /**
+     * Records the jobs of a batch before its records are written and writes the checkpoint.
+     */
+    void batchStarted(Collection<String> jobFullNames) throws IOException {
+        pendingJobs.clear();
+        pendingJobs.addAll(jobFullNames);
+        write();
+    }
+
+    /**
+     * Marks the jobs of a written batch done and writes the checkpoint.
+     */
+    void batchWritten(Collection<String> jobFullNames) throws IOException {
+        doneJobs.addAll(jobFullNames);
+        pendingJobs.clear();
+        write();
+    }
+
+    void markComplete() throws IOException {
+        complete = true;
+        write();
+    }
+
+    private void write() throws IOException {
+        File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        FileUtils.forceMkdir(file.getParentFile());
+        FileOutputStream fos = new FileOutputStream(tmp);
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+            out.writeInt(MAGIC);
+            out.writeLong(cutoffMillis);
+            out.writeBoolean(complete);
+            out.writeInt(doneJobs.size());
+            for (String jobFullName : doneJobs) {
+                out.writeUTF(jobFullName);
+            }
+            out.writeInt(pendingJobs.size());
+            for (String jobFullName : pendingJobs) {
+                out.writeUTF(jobFullName);
+            }
+            out.flush();
+            fos.getChannel().force(false);
+        } finally {
+            fos.close();
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,431 @@
+package org.jenkinsci.plugins.infonovabuildstats.backfill;
+
+import hudson.model.AbstractBuild;
+import hudson.model.AbstractProject;
+import hudson.model.Node;
+import hudson.security.ACL;
+import hudson.util.DaemonThreadFactory;
+import jenkins.model.Jenkins;
+import net.sf.json.JSONObject;
+import org.acegisecurity.context.SecurityContext;
+import org.acegisecurity.context.SecurityContextHolder;
+import org.apache.commons.lang.StringUtils;
+import org.jenkinsci.plugins.infonovabuildstats.AgentStatisticFactory;
+import org.jenkinsci.plugins.infonovabuildstats.InfonovaBuildStatsConfig;
+import org.jenkinsci.plugins.infonovabuildstats.InfonovaBuildStatsPlugin;
+import org.jenkinsci.plugins.infonovabuildstats.model.AgentStatistic;
+import org.jenkinsci.plugins.infonovabuildstats.model.JobBuildResultSharder;
+import org.jenkinsci.plugins.infonovabuildstats.query.AgentStatisticFilter;
+import org.jenkinsci.plugins.infonovabuildstats.query.AgentStatisticQueryEngine;
+import org.jenkinsci.plugins.infonovabuildstats.query.CacheableAgentStatisticCollector;
+import org.jenkinsci.plugins.infonovabuildstats.rollup.RollupStore;
+import org.jenkinsci.plugins.infonovabuildstats.storage.HistoryRetention;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Reconstructs the agent history from the build records of all jobs, for the time before the plugin collected it:
+ * every completed build becomes a record of the node it was built on, online from the start of the build until
+ * its end. The mesos details (host, framework, cpus, memory) of those agents are gone, they are recorded as
+ * unknown.
+ *
+ * Only builds which finished before the cutoff are imported, the start of the day of the oldest record in the
+ * history (or of the backfill, if the history is empty). So a backfill never overlaps the collected history and
+ * never appends to a day file which may be compacted already, and a backfill started again after a completed one
+ * only imports what is older than that.
+ *
+ * The jobs are walked in batches of {@value #JOBS_PER_BATCH} on a fork-join pool of the given parallelism, the
+ * records of a batch are sorted by offline date and written through the
+ * {@link JobBuildResultSharder#applyResultsInFiles(List) sharder} and into the rollups before the jobs of the batch
+ * are checkpointed (see {@link BackfillCheckpoint}). A cancelled or interrupted backfill resumes with the batch
+ * which was not checkpointed. If Jenkins stopped while that batch was written, the records of it which are in the
+ * history files already are not written again, like the records of a replayed journal; its rollups are added
+ * again, unless they were persisted right before the stop.
+ *
+ * A single backfill runs at a time, on its own thread.
+ */
+public class BackfillImporter {
+
+    private static final Logger LOGGER = Logger.getLogger(BackfillImporter.class.getName());
+
+    static final int JOBS_PER_BATCH = 100;
+
+    public enum State {
+        IDLE, RUNNING, CANCELLED, COMPLETED, FAILED
+    }
+
+    private final RollupStore rollupStore;
+
+    private final ExecutorService runner = Executors.newSingleThreadExecutor(new DaemonThreadFactory());
+
+    private volatile State state = State.IDLE;
+
+    private volatile boolean cancelled;
+
+    private volatile String failure;
+
+    private volatile long startedAt;
+
+    private volatile long finishedAt;
+
+    private volatile long cutoffMillis;
+
+    private volatile int totalJobs;
+
+    private final AtomicInteger doneJobs = new AtomicInteger();
+
+    private final AtomicLong scannedBuilds = new AtomicLong();
+
+    private final AtomicLong writtenRecords = new AtomicLong();
+
+    public BackfillImporter(RollupStore rollupStore) {
+        this.rollupStore = rollupStore;
+    }
+
+    /**
+     * Starts a backfill, or resumes the checkpointed one.
+     *
+     * @param parallelism - the maximum number of jobs walked concurrently
+     * @param restart - discard the checkpoint of a completed or partial backfill and start over with a new cutoff
+     * @return boolean - false if a backfill is running already
+     */
+    public synchronized boolean start(final int parallelism, final boolean restart) {
+        if (state == State.RUNNING) {
+            return false;
+        }
+        state = State.RUNNING;
+        cancelled = false;
+        failure = null;
+        startedAt = System.currentTimeMillis();
+        finishedAt = 0L;
+        totalJobs = 0;
+        doneJobs.set(0);
+        scannedBuilds.set(0);
+        writtenRecords.set(0);
+        runner.execute(new Runnable() {
+            public void run() {
+                SecurityContext previous = ACL.impersonate(ACL.SYSTEM);
+                try {
+                    state = runBackfill(parallelism, restart);
+                } catch (Exception e) {
+                    LOGGER.log(Level.SEVERE, "Backfill failed", e);
+                    failure = e.toString();
+                    state = State.FAILED;
+                } finally {
+                    finishedAt = System.currentTimeMillis();
+                    SecurityContextHolder.setContext(previous);
+                }
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Cancels the running backfill, the batch in progress is dropped and imported again on resume.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    private State runBackfill(int parallelism, boolean restart) throws IOException {
+        File folder = JobBuildResultSharder.getJobResultFolder();
+        if (restart) {
+            BackfillCheckpoint.delete(folder);
+        }
+        BackfillCheckpoint checkpoint = BackfillCheckpoint.load(folder);
+        if (checkpoint == null) {
+            checkpoint = BackfillCheckpoint.create(folder, cutoffOf(earliestRecordMillis()));
+        }
+        cutoffMillis = checkpoint.getCutoffMillis();
+        if (checkpoint.isComplete()) {
+            LOGGER.log(Level.INFO, "Backfill is complete already, start it over to import older builds");
+            return State.COMPLETED;
+        }
+        long notBeforeMillis = notBeforeMillis();
+
+        List<String> jobs = new ArrayList<String>();
+        List<String> interrupted = new ArrayList<String>();
+        int alreadyDone = 0;
+        for (AbstractProject<?, ?> project : Jenkins.getInstance().getAllItems(AbstractProject.class)) {
+            if (checkpoint.isDone(project.getFullName())) {
+                alreadyDone++;
+            } else if (checkpoint.getPendingJobs().contains(project.getFullName())) {
+                interrupted.add(project.getFullName());
+            } else {
+                jobs.add(project.getFullName());
+            }
+        }
+        totalJobs = jobs.size() + interrupted.size() + alreadyDone;
+        doneJobs.set(alreadyDone);
+        LOGGER.log(Level.INFO, "Backfilling the builds of " + jobs.size() + " jobs which finished before "
+            + new Date(cutoffMillis) + ", " + alreadyDone + " jobs are done already");
+
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, parallelism));
+        try {
+            if (!interrupted.isEmpty()
+                && !importBatch(pool, checkpoint, interrupted, notBeforeMillis, folder)) {
+                return State.CANCELLED;
+            }
+            for (int from = 0; from < jobs.size(); from += JOBS_PER_BATCH) {
+                List<String> batch = jobs.subList(from, Math.min(jobs.size(), from + JOBS_PER_BATCH));
+                if (!importBatch(pool, checkpoint, batch, notBeforeMillis, null)) {
+                    return State.CANCELLED;
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        checkpoint.markComplete();
+        LOGGER.log(Level.INFO, "Backfill imported " + writtenRecords.get() + " records from " + scannedBuilds.get()
+            + " builds in " + (System.currentTimeMillis() - startedAt) + " ms");
+        return State.COMPLETED;
+    }
+
+    /**
+     * Scans, writes and checkpoints the jobs of one batch.
+     *
+     * @param historyFolder - the folder to look up the records which are written already, for the batch which was
+     *                        interrupted while it was written, null for a new batch
+     * @return boolean - false if the backfill was cancelled, the batch is not written then
+     */
+    private boolean importBatch(ForkJoinPool pool, BackfillCheckpoint checkpoint, List<String> batch,
+                                long notBeforeMillis, File historyFolder) throws IOException {
+        List<AgentStatistic> records = pool.invoke(new JobScanTask(batch, 0, batch.size(), notBeforeMillis));
+        if (cancelled) {
+            LOGGER.log(Level.INFO, "Backfill cancelled after " + doneJobs.get() + " of " + totalJobs + " jobs");
+            return false;
+        }
+        Collections.sort(records, new AgentStatistic.ChronologicalComparator());
+        checkpoint.batchStarted(batch);
+        write(records, historyFolder);
+        checkpoint.batchWritten(batch);
+        doneJobs.addAndGet(batch.size());
+        return true;
+    }
+
+    private void write(List<AgentStatistic> records, File historyFolder) throws IOException {
+        if (records.isEmpty()) {
+            return;
+        }
+        List<AgentStatistic> unwritten = records;
+        if (historyFolder != null) {
+            Set<AgentStatistic> written = AgentStatisticQueryEngine.findWritten(historyFolder, records);
+            if (!written.isEmpty()) {
+                LOGGER.log(Level.INFO, written.size() + " records of the interrupted backfill batch were already "
+                    + "written to the history files, they are not written again");
+                unwritten = new ArrayList<AgentStatistic>(records.size() - written.size());
+                for (AgentStatistic agentStatistic : records) {
+                    if (!written.contains(agentStatistic)) {
+                        unwritten.add(agentStatistic);
+                    }
+                }
+            }
+        }
+        List<AgentStatistic> applied = unwritten.isEmpty() ? unwritten
+            : InfonovaBuildStatsPlugin.getInstance().getJobBuildResultsSharder().applyResultsInFiles(unwritten);
+        writtenRecords.addAndGet(applied.size());
+        if (applied.size() != unwritten.size()) {
+            // the batch stays pending, the next backfill skips the written records and adds the rollups of all
+            throw new IOException("Only " + applied.size() + " of " + unwritten.size()
+                + " backfilled records were written, see the log");
+        }
+        // rollups before the checkpoint, like the persister, so the checkpointed jobs are always contained in the
+        // rollups; the rollups of a batch are only persisted once all of its records are written
+        rollupStore.add(records);
+        rollupStore.persist();
+    }
+
+    /**
+     * @return long - the start of the local day of the given time, or of today if the history is empty
+     */
+    static long cutoffOf(long earliestRecordMillis) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(Math.min(earliestRecordMillis, System.currentTimeMillis()));
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        return calendar.getTimeInMillis();
+    }
+
+    private static long earliestRecordMillis() {
+        return InfonovaBuildStatsPlugin.getInstance().getQueryEngine().execute(new AgentStatisticFilter(),
+            new CacheableAgentStatisticCollector<long[]>() {
+                @Override
+                public long[] create() {
+                    return new long[] {Long.MAX_VALUE};
+                }
+
+                @Override
+                public void accumulate(long[] container, AgentStatistic agentStatistic) {
+                    if (agentStatistic.getOfflineDate() != null) {
+                        container[0] = Math.min(container[0], agentStatistic.getOfflineDate().getTime());
+                    }
+                }
+
+                @Override
+                public long[] combine(long[] left, long[] right) {
+                    left[0] = Math.min(left[0], right[0]);
+                    return left;
+                }
+
+                @Override
+                public String getCacheKey() {
+                    return "earliestOfflineDate";
+                }
+
+                @Override
+                public long[] copy(long[] container) {
+                    return container.clone();
+                }
+
+                @Override
+                public long estimateBytes(long[] container) {
+                    return 8L * container.length;
+                }
+            })[0];
+    }
+
+    /**
+     * @return long - builds which finished before are expired by the retention anyway
+     */
+    private static long notBeforeMillis() {
+        InfonovaBuildStatsConfig config = InfonovaBuildStatsConfig.get();
+        if (config != null && config.getRawRetentionDays() > 0) {
+            return HistoryRetention.rawCutoffMillis(config.getRawRetentionDays());
+        }
+        return Long.MIN_VALUE;
+    }
+
+    /**
+     * Synthesizes the record of a completed build, null if it is still running or outside the imported range.
+     */
+    AgentStatistic toAgentStatistic(AbstractBuild<?, ?> build, String jobFullName, String jenkinsUrl) {
+        if (build.isBuilding()) {
+            return null;
+        }
+        long start = build.getStartTimeInMillis();
+        long end = start + build.getDuration();
+        if (end >= cutoffMillis) {
+            return null;
+        }
+        String agentName = build.getBuiltOnStr();
+        // the labels of a node which still exists, the label expression of the job otherwise (e.g. mesos agents)
+        Node node = StringUtils.isEmpty(agentName) ? Jenkins.getInstance() : Jenkins.getInstance().getNode(agentName);
+        String agentLabel = node != null ? AgentStatisticFactory.extractNodeLabels(node)
+            : AgentStatisticFactory.normalizeLabelString(StringUtils.defaultString(
+                build.getProject().getAssignedLabelString()));
+        return AgentStatistic.createPersistedAgentStatistic(agentName, agentLabel, jobFullName,
+            new Date(start), new Date(end), "N/A", "N/A", "", jenkinsUrl, 0, 0.0);
+    }
+
+    /**
+     * @return JSONObject - state and progress of the current or last backfill
+     */
+    public JSONObject toJSON() {
+        JSONObject json = new JSONObject();
+        json.put("state", state.name());
+        json.put("startedAt", startedAt);
+        json.put("finishedAt", finishedAt);
+        json.put("cutoff", cutoffMillis);
+        json.put("totalJobs", totalJobs);
+        json.put("doneJobs", doneJobs.get());
+        json.put("scannedBuilds", scannedBuilds.get());
+        json.put("writtenRecords", writtenRecords.get());
+        json.put("failure", failure);
+        return json;
+    }
+
+    public void shutdown() {
+        cancel();
+        runner.shutdown();
+    }
+
+    /**
+     * Walks the builds of a range of jobs, splitting the range down to one job per leaf.
+     */
+    private class JobScanTask extends RecursiveTask<List<AgentStatistic>> {
+
+        private final List<String> jobs;
+
+        private final int from;
+
+        private final int to;
+
+        private final long notBeforeMillis;
+
+        JobScanTask(List<String> jobs, int from, int to, long notBeforeMillis) {
+            this.jobs = jobs;
+            this.from = from;
+            this.to = to;
+            this.notBeforeMillis = notBeforeMillis;
+        }
+
+        @Override
+        protected List<AgentStatistic> compute() {
+            if (to - from == 1) {
+                return scan(jobs.get(from));
+            }
+            int middle = (from + to) >>> 1;
+            JobScanTask left = new JobScanTask(jobs, from, middle, notBeforeMillis);
+            left.fork();
+            List<AgentStatistic> right = new JobScanTask(jobs, middle, to, notBeforeMillis).compute();
+            List<AgentStatistic> result = left.join();
+            result.addAll(right);
+            return result;
+        }
+
+        private List<AgentStatistic> scan(String jobFullName) {
+            List<AgentStatistic> records = new ArrayList<AgentStatistic>();
+            if (cancelled) {
+                return records;
+            }
+            // the worker threads of the pool do not inherit the impersonation of the backfill thread
+            SecurityContext previous = ACL.impersonate(ACL.SYSTEM);
+            try {
+                AbstractProject<?, ?> project = Jenkins.getInstance().getItemByFullName(jobFullName,
+                    AbstractProject.class);
+                if (project == null) {
+                    return records;
+                }
+                String jenkinsUrl = Jenkins.getInstance().getRootUrl();
+                // newest first, the builds are loaded lazily while iterating
+                for (AbstractBuild<?, ?> build : project.getBuilds()) {
+                    if (cancelled || build.getStartTimeInMillis() < notBeforeMillis) {
+                        break;
+                    }
+                    scannedBuilds.incrementAndGet();
+                    AgentStatistic record = toAgentStatistic(build, jobFullName, jenkinsUrl);
+                    if (record != null) {
+                        records.add(record);
+                    }
+                }
+            } catch (RuntimeException e) {
+                // a broken build record must not fail the whole backfill
+                LOGGER.log(Level.WARNING, "Unable to backfill the builds of " + jobFullName, e);
+            } finally {
+                SecurityContextHolder.setContext(previous);
+            }
+            return records;
+        }
+    }
+}
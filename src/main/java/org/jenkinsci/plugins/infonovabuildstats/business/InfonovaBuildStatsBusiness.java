@@ -1,8 +1,22 @@
 package org.jenkinsci.plugins.infonovabuildstats.business;
 
+import org.jenkinsci.plugins.infonovabuildstats.InfonovaBuildStatsConfig;
 import org.jenkinsci.plugins.infonovabuildstats.InfonovaBuildStatsPlugin;
+import org.jenkinsci.plugins.infonovabuildstats.PendingAgentStatistic;
+import org.jenkinsci.plugins.infonovabuildstats.backfill.BackfillImporter;
+import org.jenkinsci.plugins.infonovabuildstats.live.LiveAgentStatistics;
+import org.jenkinsci.plugins.infonovabuildstats.live.RecentAgentHistory;
+import org.jenkinsci.plugins.infonovabuildstats.live.ZombieAgentDetector;
+import org.jenkinsci.plugins.infonovabuildstats.metrics.InfonovaBuildStatsMetrics;
 import org.jenkinsci.plugins.infonovabuildstats.model.AgentStatistic;
-
+import org.jenkinsci.plugins.infonovabuildstats.model.JobBuildResultSharder;
+import org.jenkinsci.plugins.infonovabuildstats.rollup.RollupStore;
+import org.jenkinsci.plugins.infonovabuildstats.storage.AgentStatisticJournal;
+import org.jenkinsci.plugins.infonovabuildstats.storage.BinaryHistoryConverter;
+import org.jenkinsci.plugins.infonovabuildstats.storage.HistoryRetention;
+
+import java.util.Collection;
+import java.util.Date;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -20,11 +34,85 @@ public class InfonovaBuildStatsBusiness {
 
     private final InfonovaBuildStatsPluginSaver pluginSaver;
 
+    private final AgentStatisticJournal journal;
+
+    private final RollupStore rollupStore;
+
+    private final InfonovaBuildStatsPersister persister;
+
+    private final InfonovaBuildStatsFlushScheduler flushScheduler;
+
+    private final InfonovaBuildStatsEnricher enricher;
+
+    private final LiveAgentStatistics liveStatistics;
+
+    private final ZombieAgentDetector zombieDetector;
+
+    private final BackfillImporter backfillImporter;
+
 
     public InfonovaBuildStatsBusiness(InfonovaBuildStatsPlugin infonovaBuildStatsPlugin) {
         this.plugin = infonovaBuildStatsPlugin;
 
         this.pluginSaver = new InfonovaBuildStatsPluginSaver(this.plugin);
+
+        this.journal = new AgentStatisticJournal(new AgentStatisticJournal.Sink() {
+            public void accept(AgentStatistic agentStatistic) {
+                queueJournaled(agentStatistic);
+            }
+
+            public void acceptWritten(Collection<AgentStatistic> agentStatistics) {
+                // the crashed flush most likely stopped between the history append and the rollups, only a crash
+                // right after persisting the rollups counts these records twice (see rebuildRollups)
+                rollupStore.add(agentStatistics);
+                rollupStore.persist();
+            }
+        });
+
+        this.rollupStore = new RollupStore();
+
+        this.persister = new InfonovaBuildStatsPersister(this.plugin, this.journal, this.rollupStore);
+
+        this.flushScheduler = new InfonovaBuildStatsFlushScheduler(this.plugin, this.persister);
+
+        this.enricher = new InfonovaBuildStatsEnricher(this);
+
+        this.liveStatistics = new LiveAgentStatistics(new RecentAgentHistory());
+
+        this.zombieDetector = new ZombieAgentDetector();
+
+        this.backfillImporter = new BackfillImporter(this.rollupStore);
+
+        registerGauges();
+    }
+
+    private void registerGauges() {
+        InfonovaBuildStatsMetrics metrics = InfonovaBuildStatsMetrics.INSTANCE;
+        metrics.registerGauge(InfonovaBuildStatsMetrics.QUEUE_DEPTH, new InfonovaBuildStatsMetrics.Gauge() {
+            public long getValue() {
+                return plugin.getJobBuildResultsSharder().pendingCount();
+            }
+        });
+        metrics.registerGauge(InfonovaBuildStatsMetrics.WRITER_QUEUE_DEPTH, new InfonovaBuildStatsMetrics.Gauge() {
+            public long getValue() {
+                return flushScheduler.getWriterQueueDepth();
+            }
+        });
+        metrics.registerGauge(InfonovaBuildStatsMetrics.JOURNAL_PENDING, new InfonovaBuildStatsMetrics.Gauge() {
+            public long getValue() {
+                return journal.pendingCount();
+            }
+        });
+        metrics.registerGauge(InfonovaBuildStatsMetrics.DROPPED_RECORDS, new InfonovaBuildStatsMetrics.Gauge() {
+            public long getValue() {
+                return flushScheduler.getDroppedRecords();
+            }
+        });
+        metrics.registerGauge(InfonovaBuildStatsMetrics.ENRICHMENT_QUEUE_DEPTH, new InfonovaBuildStatsMetrics.Gauge() {
+            public long getValue() {
+                return enricher.getQueueDepth();
+            }
+        });
     }
 
     public void reloadPlugin() {
@@ -34,19 +122,130 @@ public class InfonovaBuildStatsBusiness {
         this.pluginSaver.reloadPlugin();
 
         LOGGER.log(Level.FINER, "Finished call Pluginsaver reload Plugin");
+
+        // replays the records which did not reach the history files before the last shutdown or crash
+        this.journal.start(JobBuildResultSharder.getJobResultFolder());
+    }
+
+    /**
+     * Resolves the mesos details of an agent which came online, off the calling thread.
+     * @param pending The snapshot of the online computer
+     */
+    public void onComputerOnline(PendingAgentStatistic pending) {
+
+        this.zombieDetector.onOnline(pending);
+
+        this.enricher.onOnline(pending);
+    }
+
+    /**
+     * Records the statistic of an agent which went offline, once its mesos details are resolved.
+     * @param pending The snapshot of the computer taken when it came online
+     * @param offlineDate The date the computer went offline
+     */
+    public void onComputerOffline(PendingAgentStatistic pending, Date offlineDate) {
+
+        this.zombieDetector.onOffline(pending);
+
+        this.enricher.onOffline(pending, offlineDate);
     }
 
     /**
      * Records the result of actual completed build.
      * @param agentStatistic The statistic of the offline computer
      */
-    public void onComputerOffline(final AgentStatistic agentStatistic) {
+    public void onComputerOffline(AgentStatistic agentStatistic) {
 
-        this.pluginSaver.updatePlugin(new InfonovaBuildStatsPluginSaver.BeforeSavePluginCallback() {
+        this.liveStatistics.getHistory().add(agentStatistic);
 
-            public void changePluginStateBeforeSavingIt(InfonovaBuildStatsPlugin plugin) {
-                plugin.getJobBuildResultsSharder().queueResultToAdd(agentStatistic);
-            }
-        });
+        this.journal.offer(agentStatistic);
+    }
+
+    /**
+     * Hands a journaled record on to the flush scheduler.
+     */
+    private void queueJournaled(AgentStatistic agentStatistic) {
+
+        if (!this.flushScheduler.offer(agentStatistic)) {
+            LOGGER.log(Level.FINE, "Deferred agent statistic of " + agentStatistic.getAgentName());
+            // shed records stay pending in the journal, the flush writer redelivers them once there is room
+            this.journal.defer(agentStatistic);
+        }
+    }
+
+    /**
+     * Converts the XML day files of all closed days into binary segments, e.g. from the script console
+     * after switching the storage format.
+     *
+     * @return int - number of converted day files
+     */
+    public int convertHistoryToBinary() {
+        JobBuildResultSharder sharder = this.plugin.getJobBuildResultsSharder();
+        // the sharder monitor serializes the conversion with the flushes
+        return BinaryHistoryConverter.convertClosedDays(JobBuildResultSharder.getJobResultFolder(), sharder);
+    }
+
+    /**
+     * @return RollupStore - the hourly rollups per project, agent label, framework and principal, downsampled to
+     * daily rollups for old months, see {@link org.jenkinsci.plugins.infonovabuildstats.storage.HistoryRetention}
+     */
+    public RollupStore getRollupStore() {
+        return this.rollupStore;
+    }
+
+    /**
+     * @return LiveAgentStatistics - the recently completed agent lifecycles for the live dashboard
+     */
+    public LiveAgentStatistics getLiveStatistics() {
+        return this.liveStatistics;
+    }
+
+    /**
+     * @return ZombieAgentDetector - flags the agents which are online longer than expected
+     */
+    public ZombieAgentDetector getZombieDetector() {
+        return this.zombieDetector;
+    }
+
+    /**
+     * @return BackfillImporter - imports the agent history from the build records of the jobs
+     */
+    public BackfillImporter getBackfillImporter() {
+        return this.backfillImporter;
+    }
+
+    /**
+     * Recomputes the rollups of all closed months from the history, e.g. from the script console after
+     * upgrading from a version without rollups. Months whose raw history is partially expired are left alone.
+     *
+     * @return int - number of rewritten rollup files
+     */
+    public int rebuildRollups() {
+        InfonovaBuildStatsConfig config = InfonovaBuildStatsConfig.get();
+        if (config != null && config.getRawRetentionDays() > 0) {
+            return this.rollupStore.rebuild(this.plugin.getQueryEngine(),
+                HistoryRetention.rawCutoffMillis(config.getRawRetentionDays()));
+        }
+        return this.rollupStore.rebuild(this.plugin.getQueryEngine());
+    }
+
+    /**
+     * Persists the still queued records, called when the plugin is stopped.
+     */
+    public void shutdown() {
+
+        LOGGER.log(Level.FINER, "Shutting down journal and flush scheduler");
+
+        this.backfillImporter.shutdown();
+
+        this.enricher.shutdown();
+
+        this.journal.shutdown();
+
+        this.flushScheduler.shutdown();
+
+        this.plugin.getJobBuildResultsSharder().shutdown();
+
+        this.journal.close();
     }
 }
@@ -0,0 +1,113 @@
+package org.jenkinsci.plugins.infonovabuildstats.business;
+
+import hudson.util.DaemonThreadFactory;
+import org.jenkinsci.plugins.infonovabuildstats.PendingAgentStatistic;
+import org.jenkinsci.plugins.infonovabuildstats.metrics.InfonovaBuildStatsMetrics;
+import org.jenkinsci.plugins.infonovabuildstats.model.AgentStatistic;
+
+import java.util.Date;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Resolves the mesos details of online agents off the agent launch thread. The computer listener only takes a
+ * {@link PendingAgentStatistic snapshot}, the enrichment thread walks the mesos cloud and scheduler.
+ * When the agent goes offline the completed statistic is handed on by the same thread, after its enrichment,
+ * so every record is enriched before it is journaled and persisted.
+ *
+ * The task queue is not bounded by a capacity but by the tracked agents: every agent queues at most one enrichment
+ * when it comes online and one completion when it goes offline, so no enrichment is ever dropped while the agent is
+ * still there to be inspected. Tasks are only rejected once the enricher is shut down, a completion rejected then
+ * hands on the statistic without the details which are not resolved yet, the listener thread never walks the mesos
+ * cloud.
+ */
+public class InfonovaBuildStatsEnricher {
+
+    private static final Logger LOGGER = Logger.getLogger(InfonovaBuildStatsEnricher.class.getName());
+
+    private final InfonovaBuildStatsBusiness business;
+
+    /**
+     * Single thread, so an agent's completion always runs after its enrichment.
+     */
+    private final ThreadPoolExecutor enricher = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+        new LinkedBlockingQueue<Runnable>(), new DaemonThreadFactory());
+
+    public InfonovaBuildStatsEnricher(InfonovaBuildStatsBusiness business) {
+        this.business = business;
+    }
+
+    /**
+     * Schedules the enrichment of an agent which came online.
+     */
+    public void onOnline(final PendingAgentStatistic pending) {
+        try {
+            enricher.execute(new Runnable() {
+                public void run() {
+                    long start = System.nanoTime();
+                    try {
+                        pending.resolve();
+                    } catch (RuntimeException e) {
+                        LOGGER.log(Level.WARNING, "Unable to resolve the mesos details of " + pending.getAgentName(), e);
+                    }
+                    InfonovaBuildStatsMetrics.INSTANCE.recordEnrichmentNanos(System.nanoTime() - start);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            LOGGER.log(Level.FINE, "Enricher is shut down, not resolving " + pending.getAgentName(), e);
+        }
+    }
+
+    /**
+     * Hands the statistic of an agent which went offline on to the journal, once it is enriched.
+     */
+    public void onOffline(final PendingAgentStatistic pending, final Date offlineDate) {
+        Runnable completion = new Runnable() {
+            public void run() {
+                try {
+                    AgentStatistic online = pending.resolve();
+                    business.onComputerOffline(AgentStatistic.createOnOfflineAgentStatistic(online, offlineDate));
+                } catch (RuntimeException e) {
+                    LOGGER.log(Level.SEVERE, "Error while processing offline computer " + pending.getAgentName(), e);
+                }
+            }
+        };
+        try {
+            enricher.execute(completion);
+        } catch (RejectedExecutionException e) {
+            LOGGER.log(Level.WARNING, "Enricher is shut down, recording " + pending.getAgentName()
+                + " without the mesos details which are not resolved yet", e);
+            AgentStatistic online = pending.getResolved();
+            if (online == null) {
+                online = AgentStatistic.createOnOnlineAgentStatistic(pending.getAgentName(), pending.getAgentLabel(),
+                    null, pending.getOnlineDate(), null, null, null, null, 0, 0.0, pending.getProvisioningMillis());
+            }
+            business.onComputerOffline(AgentStatistic.createOnOfflineAgentStatistic(online, offlineDate));
+        }
+    }
+
+    /**
+     * @return int - number of enrichments and completions waiting for the enrichment thread
+     */
+    public int getQueueDepth() {
+        return enricher.getQueue().size();
+    }
+
+    /**
+     * Runs the queued completions, called before the journal is shut down.
+     */
+    public void shutdown() {
+        enricher.shutdown();
+        try {
+            if (!enricher.awaitTermination(30, TimeUnit.SECONDS)) {
+                LOGGER.log(Level.WARNING, "Enrichment thread did not terminate in time");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package org.jenkinsci.plugins.infonovabuildstats.business;
+
+import hudson.util.DaemonThreadFactory;
+import org.jenkinsci.plugins.infonovabuildstats.InfonovaBuildStatsConfig;
+import org.jenkinsci.plugins.infonovabuildstats.InfonovaBuildStatsPlugin;
+import org.jenkinsci.plugins.infonovabuildstats.model.AgentStatistic;
+import org.jenkinsci.plugins.infonovabuildstats.model.JobBuildResultSharder;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Coalesces offline events into flushes of the {@link InfonovaBuildStatsPersister}.
+ * A flush is triggered as soon as "flush batch size" records are pending or "flush interval" millis after
+ * the first pending record, whichever comes first. At most one timed and one immediate flush are scheduled
+ * at any time, no matter how many records are offered.
+ *
+ * The queue is bounded by "flush queue capacity", a slot is reserved atomically before a record is queued. If it
+ * is full the offered record is shed, the listener thread is never blocked by the writer. A shed record is not
+ * lost: it stays pending in the journal and the writer feeds it back into the queue after a flush made room.
+ */
+public class InfonovaBuildStatsFlushScheduler {
+
+    private static final Logger LOGGER = Logger.getLogger(InfonovaBuildStatsFlushScheduler.class.getName());
+
+    private final InfonovaBuildStatsPlugin plugin;
+
+    private final InfonovaBuildStatsPersister persister;
+
+    /**
+     * Single writer thread, so flushes never run concurrently.
+     */
+    private final ScheduledThreadPoolExecutor writer = new ScheduledThreadPoolExecutor(1, new DaemonThreadFactory());
+
+    private final AtomicBoolean timedFlushScheduled = new AtomicBoolean();
+
+    private final AtomicBoolean immediateFlushScheduled = new AtomicBoolean();
+
+    private final AtomicLong droppedRecords = new AtomicLong();
+
+    private final AtomicBoolean sheddingReported = new AtomicBoolean();
+
+    private volatile boolean shutdown;
+
+    private final Runnable flushTask = new Runnable() {
+
+        public void run() {
+            flush();
+        }
+    };
+
+    public InfonovaBuildStatsFlushScheduler(InfonovaBuildStatsPlugin plugin, InfonovaBuildStatsPersister persister) {
+        this.plugin = plugin;
+        this.persister = persister;
+
+        // pending timed flushes are replaced by the final flush on shutdown
+        this.writer.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+    }
+
+    /**
+     * Queues the record for the next flush.
+     *
+     * @param agentStatistic - the statistic of the offline computer
+     * @return boolean - false if the record was shed because the queue is full
+     */
+    public boolean offer(AgentStatistic agentStatistic) {
+        JobBuildResultSharder sharder = plugin.getJobBuildResultsSharder();
+
+        if (!sharder.tryQueueResultToAdd(agentStatistic, getFlushQueueCapacity())) {
+            long dropped = droppedRecords.incrementAndGet();
+            if (sheddingReported.compareAndSet(false, true)) {
+                LOGGER.log(Level.WARNING, "Flush queue is full, deferring agent statistics to the journal "
+                    + "(shed so far: " + dropped + ")");
+            }
+            requestImmediateFlush();
+            return false;
+        }
+
+        if (shutdown) {
+            // writer is gone, persist on the calling thread
+            persister.persistQueuedResults();
+        } else if (sharder.pendingCount() >= getFlushBatchSize()) {
+            requestImmediateFlush();
+        } else {
+            requestTimedFlush();
+        }
+        return true;
+    }
+
+    /**
+     * @return long - number of times a record was shed because the queue was full
+     */
+    public long getDroppedRecords() {
+        return droppedRecords.get();
+    }
+
+    /**
+     * @return int - number of flushes waiting for the writer thread
+     */
+    public int getWriterQueueDepth() {
+        return writer.getQueue().size();
+    }
+
+    private void requestImmediateFlush() {
+        if (!shutdown && immediateFlushScheduled.compareAndSet(false, true)) {
+            try {
+                writer.execute(flushTask);
+            } catch (RejectedExecutionException e) {
+                // shut down concurrently, the queue is drained by shutdown()
+                LOGGER.log(Level.FINE, "Flush rejected, scheduler is shutting down", e);
+            }
+        }
+    }
+
+    private void requestTimedFlush() {
+        if (!shutdown && timedFlushScheduled.compareAndSet(false, true)) {
+            try {
+                writer.schedule(flushTask, getFlushIntervalMillis(), TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // shut down concurrently, the queue is drained by shutdown()
+                LOGGER.log(Level.FINE, "Flush rejected, scheduler is shutting down", e);
+            }
+        }
+    }
+
+    /**
+     * Runs on the writer thread only. The flags are reset before draining, so records which are offered during
+     * the flush schedule a new one.
+     */
+    private void flush() {
+        immediateFlushScheduled.set(false);
+        timedFlushScheduled.set(false);
+
+        persister.persistQueuedResults();
+
+        JobBuildResultSharder sharder = plugin.getJobBuildResultsSharder();
+        persister.redeliverDeferred(getFlushQueueCapacity() - sharder.pendingCount());
+
+        sheddingReported.set(false);
+
+        if (sharder.pendingChanges()) {
+            requestTimedFlush();
+        }
+    }
+
+    /**
+     * Stops scheduling, drains the queue and waits for the writer to finish.
+     */
+    public void shutdown() {
+        shutdown = true;
+
+        try {
+            writer.execute(flushTask);
+        } catch (RejectedExecutionException e) {
+            LOGGER.log(Level.FINE, "Writer already shut down", e);
+        }
+        writer.shutdown();
+
+        try {
+            if (!writer.awaitTermination(30, TimeUnit.SECONDS)) {
+                LOGGER.log(Level.WARNING, "Writer did not terminate in time");
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+
+        // records offered while the final flush was running
+        persister.persistQueuedResults();
+    }
+
+    private static int getFlushBatchSize() {
+        InfonovaBuildStatsConfig config = InfonovaBuildStatsConfig.get();
+        return config != null ? config.getFlushBatchSize() : InfonovaBuildStatsConfig.DEFAULT_FLUSH_BATCH_SIZE;
+    }
+
+    private static long getFlushIntervalMillis() {
+        InfonovaBuildStatsConfig config = InfonovaBuildStatsConfig.get();
+        return config != null ? config.getFlushIntervalMillis() : InfonovaBuildStatsConfig.DEFAULT_FLUSH_INTERVAL_MILLIS;
+    }
+
+    private static int getFlushQueueCapacity() {
+        InfonovaBuildStatsConfig config = InfonovaBuildStatsConfig.get();
+        return config != null ? config.getFlushQueueCapacity() : InfonovaBuildStatsConfig.DEFAULT_FLUSH_QUEUE_CAPACITY;
+    }
+}
@@ -0,0 +1,82 @@
+package org.jenkinsci.plugins.infonovabuildstats.business;
+
+import org.jenkinsci.plugins.infonovabuildstats.InfonovaBuildStatsPlugin;
+import org.jenkinsci.plugins.infonovabuildstats.metrics.InfonovaBuildStatsMetrics;
+import org.jenkinsci.plugins.infonovabuildstats.model.AgentStatistic;
+import org.jenkinsci.plugins.infonovabuildstats.rollup.RollupStore;
+import org.jenkinsci.plugins.infonovabuildstats.storage.AgentStatisticJournal;
+
+import java.util.List;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Dedicated write pipeline for the collected agent statistics.
+ * The queued records are appended to the history files directly by
+ * {@link org.jenkinsci.plugins.infonovabuildstats.model.JobBuildResultSharder#applyQueuedResultsInFiles()},
+ * without saving the plugin (config xml, XStream marshalling, BulkChange) as a side effect.
+ * The written records are added to the {@link RollupStore rollups} and then marked applied in the
+ * {@link AgentStatisticJournal journal}.
+ *
+ */
+public class InfonovaBuildStatsPersister {
+
+    private static final Logger LOGGER = Logger.getLogger(InfonovaBuildStatsPersister.class.getName());
+
+    private final InfonovaBuildStatsPlugin plugin;
+
+    private final AgentStatisticJournal journal;
+
+    private final RollupStore rollupStore;
+
+    public InfonovaBuildStatsPersister(InfonovaBuildStatsPlugin plugin, AgentStatisticJournal journal,
+                                       RollupStore rollupStore) {
+        this.plugin = plugin;
+        this.journal = journal;
+        this.rollupStore = rollupStore;
+    }
+
+    /**
+     * Writes all queued records to the history files. Called by the
+     * {@link InfonovaBuildStatsFlushScheduler flush scheduler}.
+     */
+    public void persistQueuedResults() {
+        try {
+            if (!plugin.getJobBuildResultsSharder().pendingChanges()) {
+
+                LOGGER.log(Level.FINER, "No change detected in update queue no update required !");
+
+                return;
+            }
+
+            List<AgentStatistic> applied = plugin.getJobBuildResultsSharder().applyQueuedResultsInFiles();
+
+            InfonovaBuildStatsMetrics.INSTANCE.recordWritten(applied, System.currentTimeMillis());
+
+            // rollups first, so a checkpointed record is always contained in the persisted rollups
+            rollupStore.add(applied);
+            rollupStore.persist();
+
+            journal.markApplied(applied);
+
+            LOGGER.log(Level.FINER, "Changes applied to history files !");
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Failed to persist infonova build stat records", e);
+        }
+    }
+
+    /**
+     * Hands records which were shed while the queue was full back to the queue, see
+     * {@link AgentStatisticJournal#defer(AgentStatistic)}.
+     *
+     * @param room - number of records the queue can take
+     */
+    public void redeliverDeferred(int room) {
+        int redelivered = journal.redeliverDeferred(room);
+        if (redelivered > 0) {
+            LOGGER.log(Level.FINE, "Redelivered " + redelivered + " deferred agent statistics, "
+                + journal.deferredCount() + " still deferred");
+        }
+    }
+}
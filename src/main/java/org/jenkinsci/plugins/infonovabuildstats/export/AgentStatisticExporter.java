@@ -0,0 +1,279 @@
+package org.jenkinsci.plugins.infonovabuildstats.export;
+
+import org.apache.commons.lang.StringUtils;
+import org.jenkinsci.plugins.infonovabuildstats.merge.HistoryMerger;
+import org.jenkinsci.plugins.infonovabuildstats.model.AgentStatistic;
+import org.jenkinsci.plugins.infonovabuildstats.query.AgentStatisticCollector;
+import org.jenkinsci.plugins.infonovabuildstats.query.AgentStatisticFilter;
+import org.jenkinsci.plugins.infonovabuildstats.query.AgentStatisticQueryEngine;
+import org.jenkinsci.plugins.infonovabuildstats.utils.IoThrottle;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Writer;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+
+/**
+ * Streams the records of the history files which match a filter as NDJSON or CSV, either of the own history
+ * folder or merged from the history folders of several controllers (see {@link HistoryMerger}).
+ *
+ * The history files are read one after the other in period order on the calling thread and every matching
+ * record is written to the writer right away, so an export holds only the record it is currently writing no
+ * matter how long the exported range is. A slow client blocks the writes and with them the reading.
+ *
+ * Instances are not thread-safe, every export uses its own exporter.
+ */
+public class AgentStatisticExporter {
+
+    /**
+     * Column names of the CSV header and keys of the NDJSON objects, in output order.
+     */
+    static final String[] FIELDS = {
+        "agentName", "agentLabel", "lastJobName", "onlineDate", "offlineDate", "onlineTimeMillis", "mesosAgent",
+        "framework", "principal", "project", "jenkinsUrl", "cpus", "memory", "provisioningMillis"
+    };
+
+    /* Number of records after which the writer is flushed, so the client receives a steady stream of chunks */
+    private static final int FLUSH_INTERVAL = 1000;
+
+    private static final String[] DATE_PATTERNS = {"yyyy-MM-dd'T'HH:mm:ss", "yyyy-MM-dd'T'HH:mm", "yyyy-MM-dd"};
+
+    private final Writer out;
+
+    private final ExportFormat format;
+
+    /* ISO 8601 in UTC */
+    private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+
+    private long count;
+
+    public AgentStatisticExporter(Writer out, ExportFormat format) {
+        this.out = out;
+        this.format = format;
+        this.dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+    }
+
+    /**
+     * Exports the matching records of the history folder.
+     *
+     * @return long - number of exported records
+     * @throws IOException - if the client went away, the export is aborted
+     */
+    public long export(File historyFolder, AgentStatisticFilter filter) throws IOException {
+        writeHeader();
+        try {
+            AgentStatisticQueryEngine.executeThrottled(historyFolder, filter, new AgentStatisticCollector<Void>() {
+                @Override
+                public Void create() {
+                    return null;
+                }
+
+                @Override
+                public void accumulate(Void container, AgentStatistic agentStatistic) {
+                    try {
+                        write(agentStatistic);
+                    } catch (IOException e) {
+                        throw new ExportAbortedException(e);
+                    }
+                }
+
+                @Override
+                public Void combine(Void left, Void right) {
+                    return null;
+                }
+            }, new IoThrottle(0));
+        } catch (ExportAbortedException e) {
+            throw e.getCause();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Export interrupted after " + count + " records");
+        }
+        out.flush();
+        return count;
+    }
+
+    /**
+     * Exports the merged records of several history folders, ordered by offline date and without duplicates.
+     *
+     * @return long - number of exported records
+     * @throws IOException - if a merge run failed or the client went away, the export is aborted
+     */
+    public long export(HistoryMerger merger) throws IOException {
+        writeHeader();
+        merger.merge(new HistoryMerger.Sink() {
+            public void accept(AgentStatistic agentStatistic) throws IOException {
+                write(agentStatistic);
+            }
+        });
+        out.flush();
+        return count;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    private void writeHeader() throws IOException {
+        if (format == ExportFormat.CSV) {
+            out.write(StringUtils.join(FIELDS, ','));
+            out.write("\r\n");
+        }
+    }
+
+    /**
+     * Writes one record in the format of the export.
+     */
+    public void write(AgentStatistic agentStatistic) throws IOException {
+        Object[] values = {
+            agentStatistic.getAgentName(),
+            agentStatistic.getAgentLabel(),
+            agentStatistic.getLastJobName(),
+            formatDate(agentStatistic.getOnlineDate()),
+            formatDate(agentStatistic.getOfflineDate()),
+            agentStatistic.getOnlineTimeMillis(),
+            agentStatistic.getMesosAgent(),
+            agentStatistic.getFramework(),
+            agentStatistic.getPrincipal(),
+            agentStatistic.getProject(),
+            agentStatistic.getJenkinsUrl(),
+            agentStatistic.getCpus(),
+            agentStatistic.getMemory(),
+            agentStatistic.getProvisioningMillis()
+        };
+        if (format == ExportFormat.CSV) {
+            writeCsv(values);
+        } else {
+            writeJson(values);
+        }
+        count++;
+        if (count % FLUSH_INTERVAL == 0) {
+            out.flush();
+        }
+    }
+
+    private String formatDate(Date date) {
+        return date == null ? null : dateFormat.format(date);
+    }
+
+    private void writeCsv(Object[] values) throws IOException {
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                out.write(',');
+            }
+            Object value = values[i];
+            if (value == null) {
+                continue;
+            }
+            String text = value.toString();
+            if (StringUtils.containsAny(text, ",\"\r\n")) {
+                out.write('"');
+                out.write(StringUtils.replace(text, "\"", "\"\""));
+                out.write('"');
+            } else {
+                out.write(text);
+            }
+        }
+        out.write("\r\n");
+    }
+
+    private void writeJson(Object[] values) throws IOException {
+        out.write('{');
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                out.write(',');
+            }
+            out.write('"');
+            out.write(FIELDS[i]);
+            out.write("\":");
+            Object value = values[i];
+            if (value == null) {
+                out.write("null");
+            } else if (value instanceof String) {
+                writeJsonString((String) value);
+            } else if (value instanceof Double && (((Double) value).isNaN() || ((Double) value).isInfinite())) {
+                out.write("null");
+            } else {
+                out.write(value.toString());
+            }
+        }
+        out.write("}\n");
+    }
+
+    private void writeJsonString(String value) throws IOException {
+        out.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    out.write("\\\"");
+                    break;
+                case '\\':
+                    out.write("\\\\");
+                    break;
+                case '\n':
+                    out.write("\\n");
+                    break;
+                case '\r':
+                    out.write("\\r");
+                    break;
+                case '\t':
+                    out.write("\\t");
+                    break;
+                default:
+                    if (c < 0x20 || c == '\u2028' || c == '\u2029') {
+                        out.write(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.write(c);
+                    }
+            }
+        }
+        out.write('"');
+    }
+
+    /**
+     * Parses a date parameter of an export: millis since the epoch or an ISO 8601 date (yyyy-MM-dd) or date-time
+     * (yyyy-MM-dd'T'HH:mm[:ss]) in the local time of the controller, like the history files.
+     *
+     * @return Date - the parsed date, null for a blank value
+     * @throws IllegalArgumentException - if the value can not be parsed
+     */
+    public static Date parseDate(String value) {
+        if (StringUtils.isBlank(value)) {
+            return null;
+        }
+        String trimmed = value.trim();
+        if (StringUtils.isNumeric(trimmed)) {
+            return new Date(Long.parseLong(trimmed));
+        }
+        for (String pattern : DATE_PATTERNS) {
+            SimpleDateFormat parser = new SimpleDateFormat(pattern);
+            parser.setLenient(false);
+            try {
+                return parser.parse(trimmed);
+            } catch (ParseException e) {
+                // try the next pattern
+            }
+        }
+        throw new IllegalArgumentException("Unable to parse date " + value
+            + ", expected millis or yyyy-MM-dd['T'HH:mm[:ss]]");
+    }
+
+    /**
+     * Carries the failed write of the client out of the query engine.
+     */
+    private static final class ExportAbortedException extends RuntimeException {
+
+        ExportAbortedException(IOException cause) {
+            super(cause);
+        }
+
+        @Override
+        public synchronized IOException getCause() {
+            return (IOException) super.getCause();
+        }
+    }
+}
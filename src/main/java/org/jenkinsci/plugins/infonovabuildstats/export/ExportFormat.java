@@ -0,0 +1,41 @@
+package org.jenkinsci.plugins.infonovabuildstats.export;
+
+/**
+ * Format of a history export, see {@link AgentStatisticExporter}.
+ */
+public enum ExportFormat {
+
+    /**
+     * One JSON object per line.
+     */
+    NDJSON("application/x-ndjson", ".ndjson"),
+
+    /**
+     * Comma separated values with a header line, quoted according to RFC 4180.
+     */
+    CSV("text/csv", ".csv");
+
+    private final String contentType;
+
+    private final String extension;
+
+    ExportFormat(String contentType, String extension) {
+        this.contentType = contentType;
+        this.extension = extension;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public String getExtension() {
+        return extension;
+    }
+
+    /**
+     * @return ExportFormat - the format with the given name, NDJSON if the name is unknown
+     */
+    public static ExportFormat fromName(String name) {
+        return CSV.name().equalsIgnoreCase(name) ? CSV : NDJSON;
+    }
+}
@@ -0,0 +1,282 @@
+package org.jenkinsci.plugins.infonovabuildstats.history;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
+import org.jenkinsci.plugins.infonovabuildstats.model.AgentStatistic;
+import org.jenkinsci.plugins.infonovabuildstats.xstream.InfonovaBuildStatsXStreamConverter;
+
+import javax.annotation.CheckForNull;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.SequenceInputStream;
+import java.nio.charset.Charset;
+import java.text.ParseException;
+import java.util.Date;
+import java.util.Enumeration;
+import java.util.Vector;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Pull parser for the history files written by
+ * {@link org.jenkinsci.plugins.infonovabuildstats.model.JobBuildResultSharder JobBuildResultSharder}, the counterpart
+ * of {@link AgentStatisticXmlWriter}.
+ * The files are concatenated &lt;jbr&gt; fragments without a root element, so the stream is wrapped into
+ * a synthetic root element. Only the record currently returned by {@link #next()} is held in memory.
+ *
+ * Instances are not thread-safe, every worker uses its own reader.
+ */
+public class AgentStatisticXmlReader implements Closeable {
+
+    private static final Logger LOGGER = Logger.getLogger(AgentStatisticXmlReader.class.getName());
+
+    private static final String SYNTHETIC_ROOT = "agent-list";
+
+    private static final XMLInputFactory XML_INPUT_FACTORY = createXmlInputFactory();
+
+    private final InputStream in;
+
+    private final XMLStreamReader xml;
+
+    public AgentStatisticXmlReader(File file) throws IOException {
+        this(new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+    }
+
+    /**
+     * Reads only the fragments between the byte offsets, e.g. the records appended after a covered length.
+     *
+     * @param offset - start of the first fragment to read
+     * @param end - end of the last fragment to read
+     */
+    public static AgentStatisticXmlReader openRange(File file, long offset, long end) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            in.getChannel().position(offset);
+        } catch (IOException e) {
+            IOUtils.closeQuietly(in);
+            throw e;
+        }
+        return new AgentStatisticXmlReader(new BufferedInputStream(
+            new BoundedInputStream(in, Math.max(0L, end - offset)), 64 * 1024));
+    }
+
+    /**
+     * Reads only the given fragments, e.g. the ones selected by an
+     * {@link org.jenkinsci.plugins.infonovabuildstats.storage.XmlOffsetIndex XmlOffsetIndex}.
+     * Adjacent fragments are read in one go, the gaps between the others are skipped by seeking.
+     *
+     * @param offsets - start of each fragment, ascending
+     * @param lengths - length of each fragment
+     */
+    public static AgentStatisticXmlReader openRanges(File file, long[] offsets, int[] lengths) throws IOException {
+        return new AgentStatisticXmlReader(new BufferedInputStream(
+            new RangesInputStream(new RandomAccessFile(file, "r"), offsets, lengths), 64 * 1024));
+    }
+
+    /**
+     * @param fragments - stream of concatenated &lt;jbr&gt; fragments, closed together with this reader
+     */
+    public AgentStatisticXmlReader(InputStream fragments) throws IOException {
+        Charset charset = Charset.defaultCharset();
+
+        Vector<InputStream> parts = new Vector<InputStream>(3);
+        parts.add(new ByteArrayInputStream(("<" + SYNTHETIC_ROOT + ">").getBytes(charset)));
+        parts.add(fragments);
+        parts.add(new ByteArrayInputStream(("</" + SYNTHETIC_ROOT + ">").getBytes(charset)));
+        Enumeration<InputStream> elements = parts.elements();
+
+        this.in = new SequenceInputStream(elements);
+        try {
+            this.xml = XML_INPUT_FACTORY.createXMLStreamReader(in, charset.name());
+        } catch (XMLStreamException e) {
+            IOUtils.closeQuietly(in);
+            throw new IOException("Unable to open history stream", e);
+        }
+    }
+
+    /**
+     * @return AgentStatistic - the next record of the stream or null if the end is reached
+     */
+    @CheckForNull
+    public AgentStatistic next() throws IOException {
+        try {
+            while (xml.hasNext()) {
+                if (xml.next() == XMLStreamConstants.START_ELEMENT
+                    && InfonovaBuildStatsXStreamConverter.JOB_BUILD_RESULT_CLASS_ALIAS.equals(xml.getLocalName())) {
+                    return readRecord();
+                }
+            }
+            return null;
+        } catch (XMLStreamException e) {
+            throw new IOException("Unable to parse history stream", e);
+        }
+    }
+
+    private AgentStatistic readRecord() throws XMLStreamException, IOException {
+        String lastJobName = null;
+        String agentLabel = null;
+        String agentName = null;
+        Date onlineDate = null;
+        Date offlineDate = null;
+        String mesosAgent = null;
+        int memory = 0;
+        double cpus = 0.0;
+        String principal = null;
+        String framework = null;
+        String jenkinsUrl = null;
+        long provisioningMillis = 0L;
+
+        while (xml.hasNext()) {
+            int event = xml.next();
+            if (event == XMLStreamConstants.END_ELEMENT) {
+                break;
+            }
+            if (event != XMLStreamConstants.START_ELEMENT) {
+                continue;
+            }
+
+            String name = xml.getLocalName();
+            String value = xml.getElementText();
+
+            if ("lastJobName".equals(name)) {
+                lastJobName = value;
+            } else if ("agentLabel".equals(name)) {
+                agentLabel = value;
+            } else if ("agentName".equals(name)) {
+                agentName = value;
+            } else if ("onlineDate".equals(name)) {
+                onlineDate = parseDate(value);
+            } else if ("offlineDate".equals(name)) {
+                offlineDate = parseDate(value);
+            } else if ("mesosAgent".equals(name)) {
+                mesosAgent = value;
+            } else if ("memory".equals(name)) {
+                memory = Integer.parseInt(value.trim());
+            } else if ("cpus".equals(name)) {
+                cpus = Double.parseDouble(value.trim());
+            } else if ("principal".equals(name)) {
+                principal = value;
+            } else if ("framework".equals(name)) {
+                framework = value;
+            } else if ("jenkinsUrl".equals(name)) {
+                jenkinsUrl = value;
+            } else if ("provisioningMillis".equals(name)) {
+                provisioningMillis = Long.parseLong(value.trim());
+            }
+            // project and onlineTimeMillis are derived values
+        }
+
+        return AgentStatistic.createPersistedAgentStatistic(agentName, agentLabel, lastJobName,
+            onlineDate, offlineDate, mesosAgent, framework, principal, jenkinsUrl, memory, cpus, provisioningMillis);
+    }
+
+    private Date parseDate(String value) throws IOException {
+        try {
+            return new Date(HistoryDateFormat.parse(value));
+        } catch (ParseException e) {
+            throw new IOException("Unable to parse date " + value, e);
+        }
+    }
+
+    public void close() throws IOException {
+        try {
+            xml.close();
+        } catch (XMLStreamException e) {
+            LOGGER.log(Level.FINE, "Unable to close xml stream reader", e);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Concatenation of byte ranges of a file.
+     */
+    private static final class RangesInputStream extends InputStream {
+
+        private final RandomAccessFile file;
+
+        private final long[] offsets;
+
+        private final int[] lengths;
+
+        private int range = -1;
+
+        private long position;
+
+        private long end;
+
+        RangesInputStream(RandomAccessFile file, long[] offsets, int[] lengths) {
+            this.file = file;
+            this.offsets = offsets;
+            this.lengths = lengths;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) == -1 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buffer, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            while (position == end) {
+                if (!nextRange()) {
+                    return -1;
+                }
+            }
+            int read = file.read(buffer, off, (int) Math.min(len, end - position));
+            if (read == -1) {
+                throw new EOFException("History file ends within an indexed fragment at " + position);
+            }
+            position += read;
+            return read;
+        }
+
+        private boolean nextRange() throws IOException {
+            if (range + 1 >= offsets.length) {
+                return false;
+            }
+            range++;
+            // adjacent fragments are merged into one read
+            long start = offsets[range];
+            long rangeEnd = start + lengths[range];
+            while (range + 1 < offsets.length && offsets[range + 1] == rangeEnd) {
+                range++;
+                rangeEnd += lengths[range];
+            }
+            if (start != position) {
+                file.seek(start);
+            }
+            position = start;
+            end = rangeEnd;
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            file.close();
+        }
+    }
+
+    private static XMLInputFactory createXmlInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+        return factory;
+    }
+}
@@ -0,0 +1,238 @@
+package org.jenkinsci.plugins.infonovabuildstats.history;
+
+import hudson.PluginWrapper;
+import jenkins.model.Jenkins;
+import org.jenkinsci.plugins.infonovabuildstats.model.AgentStatistic;
+import org.jenkinsci.plugins.infonovabuildstats.xstream.InfonovaBuildStatsXStreamConverter;
+
+import javax.annotation.CheckForNull;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.Date;
+
+/**
+ * Writes a record as the &lt;jbr&gt; fragment which {@link AgentStatisticXmlReader} reads, byte for byte the
+ * fragment the plugin's XStream setup on Jenkins.XSTREAM wrote before: pretty printed with two spaces, fields
+ * in declaration order, null fields omitted, dates in {@link HistoryDateFormat}, text escaped like XStream's
+ * PrettyPrintWriter and encoded in the default charset.
+ *
+ * The fragment is built in a reused buffer, so nothing but the buffers grows with the records.
+ * Instances are not thread-safe, every writer thread uses its own instance.
+ */
+public class AgentStatisticXmlWriter {
+
+    private static final String ROOT = InfonovaBuildStatsXStreamConverter.JOB_BUILD_RESULT_CLASS_ALIAS;
+
+    private static final String INDENT = "  ";
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    @CheckForNull
+    private final String owner;
+
+    private final StringBuilder text = new StringBuilder(1024);
+
+    private final CharsetEncoder encoder = Charset.defaultCharset().newEncoder()
+        .onMalformedInput(CodingErrorAction.REPLACE)
+        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+    private ByteBuffer bytes = ByteBuffer.allocate(1024);
+
+    public AgentStatisticXmlWriter() {
+        this(pluginOwner());
+    }
+
+    /**
+     * @param owner - value of the plugin attribute XStream adds to the root element, null to omit it
+     */
+    public AgentStatisticXmlWriter(@CheckForNull String owner) {
+        this.owner = owner;
+    }
+
+    /**
+     * Appends the fragment of the record to the stream, without a trailing line break like XStream.
+     *
+     * @return int - number of bytes written
+     */
+    public int write(AgentStatistic agentStatistic, OutputStream out) throws IOException {
+        text.setLength(0);
+        appendFragment(agentStatistic);
+
+        ByteBuffer encoded = encode();
+        out.write(encoded.array(), 0, encoded.limit());
+        return encoded.limit();
+    }
+
+    /**
+     * @return String - the fragment of the record, as {@code Jenkins.XSTREAM.toXML(agentStatistic)} returned it
+     */
+    public String toXml(AgentStatistic agentStatistic) {
+        text.setLength(0);
+        appendFragment(agentStatistic);
+        return text.toString();
+    }
+
+    private void appendFragment(AgentStatistic agentStatistic) {
+        text.append('<').append(ROOT);
+        if (owner != null) {
+            text.append(" plugin=\"");
+            appendEscaped(owner);
+            text.append('"');
+        }
+        text.append('>');
+
+        appendElement("lastJobName", agentStatistic.getLastJobName());
+        appendElement("agentLabel", agentStatistic.getAgentLabel());
+        appendElement("agentName", agentStatistic.getAgentName());
+        appendElement("onlineDate", agentStatistic.getOnlineDate());
+        appendElement("offlineDate", agentStatistic.getOfflineDate());
+        appendElement("onlineTimeMillis", agentStatistic.getOnlineTimeMillis());
+        appendElement("mesosAgent", agentStatistic.getMesosAgent());
+        appendElement("memory", agentStatistic.getMemory());
+        appendElement("cpus", Double.toString(agentStatistic.getCpus()));
+        appendElement("principal", agentStatistic.getPrincipal());
+        appendElement("framework", agentStatistic.getFramework());
+        appendElement("project", agentStatistic.getProject());
+        appendElement("jenkinsUrl", agentStatistic.getJenkinsUrl());
+        appendElement("provisioningMillis", agentStatistic.getProvisioningMillis());
+
+        text.append('\n').append("</").append(ROOT).append('>');
+    }
+
+    private void startElement(String name) {
+        text.append('\n').append(INDENT).append('<').append(name).append('>');
+    }
+
+    private void endElement(String name) {
+        text.append("</").append(name).append('>');
+    }
+
+    private void appendElement(String name, @CheckForNull String value) {
+        if (value == null) {
+            return;
+        }
+        startElement(name);
+        appendEscaped(value);
+        endElement(name);
+    }
+
+    private void appendElement(String name, @CheckForNull Date value) {
+        if (value == null) {
+            return;
+        }
+        startElement(name);
+        HistoryDateFormat.format(value.getTime(), text);
+        endElement(name);
+    }
+
+    private void appendElement(String name, long value) {
+        startElement(name);
+        text.append(value);
+        endElement(name);
+    }
+
+    /**
+     * Same escaping as XStream's PrettyPrintWriter in its default XML_QUIRKS mode.
+     */
+    private void appendEscaped(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '&':
+                    text.append("&amp;");
+                    break;
+                case '<':
+                    text.append("&lt;");
+                    break;
+                case '>':
+                    text.append("&gt;");
+                    break;
+                case '"':
+                    text.append("&quot;");
+                    break;
+                case '\'':
+                    text.append("&apos;");
+                    break;
+                case '\r':
+                    text.append("&#xd;");
+                    break;
+                case '\t':
+                case '\n':
+                    text.append(c);
+                    break;
+                default:
+                    if (Character.isDefined(c) && !Character.isISOControl(c)) {
+                        text.append(c);
+                    } else {
+                        appendCharacterReference(c);
+                    }
+            }
+        }
+    }
+
+    private void appendCharacterReference(char c) {
+        text.append("&#x");
+        boolean leading = true;
+        for (int shift = 12; shift >= 0; shift -= 4) {
+            int digit = (c >> shift) & 0xF;
+            if (digit != 0 || !leading || shift == 0) {
+                text.append(HEX_DIGITS[digit]);
+                leading = false;
+            }
+        }
+        text.append(';');
+    }
+
+    /**
+     * @return ByteBuffer - the encoded text from index 0 to the limit
+     */
+    private ByteBuffer encode() throws CharacterCodingException {
+        CharBuffer chars = CharBuffer.wrap(text);
+        int estimate = (int) Math.ceil(text.length() * (double) encoder.averageBytesPerChar());
+        if (bytes.capacity() < estimate) {
+            bytes = ByteBuffer.allocate(Math.max(estimate, bytes.capacity() * 2));
+        }
+        encoder.reset();
+        bytes.clear();
+        CoderResult result = encoder.encode(chars, bytes, true);
+        while (!result.isUnderflow() || !(result = encoder.flush(bytes)).isUnderflow()) {
+            if (!result.isOverflow()) {
+                result.throwException();
+            }
+            grow();
+            result = chars.hasRemaining() ? encoder.encode(chars, bytes, true) : CoderResult.UNDERFLOW;
+        }
+        bytes.flip();
+        return bytes;
+    }
+
+    private void grow() {
+        ByteBuffer larger = ByteBuffer.allocate(bytes.capacity() * 2);
+        bytes.flip();
+        larger.put(bytes);
+        bytes = larger;
+    }
+
+    /**
+     * @return String - the plugin attribute XStream2 writes for classes of this plugin, null outside of Jenkins
+     */
+    @CheckForNull
+    private static String pluginOwner() {
+        Jenkins jenkins = Jenkins.getInstance();
+        if (jenkins == null || jenkins.getPluginManager() == null) {
+            return null;
+        }
+        PluginWrapper plugin = jenkins.getPluginManager().whichPlugin(AgentStatistic.class);
+        if (plugin == null) {
+            return null;
+        }
+        return plugin.getShortName() + '@' + plugin.getVersion().replaceFirst(" [(].+[)]$", "");
+    }
+}
@@ -0,0 +1,111 @@
+package org.jenkinsci.plugins.infonovabuildstats.history;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.GregorianCalendar;
+
+/**
+ * The date format of the XML history files, {@value #DATE_PATTERN} in the default time zone.
+ * Formats and parses with a cached calendar per thread instead of a {@link SimpleDateFormat}, so it is
+ * thread-safe and allocates nothing per date. Dates which do not fit the fixed layout (years beyond 9999,
+ * hand-edited values) go through a {@link SimpleDateFormat} per thread, with the same result.
+ */
+public final class HistoryDateFormat {
+
+    public static final String DATE_PATTERN = "yyyy-MM-dd HH:mm:ss.SSS";
+
+    private static final int LENGTH = DATE_PATTERN.length();
+
+    private static final ThreadLocal<Calendar> CALENDAR = new ThreadLocal<Calendar>() {
+        @Override
+        protected Calendar initialValue() {
+            return Calendar.getInstance();
+        }
+    };
+
+    private static final ThreadLocal<SimpleDateFormat> FALLBACK = new ThreadLocal<SimpleDateFormat>() {
+        @Override
+        protected SimpleDateFormat initialValue() {
+            return new SimpleDateFormat(DATE_PATTERN);
+        }
+    };
+
+    private HistoryDateFormat() {
+    }
+
+    /**
+     * Appends the formatted date, same as {@link SimpleDateFormat#format(Date)} with the pattern.
+     */
+    public static void format(long millis, StringBuilder out) {
+        Calendar calendar = CALENDAR.get();
+        calendar.setTimeInMillis(millis);
+        int year = calendar.get(Calendar.YEAR);
+        if (year > 9999 || calendar.get(Calendar.ERA) != GregorianCalendar.AD) {
+            out.append(FALLBACK.get().format(new Date(millis)));
+            return;
+        }
+        appendDigits(out, year, 4);
+        out.append('-');
+        appendDigits(out, calendar.get(Calendar.MONTH) + 1, 2);
+        out.append('-');
+        appendDigits(out, calendar.get(Calendar.DAY_OF_MONTH), 2);
+        out.append(' ');
+        appendDigits(out, calendar.get(Calendar.HOUR_OF_DAY), 2);
+        out.append(':');
+        appendDigits(out, calendar.get(Calendar.MINUTE), 2);
+        out.append(':');
+        appendDigits(out, calendar.get(Calendar.SECOND), 2);
+        out.append('.');
+        appendDigits(out, calendar.get(Calendar.MILLISECOND), 3);
+    }
+
+    /**
+     * Parses a formatted date, leniently like the DateConverter which wrote the old history files.
+     *
+     * @return long - the millis of the date
+     */
+    public static long parse(String value) throws ParseException {
+        String text = value.trim();
+        if (text.length() == LENGTH && text.charAt(4) == '-' && text.charAt(7) == '-' && text.charAt(10) == ' '
+            && text.charAt(13) == ':' && text.charAt(16) == ':' && text.charAt(19) == '.') {
+            int year = digits(text, 0, 4);
+            int month = digits(text, 5, 2);
+            int day = digits(text, 8, 2);
+            int hour = digits(text, 11, 2);
+            int minute = digits(text, 14, 2);
+            int second = digits(text, 17, 2);
+            int millis = digits(text, 20, 3);
+            if ((year | month | day | hour | minute | second | millis) >= 0) {
+                Calendar calendar = CALENDAR.get();
+                calendar.clear();
+                calendar.set(year, month - 1, day, hour, minute, second);
+                calendar.set(Calendar.MILLISECOND, millis);
+                return calendar.getTimeInMillis();
+            }
+        }
+        return FALLBACK.get().parse(text).getTime();
+    }
+
+    private static void appendDigits(StringBuilder out, int value, int width) {
+        for (int divisor = width == 4 ? 1000 : width == 3 ? 100 : 10; divisor > 0; divisor /= 10) {
+            out.append((char) ('0' + value / divisor % 10));
+        }
+    }
+
+    /**
+     * @return int - the decimal value of the digits, -1 if there is another character
+     */
+    private static int digits(String text, int from, int count) {
+        int value = 0;
+        for (int i = from; i < from + count; i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+}
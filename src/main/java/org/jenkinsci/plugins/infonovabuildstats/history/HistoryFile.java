@@ -0,0 +1,285 @@
+package org.jenkinsci.plugins.infonovabuildstats.history;
+
+import org.jenkinsci.plugins.infonovabuildstats.model.JobBuildResultSharder;
+import org.jenkinsci.plugins.infonovabuildstats.storage.StorageFormat;
+
+import javax.annotation.CheckForNull;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Describes one history file of the infonova-build-stats folder together with the period it was written for:
+ * a shard file of an hour, a day or a month (e.g. agentStatistics-2016-03-01.xml, the binary segment
+ * agentStatistics-2016-03-01-14.bin or agentStatistics-2016-03_myproject.xml for a shard of one project,
+ * see {@link org.jenkinsci.plugins.infonovabuildstats.model.ShardStrategy ShardStrategy}) or a compacted
+ * monthly segment (e.g. agentStatistics-2016-03.col).
+ */
+public class HistoryFile implements Comparable<HistoryFile> {
+
+    private static final Pattern SHARD_FILE_PATTERN = Pattern.compile(
+        Pattern.quote(JobBuildResultSharder.JOB_RESULT_FILENAME_PREFIX)
+            + "(\\d{4})-(\\d{2})(?:-(\\d{2})(?:-(\\d{2}))?)?(?:_([A-Za-z0-9_-]+))?(\\.xml|\\.bin)");
+
+    private static final Pattern MONTH_FILE_PATTERN = Pattern.compile(
+        Pattern.quote(JobBuildResultSharder.JOB_RESULT_FILENAME_PREFIX) + "(\\d{4})-(\\d{2})(\\.col)");
+
+    private final File file;
+
+    private final StorageFormat format;
+
+    private final int year;
+    private final int month;
+    /* 0 for monthly files */
+    private final int day;
+    /* -1 for daily and monthly files */
+    private final int hour;
+
+    /* sub-partition of the shard, null if the shard is not partitioned */
+    private final String partition;
+
+    private HistoryFile(File file, StorageFormat format, int year, int month, int day, int hour, String partition) {
+        this.file = file;
+        this.format = format;
+        this.year = year;
+        this.month = month;
+        this.day = day;
+        this.hour = hour;
+        this.partition = partition;
+    }
+
+    /**
+     * @param file - candidate file of the history folder
+     * @return HistoryFile - the parsed history file or null if the file is no history file
+     */
+    @CheckForNull
+    public static HistoryFile parse(File file) {
+        Matcher matcher = SHARD_FILE_PATTERN.matcher(file.getName());
+        if (matcher.matches()) {
+            return new HistoryFile(file, formatOf(matcher.group(6)),
+                Integer.parseInt(matcher.group(1)),
+                Integer.parseInt(matcher.group(2)),
+                matcher.group(3) == null ? 0 : Integer.parseInt(matcher.group(3)),
+                matcher.group(4) == null ? -1 : Integer.parseInt(matcher.group(4)),
+                matcher.group(5));
+        }
+        matcher = MONTH_FILE_PATTERN.matcher(file.getName());
+        if (matcher.matches()) {
+            return new HistoryFile(file, formatOf(matcher.group(3)),
+                Integer.parseInt(matcher.group(1)),
+                Integer.parseInt(matcher.group(2)),
+                0, -1, null);
+        }
+        return null;
+    }
+
+    private static StorageFormat formatOf(String extension) {
+        for (StorageFormat format : StorageFormat.values()) {
+            if (format.getExtension().equals(extension)) {
+                return format;
+            }
+        }
+        return StorageFormat.XML;
+    }
+
+    /**
+     * @param folder - the history folder
+     * @return List of all history files within folder, ordered by period
+     */
+    public static List<HistoryFile> list(File folder) {
+        File[] files = folder.listFiles();
+        if (files == null) {
+            return Collections.emptyList();
+        }
+        List<HistoryFile> historyFiles = new ArrayList<HistoryFile>();
+        for (File f : files) {
+            HistoryFile historyFile = parse(f);
+            if (historyFile != null) {
+                historyFiles.add(historyFile);
+            }
+        }
+        Collections.sort(historyFiles);
+        return historyFiles;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public StorageFormat getFormat() {
+        return format;
+    }
+
+    public boolean isMonthly() {
+        return day == 0;
+    }
+
+    public boolean isHourly() {
+        return hour >= 0;
+    }
+
+    /**
+     * @return String - the sub-partition (sanitized project or framework) or null if the shard is not partitioned
+     */
+    @CheckForNull
+    public String getPartition() {
+        return partition;
+    }
+
+    /**
+     * @return String - the month of the file name as yyyy-MM
+     */
+    public String getMonthKey() {
+        return String.format("%04d-%02d", year, month);
+    }
+
+    /**
+     * @return long - start of the hour, day or month of the file name in local time
+     */
+    public long getPeriodStartMillis() {
+        return periodStartMillis(year);
+    }
+
+    /**
+     * @return long - end (exclusive) of the hour, day or month of the file name in local time
+     */
+    public long getPeriodEndMillis() {
+        return periodEndMillis(year);
+    }
+
+    private long periodStartMillis(int periodYear) {
+        if (isMonthly()) {
+            return startMillis(periodYear, month, 1, 0);
+        }
+        return startMillis(periodYear, month, day, isHourly() ? hour : 0);
+    }
+
+    private long periodEndMillis(int periodYear) {
+        if (isMonthly()) {
+            return startMillis(periodYear, month + 1, 1, 0);
+        }
+        if (isHourly()) {
+            return startMillis(periodYear, month, day, hour + 1);
+        }
+        return startMillis(periodYear, month, day + 1, 0);
+    }
+
+    /**
+     * Checks whether the file may hold records with an offline date in [fromMillis, toMillis).
+     * Older versions formatted the day file names with the week year ("YYYY"), so day files of the last
+     * days of December and the first days of January might be named with the neighbouring year.
+     */
+    public boolean mayOverlap(long fromMillis, long toMillis) {
+        for (int candidateYear : candidateYears()) {
+            if (periodStartMillis(candidateYear) < toMillis && periodEndMillis(candidateYear) > fromMillis) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * A shard file is closed once every period it may be written for lies before today, see {@link #mayOverlap}.
+     * Periods starting after today can not have been written yet. Compacted segments are never closed.
+     *
+     * @param todayStart - start of the current day, see {@link #startOfToday()}
+     * @return boolean - true if no more records are appended to the file
+     */
+    public boolean isClosed(long todayStart) {
+        if (format == StorageFormat.COLUMNAR) {
+            return false;
+        }
+        for (int candidateYear : candidateYears()) {
+            if (periodStartMillis(candidateYear) > todayStart) {
+                continue;
+            }
+            if (periodEndMillis(candidateYear) > todayStart) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * A file is expired once every period it may hold records of ends at or before the cutoff, periods starting
+     * after today are skipped as in {@link #isClosed(long)}. Unlike closing this applies to compacted segments too.
+     *
+     * @param cutoffMillis - records with an offline date before the cutoff are expired
+     * @param todayStart - start of the current day, see {@link #startOfToday()}
+     * @return boolean - true if the file holds expired records only
+     */
+    public boolean isExpired(long cutoffMillis, long todayStart) {
+        boolean past = false;
+        for (int candidateYear : candidateYears()) {
+            if (periodStartMillis(candidateYear) > todayStart) {
+                continue;
+            }
+            if (periodEndMillis(candidateYear) > cutoffMillis) {
+                return false;
+            }
+            past = true;
+        }
+        return past;
+    }
+
+    /**
+     * Only day files may have been written with the week year, hourly and monthly shards came later.
+     */
+    private List<Integer> candidateYears() {
+        if (!isMonthly() && !isHourly()) {
+            if (month == 12 && day >= 22) {
+                return Arrays.asList(year, year - 1);
+            }
+            if (month == 1 && day <= 7) {
+                return Arrays.asList(year, year + 1);
+            }
+        }
+        return Collections.singletonList(year);
+    }
+
+    /**
+     * @return long - start of the current day in local time
+     */
+    public static long startOfToday() {
+        Calendar calendar = Calendar.getInstance();
+        return startMillis(calendar.get(Calendar.YEAR), calendar.get(Calendar.MONTH) + 1,
+            calendar.get(Calendar.DAY_OF_MONTH), 0);
+    }
+
+    private static long startMillis(int year, int month, int day, int hourOfDay) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(year, month - 1, day, hourOfDay, 0);
+        return calendar.getTimeInMillis();
+    }
+
+    /**
+     * Orders by period, a monthly file comes before the day files of its month and a day file before
+     * the hourly files of its day.
+     */
+    public int compareTo(HistoryFile other) {
+        if (year != other.year) {
+            return year < other.year ? -1 : 1;
+        }
+        if (month != other.month) {
+            return month < other.month ? -1 : 1;
+        }
+        if (day != other.day) {
+            return day < other.day ? -1 : 1;
+        }
+        if (hour != other.hour) {
+            return hour < other.hour ? -1 : 1;
+        }
+        return file.getName().compareTo(other.file.getName());
+    }
+
+    @Override
+    public String toString() {
+        return file.getName();
+    }
+}
@@ -0,0 +1,230 @@
+package org.jenkinsci.plugins.infonovabuildstats.live;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+import org.jenkinsci.plugins.infonovabuildstats.PendingAgentStatistic;
+import org.jenkinsci.plugins.infonovabuildstats.model.AgentStatistic;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Live statistics of the agents for the dashboard, from the {@link RecentAgentHistory} and the currently online
+ * agents, without touching the disk.
+ *
+ * The JSON is computed at most once per change of the records, of the online agents and per minute, so the window
+ * moves on. Every other request is served the cached JSON, or nothing at all if the client still has it (see
+ * {@link Snapshot#getETag()}).
+ */
+public class LiveAgentStatistics {
+
+    /* Online agents and completed lifecycles listed one by one, the aggregates cover all of them */
+    static final int MAX_LISTED_AGENTS = 100;
+
+    private final RecentAgentHistory history;
+
+    private volatile Snapshot cached;
+
+    public LiveAgentStatistics(RecentAgentHistory history) {
+        this.history = history;
+    }
+
+    public RecentAgentHistory getHistory() {
+        return history;
+    }
+
+    /**
+     * @param online - the currently online agents
+     * @param onlineVersion - changes whenever an agent comes online or goes offline
+     * @param windowMillis - the completed lifecycles of this period are included
+     * @return Snapshot - the current statistics, cached until something changed
+     */
+    public Snapshot snapshot(Collection<PendingAgentStatistic> online, long onlineVersion, long windowMillis) {
+        long now = System.currentTimeMillis();
+        String eTag = "\"" + history.getPublished() + "-" + onlineVersion + "-" + windowMillis + "-"
+            + TimeUnit.MILLISECONDS.toMinutes(now) + "\"";
+        Snapshot snapshot = cached;
+        if (snapshot != null && snapshot.eTag.equals(eTag)) {
+            return snapshot;
+        }
+        // concurrent misses compute the same snapshot, the last one is kept
+        snapshot = new Snapshot(eTag, toJSON(online, windowMillis, now).toString());
+        cached = snapshot;
+        return snapshot;
+    }
+
+    private JSONObject toJSON(Collection<PendingAgentStatistic> online, long windowMillis, long now) {
+        JSONObject json = new JSONObject();
+        json.put("generated", now);
+        json.put("windowMillis", windowMillis);
+        json.put("online", onlineToJSON(online, now));
+        json.put("completed", completedToJSON(history.copySince(now - windowMillis), now - windowMillis, now));
+        return json;
+    }
+
+    private static JSONObject onlineToJSON(Collection<PendingAgentStatistic> online, long now) {
+        List<PendingAgentStatistic> agents = new ArrayList<PendingAgentStatistic>(online);
+        Collections.sort(agents, new Comparator<PendingAgentStatistic>() {
+            public int compare(PendingAgentStatistic left, PendingAgentStatistic right) {
+                return left.getOnlineDate().compareTo(right.getOnlineDate());
+            }
+        });
+
+        Totals total = new Totals();
+        Map<String, Totals> byLabel = new LinkedHashMap<String, Totals>();
+        JSONArray listed = new JSONArray();
+        for (PendingAgentStatistic pending : agents) {
+            // not yet resolved agents are counted without their cpus and memory
+            AgentStatistic resolved = pending.getResolved();
+            double cpus = resolved != null ? resolved.getCpus() : 0;
+            int memory = resolved != null ? resolved.getMemory() : 0;
+            long onlineMillis = now - pending.getOnlineDate().getTime();
+            total.add(onlineMillis, cpus, memory);
+            totalsOf(byLabel, pending.getAgentLabel()).add(onlineMillis, cpus, memory);
+
+            if (listed.size() < MAX_LISTED_AGENTS) {
+                JSONObject agent = new JSONObject();
+                agent.put("agentName", pending.getAgentName());
+                agent.put("agentLabel", pending.getAgentLabel());
+                agent.put("onlineDate", pending.getOnlineDate().getTime());
+                agent.put("onlineMillis", onlineMillis);
+                agent.put("framework", resolved != null ? resolved.getFramework() : null);
+                agent.put("cpus", cpus);
+                agent.put("memory", memory);
+                listed.add(agent);
+            }
+        }
+
+        JSONObject json = total.toJSON();
+        json.put("byLabel", byLabelToJSON(byLabel));
+        json.put("agents", listed);
+        return json;
+    }
+
+    private static JSONObject completedToJSON(RecentAgentHistory.Records records, long since, long now) {
+        Totals total = new Totals();
+        Map<String, Totals> byLabel = new LinkedHashMap<String, Totals>();
+        int hours = (int) Math.max(1, TimeUnit.MILLISECONDS.toHours(now - since + TimeUnit.HOURS.toMillis(1) - 1));
+        int[] perHour = new int[hours];
+        for (int i = records.first(); i < records.end(); i++) {
+            long offline = records.getOfflineMillis(i);
+            if (offline < since) {
+                continue;
+            }
+            long onlineMillis = offline - records.getOnlineMillis(i);
+            total.add(onlineMillis, records.getCpus(i), records.getMemory(i));
+            totalsOf(byLabel, records.getAgentLabel(i)).add(onlineMillis, records.getCpus(i), records.getMemory(i));
+            int hour = (int) TimeUnit.MILLISECONDS.toHours(now - offline);
+            if (hour >= 0 && hour < hours) {
+                perHour[hours - 1 - hour]++;
+            }
+        }
+
+        JSONArray recent = new JSONArray();
+        for (int i = records.end() - 1; i >= records.first() && recent.size() < MAX_LISTED_AGENTS; i--) {
+            JSONObject agent = new JSONObject();
+            agent.put("agentName", records.getAgentName(i));
+            agent.put("agentLabel", records.getAgentLabel(i));
+            agent.put("project", records.getProject(i));
+            agent.put("framework", records.getFramework(i));
+            agent.put("onlineDate", records.getOnlineMillis(i));
+            agent.put("offlineDate", records.getOfflineMillis(i));
+            agent.put("cpus", records.getCpus(i));
+            agent.put("memory", records.getMemory(i));
+            recent.add(agent);
+        }
+
+        JSONObject json = total.toJSON();
+        json.put("coveredSince", records.count() > 0 ? records.getOfflineMillis(records.first()) : null);
+        json.put("byLabel", byLabelToJSON(byLabel));
+        json.put("perHour", perHour);
+        json.put("recent", recent);
+        return json;
+    }
+
+    private static Totals totalsOf(Map<String, Totals> byLabel, String agentLabel) {
+        Totals totals = byLabel.get(agentLabel);
+        if (totals == null) {
+            totals = new Totals();
+            byLabel.put(agentLabel, totals);
+        }
+        return totals;
+    }
+
+    private static JSONArray byLabelToJSON(Map<String, Totals> byLabel) {
+        JSONArray json = new JSONArray();
+        for (Map.Entry<String, Totals> entry : byLabel.entrySet()) {
+            JSONObject label = entry.getValue().toJSON();
+            label.put("agentLabel", entry.getKey());
+            json.add(label);
+        }
+        return json;
+    }
+
+    /**
+     * Count, online time, cpus and memory of a set of agents.
+     */
+    private static final class Totals {
+
+        private int count;
+
+        private long onlineMillis;
+
+        private long maxOnlineMillis;
+
+        private double cpus;
+
+        private double cpuMillis;
+
+        private long memory;
+
+        void add(long agentOnlineMillis, double agentCpus, int agentMemory) {
+            count++;
+            onlineMillis += agentOnlineMillis;
+            maxOnlineMillis = Math.max(maxOnlineMillis, agentOnlineMillis);
+            cpus += agentCpus;
+            cpuMillis += agentCpus * agentOnlineMillis;
+            memory += agentMemory;
+        }
+
+        JSONObject toJSON() {
+            JSONObject json = new JSONObject();
+            json.put("count", count);
+            json.put("cpus", cpus);
+            json.put("memory", memory);
+            json.put("avgOnlineMillis", count == 0 ? 0 : onlineMillis / count);
+            json.put("maxOnlineMillis", maxOnlineMillis);
+            json.put("cpuHours", cpuMillis / TimeUnit.HOURS.toMillis(1));
+            return json;
+        }
+    }
+
+    /**
+     * The JSON of the live statistics and its entity tag.
+     */
+    public static final class Snapshot {
+
+        private final String eTag;
+
+        private final String json;
+
+        Snapshot(String eTag, String json) {
+            this.eTag = eTag;
+            this.json = json;
+        }
+
+        public String getETag() {
+            return eTag;
+        }
+
+        public String getJson() {
+            return json;
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package org.jenkinsci.plugins.infonovabuildstats.live;
+
+import org.jenkinsci.plugins.infonovabuildstats.model.AgentStatistic;
+import org.jenkinsci.plugins.infonovabuildstats.utils.StringDictionary;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Fixed-capacity ring of the most recently completed agent lifecycles. Label, framework and project are the shared
+ * instances of the {@link StringDictionary}, or the record's own strings once the dictionary is full, so no value
+ * is ever lost. Once full, every record overwrites the oldest one.
+ *
+ * Writers are serialized, readers take no lock. Every record is published as an immutable {@link Entry} with its
+ * sequence; a reader takes the entry of a slot and keeps it only if it carries the expected sequence, so records
+ * overwritten by a concurrent writer are dropped and a kept record is never torn.
+ */
+public class RecentAgentHistory {
+
+    public static final int DEFAULT_CAPACITY = 1 << 15;
+
+    private final int mask;
+
+    private final AtomicReferenceArray<Entry> entries;
+
+    /* number of records written so far, the record with sequence s is in slot s & mask */
+    private volatile long published;
+
+    public RecentAgentHistory() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity - maximum number of records, rounded up to a power of two
+     */
+    public RecentAgentHistory(int capacity) {
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        this.mask = size - 1;
+        this.entries = new AtomicReferenceArray<Entry>(size);
+    }
+
+    /**
+     * Adds the record of an agent which went offline, records without online or offline date are ignored.
+     */
+    public synchronized void add(AgentStatistic agentStatistic) {
+        if (agentStatistic.getOnlineDate() == null || agentStatistic.getOfflineDate() == null) {
+            return;
+        }
+        long sequence = published;
+        entries.set((int) (sequence & mask), new Entry(sequence, agentStatistic));
+        published = sequence + 1;
+    }
+
+    /**
+     * @return long - number of records added so far, changes with every added record
+     */
+    public long getPublished() {
+        return published;
+    }
+
+    public int getCapacity() {
+        return mask + 1;
+    }
+
+    /**
+     * Copies the records which went offline at or after the given time, oldest first. Records which are overwritten
+     * before they are copied are left out.
+     */
+    public Records copySince(long sinceMillis) {
+        long end = published;
+        long start = Math.max(0, end - getCapacity());
+        Records records = new Records((int) (end - start));
+        for (long sequence = start; sequence < end; sequence++) {
+            Entry entry = entries.get((int) (sequence & mask));
+            if (entry == null || entry.sequence != sequence) {
+                // overwritten by a newer record already
+                continue;
+            }
+            records.onlineMillis[records.size] = entry.onlineMillis;
+            records.offlineMillis[records.size] = entry.offlineMillis;
+            records.cpus[records.size] = entry.cpus;
+            records.memory[records.size] = entry.memory;
+            records.agentLabels[records.size] = entry.agentLabel;
+            records.frameworks[records.size] = entry.framework;
+            records.projects[records.size] = entry.project;
+            records.agentNames[records.size] = entry.agentName;
+            records.size++;
+        }
+        return records.since(sinceMillis);
+    }
+
+    /**
+     * One record of the ring, immutable so it is safely published through the {@link AtomicReferenceArray}.
+     */
+    private static final class Entry {
+
+        final long sequence;
+
+        final long onlineMillis;
+
+        final long offlineMillis;
+
+        final double cpus;
+
+        final int memory;
+
+        /* canonical instances, see StringDictionary#canonicalize */
+        final String agentLabel;
+
+        final String framework;
+
+        final String project;
+
+        final String agentName;
+
+        Entry(long sequence, AgentStatistic agentStatistic) {
+            this.sequence = sequence;
+            this.onlineMillis = agentStatistic.getOnlineDate().getTime();
+            this.offlineMillis = agentStatistic.getOfflineDate().getTime();
+            this.cpus = agentStatistic.getCpus();
+            this.memory = agentStatistic.getMemory();
+            this.agentLabel = StringDictionary.INSTANCE.canonicalize(agentStatistic.getAgentLabel());
+            this.framework = StringDictionary.INSTANCE.canonicalize(agentStatistic.getFramework());
+            this.project = StringDictionary.INSTANCE.canonicalize(agentStatistic.getProject());
+            this.agentName = agentStatistic.getAgentName();
+        }
+    }
+
+    /**
+     * A reader's private copy of records, struct of arrays.
+     */
+    public static final class Records {
+
+        final long[] onlineMillis;
+
+        final long[] offlineMillis;
+
+        final double[] cpus;
+
+        final int[] memory;
+
+        final String[] agentLabels;
+
+        final String[] frameworks;
+
+        final String[] projects;
+
+        final String[] agentNames;
+
+        int first;
+
+        int size;
+
+        Records(int capacity) {
+            onlineMillis = new long[capacity];
+            offlineMillis = new long[capacity];
+            cpus = new double[capacity];
+            memory = new int[capacity];
+            agentLabels = new String[capacity];
+            frameworks = new String[capacity];
+            projects = new String[capacity];
+            agentNames = new String[capacity];
+        }
+
+        /* records are added in offline order, mostly, so only the leading older ones are dropped */
+        private Records since(long sinceMillis) {
+            while (first < size && offlineMillis[first] < sinceMillis) {
+                first++;
+            }
+            return this;
+        }
+
+        /**
+         * @return int - index of the oldest record
+         */
+        public int first() {
+            return first;
+        }
+
+        /**
+         * @return int - index after the newest record
+         */
+        public int end() {
+            return size;
+        }
+
+        public int count() {
+            return size - first;
+        }
+
+        public long getOnlineMillis(int i) {
+            return onlineMillis[i];
+        }
+
+        public long getOfflineMillis(int i) {
+            return offlineMillis[i];
+        }
+
+        public double getCpus(int i) {
+            return cpus[i];
+        }
+
+        public int getMemory(int i) {
+            return memory[i];
+        }
+
+        public String getAgentLabel(int i) {
+            return agentLabels[i];
+        }
+
+        public String getFramework(int i) {
+            return frameworks[i];
+        }
+
+        public String getProject(int i) {
+            return projects[i];
+        }
+
+        public String getAgentName(int i) {
+            return agentNames[i];
+        }
+    }
+}
@@ -0,0 +1,420 @@
+package org.jenkinsci.plugins.infonovabuildstats.live;
+
+import hudson.Extension;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.PeriodicWork;
+import hudson.model.TaskListener;
+import org.apache.commons.lang.StringUtils;
+import org.jenkinsci.plugins.infonovabuildstats.InfonovaBuildStatsConfig;
+import org.jenkinsci.plugins.infonovabuildstats.InfonovaBuildStatsPlugin;
+import org.jenkinsci.plugins.infonovabuildstats.PendingAgentStatistic;
+import org.jenkinsci.plugins.infonovabuildstats.business.InfonovaBuildStatsBusiness;
+import org.jenkinsci.plugins.infonovabuildstats.history.HistoryFile;
+import org.jenkinsci.plugins.infonovabuildstats.metrics.Histogram;
+import org.jenkinsci.plugins.infonovabuildstats.model.AgentStatistic;
+import org.jenkinsci.plugins.infonovabuildstats.query.AgentStatisticFilter;
+import org.jenkinsci.plugins.infonovabuildstats.query.CacheableAgentStatisticCollector;
+import org.jenkinsci.plugins.infonovabuildstats.utils.HierarchicalTimingWheel;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Flags agents which are online much longer than expected, e.g. mesos agents which got stuck and hold their cpus
+ * and memory for days.
+ *
+ * The limit of an agent is the threshold configured for its label (or the default threshold), or a multiple of the
+ * historical p95 online time of its label, whichever is lower. Every online agent with a limit has a timer in a
+ * {@link HierarchicalTimingWheel} at its online date plus limit, so an agent coming online or going offline costs
+ * O(1) and the minutely check only touches the expired timers. Changing the thresholds reschedules the online
+ * agents.
+ */
+public class ZombieAgentDetector {
+
+    private static final Logger LOGGER = Logger.getLogger(ZombieAgentDetector.class.getName());
+
+    /**
+     * Label of the default threshold in the threshold configuration.
+     */
+    public static final String DEFAULT_LABEL = "*";
+
+    /**
+     * Period of the history the p95 online times are computed from.
+     */
+    public static final long HISTORY_MILLIS = TimeUnit.DAYS.toMillis(30);
+
+    /* labels with fewer completed agents in the history get no p95 limit */
+    private static final int MIN_HISTORY_COUNT = 20;
+
+    private final HierarchicalTimingWheel<PendingAgentStatistic> wheel =
+        new HierarchicalTimingWheel<PendingAgentStatistic>(TimeUnit.MINUTES.toMillis(1), System.currentTimeMillis());
+
+    /* every online agent, with its pending timer or null if it has no limit or is flagged, guarded by this */
+    private final Map<PendingAgentStatistic, HierarchicalTimingWheel.Timer<PendingAgentStatistic>> online =
+        new HashMap<PendingAgentStatistic, HierarchicalTimingWheel.Timer<PendingAgentStatistic>>();
+
+    private final ConcurrentMap<PendingAgentStatistic, Flag> flagged =
+        new ConcurrentHashMap<PendingAgentStatistic, Flag>();
+
+    /* guarded by this */
+    private String thresholdsConfig = "";
+
+    private volatile Map<String, Long> thresholds = Collections.emptyMap();
+
+    private volatile double p95Multiple;
+
+    private volatile Map<String, Long> historicalP95 = Collections.emptyMap();
+
+    /**
+     * Starts watching an agent which came online.
+     */
+    public synchronized void onOnline(PendingAgentStatistic pending) {
+        online.put(pending, schedule(pending));
+    }
+
+    /**
+     * Stops watching an agent which went offline.
+     */
+    public synchronized void onOffline(PendingAgentStatistic pending) {
+        HierarchicalTimingWheel.Timer<PendingAgentStatistic> timer = online.remove(pending);
+        if (timer != null) {
+            wheel.cancel(timer);
+        }
+        flagged.remove(pending);
+    }
+
+    private HierarchicalTimingWheel.Timer<PendingAgentStatistic> schedule(PendingAgentStatistic pending) {
+        Limit limit = limitOf(pending.getAgentLabel());
+        return limit == null ? null : wheel.schedule(pending, pending.getOnlineDate().getTime() + limit.millis);
+    }
+
+    /**
+     * Flags the agents whose limit expired until now, called every minute.
+     *
+     * @return int - number of newly flagged agents
+     */
+    public synchronized int check(long nowMillis) {
+        int count = 0;
+        for (PendingAgentStatistic pending : wheel.advance(nowMillis)) {
+            Limit limit = limitOf(pending.getAgentLabel());
+            if (limit == null || !online.containsKey(pending)) {
+                continue;
+            }
+            online.put(pending, null);
+            flagged.put(pending, new Flag(pending, limit, nowMillis));
+            count++;
+            LOGGER.log(Level.WARNING, "Agent " + pending.getAgentName() + " (" + pending.getAgentLabel()
+                + ") is online since " + pending.getOnlineDate() + ", longer than its " + limit);
+        }
+        return count;
+    }
+
+    /**
+     * Applies the configured thresholds, the online agents are rescheduled if they changed.
+     *
+     * @param thresholdsConfig - one label=hours per line, {@value #DEFAULT_LABEL}=hours for all other labels
+     * @param p95Multiple - agents online longer than this multiple of their label's p95 are flagged, 0 for never
+     */
+    public synchronized void configure(String thresholdsConfig, double p95Multiple) {
+        String config = StringUtils.defaultString(thresholdsConfig);
+        if (config.equals(this.thresholdsConfig) && p95Multiple == this.p95Multiple) {
+            return;
+        }
+        this.thresholdsConfig = config;
+        this.thresholds = parseThresholds(config);
+        this.p95Multiple = p95Multiple;
+        rescheduleAll();
+    }
+
+    /**
+     * Replaces the historical p95 online times per label, the online agents are rescheduled.
+     */
+    public synchronized void updateHistoricalP95(Map<String, Long> p95ByLabel) {
+        this.historicalP95 = Collections.unmodifiableMap(new HashMap<String, Long>(p95ByLabel));
+        rescheduleAll();
+    }
+
+    /* a flagged agent whose new limit lies in the future is no longer flagged */
+    private void rescheduleAll() {
+        for (Map.Entry<PendingAgentStatistic, HierarchicalTimingWheel.Timer<PendingAgentStatistic>> entry
+            : online.entrySet()) {
+            if (entry.getValue() != null) {
+                wheel.cancel(entry.getValue());
+            }
+            flagged.remove(entry.getKey());
+            entry.setValue(schedule(entry.getKey()));
+        }
+        check(System.currentTimeMillis());
+    }
+
+    /**
+     * @return Limit - the online time after which an agent of the label is flagged, null if it is never flagged
+     */
+    Limit limitOf(String agentLabel) {
+        Long configured = thresholds.get(agentLabel == null ? DEFAULT_LABEL : agentLabel);
+        if (configured == null) {
+            configured = thresholds.get(DEFAULT_LABEL);
+        }
+        Long p95 = historicalP95.get(agentLabel);
+        Limit historical = p95Multiple > 0 && p95 != null
+            ? new Limit((long) (p95 * p95Multiple), p95Multiple + " x p95 of " + TimeUnit.MILLISECONDS.toMinutes(p95)
+                + " min") : null;
+        if (configured == null || configured <= 0) {
+            return historical;
+        }
+        if (historical != null && historical.millis < configured) {
+            return historical;
+        }
+        return new Limit(configured, "threshold of " + TimeUnit.MILLISECONDS.toMinutes(configured) + " min");
+    }
+
+    /**
+     * @return List - the flagged agents, the longest online first
+     */
+    public List<Flag> getFlagged() {
+        List<Flag> result = new ArrayList<Flag>(flagged.values());
+        Collections.sort(result, new Comparator<Flag>() {
+            public int compare(Flag left, Flag right) {
+                return left.getAgent().getOnlineDate().compareTo(right.getAgent().getOnlineDate());
+            }
+        });
+        return result;
+    }
+
+    public Map<String, Long> getThresholds() {
+        return thresholds;
+    }
+
+    public Map<String, Long> getHistoricalP95() {
+        return historicalP95;
+    }
+
+    /**
+     * Parses the threshold configuration, invalid lines are logged and skipped.
+     *
+     * @return Map - threshold millis per label
+     */
+    static Map<String, Long> parseThresholds(String config) {
+        Map<String, Long> result = new HashMap<String, Long>();
+        for (String line : StringUtils.split(config, "\r\n")) {
+            String trimmed = line.trim();
+            if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+                continue;
+            }
+            int separator = trimmed.lastIndexOf('=');
+            try {
+                if (separator <= 0) {
+                    throw new NumberFormatException("missing =");
+                }
+                double hours = Double.parseDouble(trimmed.substring(separator + 1).trim());
+                result.put(trimmed.substring(0, separator).trim(), (long) (hours * TimeUnit.HOURS.toMillis(1)));
+            } catch (NumberFormatException e) {
+                LOGGER.log(Level.WARNING, "Ignoring invalid agent threshold " + trimmed + ", expected label=hours");
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return CacheableAgentStatisticCollector - collects the online times of the records per agent label
+     */
+    static CacheableAgentStatisticCollector<Map<String, Histogram>> onlineTimeCollector() {
+        return new CacheableAgentStatisticCollector<Map<String, Histogram>>() {
+            @Override
+            public Map<String, Histogram> create() {
+                return new HashMap<String, Histogram>();
+            }
+
+            @Override
+            public void accumulate(Map<String, Histogram> container, AgentStatistic agentStatistic) {
+                Histogram histogram = container.get(agentStatistic.getAgentLabel());
+                if (histogram == null) {
+                    histogram = new Histogram();
+                    container.put(agentStatistic.getAgentLabel(), histogram);
+                }
+                histogram.record(agentStatistic.getOnlineTimeMillis());
+            }
+
+            @Override
+            public Map<String, Histogram> combine(Map<String, Histogram> left, Map<String, Histogram> right) {
+                for (Map.Entry<String, Histogram> entry : right.entrySet()) {
+                    Histogram histogram = left.get(entry.getKey());
+                    if (histogram == null) {
+                        left.put(entry.getKey(), entry.getValue());
+                    } else {
+                        histogram.add(entry.getValue());
+                    }
+                }
+                return left;
+            }
+
+            @Override
+            public String getCacheKey() {
+                return "onlineTimeByLabel";
+            }
+
+            @Override
+            public Map<String, Histogram> copy(Map<String, Histogram> container) {
+                Map<String, Histogram> copy = new HashMap<String, Histogram>();
+                for (Map.Entry<String, Histogram> entry : container.entrySet()) {
+                    copy.put(entry.getKey(), entry.getValue().copy());
+                }
+                return copy;
+            }
+
+            @Override
+            public long estimateBytes(Map<String, Histogram> container) {
+                return container.size() * Histogram.estimateBytes();
+            }
+        };
+    }
+
+    /**
+     * Online time after which an agent is flagged and where it comes from.
+     */
+    static final class Limit {
+
+        final long millis;
+
+        final String reason;
+
+        Limit(long millis, String reason) {
+            this.millis = millis;
+            this.reason = reason;
+        }
+
+        @Override
+        public String toString() {
+            return reason;
+        }
+    }
+
+    /**
+     * An agent online longer than its limit.
+     */
+    public static final class Flag {
+
+        private final PendingAgentStatistic agent;
+
+        private final long limitMillis;
+
+        private final String reason;
+
+        private final long flaggedAt;
+
+        Flag(PendingAgentStatistic agent, Limit limit, long flaggedAt) {
+            this.agent = agent;
+            this.limitMillis = limit.millis;
+            this.reason = limit.reason;
+            this.flaggedAt = flaggedAt;
+        }
+
+        public PendingAgentStatistic getAgent() {
+            return agent;
+        }
+
+        public long getLimitMillis() {
+            return limitMillis;
+        }
+
+        public String getReason() {
+            return reason;
+        }
+
+        public long getFlaggedAt() {
+            return flaggedAt;
+        }
+
+        public long getOnlineMillis() {
+            return System.currentTimeMillis() - agent.getOnlineDate().getTime();
+        }
+    }
+
+    /**
+     * Applies the configuration and flags the expired agents every minute.
+     */
+    @Extension
+    public static class CheckWork extends PeriodicWork {
+
+        @Override
+        public long getRecurrencePeriod() {
+            return MIN;
+        }
+
+        @Override
+        protected void doRun() {
+            InfonovaBuildStatsConfig config = InfonovaBuildStatsConfig.get();
+            InfonovaBuildStatsPlugin plugin = InfonovaBuildStatsPlugin.getInstance();
+            if (config == null || plugin == null) {
+                return;
+            }
+            InfonovaBuildStatsBusiness business = InfonovaBuildStatsPlugin.getPluginBusiness();
+            if (business == null) {
+                return;
+            }
+            ZombieAgentDetector detector = business.getZombieDetector();
+            detector.configure(config.getZombieThresholds(), config.getZombieP95Multiple());
+            detector.check(System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Recomputes the historical p95 online times per label from the history once a day.
+     */
+    @Extension
+    public static class HistoricalP95Work extends AsyncPeriodicWork {
+
+        public HistoricalP95Work() {
+            super("Infonova build stats agent online time percentiles");
+        }
+
+        @Override
+        public long getRecurrencePeriod() {
+            return DAY;
+        }
+
+        @Override
+        public long getInitialDelay() {
+            return MIN;
+        }
+
+        @Override
+        protected void execute(TaskListener listener) {
+            InfonovaBuildStatsConfig config = InfonovaBuildStatsConfig.get();
+            InfonovaBuildStatsPlugin plugin = InfonovaBuildStatsPlugin.getInstance();
+            if (config == null || plugin == null || config.getZombieP95Multiple() <= 0) {
+                return;
+            }
+            InfonovaBuildStatsBusiness business = InfonovaBuildStatsPlugin.getPluginBusiness();
+            if (business == null) {
+                return;
+            }
+            // whole days, so the runs of a day share the cached result of the closed days
+            Calendar from = Calendar.getInstance();
+            from.setTimeInMillis(HistoryFile.startOfToday());
+            from.add(Calendar.DAY_OF_MONTH, -(int) TimeUnit.MILLISECONDS.toDays(HISTORY_MILLIS));
+            AgentStatisticFilter filter = new AgentStatisticFilter().from(from.getTime());
+            Map<String, Histogram> histograms = plugin.getQueryEngine().execute(filter, onlineTimeCollector());
+
+            Map<String, Long> p95ByLabel = new HashMap<String, Long>();
+            for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+                // agents without label only get the default threshold
+                if (entry.getKey() != null && entry.getValue().getCount() >= MIN_HISTORY_COUNT) {
+                    p95ByLabel.put(entry.getKey(), entry.getValue().getValueAtPercentile(95));
+                }
+            }
+            business.getZombieDetector().updateHistoricalP95(p95ByLabel);
+            listener.getLogger().println("Computed the p95 online time of " + p95ByLabel.size() + " agent labels");
+        }
+    }
+}
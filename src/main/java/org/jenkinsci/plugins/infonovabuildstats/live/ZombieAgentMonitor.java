@@ -0,0 +1,34 @@
+package org.jenkinsci.plugins.infonovabuildstats.live;
+
+import hudson.Extension;
+import hudson.model.AdministrativeMonitor;
+import jenkins.model.Jenkins;
+import org.jenkinsci.plugins.infonovabuildstats.InfonovaBuildStatsConfig;
+import org.jenkinsci.plugins.infonovabuildstats.InfonovaBuildStatsPlugin;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Shows the agents flagged by the {@link ZombieAgentDetector} on the manage page, if enabled in the configuration.
+ */
+@Extension
+public class ZombieAgentMonitor extends AdministrativeMonitor {
+
+    @Override
+    public boolean isActivated() {
+        InfonovaBuildStatsConfig config = InfonovaBuildStatsConfig.get();
+        return config != null && config.isZombieMonitorEnabled() && !getFlagged().isEmpty();
+    }
+
+    /**
+     * @return List - the flagged agents, empty if the plugin is not loaded
+     */
+    public List<ZombieAgentDetector.Flag> getFlagged() {
+        InfonovaBuildStatsPlugin plugin = Jenkins.getInstance().getPlugin(InfonovaBuildStatsPlugin.class);
+        if (plugin == null) {
+            return Collections.emptyList();
+        }
+        return InfonovaBuildStatsPlugin.getPluginBusiness().getZombieDetector().getFlagged();
+    }
+}
@@ -0,0 +1,88 @@
+package org.jenkinsci.plugins.infonovabuildstats.merge;
+
+import org.apache.commons.io.FileUtils;
+import org.jenkinsci.plugins.infonovabuildstats.export.AgentStatisticExporter;
+import org.jenkinsci.plugins.infonovabuildstats.export.ExportFormat;
+import org.jenkinsci.plugins.infonovabuildstats.query.AgentStatisticFilter;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Command line tool merging the history folders of several controllers to stdout, without a running Jenkins:
+ *
+ * <pre>
+ * java -cp ... org.jenkinsci.plugins.infonovabuildstats.merge.HistoryMergeTool
+ *     [--from date] [--to date] [--format ndjson|csv] historyFolder...
+ * </pre>
+ *
+ * Dates are millis or yyyy-MM-dd['T'HH:mm[:ss]], to is exclusive. The runs are written to a temporary folder
+ * below java.io.tmpdir which is deleted at the end.
+ */
+public final class HistoryMergeTool {
+
+    private static final String USAGE = "Usage: HistoryMergeTool [--from date] [--to date] [--format ndjson|csv] "
+        + "historyFolder...";
+
+    private HistoryMergeTool() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        AgentStatisticFilter filter = new AgentStatisticFilter();
+        ExportFormat format = ExportFormat.NDJSON;
+        List<File> historyFolders = new ArrayList<File>();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                if ("--from".equals(arg)) {
+                    filter.from(AgentStatisticExporter.parseDate(value(args, ++i)));
+                } else if ("--to".equals(arg)) {
+                    filter.to(AgentStatisticExporter.parseDate(value(args, ++i)));
+                } else if ("--format".equals(arg)) {
+                    format = ExportFormat.fromName(value(args, ++i));
+                } else if (arg.startsWith("--")) {
+                    throw new IllegalArgumentException("Unknown option " + arg);
+                } else {
+                    File historyFolder = new File(arg);
+                    if (!historyFolder.isDirectory()) {
+                        throw new IllegalArgumentException("Not a history folder: " + arg);
+                    }
+                    historyFolders.add(historyFolder);
+                }
+            }
+            if (historyFolders.isEmpty()) {
+                throw new IllegalArgumentException("No history folder given");
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+            return;
+        }
+
+        File tempFolder = Files.createTempDirectory("infonova-build-stats-merge").toFile();
+        Writer writer = new BufferedWriter(new OutputStreamWriter(System.out, "UTF-8"), 64 * 1024);
+        try {
+            HistoryMerger merger = new HistoryMerger(historyFolders, filter, tempFolder);
+            new AgentStatisticExporter(writer, format).export(merger);
+            writer.flush();
+            System.err.println("Merged " + merger.getMergedRecords() + " records from " + merger.getRuns()
+                + " runs, dropped " + merger.getDuplicateRecords() + " duplicates");
+        } finally {
+            FileUtils.deleteQuietly(tempFolder);
+        }
+    }
+
+    private static String value(String[] args, int i) {
+        if (i >= args.length) {
+            throw new IllegalArgumentException("Missing value of " + args[i - 1]);
+        }
+        return args[i];
+    }
+}
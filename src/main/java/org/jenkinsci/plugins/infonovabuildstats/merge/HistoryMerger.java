@@ -0,0 +1,333 @@
+package org.jenkinsci.plugins.infonovabuildstats.merge;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+import org.jenkinsci.plugins.infonovabuildstats.model.AgentStatistic;
+import org.jenkinsci.plugins.infonovabuildstats.query.AgentStatisticCollector;
+import org.jenkinsci.plugins.infonovabuildstats.query.AgentStatisticFilter;
+import org.jenkinsci.plugins.infonovabuildstats.query.AgentStatisticQueryEngine;
+import org.jenkinsci.plugins.infonovabuildstats.query.HistorySnapshot;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Merges the histories of several controllers (e.g. copies of their infonova-build-stats folders) into a single
+ * stream ordered by offline date, a record which was collected by more than one history is emitted once.
+ *
+ * The records of a history folder are not strictly ordered, a backfill for example appends older records to the
+ * day files, so every folder is first read sequentially and cut into sorted runs in a temporary folder (see
+ * {@link MergeRunBuilder}), usually a single run per folder. The runs are then merged with a heap holding the head
+ * record of every run. Memory use is bounded by the run capacity and the fan-in, independent of the size of the
+ * histories.
+ *
+ * Records are duplicates if jenkinsUrl, agentName and onlineDate are equal. As the merge order puts records of the
+ * same offline date next to each other by exactly these fields, the copies of a record meet in the merged stream
+ * and all but the first one are dropped. Instances are not thread-safe, every merge uses its own merger.
+ */
+public class HistoryMerger {
+
+    private static final Logger LOGGER = Logger.getLogger(HistoryMerger.class.getName());
+
+    /**
+     * Order of the merged stream: offlineDate, jenkinsUrl, agentName, onlineDate, missing values first.
+     */
+    public static final Comparator<AgentStatistic> MERGE_ORDER = new Comparator<AgentStatistic>() {
+        public int compare(AgentStatistic s1, AgentStatistic s2) {
+            int order = compareDates(s1.getOfflineDate(), s2.getOfflineDate());
+            if (order != 0) {
+                return order;
+            }
+            order = StringUtils.defaultString(s1.getJenkinsUrl()).compareTo(
+                StringUtils.defaultString(s2.getJenkinsUrl()));
+            if (order != 0) {
+                return order;
+            }
+            order = StringUtils.defaultString(s1.getAgentName()).compareTo(
+                StringUtils.defaultString(s2.getAgentName()));
+            if (order != 0) {
+                return order;
+            }
+            return compareDates(s1.getOnlineDate(), s2.getOnlineDate());
+        }
+    };
+
+    /* Records held in memory while a history folder is cut into runs */
+    static final int RUN_CAPACITY = 4096;
+
+    /* Runs merged at once, more runs are merged in intermediate passes first */
+    static final int MAX_FAN_IN = 64;
+
+    private final List<File> historyFolders;
+
+    private final AgentStatisticFilter filter;
+
+    private final File tempFolder;
+
+    private long mergedRecords;
+
+    private long duplicateRecords;
+
+    private int runs;
+
+    /**
+     * @param historyFolders - the history folders to merge, read but never modified
+     * @param filter - only matching records are merged
+     * @param tempFolder - existing folder for the runs, they are deleted when the merge is done
+     */
+    public HistoryMerger(List<File> historyFolders, AgentStatisticFilter filter, File tempFolder) {
+        this.historyFolders = new ArrayList<File>(historyFolders);
+        this.filter = filter;
+        this.tempFolder = tempFolder;
+    }
+
+    /**
+     * Receives the merged records in merge order.
+     */
+    public interface Sink {
+
+        void accept(AgentStatistic agentStatistic) throws IOException;
+    }
+
+    /**
+     * Merges the history folders into the sink.
+     *
+     * @return long - number of records passed to the sink
+     * @throws IOException - if a run can not be written or read, or the sink failed
+     */
+    public long merge(Sink sink) throws IOException {
+        List<File> runFiles = new ArrayList<File>();
+        try {
+            for (int i = 0; i < historyFolders.size(); i++) {
+                cutRuns(historyFolders.get(i), "h" + i + "-", runFiles);
+            }
+            runs = runFiles.size();
+            List<File> pending = new ArrayList<File>(runFiles);
+            for (int pass = 0; pending.size() > MAX_FAN_IN; pass++) {
+                pending = mergeIntermediate(pending, "m" + pass + "-", runFiles);
+            }
+            mergeFinal(pending, sink);
+        } finally {
+            for (File runFile : runFiles) {
+                if (runFile.exists() && !runFile.delete()) {
+                    LOGGER.log(Level.WARNING, "Unable to delete merge run " + runFile);
+                }
+            }
+        }
+        LOGGER.log(Level.FINE, "Merged " + mergedRecords + " records of " + historyFolders.size() + " histories from "
+            + runs + " runs, dropped " + duplicateRecords + " duplicates");
+        return mergedRecords;
+    }
+
+    /**
+     * @return long - number of records passed to the sink
+     */
+    public long getMergedRecords() {
+        return mergedRecords;
+    }
+
+    /**
+     * @return long - number of records dropped as copies of a merged record
+     */
+    public long getDuplicateRecords() {
+        return duplicateRecords;
+    }
+
+    /**
+     * @return int - number of sorted runs the history folders were cut into
+     */
+    public int getRuns() {
+        return runs;
+    }
+
+    /**
+     * Reads the parts of a history folder in period order and cuts the matching records into sorted runs,
+     * which are added to the run files.
+     */
+    private void cutRuns(File historyFolder, String prefix, List<File> runFiles) throws IOException {
+        final MergeRunBuilder builder = new MergeRunBuilder(tempFolder, prefix, RUN_CAPACITY, runFiles);
+        AgentStatisticCollector<Void> collector = new AgentStatisticCollector<Void>() {
+            @Override
+            public Void create() {
+                return null;
+            }
+
+            @Override
+            public void accumulate(Void container, AgentStatistic agentStatistic) {
+                try {
+                    builder.add(agentStatistic);
+                } catch (IOException e) {
+                    throw new MergeAbortedException(e);
+                }
+            }
+
+            @Override
+            public Void combine(Void left, Void right) {
+                return null;
+            }
+        };
+
+        HistorySnapshot snapshot = HistorySnapshot.open(historyFolder, filter);
+        try {
+            List<HistorySnapshot.Part> parts = new ArrayList<HistorySnapshot.Part>(snapshot.getParts());
+            Collections.sort(parts, new Comparator<HistorySnapshot.Part>() {
+                public int compare(HistorySnapshot.Part p1, HistorySnapshot.Part p2) {
+                    return p1.getHistoryFile().compareTo(p2.getHistoryFile());
+                }
+            });
+            for (HistorySnapshot.Part part : parts) {
+                AgentStatisticQueryEngine.scan(part, filter, collector);
+            }
+            builder.finish();
+        } catch (MergeAbortedException e) {
+            throw e.getCause();
+        } finally {
+            builder.abort();
+            snapshot.close();
+        }
+    }
+
+    /**
+     * Merges the runs in groups of at most {@value #MAX_FAN_IN} runs, the new runs are added to the created runs.
+     */
+    private List<File> mergeIntermediate(List<File> pending, String prefix, List<File> created) throws IOException {
+        List<File> merged = new ArrayList<File>();
+        for (int from = 0; from < pending.size(); from += MAX_FAN_IN) {
+            List<File> group = pending.subList(from, Math.min(from + MAX_FAN_IN, pending.size()));
+            File runFile = new File(tempFolder, prefix + merged.size() + ".run");
+            created.add(runFile);
+            merged.add(runFile);
+            final MergeRunFile.Writer out = new MergeRunFile.Writer(runFile);
+            try {
+                mergeRuns(group, new Sink() {
+                    public void accept(AgentStatistic agentStatistic) throws IOException {
+                        out.write(agentStatistic);
+                    }
+                });
+            } finally {
+                IOUtils.closeQuietly(out);
+            }
+            for (File done : group) {
+                if (!done.delete()) {
+                    LOGGER.log(Level.FINE, "Unable to delete merge run " + done + " early");
+                }
+            }
+        }
+        return merged;
+    }
+
+    private void mergeFinal(List<File> pending, final Sink sink) throws IOException {
+        mergeRuns(pending, new Sink() {
+            private AgentStatistic last;
+
+            public void accept(AgentStatistic agentStatistic) throws IOException {
+                if (last != null && isDuplicate(last, agentStatistic)) {
+                    duplicateRecords++;
+                    return;
+                }
+                sink.accept(agentStatistic);
+                mergedRecords++;
+                last = agentStatistic;
+            }
+        });
+    }
+
+    /**
+     * K-way merge of sorted runs, records equal in merge order are emitted in the order of their runs.
+     */
+    private static void mergeRuns(List<File> runFiles, Sink sink) throws IOException {
+        int capacity = Math.max(1, runFiles.size());
+        PriorityQueue<Cursor> heads = new PriorityQueue<Cursor>(capacity, new Comparator<Cursor>() {
+            public int compare(Cursor c1, Cursor c2) {
+                int order = MERGE_ORDER.compare(c1.current, c2.current);
+                if (order != 0) {
+                    return order;
+                }
+                return c1.index < c2.index ? -1 : (c1.index == c2.index ? 0 : 1);
+            }
+        });
+        List<MergeRunFile.Reader> readers = new ArrayList<MergeRunFile.Reader>();
+        try {
+            for (int i = 0; i < runFiles.size(); i++) {
+                MergeRunFile.Reader reader = new MergeRunFile.Reader(runFiles.get(i));
+                readers.add(reader);
+                Cursor cursor = new Cursor(reader, i);
+                if (cursor.advance()) {
+                    heads.add(cursor);
+                }
+            }
+            while (!heads.isEmpty()) {
+                Cursor smallest = heads.poll();
+                sink.accept(smallest.current);
+                if (smallest.advance()) {
+                    heads.add(smallest);
+                }
+            }
+        } finally {
+            for (MergeRunFile.Reader reader : readers) {
+                reader.close();
+            }
+        }
+    }
+
+    private static boolean isDuplicate(AgentStatistic s1, AgentStatistic s2) {
+        return StringUtils.equals(s1.getJenkinsUrl(), s2.getJenkinsUrl())
+            && StringUtils.equals(s1.getAgentName(), s2.getAgentName())
+            && compareDates(s1.getOnlineDate(), s2.getOnlineDate()) == 0;
+    }
+
+    private static int compareDates(Date d1, Date d2) {
+        if (d1 == null || d2 == null) {
+            return d1 == null ? (d2 == null ? 0 : -1) : 1;
+        }
+        return d1.compareTo(d2);
+    }
+
+    /**
+     * The head record of a run.
+     */
+    private static final class Cursor {
+
+        private final MergeRunFile.Reader reader;
+
+        private final int index;
+
+        private AgentStatistic current;
+
+        private Cursor(MergeRunFile.Reader reader, int index) {
+            this.reader = reader;
+            this.index = index;
+        }
+
+        /**
+         * @return boolean - false at the end of the run
+         */
+        private boolean advance() throws IOException {
+            current = reader.next();
+            return current != null;
+        }
+    }
+
+    /**
+     * Carries a failed run write out of the query engine.
+     */
+    private static final class MergeAbortedException extends RuntimeException {
+
+        MergeAbortedException(IOException cause) {
+            super(cause);
+        }
+
+        @Override
+        public synchronized IOException getCause() {
+            return (IOException) super.getCause();
+        }
+    }
+}
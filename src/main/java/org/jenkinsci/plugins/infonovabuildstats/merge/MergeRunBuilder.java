@@ -0,0 +1,131 @@
+package org.jenkinsci.plugins.infonovabuildstats.merge;
+
+import org.apache.commons.io.IOUtils;
+import org.jenkinsci.plugins.infonovabuildstats.model.AgentStatistic;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Cuts a stream of records in arbitrary order into sorted runs by replacement selection: at most capacity records
+ * are held in a heap, the smallest one which still continues the current run is written next. A stream which is
+ * sorted (like a history folder written by the flushes) ends up in a single run no matter how long it is, a stream
+ * which is sorted except for a lag of less than capacity records as well; random order yields runs of about twice
+ * the capacity.
+ *
+ * Not thread-safe.
+ */
+final class MergeRunBuilder {
+
+    private final File folder;
+
+    private final String prefix;
+
+    private final int capacity;
+
+    private final PriorityQueue<Entry> heap;
+
+    private final List<File> runs;
+
+    private MergeRunFile.Writer out;
+
+    private AgentStatistic lastWritten;
+
+    private int currentRun;
+
+    private int runCount;
+
+    private long sequence;
+
+    /**
+     * @param folder - where the run files are created
+     * @param prefix - name prefix of the run files, unique within the folder
+     * @param capacity - maximum number of records held in memory
+     * @param runs - every run file is added as soon as it is created, so it can be deleted even after a failure
+     */
+    MergeRunBuilder(File folder, String prefix, int capacity, List<File> runs) {
+        this.folder = folder;
+        this.prefix = prefix;
+        this.capacity = capacity;
+        this.runs = runs;
+        this.heap = new PriorityQueue<Entry>(capacity, new Comparator<Entry>() {
+            public int compare(Entry e1, Entry e2) {
+                if (e1.run != e2.run) {
+                    return e1.run < e2.run ? -1 : 1;
+                }
+                int order = HistoryMerger.MERGE_ORDER.compare(e1.record, e2.record);
+                if (order != 0) {
+                    return order;
+                }
+                // keeps records which are equal in the merge order in input order
+                return e1.sequence < e2.sequence ? -1 : (e1.sequence == e2.sequence ? 0 : 1);
+            }
+        });
+    }
+
+    void add(AgentStatistic agentStatistic) throws IOException {
+        if (heap.size() >= capacity) {
+            writeSmallest();
+        }
+        // a record smaller than the last written one can not continue the current run
+        int run = lastWritten != null && HistoryMerger.MERGE_ORDER.compare(agentStatistic, lastWritten) < 0
+            ? currentRun + 1 : currentRun;
+        heap.add(new Entry(run, sequence++, agentStatistic));
+    }
+
+    /**
+     * Writes the records still held and closes the last run, each run file is sorted in merge order.
+     */
+    void finish() throws IOException {
+        while (!heap.isEmpty()) {
+            writeSmallest();
+        }
+        closeRun();
+    }
+
+    /**
+     * Closes the open run if the runs were not finished, e.g. after a failure. The run files are left to the caller.
+     */
+    void abort() {
+        IOUtils.closeQuietly(out);
+        out = null;
+    }
+
+    private void writeSmallest() throws IOException {
+        Entry smallest = heap.poll();
+        if (out == null || smallest.run != currentRun) {
+            closeRun();
+            currentRun = smallest.run;
+            File file = new File(folder, prefix + runCount++ + ".run");
+            runs.add(file);
+            out = new MergeRunFile.Writer(file);
+        }
+        out.write(smallest.record);
+        lastWritten = smallest.record;
+    }
+
+    private void closeRun() throws IOException {
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+    }
+
+    private static final class Entry {
+
+        private final int run;
+
+        private final long sequence;
+
+        private final AgentStatistic record;
+
+        private Entry(int run, long sequence, AgentStatistic record) {
+            this.run = run;
+            this.sequence = sequence;
+            this.record = record;
+        }
+    }
+}
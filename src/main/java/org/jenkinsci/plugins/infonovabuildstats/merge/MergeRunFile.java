@@ -0,0 +1,141 @@
+package org.jenkinsci.plugins.infonovabuildstats.merge;
+
+import org.apache.commons.io.IOUtils;
+import org.jenkinsci.plugins.infonovabuildstats.model.AgentStatistic;
+import org.jenkinsci.plugins.infonovabuildstats.storage.BinaryRecordFormat;
+
+import javax.annotation.CheckForNull;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Date;
+
+/**
+ * Temporary file of a merge holding one sorted run of records, written and read strictly sequentially.
+ *
+ * <pre>
+ * run    := (1:byte record)* EOF
+ * record := onlineDate:long offlineDate:long memory:int cpus:double agentName:string agentLabel:string
+ *           lastJobName:string mesosAgent:string framework:string principal:string jenkinsUrl:string
+ *           provisioningMillis:long
+ * string := present:boolean UTF?
+ * </pre>
+ */
+final class MergeRunFile {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final int RECORD_MARKER = 1;
+
+    private MergeRunFile() {
+    }
+
+    static final class Writer implements Closeable {
+
+        private final File file;
+
+        private final DataOutputStream out;
+
+        private long count;
+
+        Writer(File file) throws IOException {
+            this.file = file;
+            this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE));
+        }
+
+        File getFile() {
+            return file;
+        }
+
+        long getCount() {
+            return count;
+        }
+
+        void write(AgentStatistic agentStatistic) throws IOException {
+            out.writeByte(RECORD_MARKER);
+            out.writeLong(toMillis(agentStatistic.getOnlineDate()));
+            out.writeLong(toMillis(agentStatistic.getOfflineDate()));
+            out.writeInt(agentStatistic.getMemory());
+            out.writeDouble(agentStatistic.getCpus());
+            writeString(agentStatistic.getAgentName());
+            writeString(agentStatistic.getAgentLabel());
+            writeString(agentStatistic.getLastJobName());
+            writeString(agentStatistic.getMesosAgent());
+            writeString(agentStatistic.getFramework());
+            writeString(agentStatistic.getPrincipal());
+            writeString(agentStatistic.getJenkinsUrl());
+            out.writeLong(agentStatistic.getProvisioningMillis());
+            count++;
+        }
+
+        private void writeString(String value) throws IOException {
+            out.writeBoolean(value != null);
+            if (value != null) {
+                out.writeUTF(value);
+            }
+        }
+
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+    static final class Reader implements Closeable {
+
+        private final DataInputStream in;
+
+        Reader(File file) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+        }
+
+        /**
+         * @return AgentStatistic - the next record of the run or null at the end of the run
+         */
+        @CheckForNull
+        AgentStatistic next() throws IOException {
+            int marker = in.read();
+            if (marker < 0) {
+                return null;
+            }
+            if (marker != RECORD_MARKER) {
+                throw new IOException("Corrupt merge run, unexpected marker " + marker);
+            }
+            Date onlineDate = toDate(in.readLong());
+            Date offlineDate = toDate(in.readLong());
+            int memory = in.readInt();
+            double cpus = in.readDouble();
+            String agentName = readString();
+            String agentLabel = readString();
+            String lastJobName = readString();
+            String mesosAgent = readString();
+            String framework = readString();
+            String principal = readString();
+            String jenkinsUrl = readString();
+            long provisioningMillis = in.readLong();
+            return AgentStatistic.createPersistedAgentStatistic(agentName, agentLabel, lastJobName, onlineDate,
+                offlineDate, mesosAgent, framework, principal, jenkinsUrl, memory, cpus, provisioningMillis);
+        }
+
+        private String readString() throws IOException {
+            return in.readBoolean() ? in.readUTF() : null;
+        }
+
+        public void close() {
+            IOUtils.closeQuietly(in);
+        }
+    }
+
+    private static long toMillis(Date date) {
+        return date == null ? BinaryRecordFormat.NULL_DATE : date.getTime();
+    }
+
+    private static Date toDate(long millis) {
+        return millis == BinaryRecordFormat.NULL_DATE ? null : new Date(millis);
+    }
+}
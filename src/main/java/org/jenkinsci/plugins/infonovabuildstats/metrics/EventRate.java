@@ -0,0 +1,50 @@
+package org.jenkinsci.plugins.infonovabuildstats.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts events in total and per second over the last minute, without a timer thread.
+ * Every second has its own slot which is reset by the first event of a new second, an event racing with
+ * the reset may be lost from the rate, never from the total.
+ */
+public class EventRate {
+
+    private static final int WINDOW_SECONDS = 60;
+
+    private final AtomicLong total = new AtomicLong();
+
+    private final AtomicLongArray slotCounts = new AtomicLongArray(WINDOW_SECONDS);
+
+    private final AtomicLongArray slotSeconds = new AtomicLongArray(WINDOW_SECONDS);
+
+    public void mark() {
+        total.incrementAndGet();
+
+        long second = System.currentTimeMillis() / 1000L;
+        int slot = (int) (second % WINDOW_SECONDS);
+        long slotSecond = slotSeconds.get(slot);
+        if (slotSecond != second && slotSeconds.compareAndSet(slot, slotSecond, second)) {
+            slotCounts.set(slot, 0L);
+        }
+        slotCounts.incrementAndGet(slot);
+    }
+
+    public long getTotal() {
+        return total.get();
+    }
+
+    /**
+     * @return double - events per second, averaged over the last minute
+     */
+    public double getRatePerSecond() {
+        long now = System.currentTimeMillis() / 1000L;
+        long count = 0;
+        for (int slot = 0; slot < WINDOW_SECONDS; slot++) {
+            if (now - slotSeconds.get(slot) < WINDOW_SECONDS) {
+                count += slotCounts.get(slot);
+            }
+        }
+        return (double) count / WINDOW_SECONDS;
+    }
+}
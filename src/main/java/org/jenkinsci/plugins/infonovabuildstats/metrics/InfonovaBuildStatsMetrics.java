@@ -0,0 +1,393 @@
+package org.jenkinsci.plugins.infonovabuildstats.metrics;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+import org.jenkinsci.plugins.infonovabuildstats.model.AgentStatistic;
+import org.jenkinsci.plugins.infonovabuildstats.model.ShardFlushResult;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Counters and histograms of the stats pipeline, from the computer listener to the history files.
+ * Recording is lock-free and allocation-free, so it can be done on the agent launch threads.
+ * Exposed through JMX (see {@link #register()}) and as JSON at /plugin/infonova-build-stats/metrics.
+ */
+public class InfonovaBuildStatsMetrics implements InfonovaBuildStatsMetricsMBean {
+
+    private static final Logger LOGGER = Logger.getLogger(InfonovaBuildStatsMetrics.class.getName());
+
+    public static final InfonovaBuildStatsMetrics INSTANCE = new InfonovaBuildStatsMetrics();
+
+    public static final String OBJECT_NAME = "org.jenkinsci.plugins.infonovabuildstats:type=Metrics";
+
+    /* Names of the gauges registered by the business layer */
+    public static final String QUEUE_DEPTH = "queueDepth";
+    public static final String WRITER_QUEUE_DEPTH = "writerQueueDepth";
+    public static final String JOURNAL_PENDING = "journalPending";
+    public static final String DROPPED_RECORDS = "droppedRecords";
+    public static final String ENRICHMENT_QUEUE_DEPTH = "enrichmentQueueDepth";
+
+    /**
+     * A value which is read when the metrics are reported, e.g. the depth of a queue.
+     */
+    public interface Gauge {
+        long getValue();
+    }
+
+    private final EventRate onlineEvents = new EventRate();
+
+    private final EventRate offlineEvents = new EventRate();
+
+    /* Nanos of the snapshot of an online agent on the agent launch thread, see AgentStatisticFactory */
+    private final Histogram factoryNanos = new Histogram();
+
+    /* Nanos of resolving the mesos details on the enrichment thread */
+    private final Histogram enrichmentNanos = new Histogram();
+
+    /* Millis from going offline to the append to the history files */
+    private final Histogram enqueueToWriteMillis = new Histogram();
+
+    private final Histogram flushNanos = new Histogram();
+
+    private final Histogram flushBatchSize = new Histogram();
+
+    private final Histogram flushBytes = new Histogram();
+
+    private final Histogram flushFiles = new Histogram();
+
+    private final AtomicLong flushedRecords = new AtomicLong();
+
+    private final AtomicLong flushedBytes = new AtomicLong();
+
+    private final AtomicLong flushedFiles = new AtomicLong();
+
+    private final AtomicLong failedShards = new AtomicLong();
+
+    private final AtomicLong queryCacheHits = new AtomicLong();
+
+    private final AtomicLong queryCacheMisses = new AtomicLong();
+
+    private volatile List<ShardFlushResult> lastFlushShards = Collections.emptyList();
+
+    private final Map<String, Gauge> gauges = new ConcurrentHashMap<String, Gauge>();
+
+    public void markOnline() {
+        onlineEvents.mark();
+    }
+
+    public void markOffline() {
+        offlineEvents.mark();
+    }
+
+    public void recordFactoryNanos(long nanos) {
+        factoryNanos.record(nanos);
+    }
+
+    public void recordEnrichmentNanos(long nanos) {
+        enrichmentNanos.record(nanos);
+    }
+
+    /**
+     * Records one flush of the sharder.
+     *
+     * @param records - number of written records
+     * @param files - number of appended history files
+     * @param bytes - number of appended bytes
+     * @param nanos - duration of the flush
+     */
+    public void recordFlush(int records, int files, long bytes, long nanos) {
+        flushBatchSize.record(records);
+        flushFiles.record(files);
+        flushBytes.record(bytes);
+        flushNanos.record(nanos);
+        flushedRecords.addAndGet(records);
+        flushedFiles.addAndGet(files);
+        flushedBytes.addAndGet(bytes);
+    }
+
+    /**
+     * Records the outcome of every shard of the last flush, the failed shards are counted.
+     */
+    public void recordShardResults(List<ShardFlushResult> shards) {
+        int failed = 0;
+        for (ShardFlushResult shard : shards) {
+            if (!shard.isSuccess()) {
+                failed++;
+            }
+        }
+        failedShards.addAndGet(failed);
+        lastFlushShards = shards;
+    }
+
+    /**
+     * Records one lookup of the query result cache, a miss is followed by a scan of the closed history files.
+     */
+    public void recordQueryCache(boolean hit) {
+        (hit ? queryCacheHits : queryCacheMisses).incrementAndGet();
+    }
+
+    /**
+     * Records the time from going offline to the append for every written record. Records replayed from the
+     * journal after a restart report the downtime as well.
+     */
+    public void recordWritten(Collection<AgentStatistic> written, long nowMillis) {
+        for (AgentStatistic agentStatistic : written) {
+            if (agentStatistic.getOfflineDate() != null) {
+                enqueueToWriteMillis.record(nowMillis - agentStatistic.getOfflineDate().getTime());
+            }
+        }
+    }
+
+    public void registerGauge(String name, Gauge gauge) {
+        gauges.put(name, gauge);
+    }
+
+    private long gauge(String name) {
+        Gauge gauge = gauges.get(name);
+        return gauge != null ? gauge.getValue() : 0L;
+    }
+
+    public long getOnlineEvents() {
+        return onlineEvents.getTotal();
+    }
+
+    public double getOnlineEventsPerSecond() {
+        return onlineEvents.getRatePerSecond();
+    }
+
+    public long getOfflineEvents() {
+        return offlineEvents.getTotal();
+    }
+
+    public double getOfflineEventsPerSecond() {
+        return offlineEvents.getRatePerSecond();
+    }
+
+    public long getQueueDepth() {
+        return gauge(QUEUE_DEPTH);
+    }
+
+    public long getWriterQueueDepth() {
+        return gauge(WRITER_QUEUE_DEPTH);
+    }
+
+    public long getJournalPending() {
+        return gauge(JOURNAL_PENDING);
+    }
+
+    public long getDroppedRecords() {
+        return gauge(DROPPED_RECORDS);
+    }
+
+    public long getEnrichmentQueueDepth() {
+        return gauge(ENRICHMENT_QUEUE_DEPTH);
+    }
+
+    public long getFlushCount() {
+        return flushNanos.getCount();
+    }
+
+    public long getFlushedRecords() {
+        return flushedRecords.get();
+    }
+
+    public long getFlushedBytes() {
+        return flushedBytes.get();
+    }
+
+    public long getFlushedFiles() {
+        return flushedFiles.get();
+    }
+
+    public long getFlushFailedShards() {
+        return failedShards.get();
+    }
+
+    public long getQueryCacheHits() {
+        return queryCacheHits.get();
+    }
+
+    public long getQueryCacheMisses() {
+        return queryCacheMisses.get();
+    }
+
+    public double getFlushBatchSizeMean() {
+        return flushBatchSize.getMean();
+    }
+
+    public long getFlushBatchSizeMax() {
+        return flushBatchSize.getMax();
+    }
+
+    public double getFlushMillisP50() {
+        return toMillis(flushNanos.getValueAtPercentile(50));
+    }
+
+    public double getFlushMillisP99() {
+        return toMillis(flushNanos.getValueAtPercentile(99));
+    }
+
+    public double getFlushMillisMax() {
+        return toMillis(flushNanos.getMax());
+    }
+
+    public double getEnqueueToWriteMillisP50() {
+        return enqueueToWriteMillis.getValueAtPercentile(50);
+    }
+
+    public double getEnqueueToWriteMillisP99() {
+        return enqueueToWriteMillis.getValueAtPercentile(99);
+    }
+
+    public double getEnqueueToWriteMillisMax() {
+        return enqueueToWriteMillis.getMax();
+    }
+
+    public double getFactoryMicrosP50() {
+        return toMicros(factoryNanos.getValueAtPercentile(50));
+    }
+
+    public double getFactoryMicrosP99() {
+        return toMicros(factoryNanos.getValueAtPercentile(99));
+    }
+
+    public double getFactoryMicrosMax() {
+        return toMicros(factoryNanos.getMax());
+    }
+
+    public double getEnrichmentMicrosP50() {
+        return toMicros(enrichmentNanos.getValueAtPercentile(50));
+    }
+
+    public double getEnrichmentMicrosP99() {
+        return toMicros(enrichmentNanos.getValueAtPercentile(99));
+    }
+
+    public double getEnrichmentMicrosMax() {
+        return toMicros(enrichmentNanos.getMax());
+    }
+
+    private static double toMillis(double nanos) {
+        return nanos / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    private static double toMicros(double nanos) {
+        return nanos / TimeUnit.MICROSECONDS.toNanos(1);
+    }
+
+    /**
+     * @return JSONObject - all metrics, latencies in millis
+     */
+    public JSONObject toJSON() {
+        JSONObject ingest = new JSONObject();
+        ingest.put("online", rateToJSON(onlineEvents));
+        ingest.put("offline", rateToJSON(offlineEvents));
+        ingest.put("factoryMillis", histogramToJSON(factoryNanos, TimeUnit.MILLISECONDS.toNanos(1)));
+        ingest.put("enrichmentMillis", histogramToJSON(enrichmentNanos, TimeUnit.MILLISECONDS.toNanos(1)));
+
+        JSONObject queues = new JSONObject();
+        queues.put(QUEUE_DEPTH, getQueueDepth());
+        queues.put(WRITER_QUEUE_DEPTH, getWriterQueueDepth());
+        queues.put(JOURNAL_PENDING, getJournalPending());
+        queues.put(DROPPED_RECORDS, getDroppedRecords());
+        queues.put(ENRICHMENT_QUEUE_DEPTH, getEnrichmentQueueDepth());
+
+        JSONObject flush = new JSONObject();
+        flush.put("count", getFlushCount());
+        flush.put("records", getFlushedRecords());
+        flush.put("bytes", getFlushedBytes());
+        flush.put("files", getFlushedFiles());
+        flush.put("failedShards", getFlushFailedShards());
+        flush.put("batchSize", histogramToJSON(flushBatchSize, 1));
+        flush.put("batchBytes", histogramToJSON(flushBytes, 1));
+        flush.put("batchFiles", histogramToJSON(flushFiles, 1));
+        flush.put("durationMillis", histogramToJSON(flushNanos, TimeUnit.MILLISECONDS.toNanos(1)));
+        flush.put("lastShards", shardsToJSON(lastFlushShards));
+
+        JSONObject queryCache = new JSONObject();
+        queryCache.put("hits", getQueryCacheHits());
+        queryCache.put("misses", getQueryCacheMisses());
+
+        JSONObject metrics = new JSONObject();
+        metrics.put("ingest", ingest);
+        metrics.put("queues", queues);
+        metrics.put("flush", flush);
+        metrics.put("queryCache", queryCache);
+        metrics.put("enqueueToWriteMillis", histogramToJSON(enqueueToWriteMillis, 1));
+        return metrics;
+    }
+
+    private static JSONObject rateToJSON(EventRate rate) {
+        JSONObject json = new JSONObject();
+        json.put("count", rate.getTotal());
+        json.put("perSecond", rate.getRatePerSecond());
+        return json;
+    }
+
+    private static JSONArray shardsToJSON(List<ShardFlushResult> shards) {
+        JSONArray json = new JSONArray();
+        for (ShardFlushResult shard : shards) {
+            JSONObject shardJson = new JSONObject();
+            shardJson.put("file", shard.getFile().getName());
+            shardJson.put("records", shard.getRecords().size());
+            shardJson.put("bytes", shard.getAppendedBytes());
+            shardJson.put("millis", shard.getNanos() / (double) TimeUnit.MILLISECONDS.toNanos(1));
+            shardJson.put("success", shard.isSuccess());
+            if (shard.getFailure() != null) {
+                shardJson.put("failure", String.valueOf(shard.getFailure()));
+            }
+            json.add(shardJson);
+        }
+        return json;
+    }
+
+    private static JSONObject histogramToJSON(Histogram histogram, double divisor) {
+        JSONObject json = new JSONObject();
+        json.put("count", histogram.getCount());
+        json.put("mean", histogram.getMean() / divisor);
+        json.put("p50", histogram.getValueAtPercentile(50) / divisor);
+        json.put("p90", histogram.getValueAtPercentile(90) / divisor);
+        json.put("p99", histogram.getValueAtPercentile(99) / divisor);
+        json.put("max", histogram.getMax() / divisor);
+        return json;
+    }
+
+    /**
+     * Registers {@link #INSTANCE} with the platform MBean server.
+     */
+    public static void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(INSTANCE, name);
+            }
+        } catch (JMException e) {
+            LOGGER.log(Level.WARNING, "Unable to register the build stats metrics with JMX", e);
+        }
+    }
+
+    public static void unregister() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (JMException e) {
+            LOGGER.log(Level.WARNING, "Unable to unregister the build stats metrics from JMX", e);
+        }
+    }
+}
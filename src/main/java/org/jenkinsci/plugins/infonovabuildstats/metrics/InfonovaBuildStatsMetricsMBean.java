@@ -0,0 +1,68 @@
+package org.jenkinsci.plugins.infonovabuildstats.metrics;
+
+/**
+ * JMX view of the {@link InfonovaBuildStatsMetrics}, registered as
+ * {@value InfonovaBuildStatsMetrics#OBJECT_NAME}. Latencies are reported in millis, the factory latency in micros.
+ */
+public interface InfonovaBuildStatsMetricsMBean {
+
+    long getOnlineEvents();
+
+    double getOnlineEventsPerSecond();
+
+    long getOfflineEvents();
+
+    double getOfflineEventsPerSecond();
+
+    long getQueueDepth();
+
+    long getWriterQueueDepth();
+
+    long getJournalPending();
+
+    long getDroppedRecords();
+
+    long getEnrichmentQueueDepth();
+
+    long getFlushCount();
+
+    long getFlushedRecords();
+
+    long getFlushedBytes();
+
+    long getFlushedFiles();
+
+    long getFlushFailedShards();
+
+    long getQueryCacheHits();
+
+    long getQueryCacheMisses();
+
+    double getFlushBatchSizeMean();
+
+    long getFlushBatchSizeMax();
+
+    double getFlushMillisP50();
+
+    double getFlushMillisP99();
+
+    double getFlushMillisMax();
+
+    double getEnqueueToWriteMillisP50();
+
+    double getEnqueueToWriteMillisP99();
+
+    double getEnqueueToWriteMillisMax();
+
+    double getFactoryMicrosP50();
+
+    double getFactoryMicrosP99();
+
+    double getFactoryMicrosMax();
+
+    double getEnrichmentMicrosP50();
+
+    double getEnrichmentMicrosP99();
+
+    double getEnrichmentMicrosMax();
+}
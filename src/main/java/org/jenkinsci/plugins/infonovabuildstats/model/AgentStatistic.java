@@ -1,15 +1,16 @@
 package org.jenkinsci.plugins.infonovabuildstats.model;
 
 import org.apache.commons.lang.StringUtils;
+import org.jenkinsci.plugins.infonovabuildstats.utils.StringDictionary;
 
 import java.util.Comparator;
 import java.util.Date;
 
 /**
  * Represants the job build results.
- * If class member is added don't forget to adapt XSTREAM initialization in
- * {@link org.jenkinsci.plugins.infonovabuildstats.business.InfonovaBuildStatsPluginSaver InfonovaBuildStatsPluginSaver}
- * private method "initializeXStream".
+ * If class member is added don't forget to adapt the XML codec,
+ * {@link org.jenkinsci.plugins.infonovabuildstats.history.AgentStatisticXmlWriter AgentStatisticXmlWriter} and
+ * {@link org.jenkinsci.plugins.infonovabuildstats.history.AgentStatisticXmlReader AgentStatisticXmlReader}.
  */
 public class AgentStatistic {
 
@@ -36,13 +37,24 @@ public class AgentStatistic {
     final private String project;
     final private String jenkinsUrl;
 
+    /* Millis from the linked item entering the build queue until the agent came online, 0 if unknown */
+    final private long provisioningMillis;
+
     public static AgentStatistic createOnOnlineAgentStatistic(String agentName, String agentLabel, String lastJobName,
                                                               Date onlineDate, String mesosAgent,
                                                               String framework, String principal, String jenkinsUrl,
                                                               int memory, double cpus) {
+        return createOnOnlineAgentStatistic(agentName, agentLabel, lastJobName, onlineDate, mesosAgent,
+                framework, principal, jenkinsUrl, memory, cpus, 0L);
+    }
+
+    public static AgentStatistic createOnOnlineAgentStatistic(String agentName, String agentLabel, String lastJobName,
+                                                              Date onlineDate, String mesosAgent,
+                                                              String framework, String principal, String jenkinsUrl,
+                                                              int memory, double cpus, long provisioningMillis) {
         return new AgentStatistic(agentName, agentLabel, lastJobName,
                 onlineDate, null, mesosAgent,
-                framework, principal, jenkinsUrl, memory, cpus);
+                framework, principal, jenkinsUrl, memory, cpus, provisioningMillis);
     }
 
     public static AgentStatistic createOnOfflineAgentStatistic(AgentStatistic oldAgentStatistic, Date offlineDate) {
@@ -56,31 +68,61 @@ public class AgentStatistic {
                 oldAgentStatistic.getPrincipal(),
                 oldAgentStatistic.getJenkinsUrl(),
                 oldAgentStatistic.getMemory(),
-                oldAgentStatistic.getCpus());
+                oldAgentStatistic.getCpus(),
+                oldAgentStatistic.getProvisioningMillis());
+    }
+
+    /**
+     * Recreates a persisted statistic, e.g. while reading it back from the history files.
+     * The derived values (project, online time) are computed the same way as on creation.
+     */
+    public static AgentStatistic createPersistedAgentStatistic(String agentName, String agentLabel, String lastJobName,
+                                                               Date onlineDate, Date offlineDate, String mesosAgent,
+                                                               String framework, String principal, String jenkinsUrl,
+                                                               int memory, double cpus) {
+        return createPersistedAgentStatistic(agentName, agentLabel, lastJobName, onlineDate, offlineDate,
+                mesosAgent, framework, principal, jenkinsUrl, memory, cpus, 0L);
+    }
+
+    /**
+     * Same as above for the history formats which persist the provisioning latency.
+     */
+    public static AgentStatistic createPersistedAgentStatistic(String agentName, String agentLabel, String lastJobName,
+                                                               Date onlineDate, Date offlineDate, String mesosAgent,
+                                                               String framework, String principal, String jenkinsUrl,
+                                                               int memory, double cpus, long provisioningMillis) {
+        return new AgentStatistic(agentName, agentLabel, lastJobName,
+                onlineDate, offlineDate, mesosAgent,
+                framework, principal, jenkinsUrl, memory, cpus, provisioningMillis);
     }
 
     private AgentStatistic(String agentName, String agentLabel, String lastJobName,
                            Date onlineDate, Date offlineDate, String mesosAgent,
                            String framework, String principal, String jenkinsUrl,
-                           int memory, double cpus) {
+                           int memory, double cpus, long provisioningMillis) {
+        // the low-cardinality values are shared between all records, see StringDictionary
+        StringDictionary dictionary = StringDictionary.INSTANCE;
+
         this.lastJobName = lastJobName;
 
         this.onlineDate = onlineDate;
         this.offlineDate = offlineDate;
 
-        this.agentLabel = agentLabel;
+        this.agentLabel = dictionary.canonicalize(agentLabel);
         this.agentName = StringUtils.defaultIfBlank(agentName, MASTER_NODE_NAME);
 
         this.cpus = cpus;
         this.memory = memory;
 
-        this.framework = framework;
-        this.principal = principal;
-        this.mesosAgent = mesosAgent;
+        this.framework = dictionary.canonicalize(framework);
+        this.principal = dictionary.canonicalize(principal);
+        this.mesosAgent = dictionary.canonicalize(mesosAgent);
 
-        this.project = StringUtils.defaultIfBlank(exctractProjectName(lastJobName), principal);
+        this.project = dictionary.canonicalize(StringUtils.defaultIfBlank(exctractProjectName(lastJobName), principal));
 
-        this.jenkinsUrl = jenkinsUrl;
+        this.jenkinsUrl = dictionary.canonicalize(jenkinsUrl);
+
+        this.provisioningMillis = Math.max(0L, provisioningMillis);
 
         this.onlineTimeMillis = calculateOnlineTimeMillis();
     }
@@ -133,6 +175,14 @@ public class AgentStatistic {
         return jenkinsUrl;
     }
 
+    /**
+     * @return long - millis from the linked item entering the build queue until the agent came online,
+     *                0 if unknown (no mesos agent, no queue item seen or recorded before it was tracked)
+     */
+    public long getProvisioningMillis() {
+        return provisioningMillis;
+    }
+
     private String exctractProjectName(String lastJobName) {
         String projectName = "";
         if (!StringUtils.isBlank(lastJobName) && !StringUtils.equals("N/A", lastJobName)) {
@@ -1,19 +1,38 @@
 package org.jenkinsci.plugins.infonovabuildstats.model;
 
+import hudson.util.DaemonThreadFactory;
 import jenkins.model.Jenkins;
 import org.apache.commons.io.FileUtils;
-import org.jenkinsci.plugins.infonovabuildstats.utils.CollectionsUtil;
-
+import org.jenkinsci.plugins.infonovabuildstats.InfonovaBuildStatsConfig;
+import org.jenkinsci.plugins.infonovabuildstats.history.AgentStatisticXmlWriter;
+import org.jenkinsci.plugins.infonovabuildstats.metrics.InfonovaBuildStatsMetrics;
+import org.jenkinsci.plugins.infonovabuildstats.storage.AppendChannelCache;
+import org.jenkinsci.plugins.infonovabuildstats.storage.BinarySegmentWriter;
+import org.jenkinsci.plugins.infonovabuildstats.storage.ChannelAppendStream;
+import org.jenkinsci.plugins.infonovabuildstats.storage.SegmentDictionary;
+import org.jenkinsci.plugins.infonovabuildstats.storage.StorageFormat;
+import org.jenkinsci.plugins.infonovabuildstats.storage.XmlOffsetIndexWriter;
+import org.jenkinsci.plugins.infonovabuildstats.utils.MpscLinkedArrayQueue;
+
+import javax.annotation.CheckForNull;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.text.SimpleDateFormat;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
- * Class assigns the build results to monthly files according to their job start date.
+ * Class assigns the build results to the history files according to their offline date, see {@link ShardStrategy}.
  *
  */
 public class JobBuildResultSharder {
@@ -21,9 +40,9 @@ public class JobBuildResultSharder {
     private static final Logger LOGGER = Logger.getLogger(JobBuildResultSharder.class.getName());
 
     /**
-     * Format if saved file
+     * Prefix of every history file written by the sharder
      */
-    private static final SimpleDateFormat JOB_RESULT_FILENAME_SDF = new SimpleDateFormat("'agentStatistics-'YYYY-MM-dd'.xml'");
+    public static final String JOB_RESULT_FILENAME_PREFIX = "agentStatistics-";
 
     /**
      * Path, from jenkins_home, to infonova-build-stats folder
@@ -31,14 +50,77 @@ public class JobBuildResultSharder {
     private static final String IBS_ROOT_PATH = "infonova-build-stats";
 
     /**
-     * Hand-off queue from the event callback of
-     * {@link org.jenkinsci.plugins.infonovabuildstats.business.InfonovaBuildStatsPluginSaver.BeforeSavePluginCallback}
+     * Maximum number of shard files appended at the same time by one flush
+     */
+    private static final int FLUSH_PARALLELISM = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    /**
+     * Maximum number of append channels kept open between flushes, e.g. the files of today and yesterday
+     */
+    private static final int OPEN_CHANNELS = 16;
+
+    /**
+     * Append channels which were not used for so long are closed, so closed days do not keep their files open
+     */
+    private static final long CHANNEL_IDLE_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    /**
+     * Size of the direct write buffer of every flush thread
+     */
+    private static final int FLUSH_BUFFER_SIZE = 256 * 1024;
+
+    private static final ThreadLocal<FlushBuffers> FLUSH_BUFFERS = new ThreadLocal<FlushBuffers>() {
+        @Override
+        protected FlushBuffers initialValue() {
+            return new FlushBuffers();
+        }
+    };
+
+    /**
+     * Hand-off queue from the computer listener
      * to
      * the
-     * thread that's adding the records. Access needs to be synchronized.
+     * thread that's adding the records. Lock-free for the producers, drained by the writer thread only.
      */
-    private final List<AgentStatistic> queuedResultsToAdd = Collections
-        .synchronizedList(new ArrayList<AgentStatistic>());
+    private final MpscLinkedArrayQueue<AgentStatistic> queuedResultsToAdd = new MpscLinkedArrayQueue<AgentStatistic>();
+
+    /**
+     * Records reserved in the queue: incremented before a record is offered and decremented once it is drained, so
+     * concurrent producers of {@link #tryQueueResultToAdd(AgentStatistic, int)} never overshoot the capacity.
+     */
+    private final transient AtomicInteger reservedResults = new AtomicInteger();
+
+    /**
+     * Target file of a record, recreated when the configured sharding changes. Guarded by this.
+     */
+    private transient TimeShardStrategy shardStrategy;
+
+    /**
+     * Channels of the recently appended history files, kept open between flushes.
+     */
+    private final transient AppendChannelCache appendChannels = new AppendChannelCache(OPEN_CHANNELS,
+        CHANNEL_IDLE_MILLIS);
+
+    /**
+     * Appends the shards of a flush in parallel and closes idle channels. Threads are only started on demand.
+     */
+    private final transient ScheduledThreadPoolExecutor flushPool = createFlushPool();
+
+    private final transient AtomicBoolean idleEvictionScheduled = new AtomicBoolean();
+
+    /**
+     * Set by {@link #shutdown()}, flushes run on the calling thread from then on.
+     */
+    private transient volatile boolean shutdown;
+
+    private final transient Runnable idleEviction = new Runnable() {
+        public void run() {
+            idleEvictionScheduled.set(false);
+            if (appendChannels.evictIdle(System.currentTimeMillis()) > 0) {
+                scheduleIdleEviction();
+            }
+        }
+    };
 
     public JobBuildResultSharder() {
         this(null, new ArrayList<AgentStatistic>());
@@ -48,73 +130,175 @@ public class JobBuildResultSharder {
         //TODO Remove toogled out line
     	//this.persistedDailyResults = Collections.synchronizedMap(toJobResultFilenameMap(agentStatistics));
         if (sharder != null) {
-            this.queueResultsToAdd(sharder.queuedResultsToAdd);
+            this.queueResultsToAdd(sharder.queuedResultsToAdd.snapshot());
         }
     }
 
     /**
-     * Transforming given AgentStatistic list into a map of type [filename of monthly job result file => list of job
+     * Transforming given AgentStatistic list into a map of type [base name of the shard file => list of job
      * results]
      */
-    private static Map<String, List<AgentStatistic>> toJobResultFilenameMap(List<AgentStatistic> results) {
-        // Sharding job build results depending on monthly rolling files
-        Map<String, List<AgentStatistic>> byDayJobResults = new HashMap<String, List<AgentStatistic>>();
+    public static Map<String, List<AgentStatistic>> toJobResultFilenameMap(List<AgentStatistic> results,
+                                                                           ShardStrategy shardStrategy) {
+        Map<String, List<AgentStatistic>> byShardJobResults = new HashMap<String, List<AgentStatistic>>();
         for (AgentStatistic r : results) {
-            Calendar completedDate = Calendar.getInstance();
-            completedDate.setTime(r.getOfflineDate());
-            String targetFilename = JOB_RESULT_FILENAME_SDF.format(completedDate.getTime());
+            addToJobResultFilenameMap(byShardJobResults, shardStrategy, r);
+        }
 
-            if (!byDayJobResults.containsKey(targetFilename)) {
-                LOGGER.log(Level.FINER, "Filename (" + targetFilename + ") not contained, create new arrayList.");
-                byDayJobResults.put(targetFilename, new ArrayList<AgentStatistic>());
-            }
-            byDayJobResults.get(targetFilename).add(r);
+        return byShardJobResults;
+    }
+
+    private static void addToJobResultFilenameMap(Map<String, List<AgentStatistic>> byShardJobResults,
+                                                  ShardStrategy shardStrategy, AgentStatistic r) {
+        String targetFilename = shardStrategy.shardOf(r);
+
+        List<AgentStatistic> shard = byShardJobResults.get(targetFilename);
+        if (shard == null) {
+            LOGGER.log(Level.FINER, "Filename (" + targetFilename + ") not contained, create new arrayList.");
+            shard = new ArrayList<AgentStatistic>();
+            byShardJobResults.put(targetFilename, shard);
         }
+        shard.add(r);
+    }
 
-        return byDayJobResults;
+    /**
+     * Applies the sharding of the current config, the strategy is only recreated if the config changed.
+     */
+    private void updateShardStrategy() {
+        InfonovaBuildStatsConfig config = InfonovaBuildStatsConfig.get();
+        ShardStrategy.Granularity granularity = config != null
+            ? config.getShardGranularityValue() : ShardStrategy.Granularity.DAILY;
+        ShardStrategy.Partition partition = config != null
+            ? config.getShardPartitionValue() : ShardStrategy.Partition.NONE;
+        if (shardStrategy == null || shardStrategy.getGranularity() != granularity
+            || shardStrategy.getPartition() != partition) {
+            LOGGER.log(Level.FINE, "Sharding history files by " + granularity + ", partition " + partition);
+            shardStrategy = new TimeShardStrategy(granularity, partition);
+        }
     }
 
+    /**
+     * Queues all records regardless of the capacity, every record is reserved like by
+     * {@link #queueResultToAdd(AgentStatistic)}.
+     */
     public void queueResultsToAdd(List<AgentStatistic> results) {
-        queuedResultsToAdd.addAll(results);
+        for (AgentStatistic result : results) {
+            queueResultToAdd(result);
+        }
     }
 
+    /**
+     * @return An unmodifiable, weakly consistent copy of the queued job build results
+     */
     public List<AgentStatistic> getJobBuildResults() {
-        return Collections.unmodifiableList(queuedResultsToAdd);
+        return queuedResultsToAdd.snapshot();
     }
 
     public boolean pendingChanges() {
         return !queuedResultsToAdd.isEmpty();
     }
 
+    /**
+     * @return int - number of queued records which are not yet written to the history files
+     */
+    public int pendingCount() {
+        return queuedResultsToAdd.size();
+    }
+
     public void queueResultToAdd(AgentStatistic result) {
-        queuedResultsToAdd.add(result);
+        reservedResults.incrementAndGet();
+        queuedResultsToAdd.offer(result);
     }
 
     /**
-     * Main method for writing build results to file which is called from
-     * {@link org.jenkinsci.plugins.infonovabuildstats.xstream.InfonovaBuildStatsXStreamConverter#marshal(Object, com.thoughtworks.xstream.io.HierarchicalStreamWriter, com.thoughtworks.xstream.converters.MarshallingContext)
-     * InfonovaBuildStatsXStreamConverter.marshal()}
+     * Queues the record unless capacity records are queued already. The slot is reserved atomically before the
+     * record is offered, so the bound holds for any number of concurrent callers.
+     *
+     * @return boolean - false if the queue is full and the record was not queued
      */
-    public void applyQueuedResultsInFiles() {
-        LOGGER.log(Level.FINER, "Starting persisting queueResultsToAdd.");
-        // atomically move all the queued stuff into a local list
-        List<AgentStatistic> resultsToAdd;
+    public boolean tryQueueResultToAdd(AgentStatistic result, int capacity) {
+        while (true) {
+            int reserved = reservedResults.get();
+            if (reserved >= capacity) {
+                return false;
+            }
+            if (reservedResults.compareAndSet(reserved, reserved + 1)) {
+                break;
+            }
+        }
+        queuedResultsToAdd.offer(result);
+        return true;
+    }
+
+    /**
+     * Main method for writing build results to file (XML or binary segment, see
+     * {@link org.jenkinsci.plugins.infonovabuildstats.InfonovaBuildStatsConfig#getStorageFormat()}) which is called from
+     * {@link org.jenkinsci.plugins.infonovabuildstats.business.InfonovaBuildStatsPersister InfonovaBuildStatsPersister}.
+     * Synchronized so that appends to the same file never interleave, distinct files of a flush are appended in
+     * parallel. A file which can not be written is logged and skipped, its records are not contained in the result
+     * (see {@link ShardFlushResult}) but queued again for the next flush.
+     *
+     * @return List of the records which were written to the history files
+     */
+    public synchronized List<AgentStatistic> applyQueuedResultsInFiles() {
+        updateShardStrategy();
+        return applyQueuedResultsInFiles(getJobResultFolder(), getStorageFormat(), shardStrategy);
+    }
 
-        synchronized (queuedResultsToAdd) {
-            resultsToAdd = new ArrayList<AgentStatistic>(queuedResultsToAdd);
+    /**
+     * Writes the queued build results to the given folder, independent of the jenkins instance and the config.
+     *
+     * @param jobResultsRoot - the history folder, created if missing
+     * @param storageFormat - format of the written files, XML or BINARY
+     * @param shardStrategy - decides the target file of each record
+     * @return List of the records which were written to the history files
+     */
+    public synchronized List<AgentStatistic> applyQueuedResultsInFiles(File jobResultsRoot,
+                                                                       StorageFormat storageFormat,
+                                                                       final ShardStrategy shardStrategy) {
+        LOGGER.log(Level.FINER, "Starting persisting queueResultsToAdd.");
+        // drain the queued stuff straight into the shards
+        final Map<String, List<AgentStatistic>> persistedDailyResults = new HashMap<String, List<AgentStatistic>>();
 
-            LOGGER.log(Level.FINER, "Size of queuedResultsToAdd: " + resultsToAdd.size());
+        int drained = queuedResultsToAdd.drain(new MpscLinkedArrayQueue.Consumer<AgentStatistic>() {
+            public void accept(AgentStatistic agentStatistic) {
+                addToJobResultFilenameMap(persistedDailyResults, shardStrategy, agentStatistic);
+            }
+        });
 
-            queuedResultsToAdd.clear();
-        }
+        reservedResults.addAndGet(-drained);
+        LOGGER.log(Level.FINER, "Size of queuedResultsToAdd: " + drained);
 
-        if (resultsToAdd.isEmpty()) {
+        if (drained == 0) {
             LOGGER.log(Level.INFO, "No changes detected in job results update queue!");
-            return;
+            return Collections.emptyList();
         }
 
-        File jobResultsRoot = getJobResultFolder();
+        return writeShards(jobResultsRoot, storageFormat, persistedDailyResults, drained, true);
+    }
 
+    /**
+     * Writes the given build results to the history files, bypassing the queue, e.g. for the records of a
+     * {@link org.jenkinsci.plugins.infonovabuildstats.backfill.BackfillImporter backfill}.
+     * Serialized with the flushes like {@link #applyQueuedResultsInFiles()}.
+     *
+     * @return List of the records which were written to the history files
+     */
+    public synchronized List<AgentStatistic> applyResultsInFiles(List<AgentStatistic> results) {
+        if (results.isEmpty()) {
+            return Collections.emptyList();
+        }
+        updateShardStrategy();
+        return writeShards(getJobResultFolder(), getStorageFormat(), toJobResultFilenameMap(results, shardStrategy),
+            results.size(), false);
+    }
+
+    /**
+     * @param requeueFailed - whether the records of a failed shard are queued again, so the next flush retries them
+     */
+    private List<AgentStatistic> writeShards(File jobResultsRoot, StorageFormat storageFormat,
+                                             Map<String, List<AgentStatistic>> persistedDailyResults, int drained,
+                                             boolean requeueFailed) {
         LOGGER.log(Level.FINER, "Try to write changes to folder: " + jobResultsRoot.toString());
 
         if (!jobResultsRoot.exists()) {
@@ -132,45 +316,242 @@ public class JobBuildResultSharder {
             }
         }
 
-        Map<String, List<AgentStatistic>> persistedDailyResults = toJobResultFilenameMap(resultsToAdd);
+        appendChannels.evictIdle(System.currentTimeMillis());
 
-        List<String> updatedFilenamesList = new ArrayList<String>(persistedDailyResults.keySet());
+        long start = System.nanoTime();
 
-        Collection<String> updatedFilenames = CollectionsUtil.toSet(updatedFilenamesList);
+        List<ShardFlushResult> shards = appendShards(jobResultsRoot, storageFormat, persistedDailyResults);
 
-        long start = System.currentTimeMillis();
+        List<AgentStatistic> applied = new ArrayList<AgentStatistic>(drained);
 
-        for (String filename : updatedFilenames) {
-            String jobResultFilepath = jobResultsRoot + File.separator + filename;
+        int appendedFiles = 0;
+        long appendedBytes = 0;
+        int failedFiles = 0;
 
-            LOGGER.log(Level.FINE, "Writing jobResults to file: " + jobResultFilepath);
+        for (ShardFlushResult shard : shards) {
+            if (shard.isSuccess()) {
+                applied.addAll(shard.getRecords());
+                appendedFiles++;
+                appendedBytes += shard.getAppendedBytes();
+            } else {
+                failedFiles++;
+                if (requeueFailed) {
+                    for (AgentStatistic agentStatistic : shard.getRecords()) {
+                        queueResultToAdd(agentStatistic);
+                    }
+                }
+            }
+        }
 
-            try {
-                // If file exists we want to append, if not exists this will work automatically
-            	FileWriter fw = new FileWriter(jobResultFilepath, true);
-            	List<AgentStatistic> daily = persistedDailyResults.get(filename);
+        long nanos = System.nanoTime() - start;
+        InfonovaBuildStatsMetrics.INSTANCE.recordFlush(applied.size(), appendedFiles, appendedBytes, nanos);
+        InfonovaBuildStatsMetrics.INSTANCE.recordShardResults(Collections.unmodifiableList(shards));
+
+        if (failedFiles > 0) {
+            LOGGER.log(Level.WARNING, failedFiles + " of " + shards.size()
+                + " history files could not be written, their records stay in the journal"
+                + (requeueFailed ? " and are retried on the next flush" : ""));
+        }
 
-            	Iterator iter = daily.iterator();
+        scheduleIdleEviction();
 
-            	while(iter.hasNext()){
+        LOGGER.log(Level.FINE, "Persisting took: " + TimeUnit.NANOSECONDS.toMillis(nanos));
 
-            		Jenkins.XSTREAM.toXML((AgentStatistic) iter.next(), fw);
-            	}
+        LOGGER.log(Level.FINER, "Finished persisting queueResultsToAdd.");
 
-                fw.close();
+        return applied;
+    }
 
-            } catch (Exception e) {
-                LOGGER.log(Level.SEVERE, "Unable to serialize job results into " + jobResultFilepath, e);
-                throw new IllegalStateException("Unable to serialize job results into " + jobResultFilepath, e);
+    /**
+     * Appends every shard to its own file, distinct files in parallel on the flush pool. Waits for all shards even
+     * if interrupted, a shard is never abandoned in the middle of an append.
+     */
+    private List<ShardFlushResult> appendShards(File jobResultsRoot, final StorageFormat storageFormat,
+                                                Map<String, List<AgentStatistic>> persistedDailyResults) {
+        List<ShardFlushResult> shards = new ArrayList<ShardFlushResult>(persistedDailyResults.size());
+
+        if (persistedDailyResults.size() == 1 || shutdown) {
+            for (Map.Entry<String, List<AgentStatistic>> entry : persistedDailyResults.entrySet()) {
+                File target = new File(jobResultsRoot, entry.getKey() + storageFormat.getExtension());
+                shards.add(appendShard(target, storageFormat, entry.getValue()));
             }
+            return shards;
         }
 
-        LOGGER.log(Level.FINE, "Persisting took: " + (System.currentTimeMillis() - start));
+        List<File> targets = new ArrayList<File>(persistedDailyResults.size());
+        List<List<AgentStatistic>> dailies = new ArrayList<List<AgentStatistic>>(persistedDailyResults.size());
+        List<Future<ShardFlushResult>> futures = new ArrayList<Future<ShardFlushResult>>(persistedDailyResults.size());
+        for (Map.Entry<String, List<AgentStatistic>> entry : persistedDailyResults.entrySet()) {
+            final File target = new File(jobResultsRoot, entry.getKey() + storageFormat.getExtension());
+            final List<AgentStatistic> daily = entry.getValue();
+            targets.add(target);
+            dailies.add(daily);
+            futures.add(flushPool.submit(new Callable<ShardFlushResult>() {
+                public ShardFlushResult call() {
+                    return appendShard(target, storageFormat, daily);
+                }
+            }));
+        }
 
-        LOGGER.log(Level.FINER, "Finished persisting queueResultsToAdd.");
+        boolean interrupted = false;
+        for (int i = 0; i < futures.size(); i++) {
+            while (true) {
+                try {
+                    shards.add(futures.get(i).get());
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    // appendShard catches the exceptions of the append, only errors end up here
+                    File target = targets.get(i);
+                    LOGGER.log(Level.SEVERE, "Unable to serialize job results into " + target, e.getCause());
+                    shards.add(ShardFlushResult.failed(target, dailies.get(i), 0L, e.getCause()));
+                    break;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        return shards;
+    }
+
+    /**
+     * Appends the records of one shard through the cached channel of its file. A failed append is cut off again,
+     * so the file never ends with a partial fragment and no record of a failed shard stays in the file to be
+     * written a second time by the journal replay. The append state of a binary segment or the dictionary of the
+     * offset index of an XML file is kept with the channel.
+     */
+    private ShardFlushResult appendShard(File target, StorageFormat storageFormat, List<AgentStatistic> daily) {
+        long start = System.nanoTime();
+
+        LOGGER.log(Level.FINE, "Writing jobResults to file: " + target.getPath());
+
+        AppendChannelCache.Lease lease = null;
+        long lengthBefore = -1L;
+        try {
+            lease = appendChannels.acquire(target);
+            FileChannel channel = lease.getChannel();
+            lengthBefore = channel.size();
+
+            Object cached = lease.getAttachment();
+            if (storageFormat == StorageFormat.BINARY) {
+                BinarySegmentWriter.AppendState state = cached instanceof BinarySegmentWriter.AppendState
+                    ? (BinarySegmentWriter.AppendState) cached : null;
+                lease.setAttachment(new BinarySegmentWriter(target).append(channel, state, daily));
+            } else {
+                SegmentDictionary dictionary = cached instanceof SegmentDictionary ? (SegmentDictionary) cached : null;
+                lease.setAttachment(appendXml(target, channel, lengthBefore, dictionary, daily));
+            }
+
+            long appendedBytes = channel.size() - lengthBefore;
+            appendChannels.release(target, lease);
+            return ShardFlushResult.succeeded(target, daily, appendedBytes, System.nanoTime() - start);
+
+        } catch (Exception e) {
+            // the records stay in the journal until a later flush writes them
+            LOGGER.log(Level.SEVERE, "Unable to serialize job results into " + target.getPath(), e);
+            if (lease != null) {
+                if (lengthBefore >= 0) {
+                    truncateQuietly(target, lease.getChannel(), lengthBefore);
+                }
+                appendChannels.discard(lease);
+            }
+            return ShardFlushResult.failed(target, daily, System.nanoTime() - start, e);
+        }
+    }
+
+    /**
+     * @return SegmentDictionary - the dictionary of the offset index, kept with the channel for the next append
+     */
+    @CheckForNull
+    private static SegmentDictionary appendXml(File target, FileChannel channel, long lengthBefore,
+                                               @CheckForNull SegmentDictionary dictionary, List<AgentStatistic> daily)
+        throws IOException {
+        FlushBuffers buffers = FLUSH_BUFFERS.get();
+
+        XmlOffsetIndexWriter index = new XmlOffsetIndexWriter(target, lengthBefore, dictionary);
+        ChannelAppendStream out = new ChannelAppendStream(channel, lengthBefore, buffers.writeBuffer);
+
+        // fragments are encoded one by one, so the offset index knows where each record starts
+        long offset = lengthBefore;
+        for (AgentStatistic agentStatistic : daily) {
+            int length = buffers.xmlWriter.write(agentStatistic, out);
+            index.add(agentStatistic, offset, length);
+            offset += length;
+        }
+        out.close();
+
+        return index.append();
     }
 
-    private static File getJobResultFolder() {
+    private static void truncateQuietly(File target, FileChannel channel, long length) {
+        try {
+            if (channel.size() > length) {
+                channel.truncate(length);
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Unable to cut off the failed append to " + target, e);
+        }
+    }
+
+    private static ScheduledThreadPoolExecutor createFlushPool() {
+        ScheduledThreadPoolExecutor pool = new ScheduledThreadPoolExecutor(FLUSH_PARALLELISM,
+            new DaemonThreadFactory());
+        pool.setKeepAliveTime(1, TimeUnit.MINUTES);
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    /**
+     * Closes the open channels once they are idle, rescheduled as long as channels are open.
+     */
+    private void scheduleIdleEviction() {
+        // never takes the monitor, an eviction must not wait for the flush which waits for the pool
+        if (shutdown || appendChannels.size() == 0) {
+            return;
+        }
+        if (idleEvictionScheduled.compareAndSet(false, true)) {
+            try {
+                flushPool.schedule(idleEviction, CHANNEL_IDLE_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // shut down concurrently, the channels are closed by shutdown()
+                LOGGER.log(Level.FINE, "Idle eviction rejected, sharder is shutting down", e);
+            }
+        }
+    }
+
+    /**
+     * Stops the flush pool and closes the open channels. Flushes still work afterwards, e.g. the final flush of the
+     * {@link org.jenkinsci.plugins.infonovabuildstats.business.InfonovaBuildStatsFlushScheduler flush scheduler},
+     * but run on the calling thread and close their files again.
+     */
+    public synchronized void shutdown() {
+        shutdown = true;
+        // only idle evictions can be pending, flushes hold the monitor
+        flushPool.shutdownNow();
+        appendChannels.closeAll();
+    }
+
+    private static StorageFormat getStorageFormat() {
+        InfonovaBuildStatsConfig config = InfonovaBuildStatsConfig.get();
+        return config != null ? config.getStorageFormatValue() : StorageFormat.XML;
+    }
+
+    /**
+     * Per flush thread, the buffers are reused by every shard the thread appends.
+     */
+    private static final class FlushBuffers {
+
+        private final AgentStatisticXmlWriter xmlWriter = new AgentStatisticXmlWriter();
+
+        private final ByteBuffer writeBuffer = ByteBuffer.allocateDirect(FLUSH_BUFFER_SIZE);
+    }
+
+    /**
+     * @return File the infonova-build-stats folder within JENKINS_HOME
+     */
+    public static File getJobResultFolder() {
         return new File(Jenkins.getInstance().getRootDir().getAbsolutePath() + File.separator + IBS_ROOT_PATH);
     }
 }
@@ -0,0 +1,69 @@
+package org.jenkinsci.plugins.infonovabuildstats.model;
+
+import javax.annotation.CheckForNull;
+import java.io.File;
+import java.util.List;
+
+/**
+ * Outcome of appending the records of one shard to its history file, reported per flush to the
+ * {@link org.jenkinsci.plugins.infonovabuildstats.metrics.InfonovaBuildStatsMetrics metrics}. A failed shard does not
+ * affect the other shards of the flush, its records stay in the journal and are queued again for the next flush.
+ */
+public class ShardFlushResult {
+
+    private final File file;
+
+    private final List<AgentStatistic> records;
+
+    private final long appendedBytes;
+
+    private final long nanos;
+
+    @CheckForNull
+    private final Throwable failure;
+
+    private ShardFlushResult(File file, List<AgentStatistic> records, long appendedBytes, long nanos,
+                             @CheckForNull Throwable failure) {
+        this.file = file;
+        this.records = records;
+        this.appendedBytes = appendedBytes;
+        this.nanos = nanos;
+        this.failure = failure;
+    }
+
+    static ShardFlushResult succeeded(File file, List<AgentStatistic> records, long appendedBytes, long nanos) {
+        return new ShardFlushResult(file, records, appendedBytes, nanos, null);
+    }
+
+    static ShardFlushResult failed(File file, List<AgentStatistic> records, long nanos, Throwable failure) {
+        return new ShardFlushResult(file, records, 0L, nanos, failure);
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return List - the records of the shard, written only if the shard succeeded
+     */
+    public List<AgentStatistic> getRecords() {
+        return records;
+    }
+
+    public long getAppendedBytes() {
+        return appendedBytes;
+    }
+
+    public long getNanos() {
+        return nanos;
+    }
+
+    public boolean isSuccess() {
+        return failure == null;
+    }
+
+    @CheckForNull
+    public Throwable getFailure() {
+        return failure;
+    }
+}
@@ -0,0 +1,68 @@
+package org.jenkinsci.plugins.infonovabuildstats.model;
+
+/**
+ * Decides which history file an agent statistic is written to, see {@link JobBuildResultSharder}.
+ * Implementations are used by the writer thread only and need not be thread-safe.
+ */
+public interface ShardStrategy {
+
+    /**
+     * @param agentStatistic - the record to write, its offline date is set
+     * @return String - name of the target file without extension, starting with
+     *         {@link JobBuildResultSharder#JOB_RESULT_FILENAME_PREFIX}
+     */
+    String shardOf(AgentStatistic agentStatistic);
+
+    /**
+     * Length of the period one shard file covers.
+     */
+    enum Granularity {
+
+        /**
+         * agentStatistics-yyyy-MM-dd-HH
+         */
+        HOURLY,
+
+        /**
+         * agentStatistics-yyyy-MM-dd, the original layout
+         */
+        DAILY,
+
+        /**
+         * agentStatistics-yyyy-MM
+         */
+        MONTHLY;
+
+        /**
+         * @return Granularity - the granularity with the given name, DAILY if the name is unknown
+         */
+        public static Granularity fromName(String name) {
+            for (Granularity granularity : values()) {
+                if (granularity.name().equalsIgnoreCase(name)) {
+                    return granularity;
+                }
+            }
+            return DAILY;
+        }
+    }
+
+    /**
+     * Optional split of a period into one file per value of a record field, appended as "_value" to the name.
+     */
+    enum Partition {
+
+        NONE, PROJECT, FRAMEWORK;
+
+        /**
+         * @return Partition - the partition with the given name, NONE if the name is unknown
+         */
+        public static Partition fromName(String name) {
+            for (Partition partition : values()) {
+                if (partition.name().equalsIgnoreCase(name)) {
+                    return partition;
+                }
+            }
+            return NONE;
+        }
+    }
+}
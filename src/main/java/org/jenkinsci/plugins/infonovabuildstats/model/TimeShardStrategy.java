@@ -0,0 +1,159 @@
+package org.jenkinsci.plugins.infonovabuildstats.model;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * Shards by the local offline date of the record, optionally split by project or framework.
+ * The period of a record is computed with epoch-day arithmetic, file names are only built when the period
+ * changes, so writing a batch of the same period allocates neither calendars nor formatters nor strings.
+ * Not thread-safe, used under the lock of the {@link JobBuildResultSharder}.
+ */
+public class TimeShardStrategy implements ShardStrategy {
+
+    private static final long MILLIS_PER_HOUR = 60L * 60L * 1000L;
+
+    private static final long MILLIS_PER_DAY = 24L * MILLIS_PER_HOUR;
+
+    /* Name of the partition of records without project or framework */
+    private static final String NO_PARTITION_VALUE = "none";
+
+    private final Granularity granularity;
+
+    private final Partition partition;
+
+    private final TimeZone timeZone;
+
+    /* Period of the last record and the names of its files, keyed by partition value */
+    private long cachedBucket = Long.MIN_VALUE;
+    private String cachedPeriodName;
+    private final Map<String, String> cachedNames = new HashMap<String, String>();
+
+    public TimeShardStrategy(Granularity granularity, Partition partition) {
+        this(granularity, partition, TimeZone.getDefault());
+    }
+
+    public TimeShardStrategy(Granularity granularity, Partition partition, TimeZone timeZone) {
+        this.granularity = granularity;
+        this.partition = partition;
+        this.timeZone = timeZone;
+    }
+
+    public Granularity getGranularity() {
+        return granularity;
+    }
+
+    public Partition getPartition() {
+        return partition;
+    }
+
+    public String shardOf(AgentStatistic agentStatistic) {
+        long millis = agentStatistic.getOfflineDate().getTime();
+        long localMillis = millis + timeZone.getOffset(millis);
+
+        long bucket = bucketOf(localMillis);
+        if (bucket != cachedBucket) {
+            cachedBucket = bucket;
+            cachedPeriodName = periodName(localMillis);
+            cachedNames.clear();
+        }
+
+        if (partition == Partition.NONE) {
+            return cachedPeriodName;
+        }
+        String value = partition == Partition.PROJECT ? agentStatistic.getProject() : agentStatistic.getFramework();
+        String name = cachedNames.get(value);
+        if (name == null) {
+            name = cachedPeriodName + '_' + sanitize(value);
+            cachedNames.put(value, name);
+        }
+        return name;
+    }
+
+    private long bucketOf(long localMillis) {
+        switch (granularity) {
+            case HOURLY:
+                return floorDiv(localMillis, MILLIS_PER_HOUR);
+            case MONTHLY:
+                int civil = civilOf(floorDiv(localMillis, MILLIS_PER_DAY));
+                return (civil / 10000) * 12L + civil / 100 % 100;
+            default:
+                return floorDiv(localMillis, MILLIS_PER_DAY);
+        }
+    }
+
+    private String periodName(long localMillis) {
+        long epochDay = floorDiv(localMillis, MILLIS_PER_DAY);
+        int civil = civilOf(epochDay);
+
+        StringBuilder name = new StringBuilder(32).append(JobBuildResultSharder.JOB_RESULT_FILENAME_PREFIX);
+        appendPadded(name, civil / 10000, 4).append('-');
+        appendPadded(name, civil / 100 % 100, 2);
+        if (granularity != Granularity.MONTHLY) {
+            appendPadded(name.append('-'), civil % 100, 2);
+        }
+        if (granularity == Granularity.HOURLY) {
+            appendPadded(name.append('-'), (int) ((localMillis - epochDay * MILLIS_PER_DAY) / MILLIS_PER_HOUR), 2);
+        }
+        return name.toString();
+    }
+
+    /**
+     * Civil date of a day since 1970-01-01 in the proleptic gregorian calendar
+     * (see H. Hinnant, "chrono-Compatible Low-Level Date Algorithms").
+     *
+     * @return int - the date packed as yyyyMMdd
+     */
+    static int civilOf(long epochDay) {
+        long z = epochDay + 719468;
+        long era = floorDiv(z, 146097);
+        long dayOfEra = z - era * 146097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long shiftedMonth = (5 * dayOfYear + 2) / 153;
+        int day = (int) (dayOfYear - (153 * shiftedMonth + 2) / 5 + 1);
+        int month = (int) (shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9);
+        int year = (int) (yearOfEra + era * 400 + (month <= 2 ? 1 : 0));
+        return year * 10000 + month * 100 + day;
+    }
+
+    private static long floorDiv(long x, long y) {
+        long quotient = x / y;
+        if ((x % y != 0) && ((x ^ y) < 0)) {
+            quotient--;
+        }
+        return quotient;
+    }
+
+    private static StringBuilder appendPadded(StringBuilder sb, int value, int width) {
+        for (int limit = 10, digits = 1; digits < width; limit *= 10, digits++) {
+            if (value < limit) {
+                sb.append('0');
+            }
+        }
+        return sb.append(value);
+    }
+
+    /**
+     * @return String - the value reduced to the characters allowed in file names of the history folder
+     */
+    static String sanitize(String value) {
+        if (value == null || value.isEmpty()) {
+            return NO_PARTITION_VALUE;
+        }
+        StringBuilder sanitized = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            boolean allowed = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                || c == '_' || c == '-';
+            sanitized.append(allowed ? c : '_');
+        }
+        return sanitized.toString();
+    }
+
+    @Override
+    public String toString() {
+        return "TimeShardStrategy[" + granularity + ", " + partition + "]";
+    }
+}
@@ -0,0 +1,49 @@
+package org.jenkinsci.plugins.infonovabuildstats.query;
+
+import org.jenkinsci.plugins.infonovabuildstats.model.AgentStatistic;
+
+/**
+ * Folds the matching records of a query into a result.
+ * Every worker of the {@link AgentStatisticQueryEngine} accumulates into its own container, which are
+ * combined afterwards. So containers never have to be thread-safe. Results are only cached for a
+ * {@link CacheableAgentStatisticCollector}.
+ *
+ * @param <A> the container (and result) type
+ */
+public abstract class AgentStatisticCollector<A> {
+
+    /**
+     * @return A - a new and empty container
+     */
+    public abstract A create();
+
+    public abstract void accumulate(A container, AgentStatistic agentStatistic);
+
+    /**
+     * @return A - the union of both containers, allowed to reuse one of them
+     */
+    public abstract A combine(A left, A right);
+
+    /**
+     * Counts the matching records.
+     */
+    public static AgentStatisticCollector<long[]> count() {
+        return new AgentStatisticCollector<long[]>() {
+            @Override
+            public long[] create() {
+                return new long[1];
+            }
+
+            @Override
+            public void accumulate(long[] container, AgentStatistic agentStatistic) {
+                container[0]++;
+            }
+
+            @Override
+            public long[] combine(long[] left, long[] right) {
+                left[0] += right[0];
+                return left;
+            }
+        };
+    }
+}
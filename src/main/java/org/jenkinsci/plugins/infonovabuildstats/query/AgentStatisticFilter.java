@@ -0,0 +1,192 @@
+package org.jenkinsci.plugins.infonovabuildstats.query;
+
+import org.apache.commons.lang.StringUtils;
+import org.jenkinsci.plugins.infonovabuildstats.history.HistoryFile;
+import org.jenkinsci.plugins.infonovabuildstats.model.AgentStatistic;
+
+import java.util.Date;
+
+/**
+ * Filter of a history query. The date range applies to the offline date of a record
+ * (from inclusive, to exclusive), the numeric ranges are inclusive, all other criteria are exact matches.
+ * Criteria which are not set match everything.
+ */
+public class AgentStatisticFilter {
+
+    private long fromMillis = Long.MIN_VALUE;
+    private long toMillis = Long.MAX_VALUE;
+
+    private String agentLabel;
+    private String project;
+    private String framework;
+    private String mesosAgent;
+
+    private long minOnlineTimeMillis = Long.MIN_VALUE;
+    private long maxOnlineTimeMillis = Long.MAX_VALUE;
+
+    private double minCpus = Double.NEGATIVE_INFINITY;
+    private double maxCpus = Double.POSITIVE_INFINITY;
+
+    private int minMemory = Integer.MIN_VALUE;
+    private int maxMemory = Integer.MAX_VALUE;
+
+    public AgentStatisticFilter from(Date from) {
+        this.fromMillis = from == null ? Long.MIN_VALUE : from.getTime();
+        return this;
+    }
+
+    public AgentStatisticFilter to(Date to) {
+        this.toMillis = to == null ? Long.MAX_VALUE : to.getTime();
+        return this;
+    }
+
+    public AgentStatisticFilter agentLabel(String agentLabel) {
+        this.agentLabel = StringUtils.trimToNull(agentLabel);
+        return this;
+    }
+
+    public AgentStatisticFilter project(String project) {
+        this.project = StringUtils.trimToNull(project);
+        return this;
+    }
+
+    public AgentStatisticFilter framework(String framework) {
+        this.framework = StringUtils.trimToNull(framework);
+        return this;
+    }
+
+    public AgentStatisticFilter mesosAgent(String mesosAgent) {
+        this.mesosAgent = StringUtils.trimToNull(mesosAgent);
+        return this;
+    }
+
+    /**
+     * Online time in [min, max], both inclusive.
+     */
+    public AgentStatisticFilter onlineTimeMillis(long min, long max) {
+        this.minOnlineTimeMillis = min;
+        this.maxOnlineTimeMillis = max;
+        return this;
+    }
+
+    /**
+     * Cpus in [min, max], both inclusive.
+     */
+    public AgentStatisticFilter cpus(double min, double max) {
+        this.minCpus = min;
+        this.maxCpus = max;
+        return this;
+    }
+
+    /**
+     * Memory in [min, max], both inclusive.
+     */
+    public AgentStatisticFilter memory(int min, int max) {
+        this.minMemory = min;
+        this.maxMemory = max;
+        return this;
+    }
+
+    public long getFromMillis() {
+        return fromMillis;
+    }
+
+    public long getToMillis() {
+        return toMillis;
+    }
+
+    public String getAgentLabel() {
+        return agentLabel;
+    }
+
+    public String getProject() {
+        return project;
+    }
+
+    public String getFramework() {
+        return framework;
+    }
+
+    public String getMesosAgent() {
+        return mesosAgent;
+    }
+
+    public long getMinOnlineTimeMillis() {
+        return minOnlineTimeMillis;
+    }
+
+    public long getMaxOnlineTimeMillis() {
+        return maxOnlineTimeMillis;
+    }
+
+    public double getMinCpus() {
+        return minCpus;
+    }
+
+    public double getMaxCpus() {
+        return maxCpus;
+    }
+
+    public int getMinMemory() {
+        return minMemory;
+    }
+
+    public int getMaxMemory() {
+        return maxMemory;
+    }
+
+    /**
+     * Checks the numeric criteria against the value ranges (zone map) of a block of records.
+     *
+     * @return boolean - false if no record within the ranges can match
+     */
+    public boolean mayMatchRanges(long minOffline, long maxOffline, long minOnlineTime, long maxOnlineTime,
+                                  double minCpusValue, double maxCpusValue, int minMemoryValue, int maxMemoryValue) {
+        return minOffline < toMillis && maxOffline >= fromMillis
+            && minOnlineTime <= maxOnlineTimeMillis && maxOnlineTime >= minOnlineTimeMillis
+            && minCpusValue <= maxCpus && maxCpusValue >= minCpus
+            && minMemoryValue <= maxMemory && maxMemoryValue >= minMemory;
+    }
+
+    /**
+     * @return boolean - true if the primitive values match the date and numeric criteria
+     */
+    public boolean matchesValues(long offlineMillis, long onlineTimeMillis, double cpus, int memory) {
+        return offlineMillis >= fromMillis && offlineMillis < toMillis
+            && onlineTimeMillis >= minOnlineTimeMillis && onlineTimeMillis <= maxOnlineTimeMillis
+            && cpus >= minCpus && cpus <= maxCpus
+            && memory >= minMemory && memory <= maxMemory;
+    }
+
+    /**
+     * @return boolean - false if the history file can not contain any matching record
+     */
+    public boolean mayMatch(HistoryFile historyFile) {
+        return historyFile.mayOverlap(fromMillis, toMillis);
+    }
+
+    public boolean matches(AgentStatistic agentStatistic) {
+        Date offlineDate = agentStatistic.getOfflineDate();
+        if (offlineDate == null || !matchesValues(offlineDate.getTime(), agentStatistic.getOnlineTimeMillis(),
+            agentStatistic.getCpus(), agentStatistic.getMemory())) {
+            return false;
+        }
+        return matches(agentLabel, agentStatistic.getAgentLabel())
+            && matches(project, agentStatistic.getProject())
+            && matches(framework, agentStatistic.getFramework())
+            && matches(mesosAgent, agentStatistic.getMesosAgent());
+    }
+
+    private static boolean matches(String expected, String actual) {
+        return expected == null || expected.equals(actual);
+    }
+
+    @Override
+    public String toString() {
+        return "AgentStatisticFilter[from=" + fromMillis + ", to=" + toMillis + ", agentLabel=" + agentLabel
+            + ", project=" + project + ", framework=" + framework + ", mesosAgent=" + mesosAgent
+            + ", onlineTimeMillis=[" + minOnlineTimeMillis + ", " + maxOnlineTimeMillis + "]"
+            + ", cpus=[" + minCpus + ", " + maxCpus + "]"
+            + ", memory=[" + minMemory + ", " + maxMemory + "]]";
+    }
+}
@@ -0,0 +1,422 @@
+package org.jenkinsci.plugins.infonovabuildstats.query;
+
+import org.apache.commons.io.IOUtils;
+import org.jenkinsci.plugins.infonovabuildstats.history.AgentStatisticXmlReader;
+import org.jenkinsci.plugins.infonovabuildstats.history.HistoryFile;
+import org.jenkinsci.plugins.infonovabuildstats.model.AgentStatistic;
+import org.jenkinsci.plugins.infonovabuildstats.storage.BinarySegmentReader;
+import org.jenkinsci.plugins.infonovabuildstats.storage.StorageFormat;
+import org.jenkinsci.plugins.infonovabuildstats.storage.XmlOffsetIndex;
+import org.jenkinsci.plugins.infonovabuildstats.utils.IoThrottle;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Query engine over the history files of the infonova-build-stats folder.
+ * XML history files are streamed with a pull parser (only the fragments selected by the offset index, if the file
+ * has one), binary segments are scanned memory-mapped and compacted segments column by column, so every worker
+ * holds only the record it is currently looking at.
+ * The files of a {@link HistorySnapshot} are fanned out over a fork-join pool, one file per leaf task.
+ * Results of cacheable collectors over the history files which no longer change are kept in a size bounded
+ * {@link AgentStatisticResultCache}.
+ */
+public class AgentStatisticQueryEngine {
+
+    private static final Logger LOGGER = Logger.getLogger(AgentStatisticQueryEngine.class.getName());
+
+    /* Cached results are histograms per label and alike, a few hundred KB, or the agent intervals of a window */
+    private static final int RESULT_CACHE_ENTRIES = 32;
+
+    private static final long RESULT_CACHE_BYTES = 64L * 1024 * 1024;
+
+    /* larger results, e.g. the intervals of months of agents, are computed for every query */
+    private static final long RESULT_CACHE_MAX_ENTRY_BYTES = 16L * 1024 * 1024;
+
+    private final File historyFolder;
+
+    private final ForkJoinPool pool;
+
+    /* Results of the closed history files, so the same report opened again costs only a scan of the current day */
+    private final AgentStatisticResultCache resultCache = new AgentStatisticResultCache(RESULT_CACHE_ENTRIES,
+        RESULT_CACHE_BYTES, RESULT_CACHE_MAX_ENTRY_BYTES);
+
+    /**
+     * @param historyFolder - the infonova-build-stats folder
+     * @param parallelism - the maximum number of files parsed concurrently
+     */
+    public AgentStatisticQueryEngine(File historyFolder, int parallelism) {
+        this.historyFolder = historyFolder;
+        this.pool = new ForkJoinPool(Math.max(1, parallelism));
+    }
+
+    /**
+     * @return int - default parallelism, half of the processors so queries never starve the build executors
+     */
+    public static int defaultParallelism() {
+        return Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    }
+
+    /**
+     * Runs the query over all history files which may contain matching records. If the collector is a
+     * {@link CacheableAgentStatisticCollector}, the result of the closed history files is taken from the result cache
+     * and only the files of the current day are scanned.
+     *
+     * @param filter - the records to select
+     * @param collector - folds the selected records into the result
+     * @return A - the combined result of all files
+     */
+    public <A> A execute(AgentStatisticFilter filter, AgentStatisticCollector<A> collector) {
+        if (collector instanceof CacheableAgentStatisticCollector) {
+            return executeCached(filter, (CacheableAgentStatisticCollector<A>) collector);
+        }
+        HistorySnapshot snapshot = HistorySnapshot.open(historyFolder, filter);
+        try {
+            List<HistorySnapshot.Part> parts = snapshot.getParts();
+
+            LOGGER.log(Level.FINE, "Querying " + parts.size() + " history files with " + filter);
+
+            return invoke(parts, filter, collector);
+        } finally {
+            snapshot.close();
+        }
+    }
+
+    /**
+     * The result of the closed day files and the compacted segments is cached under a key made of the collector,
+     * the filter and the offset, length and modification time of each of these files. A file which changed (e.g. a
+     * backfill appended to a past day or the compactor replaced a segment) yields a new key, the outdated entry is
+     * no longer asked for. The files of the current day are scanned on every query.
+     */
+    private <A> A executeCached(final AgentStatisticFilter filter,
+                                final CacheableAgentStatisticCollector<A> collector) {
+        // taken before the snapshot: a file replaced in between yields a key which is never asked for again
+        Map<String, String> generations = generationsOf(historyFolder, filter);
+        HistorySnapshot snapshot = HistorySnapshot.open(historyFolder, filter);
+        try {
+            long todayStart = HistoryFile.startOfToday();
+            final List<HistorySnapshot.Part> closedParts = new ArrayList<HistorySnapshot.Part>();
+            List<HistorySnapshot.Part> openParts = new ArrayList<HistorySnapshot.Part>();
+            StringBuilder key = new StringBuilder(collector.getCacheKey()).append('|').append(filter);
+            for (HistorySnapshot.Part part : snapshot.getParts()) {
+                HistoryFile historyFile = part.getHistoryFile();
+                String generation = generations.get(historyFile.getFile().getName());
+                if (generation != null
+                    && (historyFile.getFormat() == StorageFormat.COLUMNAR || historyFile.isClosed(todayStart))) {
+                    closedParts.add(part);
+                    key.append('|').append(historyFile.getFile().getName()).append('@').append(part.getOffset())
+                        .append(':').append(generation);
+                } else {
+                    openParts.add(part);
+                }
+            }
+
+            LOGGER.log(Level.FINE, "Querying " + closedParts.size() + " closed (cached) and " + openParts.size()
+                + " open history files with " + filter);
+
+            A result;
+            if (closedParts.isEmpty()) {
+                result = collector.create();
+            } else {
+                @SuppressWarnings("unchecked")
+                A cached = (A) resultCache.get(key.toString(), new Callable<Object>() {
+                    public Object call() {
+                        return invoke(closedParts, filter, collector);
+                    }
+                }, new AgentStatisticResultCache.Weigher() {
+                    @SuppressWarnings("unchecked")
+                    public long weigh(Object result) {
+                        return collector.estimateBytes((A) result);
+                    }
+                });
+                result = collector.copy(cached);
+            }
+            if (!openParts.isEmpty()) {
+                result = collector.combine(result, invoke(openParts, filter, collector));
+            }
+            return result;
+        } finally {
+            snapshot.close();
+        }
+    }
+
+    private <A> A invoke(List<HistorySnapshot.Part> parts, AgentStatisticFilter filter,
+                         AgentStatisticCollector<A> collector) {
+        if (parts.isEmpty()) {
+            return collector.create();
+        }
+        return pool.invoke(new ScanTask<A>(parts, 0, parts.size(), filter, collector));
+    }
+
+    /**
+     * @return Map - length and modification time by file name of the history files a snapshot may select
+     */
+    private static Map<String, String> generationsOf(File historyFolder, AgentStatisticFilter filter) {
+        Map<String, String> generations = new HashMap<String, String>();
+        for (HistoryFile historyFile : HistoryFile.list(historyFolder)) {
+            if (historyFile.getFormat() == StorageFormat.COLUMNAR || filter.mayMatch(historyFile)) {
+                File file = historyFile.getFile();
+                generations.put(file.getName(), file.length() + ":" + file.lastModified());
+            }
+        }
+        return generations;
+    }
+
+    /**
+     * Runs the query part by part on the calling thread, e.g. for background work which must not compete with
+     * the builds for the disk. The throttle is charged with the bytes of every part before it is read.
+     *
+     * @param historyFolder - the infonova-build-stats folder
+     * @param throttle - limits the read bandwidth
+     */
+    public static <A> A executeThrottled(File historyFolder, AgentStatisticFilter filter,
+                                         AgentStatisticCollector<A> collector, IoThrottle throttle)
+        throws InterruptedException {
+        HistorySnapshot snapshot = HistorySnapshot.open(historyFolder, filter);
+        try {
+            A result = collector.create();
+            for (HistorySnapshot.Part part : snapshot.getParts()) {
+                throttle.acquire(part.getHistoryFile().getFile().length() - part.getOffset());
+                result = collector.combine(result, scan(part, filter, collector));
+            }
+            return result;
+        } finally {
+            snapshot.close();
+        }
+    }
+
+    /**
+     * Finds the given records which are contained in the history files already, e.g. the records of a flush or a
+     * backfill batch which crashed after the append but before its checkpoint. A record is identified by agent name
+     * and online date, only the history files which may hold the offline dates of the records are read.
+     * An unreadable part is logged by the scan, its records are not found then.
+     *
+     * @param historyFolder - the infonova-build-stats folder
+     * @return Set - the written records, compared by identity
+     */
+    public static Set<AgentStatistic> findWritten(File historyFolder, Collection<AgentStatistic> agentStatistics) {
+        final Set<AgentStatistic> written = Collections.newSetFromMap(new IdentityHashMap<AgentStatistic, Boolean>());
+        final Map<String, AgentStatistic> byKey = new HashMap<String, AgentStatistic>();
+        long minOffline = Long.MAX_VALUE;
+        long maxOffline = Long.MIN_VALUE;
+        for (AgentStatistic agentStatistic : agentStatistics) {
+            Date offlineDate = agentStatistic.getOfflineDate();
+            if (offlineDate == null) {
+                continue;
+            }
+            byKey.put(writtenKeyOf(agentStatistic), agentStatistic);
+            minOffline = Math.min(minOffline, offlineDate.getTime());
+            maxOffline = Math.max(maxOffline, offlineDate.getTime());
+        }
+        if (byKey.isEmpty()) {
+            return written;
+        }
+
+        AgentStatisticFilter filter = new AgentStatisticFilter().from(new Date(minOffline))
+            .to(new Date(maxOffline + 1));
+        AgentStatisticCollector<Void> collector = new AgentStatisticCollector<Void>() {
+            @Override
+            public Void create() {
+                return null;
+            }
+
+            @Override
+            public void accumulate(Void container, AgentStatistic agentStatistic) {
+                AgentStatistic candidate = byKey.get(writtenKeyOf(agentStatistic));
+                if (candidate != null) {
+                    written.add(candidate);
+                }
+            }
+
+            @Override
+            public Void combine(Void left, Void right) {
+                return null;
+            }
+        };
+        HistorySnapshot snapshot = HistorySnapshot.open(historyFolder, filter);
+        try {
+            for (HistorySnapshot.Part part : snapshot.getParts()) {
+                scan(part, filter, collector);
+            }
+        } finally {
+            snapshot.close();
+        }
+        return written;
+    }
+
+    private static String writtenKeyOf(AgentStatistic agentStatistic) {
+        Date onlineDate = agentStatistic.getOnlineDate();
+        return (onlineDate == null ? "" : String.valueOf(onlineDate.getTime())) + "|" + agentStatistic.getAgentName();
+    }
+
+    /**
+     * Scans a single part of the history sequentially.
+     */
+    public static <A> A scan(HistorySnapshot.Part part, AgentStatisticFilter filter,
+                             AgentStatisticCollector<A> collector) {
+        HistoryFile historyFile = part.getHistoryFile();
+        if (historyFile.getFormat() == StorageFormat.COLUMNAR) {
+            return scanColumnar(part, filter, collector);
+        }
+        if (historyFile.getFormat() == StorageFormat.BINARY) {
+            return scanBinary(part, filter, collector);
+        }
+        XmlOffsetIndex index = XmlOffsetIndex.open(historyFile.getFile());
+        if (index != null) {
+            return scanIndexed(part, index, filter, collector);
+        }
+        A container = collector.create();
+        scanXml(historyFile.getFile(), part.getOffset(), filter, collector, container);
+        return container;
+    }
+
+    /**
+     * Streams the fragments of an XML history file from the offset to the end of the file.
+     */
+    private static <A> void scanXml(File file, long offset, AgentStatisticFilter filter,
+                                    AgentStatisticCollector<A> collector, A container) {
+        AgentStatisticXmlReader reader = null;
+        try {
+            reader = offset == 0L
+                ? new AgentStatisticXmlReader(file)
+                : AgentStatisticXmlReader.openRange(file, offset, file.length());
+            accumulate(reader, filter, collector, container);
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Unable to read history file " + file + "@" + offset
+                + ", result is incomplete", e);
+        } finally {
+            IOUtils.closeQuietly(reader);
+        }
+    }
+
+    /**
+     * Reads only the fragments selected by the offset index of an XML history file. Fragments appended after the
+     * index was loaded are streamed.
+     */
+    private static <A> A scanIndexed(HistorySnapshot.Part part, XmlOffsetIndex index, AgentStatisticFilter filter,
+                                     AgentStatisticCollector<A> collector) {
+        A container = collector.create();
+        File file = part.getHistoryFile().getFile();
+        int[] selected = index.select(filter, part.getOffset());
+        if (selected.length > 0) {
+            long[] offsets = new long[selected.length];
+            int[] lengths = new int[selected.length];
+            for (int i = 0; i < selected.length; i++) {
+                offsets[i] = index.getOffset(selected[i]);
+                lengths[i] = index.getLength(selected[i]);
+            }
+            AgentStatisticXmlReader reader = null;
+            try {
+                reader = AgentStatisticXmlReader.openRanges(file, offsets, lengths);
+                accumulate(reader, filter, collector, container);
+            } catch (IOException e) {
+                LOGGER.log(Level.SEVERE, "Unable to read history file " + part + ", result is incomplete", e);
+            } finally {
+                IOUtils.closeQuietly(reader);
+            }
+        }
+        long tail = Math.max(index.getCoveredEnd(), part.getOffset());
+        if (file.length() > tail) {
+            scanXml(file, tail, filter, collector, container);
+        }
+        return container;
+    }
+
+    private static <A> void accumulate(AgentStatisticXmlReader reader, AgentStatisticFilter filter,
+                                       AgentStatisticCollector<A> collector, A container) throws IOException {
+        AgentStatistic agentStatistic;
+        while ((agentStatistic = reader.next()) != null) {
+            if (filter.matches(agentStatistic)) {
+                collector.accumulate(container, agentStatistic);
+            }
+        }
+    }
+
+    /**
+     * Scans a compacted segment, the segment reader was opened by the snapshot.
+     */
+    private static <A> A scanColumnar(HistorySnapshot.Part part, AgentStatisticFilter filter,
+                                      AgentStatisticCollector<A> collector) {
+        A container = collector.create();
+        try {
+            part.getSegment().scan(filter, collector, container);
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Unable to read history file " + part + ", result is incomplete", e);
+        }
+        return container;
+    }
+
+    /**
+     * Scans a binary segment, only the matching records are materialized.
+     */
+    private static <A> A scanBinary(HistorySnapshot.Part part, AgentStatisticFilter filter,
+                                    AgentStatisticCollector<A> collector) {
+        A container = collector.create();
+        try {
+            BinarySegmentReader reader = new BinarySegmentReader(part.getHistoryFile().getFile());
+            BinarySegmentReader.Matcher matcher = reader.matcher(filter);
+            if (matcher.isImpossible()) {
+                return container;
+            }
+            int count = reader.getRecordCount();
+            for (int record = reader.firstRecordAt(part.getOffset()); record < count; record++) {
+                if (matcher.matches(record)) {
+                    collector.accumulate(container, reader.materialize(record));
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Unable to read history file " + part + ", result is incomplete", e);
+        }
+        return container;
+    }
+
+    public void shutdown() {
+        pool.shutdownNow();
+        resultCache.clear();
+    }
+
+    private static class ScanTask<A> extends RecursiveTask<A> {
+
+        private final List<HistorySnapshot.Part> parts;
+        private final int from;
+        private final int to;
+        private final AgentStatisticFilter filter;
+        private final AgentStatisticCollector<A> collector;
+
+        ScanTask(List<HistorySnapshot.Part> parts, int from, int to, AgentStatisticFilter filter,
+                 AgentStatisticCollector<A> collector) {
+            this.parts = parts;
+            this.from = from;
+            this.to = to;
+            this.filter = filter;
+            this.collector = collector;
+        }
+
+        @Override
+        protected A compute() {
+            if (to - from == 1) {
+                return scan(parts.get(from), filter, collector);
+            }
+            int middle = (from + to) >>> 1;
+            ScanTask<A> left = new ScanTask<A>(parts, from, middle, filter, collector);
+            ScanTask<A> right = new ScanTask<A>(parts, middle, to, filter, collector);
+            left.fork();
+            A rightResult = right.compute();
+            return collector.combine(left.join(), rightResult);
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package org.jenkinsci.plugins.infonovabuildstats.query;
+
+import org.jenkinsci.plugins.infonovabuildstats.metrics.InfonovaBuildStatsMetrics;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Size bounded LRU cache of query results, see {@link AgentStatisticQueryEngine#execute}. The key of an entry names
+ * the query and the generation of every history file the result was computed from, so an entry is never invalidated
+ * but simply not asked for any more once one of its files changed, and falls out of the cache eventually.
+ *
+ * The cache is bounded by the number of entries and by the estimated bytes of the results: the least recently used
+ * results are dropped while the total exceeds the budget, and a result above the per-entry threshold (e.g. the
+ * intervals of a month of agents) is handed to its callers without being kept.
+ *
+ * Concurrent requests for the same key share one computation: the first request computes the result, the others
+ * wait for it. A failed computation is not cached.
+ */
+class AgentStatisticResultCache {
+
+    private static final Logger LOGGER = Logger.getLogger(AgentStatisticResultCache.class.getName());
+
+    /**
+     * Estimates the heap size of a result.
+     */
+    interface Weigher {
+
+        /**
+         * @return long - approximate size of the result in bytes
+         */
+        long weigh(Object result);
+    }
+
+    /**
+     * Access ordered, the eldest entry is the least recently used one. Guarded by this.
+     */
+    private final LinkedHashMap<String, Entry> entries;
+
+    private final long maxBytes;
+
+    private final long maxEntryBytes;
+
+    /* estimated bytes of the computed results in the cache, guarded by this */
+    private long bytes;
+
+    /**
+     * @param capacity - maximum number of cached results
+     * @param maxBytes - maximum estimated bytes of all cached results
+     * @param maxEntryBytes - results estimated above are not cached
+     */
+    AgentStatisticResultCache(final int capacity, long maxBytes, long maxEntryBytes) {
+        this.maxBytes = maxBytes;
+        this.maxEntryBytes = maxEntryBytes;
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() > capacity) {
+                    bytes -= eldest.getValue().bytes;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @param key - the query and the generations of its history files
+     * @param loader - computes the result if it is neither cached nor being computed
+     * @param weigher - estimates the size of the computed result
+     * @return Object - the cached result, shared by all callers and never to be modified
+     */
+    Object get(String key, Callable<Object> loader, Weigher weigher) {
+        Entry entry;
+        boolean computing = false;
+        synchronized (this) {
+            entry = entries.get(key);
+            if (entry == null) {
+                entry = new Entry(new FutureTask<Object>(loader));
+                entries.put(key, entry);
+                computing = true;
+            }
+        }
+        InfonovaBuildStatsMetrics.INSTANCE.recordQueryCache(!computing);
+        if (computing) {
+            entry.task.run();
+        }
+
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    Object result = entry.task.get();
+                    if (computing) {
+                        computed(key, entry, weigher.weigh(result));
+                    }
+                    return result;
+                } catch (InterruptedException e) {
+                    // the result is needed anyway, the computing thread does not get interrupted
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    remove(key, entry);
+                    Throwable cause = e.getCause();
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+                    if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    throw new IllegalStateException("Query failed", cause);
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Charges the size of a computed result, drops it if it is too large and the least recently used results
+     * while the budget is exceeded. The callers waiting for the result meanwhile still get it.
+     */
+    private synchronized void computed(String key, Entry entry, long entryBytes) {
+        if (entries.get(key) != entry) {
+            // evicted or cleared while computing
+            return;
+        }
+        if (entryBytes > maxEntryBytes) {
+            LOGGER.log(Level.FINE, "Not caching a result of about " + entryBytes + " bytes for " + key);
+            entries.remove(key);
+            return;
+        }
+        entry.bytes = entryBytes;
+        bytes += entryBytes;
+        Iterator<Entry> eldest = entries.values().iterator();
+        while (bytes > maxBytes && eldest.hasNext()) {
+            Entry evicted = eldest.next();
+            if (evicted != entry) {
+                bytes -= evicted.bytes;
+                eldest.remove();
+            }
+        }
+    }
+
+    private synchronized void remove(String key, Entry entry) {
+        if (entries.get(key) == entry) {
+            entries.remove(key);
+            bytes -= entry.bytes;
+        }
+    }
+
+    /**
+     * @return int - number of cached results, including the ones being computed
+     */
+    synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return long - estimated bytes of the cached results
+     */
+    synchronized long getBytes() {
+        return bytes;
+    }
+
+    synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    /**
+     * A result being computed or computed, with its estimated size once it is charged.
+     */
+    private static final class Entry {
+
+        final FutureTask<Object> task;
+
+        /* 0 until the result is computed, guarded by the cache */
+        long bytes;
+
+        Entry(FutureTask<Object> task) {
+            this.task = task;
+        }
+    }
+}
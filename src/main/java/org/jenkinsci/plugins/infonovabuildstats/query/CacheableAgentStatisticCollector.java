@@ -0,0 +1,29 @@
+package org.jenkinsci.plugins.infonovabuildstats.query;
+
+/**
+ * A collector whose results the {@link AgentStatisticQueryEngine} caches for the history files which do not change
+ * any more, so repeated queries only scan the files of the current day. The cached container is shared by all
+ * queries and every query gets a {@link #copy(Object) copy} of it.
+ *
+ * @param <A> the container (and result) type
+ */
+public abstract class CacheableAgentStatisticCollector<A> extends AgentStatisticCollector<A> {
+
+    /**
+     * @return String - names the result of the collector including all its parameters, the filter is added by the
+     * query engine
+     */
+    public abstract String getCacheKey();
+
+    /**
+     * @return A - an independent deep copy of the container, which may be modified by
+     * {@link #combine(Object, Object)} and the caller
+     */
+    public abstract A copy(A container);
+
+    /**
+     * @return long - approximate heap size of the container in bytes, the cache keeps large results only up to a
+     * budget and does not keep single results above a threshold at all
+     */
+    public abstract long estimateBytes(A container);
+}
@@ -0,0 +1,137 @@
+package org.jenkinsci.plugins.infonovabuildstats.query;
+
+import org.apache.commons.io.IOUtils;
+import org.jenkinsci.plugins.infonovabuildstats.history.HistoryFile;
+import org.jenkinsci.plugins.infonovabuildstats.storage.ColumnarSegmentReader;
+import org.jenkinsci.plugins.infonovabuildstats.storage.CoveredFile;
+import org.jenkinsci.plugins.infonovabuildstats.storage.StorageFormat;
+
+import javax.annotation.CheckForNull;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The history files one query reads. The compacted segments are opened while the snapshot is taken,
+ * so a query keeps reading the same segment generation even if the compactor replaces a segment meanwhile.
+ * Day files whose records are contained in a segment are left out, a day file which grew after it was
+ * compacted is only read from the covered length on.
+ */
+public class HistorySnapshot implements Closeable {
+
+    private static final Logger LOGGER = Logger.getLogger(HistorySnapshot.class.getName());
+
+    private final List<Part> parts;
+
+    private final List<ColumnarSegmentReader> segments;
+
+    private HistorySnapshot(List<Part> parts, List<ColumnarSegmentReader> segments) {
+        this.parts = parts;
+        this.segments = segments;
+    }
+
+    /**
+     * @param historyFolder - the infonova-build-stats folder
+     * @param filter - only parts which may contain matching records are selected
+     */
+    public static HistorySnapshot open(File historyFolder, AgentStatisticFilter filter) {
+        List<HistoryFile> historyFiles = HistoryFile.list(historyFolder);
+
+        List<ColumnarSegmentReader> segments = new ArrayList<ColumnarSegmentReader>();
+        Map<String, Long> coveredLengths = new HashMap<String, Long>();
+        List<Part> parts = new ArrayList<Part>();
+        for (HistoryFile historyFile : historyFiles) {
+            if (historyFile.getFormat() != StorageFormat.COLUMNAR) {
+                continue;
+            }
+            ColumnarSegmentReader segment;
+            try {
+                segment = new ColumnarSegmentReader(historyFile.getFile());
+            } catch (IOException e) {
+                LOGGER.log(Level.SEVERE, "Unable to open history segment " + historyFile + ", result is incomplete", e);
+                continue;
+            }
+            segments.add(segment);
+            for (CoveredFile coveredFile : segment.getCoveredFiles()) {
+                coveredLengths.put(coveredFile.getName(), coveredFile.getLength());
+            }
+            if (segment.mayMatch(filter)) {
+                parts.add(new Part(historyFile, 0L, segment));
+            }
+        }
+
+        for (HistoryFile historyFile : historyFiles) {
+            if (historyFile.getFormat() == StorageFormat.COLUMNAR || !filter.mayMatch(historyFile)) {
+                continue;
+            }
+            Long coveredLength = coveredLengths.get(historyFile.getFile().getName());
+            if (coveredLength == null) {
+                parts.add(new Part(historyFile, 0L, null));
+            } else if (historyFile.getFile().length() > coveredLength) {
+                parts.add(new Part(historyFile, coveredLength, null));
+            }
+        }
+
+        return new HistorySnapshot(Collections.unmodifiableList(parts), segments);
+    }
+
+    public List<Part> getParts() {
+        return parts;
+    }
+
+    @Override
+    public void close() {
+        for (ColumnarSegmentReader segment : segments) {
+            IOUtils.closeQuietly(segment);
+        }
+    }
+
+    /**
+     * A history file, or the part of a day file after its covered length, to be scanned by one worker.
+     */
+    public static class Part {
+
+        private final HistoryFile historyFile;
+
+        private final long offset;
+
+        private final ColumnarSegmentReader segment;
+
+        Part(HistoryFile historyFile, long offset, ColumnarSegmentReader segment) {
+            this.historyFile = historyFile;
+            this.offset = offset;
+            this.segment = segment;
+        }
+
+        public HistoryFile getHistoryFile() {
+            return historyFile;
+        }
+
+        /**
+         * @return long - byte offset of the first record to read, 0 for the whole file
+         */
+        public long getOffset() {
+            return offset;
+        }
+
+        /**
+         * @return ColumnarSegmentReader - the opened segment or null if this part is a day file
+         */
+        @CheckForNull
+        public ColumnarSegmentReader getSegment() {
+            return segment;
+        }
+
+        @Override
+        public String toString() {
+            return offset == 0L ? historyFile.toString() : historyFile + "@" + offset;
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package org.jenkinsci.plugins.infonovabuildstats.rollup;
+
+/**
+ * Aggregated usage of a group of agent statistics.
+ * cpu-seconds are cpus &times; online time, MB-seconds are memory &times; online time.
+ */
+public class Rollup {
+
+    private double cpuSeconds;
+
+    private double mbSeconds;
+
+    private long agentCount;
+
+    public void add(double cpuSeconds, double mbSeconds, long agentCount) {
+        this.cpuSeconds += cpuSeconds;
+        this.mbSeconds += mbSeconds;
+        this.agentCount += agentCount;
+    }
+
+    public double getCpuSeconds() {
+        return cpuSeconds;
+    }
+
+    public double getCpuHours() {
+        return cpuSeconds / 3600.0;
+    }
+
+    public double getMbSeconds() {
+        return mbSeconds;
+    }
+
+    public long getAgentCount() {
+        return agentCount;
+    }
+
+    @Override
+    public String toString() {
+        return "Rollup[cpuSeconds=" + cpuSeconds + ", mbSeconds=" + mbSeconds + ", agentCount=" + agentCount + "]";
+    }
+}
@@ -0,0 +1,55 @@
+package org.jenkinsci.plugins.infonovabuildstats.rollup;
+
+import org.jenkinsci.plugins.infonovabuildstats.model.AgentStatistic;
+
+/**
+ * The dimensions the rollups are kept by, in tuple order.
+ */
+public enum RollupDimension {
+
+    PROJECT, AGENT_LABEL, FRAMEWORK, PRINCIPAL;
+
+    /**
+     * @return String - the value of this dimension of the record
+     */
+    public String valueOf(AgentStatistic agentStatistic) {
+        switch (this) {
+            case PROJECT:
+                return agentStatistic.getProject();
+            case AGENT_LABEL:
+                return agentStatistic.getAgentLabel();
+            case FRAMEWORK:
+                return agentStatistic.getFramework();
+            default:
+                return agentStatistic.getPrincipal();
+        }
+    }
+
+    /**
+     * @return RollupDimension - the dimension with the given name (e.g. agentLabel or AGENT_LABEL), the default
+     * if the name is unknown
+     */
+    public static RollupDimension fromName(String name, RollupDimension defaultDimension) {
+        if (name != null) {
+            String normalized = name.replace("_", "");
+            for (RollupDimension dimension : values()) {
+                if (dimension.name().replace("_", "").equalsIgnoreCase(normalized)) {
+                    return dimension;
+                }
+            }
+        }
+        return defaultDimension;
+    }
+
+    /**
+     * @return String[] - the dimension values of the record, indexed by ordinal
+     */
+    public static String[] tupleOf(AgentStatistic agentStatistic) {
+        return new String[] {
+            agentStatistic.getProject(),
+            agentStatistic.getAgentLabel(),
+            agentStatistic.getFramework(),
+            agentStatistic.getPrincipal()
+        };
+    }
+}
@@ -0,0 +1,645 @@
+package org.jenkinsci.plugins.infonovabuildstats.rollup;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.CountingInputStream;
+import org.jenkinsci.plugins.infonovabuildstats.model.AgentStatistic;
+import org.jenkinsci.plugins.infonovabuildstats.model.JobBuildResultSharder;
+import org.jenkinsci.plugins.infonovabuildstats.query.AgentStatisticCollector;
+import org.jenkinsci.plugins.infonovabuildstats.query.AgentStatisticFilter;
+import org.jenkinsci.plugins.infonovabuildstats.query.AgentStatisticQueryEngine;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Hourly rollups (cpu-seconds, MB-seconds, agent count) per project, agent label, framework and principal,
+ * maintained while the records are written to the history files.
+ *
+ * New records are added to an in-memory delta table which is appended to the rollup file of its month
+ * (agentRollups-yyyy-MM.rollup, UTC months, next to the day files) on every flush. A rollup file is read
+ * once and kept in memory, later only its appended tail is read. When a file holds much more delta
+ * records than distinct (hour, tuple) keys it is rewritten with one record per key.
+ *
+ * Old months can be {@link #downsample(String) downsampled} to daily rollups per project, agent label and
+ * framework (agentRollups-yyyy-MM.daily.rollup, same record format, the hour is the first hour of the UTC day
+ * and the principal is dropped). Records added to a downsampled month are downsampled as well.
+ *
+ * <pre>
+ * record := hour:int (present:boolean value:UTF?)[4] cpuSeconds:double mbSeconds:double agentCount:long
+ * </pre>
+ *
+ * The usage of a record is spread across the hours it was online in: every hour gets the cpu-seconds and
+ * MB-seconds of the part of the online time which falls into it, at most the last {@value #MAX_SPREAD_HOURS}
+ * hours, the online time before them goes to the first of them. The agent count of a record is only added to the
+ * hour of its offline date. A record without online date only adds its agent count.
+ */
+public class RollupStore {
+
+    private static final Logger LOGGER = Logger.getLogger(RollupStore.class.getName());
+
+    public static final String ROLLUP_FILENAME_PREFIX = "agentRollups-";
+
+    public static final String ROLLUP_FILE_EXTENSION = ".rollup";
+
+    public static final String DAILY_ROLLUP_FILE_EXTENSION = ".daily" + ROLLUP_FILE_EXTENSION;
+
+    private static final Pattern ROLLUP_FILE_PATTERN = Pattern.compile(
+        Pattern.quote(ROLLUP_FILENAME_PREFIX) + "(\\d{4}-\\d{2})(" + Pattern.quote(".daily") + ")?"
+            + Pattern.quote(ROLLUP_FILE_EXTENSION));
+
+    public static final long HOUR_MILLIS = 3600L * 1000L;
+
+    /* bounds the rollup entries of a single record, e.g. of an agent with a bogus online date */
+    static final int MAX_SPREAD_HOURS = 31 * 24;
+
+    private static final int HOURS_PER_DAY = 24;
+
+    private final Tuples tuples = new Tuples();
+
+    /* not yet persisted deltas */
+    private RollupTable unpersisted = new RollupTable();
+
+    /* persisted rollups per month key, read from the rollup files */
+    private final Map<String, MonthRollups> months = new HashMap<String, MonthRollups>();
+
+    private final SimpleDateFormat monthFormat = createMonthFormat();
+
+    /**
+     * Adds the records to the in-memory deltas.
+     */
+    public synchronized void add(Collection<AgentStatistic> agentStatistics) {
+        for (AgentStatistic agentStatistic : agentStatistics) {
+            add(unpersisted, tuples, agentStatistic);
+        }
+    }
+
+    private static void add(RollupTable table, Tuples tuples, AgentStatistic agentStatistic) {
+        Date offlineDate = agentStatistic.getOfflineDate();
+        if (offlineDate == null) {
+            return;
+        }
+        int tupleId = tuples.idOf(RollupDimension.tupleOf(agentStatistic));
+        long end = offlineDate.getTime();
+        int offlineHour = (int) (end / HOUR_MILLIS);
+        long onlineMillis = agentStatistic.getOnlineTimeMillis();
+        if (onlineMillis <= 0) {
+            table.add(offlineHour, tupleId, 0.0, 0.0, 1L);
+            return;
+        }
+        double cpus = agentStatistic.getCpus();
+        int memory = agentStatistic.getMemory();
+        int firstHour = Math.max((int) ((end - onlineMillis) / HOUR_MILLIS), offlineHour - MAX_SPREAD_HOURS + 1);
+        long start = end - onlineMillis;
+        for (int hour = firstHour; hour <= offlineHour; hour++) {
+            long from = hour == firstHour ? start : hour * HOUR_MILLIS;
+            long to = hour == offlineHour ? end : (hour + 1) * HOUR_MILLIS;
+            double seconds = (to - from) / 1000.0;
+            table.add(hour, tupleId, cpus * seconds, memory * seconds, hour == offlineHour ? 1L : 0L);
+        }
+    }
+
+    /**
+     * Appends the in-memory deltas to the rollup files. Deltas of a file which can not be written are kept
+     * for the next attempt.
+     */
+    public synchronized void persist() {
+        if (unpersisted.isEmpty()) {
+            return;
+        }
+        Map<String, RollupTable> byMonth = splitByMonth(unpersisted);
+        RollupTable failed = new RollupTable();
+        for (Map.Entry<String, RollupTable> entry : byMonth.entrySet()) {
+            try {
+                append(entry.getKey(), entry.getValue());
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Unable to persist rollups of " + entry.getKey(), e);
+                failed.addAll(entry.getValue());
+            }
+        }
+        unpersisted = failed;
+    }
+
+    /**
+     * Sums up the rollups of the hours within [fromMillis, toMillis), grouped by one dimension.
+     * The bounds are rounded down to full hours.
+     *
+     * @return Map of the dimension value (null for records without a value) to its rollup
+     */
+    public synchronized Map<String, Rollup> query(long fromMillis, long toMillis, RollupDimension groupBy) {
+        final int fromHour = hourOf(fromMillis);
+        final int toHour = hourOf(toMillis);
+        final int dimension = groupBy.ordinal();
+        final Map<String, Rollup> result = new TreeMap<String, Rollup>(NULL_FIRST);
+
+        RollupTable.Visitor visitor = new RollupTable.Visitor() {
+            public void visit(int hour, int tupleId, double cpuSeconds, double mbSeconds, long agentCount) {
+                if (hour < fromHour || hour >= toHour) {
+                    return;
+                }
+                String value = tuples.get(tupleId)[dimension];
+                Rollup rollup = result.get(value);
+                if (rollup == null) {
+                    rollup = new Rollup();
+                    result.put(value, rollup);
+                }
+                rollup.add(cpuSeconds, mbSeconds, agentCount);
+            }
+        };
+
+        for (String monthKey : listMonths()) {
+            if (!overlaps(monthKey, fromMillis, toMillis)) {
+                continue;
+            }
+            try {
+                load(monthKey).table.forEach(visitor);
+            } catch (IOException e) {
+                LOGGER.log(Level.SEVERE, "Unable to read rollups of " + monthKey + ", result is incomplete", e);
+            }
+        }
+        unpersisted.forEach(visitor);
+        return result;
+    }
+
+    /**
+     * Recomputes the rollup files of all months before the current one from the history, e.g. for the history
+     * which was written before the rollups were introduced. The current month is left alone because it is still
+     * appended to. The records which went offline later but were online in a rebuilt month are read as well, only
+     * a record flushed right while the rebuild runs may be counted twice in the month before its offline date.
+     *
+     * @return int - number of rewritten rollup files
+     */
+    public int rebuild(AgentStatisticQueryEngine queryEngine) {
+        return rebuild(queryEngine, Long.MIN_VALUE);
+    }
+
+    /**
+     * Like {@link #rebuild(AgentStatisticQueryEngine)}, but only the months starting at or after notBeforeMillis
+     * are rebuilt, e.g. to leave alone the months whose raw history is partially expired.
+     *
+     * @return int - number of rewritten rollup files
+     */
+    public int rebuild(AgentStatisticQueryEngine queryEngine, long notBeforeMillis) {
+        long currentMonthStart = startOfCurrentMonth();
+        long firstMonthStart = Long.MIN_VALUE;
+        AgentStatisticFilter filter = new AgentStatisticFilter();
+        if (notBeforeMillis != Long.MIN_VALUE) {
+            firstMonthStart = startOfMonthAtOrAfter(notBeforeMillis);
+            filter.from(new Date(firstMonthStart));
+        }
+        RollupTable rebuilt = within(queryEngine.execute(filter, newCollector()), hourOf(firstMonthStart),
+            hourOf(currentMonthStart));
+        int rewritten = rewriteMonths(rebuilt);
+        LOGGER.log(Level.INFO, "Rebuilt " + rewritten + " rollup files from the history");
+        return rewritten;
+    }
+
+    /**
+     * @return AgentStatisticCollector - rolls the records of a query up, see {@link #rewriteMonths(RollupTable)}
+     */
+    public AgentStatisticCollector<RollupTable> newCollector() {
+        final Tuples rebuildTuples = tuples;
+        return new AgentStatisticCollector<RollupTable>() {
+            @Override
+            public RollupTable create() {
+                return new RollupTable();
+            }
+
+            @Override
+            public void accumulate(RollupTable container, AgentStatistic agentStatistic) {
+                add(container, rebuildTuples, agentStatistic);
+            }
+
+            @Override
+            public RollupTable combine(RollupTable left, RollupTable right) {
+                left.addAll(right);
+                return left;
+            }
+        };
+    }
+
+    /**
+     * Replaces the rollup files of all months contained in the table, e.g. with the rollups recomputed from the
+     * history. Months which are downsampled stay downsampled.
+     *
+     * @return int - number of rewritten rollup files
+     */
+    public synchronized int rewriteMonths(RollupTable rebuilt) {
+        int rewritten = 0;
+        for (Map.Entry<String, RollupTable> entry : splitByMonth(rebuilt).entrySet()) {
+            try {
+                rewrite(entry.getKey(), entry.getValue());
+                rewritten++;
+            } catch (IOException e) {
+                LOGGER.log(Level.SEVERE, "Unable to rebuild rollups of " + entry.getKey(), e);
+            }
+        }
+        return rewritten;
+    }
+
+    /**
+     * Replaces the hourly rollups of the month with daily rollups per project, agent label and framework.
+     *
+     * @return long - number of bytes written, 0 if the month is already downsampled or has no rollups
+     */
+    public synchronized long downsample(String monthKey) throws IOException {
+        File hourlyFile = fileOf(monthKey);
+        if (!hourlyFile.exists()) {
+            return 0L;
+        }
+        if (dailyFileOf(monthKey).exists()) {
+            // left over from an interrupted downsampling, the daily file already holds everything
+            Files.delete(hourlyFile.toPath());
+            months.remove(monthKey);
+            return 0L;
+        }
+        RollupTable daily = toDaily(load(monthKey).table);
+        long written = write(dailyFileOf(monthKey), daily);
+        Files.delete(hourlyFile.toPath());
+        months.put(monthKey, new MonthRollups(true, daily, written));
+        LOGGER.log(Level.FINE, "Downsampled rollups of " + monthKey + " to " + daily.size() + " daily records");
+        return written;
+    }
+
+    /**
+     * @return boolean - true if the month has a rollup file, hourly or downsampled
+     */
+    public synchronized boolean hasRollups(String monthKey) {
+        return fileOf(monthKey).exists() || dailyFileOf(monthKey).exists();
+    }
+
+    /**
+     * @return List of the months with hourly rollups, ascending
+     */
+    public synchronized List<String> listHourlyMonths() {
+        List<String> hourlyMonths = new ArrayList<String>();
+        for (String monthKey : listMonths()) {
+            if (!dailyFileOf(monthKey).exists()) {
+                hourlyMonths.add(monthKey);
+            }
+        }
+        return hourlyMonths;
+    }
+
+    /**
+     * @return String - the UTC month (yyyy-MM) of the instant, the key of its rollup file
+     */
+    public synchronized String monthKeyOf(long millis) {
+        return monthFormat.format(new Date(millis));
+    }
+
+    private RollupTable toDaily(RollupTable hourly) {
+        final RollupTable daily = new RollupTable(hourly.size());
+        hourly.forEach(new RollupTable.Visitor() {
+            public void visit(int hour, int tupleId, double cpuSeconds, double mbSeconds, long agentCount) {
+                String[] tuple = tuples.get(tupleId).clone();
+                tuple[RollupDimension.PRINCIPAL.ordinal()] = null;
+                daily.add(hour - hour % HOURS_PER_DAY, tuples.idOf(tuple), cpuSeconds, mbSeconds, agentCount);
+            }
+        });
+        return daily;
+    }
+
+    /**
+     * @return RollupTable - the entries of the hours within [fromHour, toHour)
+     */
+    private static RollupTable within(RollupTable table, final int fromHour, final int toHour) {
+        final RollupTable within = new RollupTable(table.size());
+        table.forEach(new RollupTable.Visitor() {
+            public void visit(int hour, int tupleId, double cpuSeconds, double mbSeconds, long agentCount) {
+                if (hour >= fromHour && hour < toHour) {
+                    within.add(hour, tupleId, cpuSeconds, mbSeconds, agentCount);
+                }
+            }
+        });
+        return within;
+    }
+
+    private Map<String, RollupTable> splitByMonth(RollupTable table) {
+        final Map<String, RollupTable> byMonth = new TreeMap<String, RollupTable>();
+        table.forEach(new RollupTable.Visitor() {
+            public void visit(int hour, int tupleId, double cpuSeconds, double mbSeconds, long agentCount) {
+                String monthKey = monthFormat.format(new Date(hour * HOUR_MILLIS));
+                RollupTable month = byMonth.get(monthKey);
+                if (month == null) {
+                    month = new RollupTable();
+                    byMonth.put(monthKey, month);
+                }
+                month.add(hour, tupleId, cpuSeconds, mbSeconds, agentCount);
+            }
+        });
+        return byMonth;
+    }
+
+    /**
+     * @return MonthRollups - the cached rollups of the month, brought up to date with the tail of its file
+     */
+    private MonthRollups load(String monthKey) throws IOException {
+        File dailyFile = dailyFileOf(monthKey);
+        boolean daily = dailyFile.exists();
+        MonthRollups month = months.get(monthKey);
+        if (month == null || month.daily != daily) {
+            month = new MonthRollups(daily);
+            months.put(monthKey, month);
+        }
+        File file = daily ? dailyFile : fileOf(monthKey);
+        if (!file.exists() || file.length() <= month.validLength) {
+            return month;
+        }
+        long offset = month.validLength;
+        FileInputStream fis = new FileInputStream(file);
+        try {
+            fis.getChannel().position(offset);
+            CountingInputStream counter = new CountingInputStream(new BufferedInputStream(fis, 64 * 1024));
+            DataInputStream in = new DataInputStream(counter);
+            while (true) {
+                int hour;
+                try {
+                    hour = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                try {
+                    String[] tuple = new String[RollupDimension.values().length];
+                    for (int i = 0; i < tuple.length; i++) {
+                        tuple[i] = in.readBoolean() ? in.readUTF() : null;
+                    }
+                    double cpuSeconds = in.readDouble();
+                    double mbSeconds = in.readDouble();
+                    long agentCount = in.readLong();
+                    month.table.add(hour, tuples.idOf(tuple), cpuSeconds, mbSeconds, agentCount);
+                    month.recordCount++;
+                    month.validLength = offset + counter.getByteCount();
+                } catch (EOFException e) {
+                    // record was only partially written, it is truncated on the next append
+                    break;
+                }
+            }
+        } finally {
+            IOUtils.closeQuietly(fis);
+        }
+        return month;
+    }
+
+    private void append(String monthKey, RollupTable deltas) throws IOException {
+        MonthRollups month = load(monthKey);
+        File file = month.daily ? dailyFileOf(monthKey) : fileOf(monthKey);
+        if (month.daily) {
+            deltas = toDaily(deltas);
+        }
+        FileUtils.forceMkdir(file.getParentFile());
+
+        if (file.length() > month.validLength) {
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                raf.setLength(month.validLength);
+            } finally {
+                raf.close();
+            }
+        }
+
+        byte[] bytes = encode(deltas);
+        FileOutputStream fos = new FileOutputStream(file, true);
+        try {
+            fos.write(bytes);
+            fos.getChannel().force(false);
+        } finally {
+            fos.close();
+        }
+        month.table.addAll(deltas);
+        month.validLength += bytes.length;
+        month.recordCount += deltas.size();
+
+        // the deltas of many flushes add up, rewrite the file with one record per (hour, tuple)
+        if (month.recordCount > 2 * month.table.size() + 1024) {
+            rewrite(monthKey, month.table);
+        }
+    }
+
+    /**
+     * Replaces the rollup file of the month atomically, the rollups of a downsampled month are downsampled.
+     */
+    private void rewrite(String monthKey, RollupTable table) throws IOException {
+        boolean daily = dailyFileOf(monthKey).exists();
+        if (daily) {
+            table = toDaily(table);
+        }
+        long written = write(daily ? dailyFileOf(monthKey) : fileOf(monthKey), table);
+        months.put(monthKey, new MonthRollups(daily, table, written));
+    }
+
+    /**
+     * Writes the table to a temporary file which is then moved into place.
+     *
+     * @return long - length of the written file
+     */
+    private long write(File file, RollupTable table) throws IOException {
+        FileUtils.forceMkdir(file.getParentFile());
+        File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        byte[] bytes = encode(table);
+        FileOutputStream fos = new FileOutputStream(tmp);
+        try {
+            fos.write(bytes);
+            fos.getChannel().force(false);
+        } finally {
+            fos.close();
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return bytes.length;
+    }
+
+    private byte[] encode(RollupTable table) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(table.size() * 64);
+        final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(buffer));
+        final IOException[] failure = new IOException[1];
+        table.forEach(new RollupTable.Visitor() {
+            public void visit(int hour, int tupleId, double cpuSeconds, double mbSeconds, long agentCount) {
+                try {
+                    out.writeInt(hour);
+                    for (String value : tuples.get(tupleId)) {
+                        out.writeBoolean(value != null);
+                        if (value != null) {
+                            out.writeUTF(value);
+                        }
+                    }
+                    out.writeDouble(cpuSeconds);
+                    out.writeDouble(mbSeconds);
+                    out.writeLong(agentCount);
+                } catch (IOException e) {
+                    failure[0] = e;
+                }
+            }
+        });
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+        out.flush();
+        return buffer.toByteArray();
+    }
+
+    private Collection<String> listMonths() {
+        Set<String> monthKeys = new TreeSet<String>();
+        File[] files = JobBuildResultSharder.getJobResultFolder().listFiles();
+        if (files != null) {
+            for (File file : files) {
+                Matcher matcher = ROLLUP_FILE_PATTERN.matcher(file.getName());
+                if (matcher.matches()) {
+                    monthKeys.add(matcher.group(1));
+                }
+            }
+        }
+        return monthKeys;
+    }
+
+    private boolean overlaps(String monthKey, long fromMillis, long toMillis) {
+        try {
+            Calendar start = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+            start.setTime(monthFormat.parse(monthKey));
+            Calendar end = (Calendar) start.clone();
+            end.add(Calendar.MONTH, 1);
+            return start.getTimeInMillis() < toMillis && end.getTimeInMillis() > fromMillis;
+        } catch (ParseException e) {
+            return false;
+        }
+    }
+
+    private static long startOfCurrentMonth() {
+        Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        calendar.set(Calendar.DAY_OF_MONTH, 1);
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        return calendar.getTimeInMillis();
+    }
+
+    private static long startOfMonthAtOrAfter(long millis) {
+        Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        calendar.setTimeInMillis(millis);
+        calendar.set(Calendar.DAY_OF_MONTH, 1);
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        if (calendar.getTimeInMillis() < millis) {
+            calendar.add(Calendar.MONTH, 1);
+        }
+        return calendar.getTimeInMillis();
+    }
+
+    private static int hourOf(long millis) {
+        if (millis <= 0) {
+            return 0;
+        }
+        return (int) Math.min(Integer.MAX_VALUE, millis / HOUR_MILLIS);
+    }
+
+    private static File fileOf(String monthKey) {
+        return new File(JobBuildResultSharder.getJobResultFolder(), ROLLUP_FILENAME_PREFIX + monthKey
+            + ROLLUP_FILE_EXTENSION);
+    }
+
+    private static File dailyFileOf(String monthKey) {
+        return new File(JobBuildResultSharder.getJobResultFolder(), ROLLUP_FILENAME_PREFIX + monthKey
+            + DAILY_ROLLUP_FILE_EXTENSION);
+    }
+
+    private static SimpleDateFormat createMonthFormat() {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format;
+    }
+
+    private static final Comparator<String> NULL_FIRST = new Comparator<String>() {
+        public int compare(String left, String right) {
+            if (left == null) {
+                return right == null ? 0 : -1;
+            }
+            return right == null ? 1 : left.compareTo(right);
+        }
+    };
+
+    private static class MonthRollups {
+
+        /* true if the month is downsampled to daily rollups */
+        final boolean daily;
+
+        final RollupTable table = new RollupTable();
+
+        /* length of the complete records of the file */
+        long validLength;
+
+        /* number of records in the file, compared to the table size to decide about rewriting */
+        int recordCount;
+
+        MonthRollups(boolean daily) {
+            this.daily = daily;
+        }
+
+        /**
+         * Rollups of a file which was just written with the table.
+         */
+        MonthRollups(boolean daily, RollupTable table, long validLength) {
+            this.daily = daily;
+            this.table.addAll(table);
+            this.validLength = validLength;
+            this.recordCount = table.size();
+        }
+    }
+
+    /**
+     * Dictionary of the dimension tuples, the tables only hold the tuple ids.
+     * Synchronized on its own, the rebuild workers use it without holding the store lock.
+     */
+    private static class Tuples {
+
+        private final List<String[]> values = new ArrayList<String[]>();
+
+        private final Map<List<String>, Integer> ids = new HashMap<List<String>, Integer>();
+
+        synchronized int idOf(String[] tuple) {
+            List<String> key = Arrays.asList(tuple);
+            Integer id = ids.get(key);
+            if (id == null) {
+                id = values.size();
+                values.add(tuple);
+                ids.put(key, id);
+            }
+            return id;
+        }
+
+        synchronized String[] get(int id) {
+            return values.get(id);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package org.jenkinsci.plugins.infonovabuildstats.rollup;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash table from (hour, tuple id) to the aggregated values, backed by primitive arrays only.
+ * The key packs the hour since the epoch into the upper and the tuple id into the lower 32 bits.
+ * Not thread-safe, guarded by the {@link RollupStore}.
+ */
+public class RollupTable {
+
+    private static final long EMPTY = -1L;
+
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private long[] keys;
+    private double[] cpuSeconds;
+    private double[] mbSeconds;
+    private long[] agentCounts;
+
+    private int size;
+
+    public RollupTable() {
+        this(64);
+    }
+
+    public RollupTable(int capacity) {
+        allocate(Integer.highestOneBit(Math.max(16, capacity - 1)) << 1);
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        Arrays.fill(keys, EMPTY);
+        cpuSeconds = new double[capacity];
+        mbSeconds = new double[capacity];
+        agentCounts = new long[capacity];
+        size = 0;
+    }
+
+    public static long key(int hour, int tupleId) {
+        return ((long) hour << 32) | (tupleId & 0xFFFFFFFFL);
+    }
+
+    public static int hourOf(long key) {
+        return (int) (key >>> 32);
+    }
+
+    public static int tupleIdOf(long key) {
+        return (int) key;
+    }
+
+    public void add(int hour, int tupleId, double cpuSecondsDelta, double mbSecondsDelta, long agentCountDelta) {
+        add(key(hour, tupleId), cpuSecondsDelta, mbSecondsDelta, agentCountDelta);
+    }
+
+    private void add(long key, double cpuSecondsDelta, double mbSecondsDelta, long agentCountDelta) {
+        if (size + 1 > keys.length * LOAD_FACTOR) {
+            rehash();
+        }
+        int mask = keys.length - 1;
+        int slot = mix(key) & mask;
+        while (keys[slot] != EMPTY && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        if (keys[slot] == EMPTY) {
+            keys[slot] = key;
+            size++;
+        }
+        cpuSeconds[slot] += cpuSecondsDelta;
+        mbSeconds[slot] += mbSecondsDelta;
+        agentCounts[slot] += agentCountDelta;
+    }
+
+    /**
+     * Adds every entry of the other table to this one.
+     */
+    public void addAll(RollupTable other) {
+        for (int slot = 0; slot < other.keys.length; slot++) {
+            if (other.keys[slot] != EMPTY) {
+                add(other.keys[slot], other.cpuSeconds[slot], other.mbSeconds[slot], other.agentCounts[slot]);
+            }
+        }
+    }
+
+    private void rehash() {
+        long[] oldKeys = keys;
+        double[] oldCpuSeconds = cpuSeconds;
+        double[] oldMbSeconds = mbSeconds;
+        long[] oldAgentCounts = agentCounts;
+        allocate(oldKeys.length * 2);
+        for (int slot = 0; slot < oldKeys.length; slot++) {
+            if (oldKeys[slot] != EMPTY) {
+                add(oldKeys[slot], oldCpuSeconds[slot], oldMbSeconds[slot], oldAgentCounts[slot]);
+            }
+        }
+    }
+
+    private static int mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Callback of {@link #forEach(Visitor)}.
+     */
+    public interface Visitor {
+        void visit(int hour, int tupleId, double cpuSeconds, double mbSeconds, long agentCount);
+    }
+
+    public void forEach(Visitor visitor) {
+        for (int slot = 0; slot < keys.length; slot++) {
+            long key = keys[slot];
+            if (key != EMPTY) {
+                visitor.visit(hourOf(key), tupleIdOf(key), cpuSeconds[slot], mbSeconds[slot], agentCounts[slot]);
+            }
+        }
+    }
+}
@@ -0,0 +1,785 @@
+package org.jenkinsci.plugins.infonovabuildstats.storage;
+
+import hudson.util.DaemonThreadFactory;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.jenkinsci.plugins.infonovabuildstats.InfonovaBuildStatsConfig;
+import org.jenkinsci.plugins.infonovabuildstats.model.AgentStatistic;
+import org.jenkinsci.plugins.infonovabuildstats.query.AgentStatisticQueryEngine;
+import org.jenkinsci.plugins.infonovabuildstats.utils.MpscLinkedArrayQueue;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead journal of the agent statistics which are not yet written to the history files.
+ *
+ * Offered records are collected by a single committer thread which appends everything offered meanwhile as one
+ * group commit, forces it according to the {@link JournalFsyncPolicy} and only then hands the records on to the
+ * {@link Sink}. Every journaled record gets a sequence number. Once records reach the history files they are
+ * {@link #markApplied(Collection) marked applied} and a checkpoint is written: the highest committed sequence
+ * number and the committed sequence numbers which are still pending. Journal segments whose records are all
+ * applied are deleted, so the replay on startup only reads the few segments after the oldest pending record.
+ * Records the sink can not take right now are {@link #defer(AgentStatistic) deferred}: they stay pending on disk
+ * and are read back once there is room again. Unapplied records which are found in the history files on replay are
+ * not replayed, the sink only {@link Sink#acceptWritten(Collection) completes} their flush.
+ *
+ * <pre>
+ * segment    := record*                             (journal-&lt;first sequence number&gt;.log)
+ * record     := length:int crc32:int body[length]
+ * body       := seq:long onlineDate:long offlineDate:long memory:int cpus:double string[7]
+ * string     := present:boolean value:UTF?
+ * checkpoint := magic:int committedSeq:long pendingCount:int pendingSeq:long*
+ * </pre>
+ *
+ * A crash between writing the history files and writing the checkpoint leaves the records of that last flush
+ * pending. The replay looks them up in the history files (by agent name and online date) and only re-offers the
+ * ones which are missing, so a record is written to the history files exactly once. Its rollups are persisted
+ * in between, a crash right between the two appends leaves such a record out of the rollups of its hour.
+ */
+public class AgentStatisticJournal {
+
+    private static final Logger LOGGER = Logger.getLogger(AgentStatisticJournal.class.getName());
+
+    public static final String JOURNAL_FOLDER = "journal";
+
+    private static final String CHECKPOINT_FILE = "checkpoint";
+
+    private static final int CHECKPOINT_MAGIC = 0x4942534a; // "IBSJ"
+
+    private static final Pattern SEGMENT_PATTERN = Pattern.compile("journal-(\\d{19})\\.log");
+
+    /* a segment is closed and a new one started once it exceeds this size */
+    private static final long SEGMENT_SIZE = 8 * 1024 * 1024;
+
+    private static final int MAX_RECORD_LENGTH = 1024 * 1024;
+
+    private static final long INTERVAL_FSYNC_MILLIS = 1000;
+
+    /**
+     * Receives the journaled records, in commit order.
+     */
+    public interface Sink {
+        void accept(AgentStatistic agentStatistic);
+
+        /**
+         * Receives the replayed records which were written to the history files by a flush which crashed before
+         * its checkpoint. They are not handed to {@link #accept(AgentStatistic)} again, but what the flush does
+         * after the append (e.g. the rollups) may be missing. Called before the checkpoint of the replay.
+         */
+        void acceptWritten(Collection<AgentStatistic> agentStatistics);
+    }
+
+    private final Sink sink;
+
+    private final MpscLinkedArrayQueue<AgentStatistic> inbound = new MpscLinkedArrayQueue<AgentStatistic>();
+
+    /**
+     * Single committer thread, so group commits never run concurrently and sequence numbers are ordered. Also runs
+     * the delayed force of the {@link JournalFsyncPolicy#INTERVAL INTERVAL} policy.
+     */
+    private final ScheduledThreadPoolExecutor committer = createCommitter();
+
+    private final AtomicBoolean commitScheduled = new AtomicBoolean();
+
+    /* sequence numbers of the journaled records which are not yet applied */
+    private final Map<AgentStatistic, Long> sequenceNumbers =
+        Collections.synchronizedMap(new IdentityHashMap<AgentStatistic, Long>());
+
+    private final ConcurrentSkipListSet<Long> pending = new ConcurrentSkipListSet<Long>();
+
+    /* pending sequence numbers of the records the sink could not take, only kept on disk until redelivered */
+    private final ConcurrentSkipListSet<Long> deferred = new ConcurrentSkipListSet<Long>();
+
+    /* first sequence number of every segment on disk, guarded by itself */
+    private final TreeMap<Long, File> segments = new TreeMap<Long, File>();
+
+    private volatile File folder;
+
+    private volatile boolean started;
+
+    private volatile boolean stopped;
+
+    /* highest sequence number which is written to the journal */
+    private volatile long committedSeq;
+
+    /* the following fields are only used by the committer thread (and by close() after it terminated) */
+    private FileChannel channel;
+    private long segmentLength;
+    private long lastForce;
+    /* whether the active segment has commits which are not forced yet, and a delayed force is scheduled */
+    private boolean unforced;
+    private boolean forceScheduled;
+
+    private final Runnable commitTask = new Runnable() {
+
+        public void run() {
+            commit();
+        }
+    };
+
+    private final Runnable forceTask = new Runnable() {
+
+        public void run() {
+            forceScheduled = false;
+            if (channel == null || !unforced) {
+                return;
+            }
+            try {
+                force(true);
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Unable to force journal segment", e);
+            }
+        }
+    };
+
+    public AgentStatisticJournal(Sink sink) {
+        this.sink = sink;
+    }
+
+    /**
+     * Replays the records which were journaled but not applied before the last shutdown or crash and starts
+     * committing. Records offered before are kept until then.
+     *
+     * @param historyFolder - the infonova-build-stats folder, the journal is kept in its journal sub folder
+     */
+    public synchronized void start(File historyFolder) {
+        if (started) {
+            return;
+        }
+        this.folder = new File(historyFolder, JOURNAL_FOLDER);
+
+        long start = System.currentTimeMillis();
+        int replayed = 0;
+        try {
+            replayed = replay(historyFolder);
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Unable to replay the journal in " + folder + ", records might be lost", e);
+        }
+        LOGGER.log(Level.INFO, "Replayed " + replayed + " journaled agent statistics in "
+            + (System.currentTimeMillis() - start) + " ms");
+
+        started = true;
+        checkpoint();
+        scheduleCommit();
+    }
+
+    /**
+     * Queues the record for the next group commit, never blocks the calling thread.
+     */
+    public void offer(AgentStatistic agentStatistic) {
+        if (stopped) {
+            // committer is gone, hand the record on without journaling it
+            sink.accept(agentStatistic);
+            return;
+        }
+        inbound.offer(agentStatistic);
+        scheduleCommit();
+    }
+
+    private void scheduleCommit() {
+        if (started && !stopped && commitScheduled.compareAndSet(false, true)) {
+            try {
+                committer.execute(commitTask);
+            } catch (RejectedExecutionException e) {
+                // shut down concurrently, the queue is drained by shutdown()
+                LOGGER.log(Level.FINE, "Commit rejected, journal is shutting down", e);
+            }
+        }
+    }
+
+    /**
+     * Runs on the committer thread only. The flag is reset before draining, so records which are offered during
+     * the commit schedule a new one.
+     */
+    private void commit() {
+        commitScheduled.set(false);
+        if (!started) {
+            // not replayed yet, the queue is committed once the journal is started
+            return;
+        }
+
+        final List<AgentStatistic> batch = new ArrayList<AgentStatistic>();
+        inbound.drain(new MpscLinkedArrayQueue.Consumer<AgentStatistic>() {
+            public void accept(AgentStatistic agentStatistic) {
+                batch.add(agentStatistic);
+            }
+        });
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        long firstSeq = committedSeq + 1;
+        try {
+            write(firstSeq, batch);
+        } catch (IOException e) {
+            // the history files are still written, only the crash safety of this batch is lost
+            LOGGER.log(Level.SEVERE, "Unable to journal " + batch.size() + " agent statistics", e);
+            for (AgentStatistic agentStatistic : batch) {
+                sink.accept(agentStatistic);
+            }
+            return;
+        }
+
+        long seq = firstSeq;
+        for (AgentStatistic agentStatistic : batch) {
+            sequenceNumbers.put(agentStatistic, seq);
+            pending.add(seq);
+            seq++;
+        }
+        committedSeq = seq - 1;
+
+        for (AgentStatistic agentStatistic : batch) {
+            sink.accept(agentStatistic);
+        }
+    }
+
+    private void write(long firstSeq, List<AgentStatistic> batch) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(batch.size() * 256);
+        DataOutputStream out = new DataOutputStream(buffer);
+        ByteArrayOutputStream body = new ByteArrayOutputStream(256);
+        DataOutputStream bodyOut = new DataOutputStream(body);
+        CRC32 crc = new CRC32();
+        long seq = firstSeq;
+        for (AgentStatistic agentStatistic : batch) {
+            body.reset();
+            encode(seq++, agentStatistic, bodyOut);
+            bodyOut.flush();
+            crc.reset();
+            crc.update(body.toByteArray(), 0, body.size());
+            out.writeInt(body.size());
+            out.writeInt((int) crc.getValue());
+            body.writeTo(out);
+        }
+        out.flush();
+
+        if (channel == null) {
+            openSegment(firstSeq);
+        }
+        ByteBuffer bytes = ByteBuffer.wrap(buffer.toByteArray());
+        try {
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+            force(false);
+        } catch (IOException e) {
+            // cut off the partially written batch, so the segment stays readable
+            try {
+                channel.truncate(segmentLength);
+            } catch (IOException truncateFailure) {
+                LOGGER.log(Level.WARNING, "Unable to truncate journal segment, starting a new one", truncateFailure);
+                closeSegment();
+            }
+            throw e;
+        }
+        segmentLength += bytes.capacity();
+
+        if (segmentLength >= SEGMENT_SIZE) {
+            closeSegment();
+        }
+    }
+
+    /**
+     * Forces the active segment according to the policy. A commit the INTERVAL policy does not force right away is
+     * forced by a delayed task once the interval is over, so the last commits before a quiet period are not left to
+     * the operating system.
+     */
+    private void force(boolean always) throws IOException {
+        JournalFsyncPolicy policy = getFsyncPolicy();
+        long now = System.currentTimeMillis();
+        if (always || policy == JournalFsyncPolicy.ALWAYS
+            || (policy == JournalFsyncPolicy.INTERVAL && now - lastForce >= INTERVAL_FSYNC_MILLIS)) {
+            channel.force(false);
+            lastForce = now;
+            unforced = false;
+            return;
+        }
+        unforced = true;
+        if (policy == JournalFsyncPolicy.INTERVAL && !forceScheduled) {
+            try {
+                committer.schedule(forceTask, lastForce + INTERVAL_FSYNC_MILLIS - now, TimeUnit.MILLISECONDS);
+                forceScheduled = true;
+            } catch (RejectedExecutionException e) {
+                // shutting down, the segment is forced when it is closed
+                LOGGER.log(Level.FINE, "Delayed journal force rejected, journal is shutting down", e);
+            }
+        }
+    }
+
+    private void openSegment(long firstSeq) throws IOException {
+        FileUtils.forceMkdir(folder);
+        File file = new File(folder, segmentName(firstSeq));
+        channel = new FileOutputStream(file, true).getChannel();
+        segmentLength = channel.size();
+        synchronized (segments) {
+            segments.put(firstSeq, file);
+        }
+    }
+
+    private void closeSegment() {
+        if (channel == null) {
+            return;
+        }
+        try {
+            force(true);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Unable to force journal segment", e);
+        }
+        IOUtils.closeQuietly(channel);
+        channel = null;
+    }
+
+    private static ScheduledThreadPoolExecutor createCommitter() {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new DaemonThreadFactory());
+        // a pending delayed force must not hold up the shutdown, close() forces the segment
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        return executor;
+    }
+
+    private static String segmentName(long firstSeq) {
+        return String.format("journal-%019d.log", firstSeq);
+    }
+
+    /**
+     * Marks the records as written to the history files and writes a checkpoint.
+     * Records which were not journaled are ignored.
+     */
+    public void markApplied(Collection<AgentStatistic> applied) {
+        for (AgentStatistic agentStatistic : applied) {
+            Long seq = sequenceNumbers.remove(agentStatistic);
+            if (seq != null) {
+                pending.remove(seq);
+            }
+        }
+        if (started) {
+            checkpoint();
+        }
+    }
+
+    /**
+     * Keeps a record which the sink could not take (e.g. shed by the flush scheduler) pending in the journal
+     * without holding it in memory. The checkpoint keeps its segment until it is applied, it is handed to the sink
+     * again by {@link #redeliverDeferred(int)} or by the replay after a restart. A record which was not journaled
+     * (the group commit failed) can not be deferred and is lost.
+     */
+    public void defer(AgentStatistic agentStatistic) {
+        Long seq = sequenceNumbers.remove(agentStatistic);
+        if (seq != null) {
+            deferred.add(seq);
+        }
+    }
+
+    /**
+     * @return int - number of deferred records waiting for redelivery
+     */
+    public int deferredCount() {
+        return deferred.size();
+    }
+
+    /**
+     * Reads up to max deferred records back from the journal segments, oldest first, and hands them to the sink
+     * again, which may defer them once more. Called by the flush writer whenever a flush made room.
+     *
+     * @param max - number of records the sink can take
+     * @return int - number of redelivered records
+     */
+    public int redeliverDeferred(int max) {
+        if (!started || max <= 0 || deferred.isEmpty()) {
+            return 0;
+        }
+        Set<Long> wanted = new HashSet<Long>();
+        for (Long seq : deferred) {
+            if (wanted.size() >= max) {
+                break;
+            }
+            wanted.add(seq);
+        }
+        if (wanted.isEmpty()) {
+            return 0;
+        }
+        List<File> segmentFiles;
+        synchronized (segments) {
+            Long first = segments.floorKey(Collections.min(wanted));
+            segmentFiles = new ArrayList<File>(
+                (first == null ? segments : segments.tailMap(first, true)).values());
+        }
+
+        List<JournalRecord> found = new ArrayList<JournalRecord>(wanted.size());
+        for (File segment : segmentFiles) {
+            if (wanted.isEmpty()) {
+                break;
+            }
+            if (!segment.exists()) {
+                continue;
+            }
+            try {
+                // the active segment may be appended to concurrently, its tail is left alone
+                for (JournalRecord record : readSegment(segment, false)) {
+                    if (wanted.remove(record.seq)) {
+                        found.add(record);
+                    }
+                }
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Unable to read journal segment " + segment + ", retrying later", e);
+                return 0;
+            }
+        }
+        for (Long seq : wanted) {
+            // the segment is gone or corrupt, nothing left to redeliver
+            LOGGER.log(Level.WARNING, "Deferred journal record " + seq + " not found, giving it up");
+            deferred.remove(seq);
+            pending.remove(seq);
+        }
+        for (JournalRecord record : found) {
+            deferred.remove(record.seq);
+            sequenceNumbers.put(record.agentStatistic, record.seq);
+            sink.accept(record.agentStatistic);
+        }
+        return found.size();
+    }
+
+    /**
+     * @return int - number of journaled records which are not yet applied
+     */
+    public int pendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * Writes the checkpoint atomically and deletes the segments which only contain applied records.
+     */
+    private synchronized void checkpoint() {
+        // read before the pending set, every pending sequence number up to it is already contained
+        long committed = committedSeq;
+        List<Long> pendingSeqs = new ArrayList<Long>(pending.headSet(committed, true));
+
+        File checkpoint = new File(folder, CHECKPOINT_FILE);
+        File tmp = new File(folder, CHECKPOINT_FILE + ".tmp");
+        try {
+            FileUtils.forceMkdir(folder);
+            FileOutputStream fos = new FileOutputStream(tmp);
+            try {
+                DataOutputStream out = new DataOutputStream(fos);
+                out.writeInt(CHECKPOINT_MAGIC);
+                out.writeLong(committed);
+                out.writeInt(pendingSeqs.size());
+                for (Long seq : pendingSeqs) {
+                    out.writeLong(seq);
+                }
+                out.flush();
+                fos.getChannel().force(false);
+            } finally {
+                fos.close();
+            }
+            Files.move(tmp.toPath(), checkpoint.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Unable to write journal checkpoint " + checkpoint, e);
+            return;
+        }
+
+        long oldestNeeded = pendingSeqs.isEmpty() ? committed + 1 : pendingSeqs.get(0);
+        deleteAppliedSegments(oldestNeeded);
+    }
+
+    /**
+     * A segment only contains applied records if the next segment starts at or before the oldest needed record.
+     * The segment which is currently appended to is never deleted.
+     */
+    private void deleteAppliedSegments(long oldestNeeded) {
+        List<File> deletable = new ArrayList<File>();
+        synchronized (segments) {
+            Long firstSeq = segments.isEmpty() ? null : segments.firstKey();
+            while (firstSeq != null) {
+                Long nextSeq = segments.higherKey(firstSeq);
+                if (nextSeq == null || nextSeq > oldestNeeded) {
+                    break;
+                }
+                deletable.add(segments.remove(firstSeq));
+                firstSeq = nextSeq;
+            }
+        }
+        for (File segment : deletable) {
+            if (!segment.delete()) {
+                LOGGER.log(Level.WARNING, "Unable to delete applied journal segment " + segment);
+            }
+        }
+    }
+
+    private int replay(File historyFolder) throws IOException {
+        long checkpointSeq = 0;
+        Set<Long> checkpointPending = new HashSet<Long>();
+        File checkpoint = new File(folder, CHECKPOINT_FILE);
+        if (checkpoint.exists()) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(checkpoint)));
+            try {
+                if (in.readInt() != CHECKPOINT_MAGIC) {
+                    throw new IOException("Not a journal checkpoint: " + checkpoint);
+                }
+                checkpointSeq = in.readLong();
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    checkpointPending.add(in.readLong());
+                }
+            } finally {
+                IOUtils.closeQuietly(in);
+            }
+        }
+
+        File[] files = folder.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                Matcher matcher = SEGMENT_PATTERN.matcher(file.getName());
+                if (matcher.matches()) {
+                    segments.put(Long.parseLong(matcher.group(1)), file);
+                }
+            }
+        }
+
+        long maxSeq = checkpointSeq;
+        List<JournalRecord> unapplied = new ArrayList<JournalRecord>();
+        List<File> segmentFiles;
+        synchronized (segments) {
+            segmentFiles = new ArrayList<File>(segments.values());
+        }
+        for (File segment : segmentFiles) {
+            for (JournalRecord record : readSegment(segment, true)) {
+                maxSeq = Math.max(maxSeq, record.seq);
+                if (record.seq <= checkpointSeq && !checkpointPending.contains(record.seq)) {
+                    // already applied
+                    continue;
+                }
+                unapplied.add(record);
+            }
+        }
+        committedSeq = maxSeq;
+
+        List<AgentStatistic> unappliedStatistics = new ArrayList<AgentStatistic>(unapplied.size());
+        for (JournalRecord record : unapplied) {
+            unappliedStatistics.add(record.agentStatistic);
+        }
+        // the records of a flush which crashed after the append but before its checkpoint
+        Set<AgentStatistic> written = AgentStatisticQueryEngine.findWritten(historyFolder, unappliedStatistics);
+        if (!written.isEmpty()) {
+            LOGGER.log(Level.INFO, written.size() + " journaled agent statistics were already written to the "
+                + "history files before the checkpoint, they are not replayed");
+            List<AgentStatistic> writtenStatistics = new ArrayList<AgentStatistic>(written.size());
+            for (JournalRecord record : unapplied) {
+                if (written.contains(record.agentStatistic)) {
+                    writtenStatistics.add(record.agentStatistic);
+                }
+            }
+            sink.acceptWritten(writtenStatistics);
+        }
+        int replayed = 0;
+        for (JournalRecord record : unapplied) {
+            if (written.contains(record.agentStatistic)) {
+                continue;
+            }
+            sequenceNumbers.put(record.agentStatistic, record.seq);
+            pending.add(record.seq);
+            sink.accept(record.agentStatistic);
+            replayed++;
+        }
+        return replayed;
+    }
+
+    /**
+     * Reads the valid records of a segment.
+     *
+     * @param repair - whether a torn or corrupt tail (crash during a commit) is cut off, only while the committer
+     *                 is not running
+     */
+    private static List<JournalRecord> readSegment(File segment, boolean repair) throws IOException {
+        List<JournalRecord> records = new ArrayList<JournalRecord>();
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(segment), 64 * 1024));
+        long validLength = 0;
+        try {
+            CRC32 crc = new CRC32();
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                int expectedCrc = in.readInt();
+                if (length < 8 || length > MAX_RECORD_LENGTH) {
+                    throw new IOException("Invalid record length " + length);
+                }
+                byte[] body = new byte[length];
+                in.readFully(body);
+                crc.reset();
+                crc.update(body, 0, length);
+                if ((int) crc.getValue() != expectedCrc) {
+                    throw new IOException("Checksum mismatch");
+                }
+                DataInputStream bodyIn = new DataInputStream(new ByteArrayInputStream(body));
+                long seq = bodyIn.readLong();
+                records.add(new JournalRecord(seq, decode(bodyIn)));
+                validLength += 8 + length;
+            }
+        } catch (IOException e) {
+            if (!repair) {
+                return records;
+            }
+            LOGGER.log(Level.WARNING, "Journal segment " + segment + " is torn at " + validLength
+                + ", cutting off the rest", e);
+            IOUtils.closeQuietly(in);
+            RandomAccessFile raf = new RandomAccessFile(segment, "rw");
+            try {
+                raf.setLength(validLength);
+            } finally {
+                raf.close();
+            }
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+        return records;
+    }
+
+    private static void encode(long seq, AgentStatistic agentStatistic, DataOutputStream out) throws IOException {
+        out.writeLong(seq);
+        out.writeLong(toMillis(agentStatistic.getOnlineDate()));
+        out.writeLong(toMillis(agentStatistic.getOfflineDate()));
+        out.writeInt(agentStatistic.getMemory());
+        out.writeDouble(agentStatistic.getCpus());
+        writeString(out, agentStatistic.getAgentName());
+        writeString(out, agentStatistic.getAgentLabel());
+        writeString(out, agentStatistic.getLastJobName());
+        writeString(out, agentStatistic.getMesosAgent());
+        writeString(out, agentStatistic.getFramework());
+        writeString(out, agentStatistic.getPrincipal());
+        writeString(out, agentStatistic.getJenkinsUrl());
+        out.writeLong(agentStatistic.getProvisioningMillis());
+    }
+
+    private static AgentStatistic decode(DataInputStream in) throws IOException {
+        Date onlineDate = toDate(in.readLong());
+        Date offlineDate = toDate(in.readLong());
+        int memory = in.readInt();
+        double cpus = in.readDouble();
+        String agentName = readString(in);
+        String agentLabel = readString(in);
+        String lastJobName = readString(in);
+        String mesosAgent = readString(in);
+        String framework = readString(in);
+        String principal = readString(in);
+        String jenkinsUrl = readString(in);
+        // records journaled before the provisioning latency was tracked end here
+        long provisioningMillis = in.available() >= 8 ? in.readLong() : 0L;
+        return AgentStatistic.createPersistedAgentStatistic(agentName, agentLabel, lastJobName, onlineDate,
+            offlineDate, mesosAgent, framework, principal, jenkinsUrl, memory, cpus, provisioningMillis);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static long toMillis(Date date) {
+        return date == null ? BinaryRecordFormat.NULL_DATE : date.getTime();
+    }
+
+    private static Date toDate(long millis) {
+        return millis == BinaryRecordFormat.NULL_DATE ? null : new Date(millis);
+    }
+
+    /**
+     * Commits the queued records and stops the committer thread. Records offered afterwards are handed on
+     * to the sink without journaling.
+     */
+    public void shutdown() {
+        stopped = true;
+
+        try {
+            committer.execute(commitTask);
+        } catch (RejectedExecutionException e) {
+            LOGGER.log(Level.FINE, "Committer already shut down", e);
+        }
+        committer.shutdown();
+
+        try {
+            if (!committer.awaitTermination(30, TimeUnit.SECONDS)) {
+                LOGGER.log(Level.WARNING, "Journal committer did not terminate in time");
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+
+        // records offered while the final commit was running, or before the journal was started
+        inbound.drain(new MpscLinkedArrayQueue.Consumer<AgentStatistic>() {
+            public void accept(AgentStatistic agentStatistic) {
+                sink.accept(agentStatistic);
+            }
+        });
+    }
+
+    /**
+     * Writes the final checkpoint and closes the active segment, called after the sink persisted the records.
+     */
+    public void close() {
+        closeSegment();
+        if (started) {
+            checkpoint();
+        }
+    }
+
+    private static JournalFsyncPolicy getFsyncPolicy() {
+        InfonovaBuildStatsConfig config = InfonovaBuildStatsConfig.get();
+        return config != null ? config.getJournalFsyncPolicyValue() : JournalFsyncPolicy.ALWAYS;
+    }
+
+    private static class JournalRecord {
+
+        final long seq;
+
+        final AgentStatistic agentStatistic;
+
+        JournalRecord(long seq, AgentStatistic agentStatistic) {
+            this.seq = seq;
+            this.agentStatistic = agentStatistic;
+        }
+    }
+}
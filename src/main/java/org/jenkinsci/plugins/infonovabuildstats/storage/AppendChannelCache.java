@@ -0,0 +1,254 @@
+package org.jenkinsci.plugins.infonovabuildstats.storage;
+
+import org.apache.commons.io.IOUtils;
+
+import javax.annotation.CheckForNull;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps the channels of recently appended history files open between flushes, least recently used first.
+ * Channels beyond the capacity and channels idle for longer than the idle time are closed.
+ *
+ * A channel is lent out exclusively by {@link #acquire(File)} and handed back by {@link #release(File, Lease)},
+ * so channels of different files can be written concurrently while no channel is ever closed under a writer.
+ * The writer may attach state to the lease (e.g. the loaded dictionary of a segment), which is kept with the channel
+ * and dropped together with it.
+ * A cached channel is only reused if its file was not deleted or replaced meanwhile (e.g. by the
+ * {@link HistoryCompactor}, the {@link HistoryRetention} or the {@link BinaryHistoryConverter}).
+ */
+public class AppendChannelCache {
+
+    private static final Logger LOGGER = Logger.getLogger(AppendChannelCache.class.getName());
+
+    private final int capacity;
+
+    private final long idleMillis;
+
+    /**
+     * Access ordered, the eldest entry is the least recently released channel. Guarded by this.
+     */
+    private final LinkedHashMap<File, OpenChannel> channels = new LinkedHashMap<File, OpenChannel>(16, 0.75f, true);
+
+    private boolean closed;
+
+    /**
+     * @param capacity - maximum number of channels kept open between flushes
+     * @param idleMillis - channels released longer ago are closed by {@link #evictIdle(long)}
+     */
+    public AppendChannelCache(int capacity, long idleMillis) {
+        this.capacity = capacity;
+        this.idleMillis = idleMillis;
+    }
+
+    /**
+     * Lends the channel of the file to the caller, opened (and the file created) if it is not cached.
+     * The caller writes at explicit positions, the position of the channel is not maintained.
+     * A reused channel comes with the attachment it was released with, a newly opened one has none.
+     */
+    public Lease acquire(File file) throws IOException {
+        OpenChannel cached;
+        synchronized (this) {
+            cached = channels.remove(file);
+        }
+        if (cached != null) {
+            if (cached.isCurrent(file)) {
+                return new Lease(cached.channel, cached.attachment);
+            }
+            LOGGER.log(Level.FINE, "History file " + file + " was replaced, reopening it");
+            IOUtils.closeQuietly(cached.channel);
+        }
+        return new Lease(FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+            StandardOpenOption.READ), null);
+    }
+
+    /**
+     * Hands a channel back after a successful append together with its attachment, the least recently used
+     * channels beyond the capacity are closed.
+     */
+    public void release(File file, Lease lease) {
+        FileChannel channel = lease.channel;
+        Object fileKey;
+        try {
+            fileKey = fileKeyOf(file.toPath());
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Unable to read the attributes of " + file + ", closing its channel", e);
+            IOUtils.closeQuietly(channel);
+            return;
+        }
+
+        List<OpenChannel> evicted = new ArrayList<OpenChannel>();
+        synchronized (this) {
+            if (closed) {
+                evicted.add(new OpenChannel(channel, fileKey, 0L, null));
+            } else {
+                long nowMillis = System.currentTimeMillis();
+                OpenChannel previous = channels.put(file,
+                    new OpenChannel(channel, fileKey, nowMillis, lease.attachment));
+                if (previous != null && previous.channel != channel) {
+                    evicted.add(previous);
+                }
+                Iterator<OpenChannel> eldest = channels.values().iterator();
+                while (channels.size() > capacity && eldest.hasNext()) {
+                    evicted.add(eldest.next());
+                    eldest.remove();
+                }
+            }
+        }
+        close(evicted);
+    }
+
+    /**
+     * Closes a channel which must not be reused, e.g. after a failed write. Its attachment is dropped.
+     */
+    public void discard(Lease lease) {
+        IOUtils.closeQuietly(lease.channel);
+    }
+
+    /**
+     * Closes the channels which were released longer than the idle time ago.
+     *
+     * @return int - number of channels which are still open
+     */
+    public int evictIdle(long nowMillis) {
+        List<OpenChannel> evicted = new ArrayList<OpenChannel>();
+        int open;
+        synchronized (this) {
+            Iterator<OpenChannel> eldest = channels.values().iterator();
+            while (eldest.hasNext()) {
+                OpenChannel openChannel = eldest.next();
+                if (nowMillis - openChannel.releasedMillis < idleMillis) {
+                    // access ordered, all later channels were released even more recently
+                    break;
+                }
+                evicted.add(openChannel);
+                eldest.remove();
+            }
+            open = channels.size();
+        }
+        close(evicted);
+        return open;
+    }
+
+    /**
+     * @return int - number of channels open between flushes
+     */
+    public synchronized int size() {
+        return channels.size();
+    }
+
+    /**
+     * Closes all cached channels, channels released from now on are closed right away.
+     */
+    public void closeAll() {
+        List<OpenChannel> evicted;
+        synchronized (this) {
+            closed = true;
+            evicted = new ArrayList<OpenChannel>(channels.values());
+            channels.clear();
+        }
+        close(evicted);
+    }
+
+    private static void close(List<OpenChannel> evicted) {
+        for (OpenChannel openChannel : evicted) {
+            IOUtils.closeQuietly(openChannel.channel);
+        }
+    }
+
+    /**
+     * @return Object - the identity of the file on the file system, e.g. device and inode, or null if unsupported
+     */
+    private static Object fileKeyOf(Path path) throws IOException {
+        return Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+    }
+
+    /**
+     * A channel lent out by {@link #acquire(File)}, exclusively owned by the caller until it is released or
+     * discarded.
+     */
+    public static final class Lease {
+
+        private final FileChannel channel;
+
+        private Object attachment;
+
+        private Lease(FileChannel channel, Object attachment) {
+            this.channel = channel;
+            this.attachment = attachment;
+        }
+
+        public FileChannel getChannel() {
+            return channel;
+        }
+
+        /**
+         * @return Object - the state attached on the last append through this channel, null if none
+         */
+        @CheckForNull
+        public Object getAttachment() {
+            return attachment;
+        }
+
+        /**
+         * Attaches state to the channel which is handed out again by the next {@link #acquire(File)} of the file,
+         * as long as the channel stays cached and the file is not replaced.
+         */
+        public void setAttachment(@CheckForNull Object attachment) {
+            this.attachment = attachment;
+        }
+    }
+
+    private static final class OpenChannel {
+
+        private final FileChannel channel;
+
+        private final Object fileKey;
+
+        private final long releasedMillis;
+
+        private final Object attachment;
+
+        private OpenChannel(FileChannel channel, Object fileKey, long releasedMillis, Object attachment) {
+            this.channel = channel;
+            this.fileKey = fileKey;
+            this.releasedMillis = releasedMillis;
+            this.attachment = attachment;
+        }
+
+        /**
+         * @return boolean - true if the channel still writes to the file of the name
+         */
+        private boolean isCurrent(File file) {
+            if (!channel.isOpen()) {
+                return false;
+            }
+            try {
+                Path path = file.toPath();
+                Object currentKey = fileKeyOf(path);
+                if (fileKey != null ? !fileKey.equals(currentKey) : currentKey != null) {
+                    return false;
+                }
+                // without file keys a replaced file is only detected by its length
+                return channel.size() == Files.size(path);
+            } catch (NoSuchFileException e) {
+                return false;
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Unable to check the cached channel of " + file, e);
+                return false;
+            }
+        }
+    }
+}
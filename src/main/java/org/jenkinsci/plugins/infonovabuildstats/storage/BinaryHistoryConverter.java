@@ -0,0 +1,122 @@
+package org.jenkinsci.plugins.infonovabuildstats.storage;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+import org.jenkinsci.plugins.infonovabuildstats.history.AgentStatisticXmlReader;
+import org.jenkinsci.plugins.infonovabuildstats.history.HistoryFile;
+import org.jenkinsci.plugins.infonovabuildstats.model.AgentStatistic;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Converts XML day files into binary segments of the same day.
+ * The segment is built under a temporary name and moved into place before the XML file is deleted, so readers
+ * see either the XML file or the complete segment. If a segment of the day already exists (e.g. the storage
+ * format was switched during the day) it is copied first and extended, its dictionary ids stay unchanged.
+ */
+public class BinaryHistoryConverter {
+
+    private static final Logger LOGGER = Logger.getLogger(BinaryHistoryConverter.class.getName());
+
+    private static final String TMP_SUFFIX = ".tmp";
+
+    private static final int CHUNK_SIZE = 10000;
+
+    /**
+     * Converts all closed XML shard files. Day files which are covered by a compacted segment
+     * are left to the {@link HistoryCompactor}, a converted file would not be recognized as covered.
+     *
+     * @param folder - the history folder
+     * @param writeLock - monitor of the writer of the history files, held while converting a file
+     * @return int - number of converted files
+     */
+    public static int convertClosedDays(File folder, Object writeLock) {
+        long todayStart = HistoryFile.startOfToday();
+        Map<String, Long> coveredLengths = HistoryCompactor.coveredLengths(folder);
+        int converted = 0;
+        for (HistoryFile historyFile : HistoryFile.list(folder)) {
+            if (historyFile.getFormat() != StorageFormat.XML || !historyFile.isClosed(todayStart)
+                || coveredLengths.containsKey(historyFile.getFile().getName())) {
+                continue;
+            }
+            try {
+                synchronized (writeLock) {
+                    convert(historyFile.getFile());
+                }
+                converted++;
+            } catch (IOException e) {
+                LOGGER.log(Level.SEVERE, "Unable to convert " + historyFile + " to a binary segment", e);
+            }
+        }
+        return converted;
+    }
+
+    /**
+     * Converts a single XML day file, the caller has to make sure that nobody appends to the day meanwhile.
+     */
+    public static void convert(File xmlFile) throws IOException {
+        File folder = xmlFile.getParentFile();
+        String baseName = StringUtils.removeEnd(xmlFile.getName(), StorageFormat.XML.getExtension());
+
+        File segment = new File(folder, baseName + BinaryRecordFormat.RECORD_FILE_EXTENSION);
+        File dictionary = BinaryRecordFormat.dictionaryFileOf(segment);
+        File tmpSegment = new File(folder, segment.getName() + TMP_SUFFIX);
+        File tmpDictionary = BinaryRecordFormat.dictionaryFileOf(tmpSegment);
+
+        FileUtils.deleteQuietly(tmpSegment);
+        FileUtils.deleteQuietly(tmpDictionary);
+        if (segment.exists()) {
+            FileUtils.copyFile(segment, tmpSegment);
+            if (dictionary.exists()) {
+                FileUtils.copyFile(dictionary, tmpDictionary);
+            }
+        }
+
+        BinarySegmentWriter writer = new BinarySegmentWriter(tmpSegment);
+        AgentStatisticXmlReader reader = new AgentStatisticXmlReader(xmlFile);
+        int records = 0;
+        try {
+            List<AgentStatistic> chunk = new ArrayList<AgentStatistic>(CHUNK_SIZE);
+            AgentStatistic agentStatistic;
+            while ((agentStatistic = reader.next()) != null) {
+                chunk.add(agentStatistic);
+                if (chunk.size() == CHUNK_SIZE) {
+                    writer.append(chunk);
+                    records += chunk.size();
+                    chunk.clear();
+                }
+            }
+            if (!chunk.isEmpty()) {
+                writer.append(chunk);
+                records += chunk.size();
+            }
+        } catch (IOException e) {
+            FileUtils.deleteQuietly(tmpSegment);
+            FileUtils.deleteQuietly(tmpDictionary);
+            throw e;
+        } finally {
+            IOUtils.closeQuietly(reader);
+        }
+
+        // the new dictionary is a superset of the old one, so it is valid for the old segment as well
+        if (tmpDictionary.exists()) {
+            Files.move(tmpDictionary.toPath(), dictionary.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        }
+        Files.move(tmpSegment.toPath(), segment.toPath(), StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+        Files.delete(xmlFile.toPath());
+        XmlOffsetIndex.delete(xmlFile);
+
+        LOGGER.log(Level.INFO, "Converted " + records + " records of " + xmlFile.getName() + " to " + segment.getName());
+    }
+}
@@ -0,0 +1,120 @@
+package org.jenkinsci.plugins.infonovabuildstats.storage;
+
+import org.apache.commons.lang.StringUtils;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+
+/**
+ * Layout of the binary history segments.
+ *
+ * A segment consists of a record file (*.bin) and a dictionary file (*.dict). The record file starts with a
+ * header (magic, version, record size) followed by fixed-width big-endian records. Strings are stored as ids
+ * into the dictionary of the segment, -1 stands for null. The dictionary file is a sequence of
+ * {@link java.io.DataOutput#writeUTF(String) UTF} entries, the id of an entry is its position.
+ *
+ * Both files are append-only. New dictionary entries are always written before the records referring to them.
+ *
+ * Version 2 appended the provisioning latency to the record. Records are appended in the record size of the
+ * file's header, so segments started with version 1 keep their layout and read back a latency of 0.
+ *
+ * Version 3 writes the agent name and the last job name inline. Both are close to unique per record, in the
+ * dictionary they would only make it grow with the segment. Their slot holds the byte length of the UTF-8 value
+ * (-1 for null) and the bytes follow the fixed part of the record in column order, so records of version 3 vary
+ * in length and the header holds the size of the fixed part. Segments started with an older version keep their
+ * layout and their dictionary ids.
+ */
+public final class BinaryRecordFormat {
+
+    public static final String RECORD_FILE_EXTENSION = ".bin";
+
+    public static final String DICTIONARY_FILE_EXTENSION = ".dict";
+
+    public static final int MAGIC = 0x49425352; // "IBSR"
+
+    public static final short VERSION = 3;
+
+    /* first version with inline strings */
+    public static final short INLINE_VERSION = 3;
+
+    public static final int HEADER_SIZE = 8;
+
+    public static final int NULL_ID = -1;
+
+    public static final long NULL_DATE = Long.MIN_VALUE;
+
+    public static final int ONLINE_DATE_OFFSET = 0;
+    public static final int OFFLINE_DATE_OFFSET = 8;
+    public static final int ONLINE_TIME_MILLIS_OFFSET = 16;
+    public static final int CPUS_OFFSET = 24;
+    public static final int MEMORY_OFFSET = 32;
+
+    /**
+     * The string columns of a record, in record order.
+     */
+    public enum StringColumn {
+        LAST_JOB_NAME(true),
+        AGENT_LABEL(false),
+        AGENT_NAME(true),
+        MESOS_AGENT(false),
+        PRINCIPAL(false),
+        FRAMEWORK(false),
+        PROJECT(false),
+        JENKINS_URL(false);
+
+        private final boolean inline;
+
+        StringColumn(boolean inline) {
+            this.inline = inline;
+        }
+
+        public int getOffset() {
+            return FIRST_STRING_OFFSET + 4 * ordinal();
+        }
+
+        /**
+         * @return boolean - whether the column is written inline in segments of {@link #INLINE_VERSION} and later
+         */
+        public boolean isInline() {
+            return inline;
+        }
+    }
+
+    private static final int FIRST_STRING_OFFSET = 36;
+
+    /* Record size of version 1, which ends after the string columns */
+    public static final int MIN_RECORD_SIZE = FIRST_STRING_OFFSET + 4 * StringColumn.values().length;
+
+    public static final int PROVISIONING_MILLIS_OFFSET = MIN_RECORD_SIZE;
+
+    public static final int RECORD_SIZE = PROVISIONING_MILLIS_OFFSET + 8;
+
+    private BinaryRecordFormat() {
+    }
+
+    /**
+     * @return int - length of the record of an inline segment starting at base, -1 if the inline lengths of the
+     *               record are corrupt
+     */
+    public static int inlineRecordLength(ByteBuffer records, int base, int recordSize) {
+        long length = recordSize;
+        for (StringColumn column : StringColumn.values()) {
+            if (column.isInline()) {
+                int valueLength = records.getInt(base + column.getOffset());
+                if (valueLength < NULL_ID) {
+                    return -1;
+                }
+                length += Math.max(0, valueLength);
+            }
+        }
+        return length > Integer.MAX_VALUE ? -1 : (int) length;
+    }
+
+    /**
+     * @return File - the dictionary file belonging to the record file
+     */
+    public static File dictionaryFileOf(File recordFile) {
+        String name = StringUtils.removeEnd(recordFile.getName(), RECORD_FILE_EXTENSION) + DICTIONARY_FILE_EXTENSION;
+        return new File(recordFile.getParentFile(), name);
+    }
+}
@@ -0,0 +1,312 @@
+package org.jenkinsci.plugins.infonovabuildstats.storage;
+
+import org.jenkinsci.plugins.infonovabuildstats.model.AgentStatistic;
+import org.jenkinsci.plugins.infonovabuildstats.query.AgentStatisticFilter;
+import org.jenkinsci.plugins.infonovabuildstats.storage.BinaryRecordFormat.StringColumn;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Date;
+
+/**
+ * Memory-mapped reader of a binary segment, see {@link BinaryRecordFormat}.
+ * The primitive accessors read straight from the mapping, so scanning a segment does not allocate per record.
+ * Only {@link #materialize(int)} creates an {@link AgentStatistic}. The records of a segment with inline strings
+ * vary in length, their offsets are collected once when the segment is opened.
+ *
+ * Instances are not thread-safe.
+ */
+public class BinarySegmentReader {
+
+    private final MappedByteBuffer records;
+
+    private final SegmentDictionary dictionary;
+
+    /* size of the fixed part of a record */
+    private final int recordSize;
+
+    private final int recordCount;
+
+    /* offsets of the records and the end of the last one in a segment with inline strings, null otherwise */
+    private final int[] offsets;
+
+    /* for reading the inline strings, the position of the mapping itself stays untouched */
+    private final ByteBuffer inlineValues;
+
+    public BinarySegmentReader(File recordFile) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(recordFile, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            // the mapping stays valid after the channel is closed
+            this.records = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            raf.close();
+        }
+
+        this.inlineValues = records.duplicate();
+        if (records.capacity() < BinaryRecordFormat.HEADER_SIZE) {
+            this.recordSize = BinaryRecordFormat.RECORD_SIZE;
+            this.recordCount = 0;
+            this.offsets = null;
+        } else {
+            if (records.getInt(0) != BinaryRecordFormat.MAGIC) {
+                throw new IOException("Not a binary history segment: " + recordFile);
+            }
+            this.recordSize = records.getShort(6);
+            if (recordSize < BinaryRecordFormat.MIN_RECORD_SIZE) {
+                throw new IOException("Unsupported record size " + recordSize + " in " + recordFile);
+            }
+            // a partially written record at the end is ignored
+            if (records.getShort(4) >= BinaryRecordFormat.INLINE_VERSION) {
+                this.offsets = inlineOffsets(records, recordSize);
+                this.recordCount = offsets.length - 1;
+            } else {
+                this.offsets = null;
+                this.recordCount = (records.capacity() - BinaryRecordFormat.HEADER_SIZE) / recordSize;
+            }
+        }
+
+        // loaded after mapping the records, so every id referenced by a mapped record is contained
+        this.dictionary = SegmentDictionary.load(BinaryRecordFormat.dictionaryFileOf(recordFile));
+    }
+
+    /**
+     * Walks the records of a segment with inline strings once, their lengths vary.
+     */
+    private static int[] inlineOffsets(ByteBuffer records, int recordSize) {
+        int[] offsets = new int[1024];
+        int count = 0;
+        int offset = BinaryRecordFormat.HEADER_SIZE;
+        while (true) {
+            if (count == offsets.length) {
+                offsets = Arrays.copyOf(offsets, count * 2);
+            }
+            offsets[count++] = offset;
+            if (offset + recordSize > records.capacity()) {
+                break;
+            }
+            int recordLength = BinaryRecordFormat.inlineRecordLength(records, offset, recordSize);
+            if (recordLength < 0 || offset + (long) recordLength > records.capacity()) {
+                break;
+            }
+            offset += recordLength;
+        }
+        return Arrays.copyOf(offsets, count);
+    }
+
+    public int getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * @return int - index of the first record starting at or after the byte offset,
+     *               used to scan only the records appended after a covered length
+     */
+    public int firstRecordAt(long offset) {
+        if (offset <= BinaryRecordFormat.HEADER_SIZE) {
+            return 0;
+        }
+        if (offsets != null) {
+            // first offset at or after the byte offset, the end of the last record stands for recordCount
+            int index = Arrays.binarySearch(offsets, (int) Math.min(offset, Integer.MAX_VALUE));
+            return Math.min(index >= 0 ? index : -index - 1, recordCount);
+        }
+        long record = (offset - BinaryRecordFormat.HEADER_SIZE + recordSize - 1) / recordSize;
+        return (int) Math.min(record, recordCount);
+    }
+
+    /**
+     * @return int - number of records which are completely contained in the first length bytes
+     */
+    public int recordCountWithin(long length) {
+        if (length <= BinaryRecordFormat.HEADER_SIZE) {
+            return 0;
+        }
+        if (offsets != null) {
+            // a record is contained if the next one starts within the length
+            int index = Arrays.binarySearch(offsets, (int) Math.min(length, Integer.MAX_VALUE));
+            return Math.min(index >= 0 ? index : -index - 2, recordCount);
+        }
+        return (int) Math.min((length - BinaryRecordFormat.HEADER_SIZE) / recordSize, recordCount);
+    }
+
+    /**
+     * @return long - byte offset at which the record starts, the end of the last record for the record count
+     */
+    public long offsetOf(int record) {
+        if (offsets != null) {
+            return offsets[record];
+        }
+        return BinaryRecordFormat.HEADER_SIZE + (long) record * recordSize;
+    }
+
+    public SegmentDictionary getDictionary() {
+        return dictionary;
+    }
+
+    private int base(int record) {
+        return offsets != null ? offsets[record] : BinaryRecordFormat.HEADER_SIZE + record * recordSize;
+    }
+
+    public long getOnlineMillis(int record) {
+        return records.getLong(base(record) + BinaryRecordFormat.ONLINE_DATE_OFFSET);
+    }
+
+    public long getOfflineMillis(int record) {
+        return records.getLong(base(record) + BinaryRecordFormat.OFFLINE_DATE_OFFSET);
+    }
+
+    public long getOnlineTimeMillis(int record) {
+        return records.getLong(base(record) + BinaryRecordFormat.ONLINE_TIME_MILLIS_OFFSET);
+    }
+
+    public double getCpus(int record) {
+        return records.getDouble(base(record) + BinaryRecordFormat.CPUS_OFFSET);
+    }
+
+    public int getMemory(int record) {
+        return records.getInt(base(record) + BinaryRecordFormat.MEMORY_OFFSET);
+    }
+
+    /**
+     * @return long - the provisioning latency, 0 in segments written before it was persisted
+     */
+    public long getProvisioningMillis(int record) {
+        if (recordSize < BinaryRecordFormat.PROVISIONING_MILLIS_OFFSET + 8) {
+            return 0L;
+        }
+        return records.getLong(base(record) + BinaryRecordFormat.PROVISIONING_MILLIS_OFFSET);
+    }
+
+    /**
+     * @return boolean - whether the values of the column are stored inline instead of in the dictionary
+     */
+    public boolean isInline(StringColumn column) {
+        return offsets != null && column.isInline();
+    }
+
+    /**
+     * @return int - the dictionary id of the value, only for columns which are not inline
+     */
+    public int getStringId(int record, StringColumn column) {
+        if (isInline(column)) {
+            throw new IllegalArgumentException(column + " is stored inline");
+        }
+        return records.getInt(base(record) + column.getOffset());
+    }
+
+    public String getString(int record, StringColumn column) {
+        if (!isInline(column)) {
+            return dictionary.get(getStringId(record, column));
+        }
+        int base = base(record);
+        int length = records.getInt(base + column.getOffset());
+        if (length == BinaryRecordFormat.NULL_ID) {
+            return null;
+        }
+        // the inline values follow the fixed part in column order
+        int position = base + recordSize;
+        for (StringColumn previous : StringColumn.values()) {
+            if (previous == column) {
+                break;
+            }
+            if (previous.isInline()) {
+                position += Math.max(0, records.getInt(base + previous.getOffset()));
+            }
+        }
+        byte[] value = new byte[length];
+        inlineValues.position(position);
+        inlineValues.get(value);
+        return new String(value, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Compiles the filter against the dictionary of this segment, so matching compares ints only.
+     */
+    public Matcher matcher(AgentStatisticFilter filter) {
+        return new Matcher(filter);
+    }
+
+    public AgentStatistic materialize(int record) {
+        return AgentStatistic.createPersistedAgentStatistic(
+            getString(record, StringColumn.AGENT_NAME),
+            getString(record, StringColumn.AGENT_LABEL),
+            getString(record, StringColumn.LAST_JOB_NAME),
+            toDate(getOnlineMillis(record)),
+            toDate(getOfflineMillis(record)),
+            getString(record, StringColumn.MESOS_AGENT),
+            getString(record, StringColumn.FRAMEWORK),
+            getString(record, StringColumn.PRINCIPAL),
+            getString(record, StringColumn.JENKINS_URL),
+            getMemory(record),
+            getCpus(record),
+            getProvisioningMillis(record));
+    }
+
+    private static Date toDate(long millis) {
+        return millis == BinaryRecordFormat.NULL_DATE ? null : new Date(millis);
+    }
+
+    /**
+     * {@link AgentStatisticFilter} resolved to dictionary ids of one segment.
+     */
+    public class Matcher {
+
+        private static final int ANY = Integer.MIN_VALUE;
+
+        private final AgentStatisticFilter filter;
+
+        private final int agentLabel;
+        private final int project;
+        private final int framework;
+        private final int mesosAgent;
+
+        /* a criterion refers to a value which does not occur in this segment */
+        private final boolean impossible;
+
+        Matcher(AgentStatisticFilter filter) {
+            this.filter = filter;
+            this.agentLabel = resolve(filter.getAgentLabel());
+            this.project = resolve(filter.getProject());
+            this.framework = resolve(filter.getFramework());
+            this.mesosAgent = resolve(filter.getMesosAgent());
+            this.impossible = (filter.getAgentLabel() != null && agentLabel == BinaryRecordFormat.NULL_ID)
+                || (filter.getProject() != null && project == BinaryRecordFormat.NULL_ID)
+                || (filter.getFramework() != null && framework == BinaryRecordFormat.NULL_ID)
+                || (filter.getMesosAgent() != null && mesosAgent == BinaryRecordFormat.NULL_ID);
+        }
+
+        private int resolve(String value) {
+            return value == null ? ANY : dictionary.idOf(value);
+        }
+
+        public boolean isImpossible() {
+            return impossible;
+        }
+
+        public boolean matches(int record) {
+            if (impossible) {
+                return false;
+            }
+            long offline = getOfflineMillis(record);
+            if (offline == BinaryRecordFormat.NULL_DATE || !filter.matchesValues(offline,
+                getOnlineTimeMillis(record), getCpus(record), getMemory(record))) {
+                return false;
+            }
+            return matches(agentLabel, record, StringColumn.AGENT_LABEL)
+                && matches(project, record, StringColumn.PROJECT)
+                && matches(framework, record, StringColumn.FRAMEWORK)
+                && matches(mesosAgent, record, StringColumn.MESOS_AGENT);
+        }
+
+        private boolean matches(int expected, int record, StringColumn column) {
+            return expected == ANY || expected == getStringId(record, column);
+        }
+    }
+}
@@ -0,0 +1,244 @@
+package org.jenkinsci.plugins.infonovabuildstats.storage;
+
+import org.jenkinsci.plugins.infonovabuildstats.model.AgentStatistic;
+import org.jenkinsci.plugins.infonovabuildstats.storage.BinaryRecordFormat.StringColumn;
+
+import javax.annotation.CheckForNull;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Date;
+
+/**
+ * Appends records to a binary segment, see {@link BinaryRecordFormat}.
+ * A record which was only partially written (e.g. by a crash) is cut off before appending.
+ */
+public class BinarySegmentWriter {
+
+    private final File recordFile;
+
+    private final File dictionaryFile;
+
+    public BinarySegmentWriter(File recordFile) {
+        this.recordFile = recordFile;
+        this.dictionaryFile = BinaryRecordFormat.dictionaryFileOf(recordFile);
+    }
+
+    public File getRecordFile() {
+        return recordFile;
+    }
+
+    /**
+     * Appends the records, the new dictionary entries are persisted before the records.
+     * The records are encoded in the version and record size of the existing segment, see
+     * {@link BinaryRecordFormat}.
+     */
+    public void append(Collection<AgentStatistic> agentStatistics) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(recordFile, "rw");
+        try {
+            append(raf.getChannel(), agentStatistics);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Appends the records through an open read/write channel of the record file, which stays open.
+     */
+    public void append(FileChannel channel, Collection<AgentStatistic> agentStatistics) throws IOException {
+        append(channel, null, agentStatistics);
+    }
+
+    /**
+     * Like {@link #append(FileChannel, Collection)}, with the state returned by the previous append to the same
+     * segment. Its dictionary is only loaded again if it no longer matches the dictionary file, and the records
+     * are only checked for a partially written one at the end if the segment changed meanwhile, so an append
+     * costs the new records and entries only instead of the whole segment.
+     *
+     * @param cached - the state of the previous append or null
+     * @return AppendState - the state including the new records and entries, for the next append
+     */
+    public AppendState append(FileChannel channel, @CheckForNull AppendState cached,
+                              Collection<AgentStatistic> agentStatistics) throws IOException {
+        SegmentDictionary dictionary = cached != null && cached.dictionary.isCurrent(dictionaryFile)
+            ? cached.dictionary : SegmentDictionary.load(dictionaryFile);
+
+        long length = channel.size();
+        int version = BinaryRecordFormat.VERSION;
+        int recordSize = BinaryRecordFormat.RECORD_SIZE;
+        if (length < BinaryRecordFormat.HEADER_SIZE) {
+            channel.truncate(0);
+            writeFully(channel, header(), 0);
+            length = BinaryRecordFormat.HEADER_SIZE;
+        } else {
+            ByteBuffer header = readHeader(channel);
+            version = header.getShort(4);
+            recordSize = header.getShort(6);
+            long complete = cached != null && cached.length == length
+                ? length : completeLength(channel, length, version >= BinaryRecordFormat.INLINE_VERSION, recordSize);
+            if (complete != length) {
+                channel.truncate(complete);
+                length = complete;
+            }
+        }
+
+        boolean inline = version >= BinaryRecordFormat.INLINE_VERSION;
+        ByteBuffer records = ByteBuffer.allocate(agentStatistics.size() * recordSize);
+        for (AgentStatistic agentStatistic : agentStatistics) {
+            records = encode(agentStatistic, dictionary, records, recordSize, inline);
+        }
+        records.flip();
+
+        dictionary.appendNewEntries(dictionaryFile);
+        writeFully(channel, records, length);
+        return new AppendState(dictionary, channel.size());
+    }
+
+    private ByteBuffer readHeader(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(BinaryRecordFormat.HEADER_SIZE);
+        while (header.hasRemaining()) {
+            if (channel.read(header, header.position()) < 0) {
+                throw new IOException("Truncated header in " + recordFile);
+            }
+        }
+        if (header.getInt(0) != BinaryRecordFormat.MAGIC
+            || header.getShort(6) < BinaryRecordFormat.MIN_RECORD_SIZE) {
+            throw new IOException("Not a binary history segment: " + recordFile);
+        }
+        return header;
+    }
+
+    /**
+     * @return long - length of the complete records, a record which was only partially written is left out
+     */
+    private static long completeLength(FileChannel channel, long length, boolean inline, int recordSize)
+        throws IOException {
+        if (!inline) {
+            return BinaryRecordFormat.HEADER_SIZE
+                + (length - BinaryRecordFormat.HEADER_SIZE) / recordSize * recordSize;
+        }
+        ByteBuffer records = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+        int complete = BinaryRecordFormat.HEADER_SIZE;
+        while (complete + recordSize <= length) {
+            int recordLength = BinaryRecordFormat.inlineRecordLength(records, complete, recordSize);
+            if (recordLength < 0 || complete + (long) recordLength > length) {
+                break;
+            }
+            complete += recordLength;
+        }
+        return complete;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private static ByteBuffer header() {
+        ByteBuffer header = ByteBuffer.allocate(BinaryRecordFormat.HEADER_SIZE);
+        header.putInt(BinaryRecordFormat.MAGIC);
+        header.putShort(BinaryRecordFormat.VERSION);
+        header.putShort((short) BinaryRecordFormat.RECORD_SIZE);
+        header.flip();
+        return header;
+    }
+
+    /**
+     * Encodes the record into out, which is replaced by a larger buffer if the record does not fit.
+     *
+     * @param inline - whether the inline columns are written inline, see {@link BinaryRecordFormat}
+     * @return ByteBuffer - out or its replacement, positioned after the record
+     */
+    static ByteBuffer encode(AgentStatistic agentStatistic, SegmentDictionary dictionary, ByteBuffer out,
+                             int recordSize, boolean inline) {
+        byte[] lastJobName = inline ? utf8(agentStatistic.getLastJobName()) : null;
+        byte[] agentName = inline ? utf8(agentStatistic.getAgentName()) : null;
+        out = ensureRemaining(out, recordSize + length(lastJobName) + length(agentName));
+
+        int base = out.position();
+        out.putLong(base + BinaryRecordFormat.ONLINE_DATE_OFFSET, toMillis(agentStatistic.getOnlineDate()));
+        out.putLong(base + BinaryRecordFormat.OFFLINE_DATE_OFFSET, toMillis(agentStatistic.getOfflineDate()));
+        out.putLong(base + BinaryRecordFormat.ONLINE_TIME_MILLIS_OFFSET, agentStatistic.getOnlineTimeMillis());
+        out.putDouble(base + BinaryRecordFormat.CPUS_OFFSET, agentStatistic.getCpus());
+        out.putInt(base + BinaryRecordFormat.MEMORY_OFFSET, agentStatistic.getMemory());
+
+        if (inline) {
+            putLength(out, base, StringColumn.LAST_JOB_NAME, lastJobName);
+            putLength(out, base, StringColumn.AGENT_NAME, agentName);
+        } else {
+            putString(out, base, StringColumn.LAST_JOB_NAME, agentStatistic.getLastJobName(), dictionary);
+            putString(out, base, StringColumn.AGENT_NAME, agentStatistic.getAgentName(), dictionary);
+        }
+        putString(out, base, StringColumn.AGENT_LABEL, agentStatistic.getAgentLabel(), dictionary);
+        putString(out, base, StringColumn.MESOS_AGENT, agentStatistic.getMesosAgent(), dictionary);
+        putString(out, base, StringColumn.PRINCIPAL, agentStatistic.getPrincipal(), dictionary);
+        putString(out, base, StringColumn.FRAMEWORK, agentStatistic.getFramework(), dictionary);
+        putString(out, base, StringColumn.PROJECT, agentStatistic.getProject(), dictionary);
+        putString(out, base, StringColumn.JENKINS_URL, agentStatistic.getJenkinsUrl(), dictionary);
+
+        if (recordSize >= BinaryRecordFormat.PROVISIONING_MILLIS_OFFSET + 8) {
+            out.putLong(base + BinaryRecordFormat.PROVISIONING_MILLIS_OFFSET, agentStatistic.getProvisioningMillis());
+        }
+
+        // inline values follow the fixed part in column order
+        out.position(base + recordSize);
+        if (lastJobName != null) {
+            out.put(lastJobName);
+        }
+        if (agentName != null) {
+            out.put(agentName);
+        }
+        return out;
+    }
+
+    private static ByteBuffer ensureRemaining(ByteBuffer out, int needed) {
+        if (out.remaining() >= needed) {
+            return out;
+        }
+        ByteBuffer larger = ByteBuffer.allocate(Math.max(out.capacity() * 2, out.position() + needed));
+        out.flip();
+        larger.put(out);
+        return larger;
+    }
+
+    private static void putString(ByteBuffer out, int base, StringColumn column, String value,
+                                  SegmentDictionary dictionary) {
+        out.putInt(base + column.getOffset(), dictionary.getOrAdd(value));
+    }
+
+    private static void putLength(ByteBuffer out, int base, StringColumn column, byte[] value) {
+        out.putInt(base + column.getOffset(), value == null ? BinaryRecordFormat.NULL_ID : value.length);
+    }
+
+    private static byte[] utf8(String value) {
+        return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int length(byte[] value) {
+        return value == null ? 0 : value.length;
+    }
+
+    private static long toMillis(Date date) {
+        return date == null ? BinaryRecordFormat.NULL_DATE : date.getTime();
+    }
+
+    /**
+     * What an append knows about the segment afterwards: its dictionary and the length of its complete records.
+     */
+    public static final class AppendState {
+
+        private final SegmentDictionary dictionary;
+
+        private final long length;
+
+        AppendState(SegmentDictionary dictionary, long length) {
+            this.dictionary = dictionary;
+            this.length = length;
+        }
+    }
+}
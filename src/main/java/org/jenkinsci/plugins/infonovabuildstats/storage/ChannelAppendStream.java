@@ -0,0 +1,78 @@
+package org.jenkinsci.plugins.infonovabuildstats.storage;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Appends to a file channel through a (direct) buffer, written at explicit positions so the channel can stay
+ * open for the next append. Closing the stream flushes the buffer but leaves the channel open.
+ *
+ * Not thread-safe, the buffer belongs to the stream until it is closed.
+ */
+public class ChannelAppendStream extends OutputStream {
+
+    private final FileChannel channel;
+
+    private final ByteBuffer buffer;
+
+    private long position;
+
+    /**
+     * @param position - where the first byte is written, usually the size of the channel
+     * @param buffer - cleared and used as write buffer
+     */
+    public ChannelAppendStream(FileChannel channel, long position, ByteBuffer buffer) {
+        this.channel = channel;
+        this.position = position;
+        this.buffer = buffer;
+        this.buffer.clear();
+    }
+
+    /**
+     * @return long - position after the last byte written to the stream, including the buffered bytes
+     */
+    public long getPosition() {
+        return position + buffer.position();
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (!buffer.hasRemaining()) {
+            flushBuffer();
+        }
+        buffer.put((byte) b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (!buffer.hasRemaining()) {
+                flushBuffer();
+            }
+            int chunk = Math.min(len, buffer.remaining());
+            buffer.put(b, off, chunk);
+            off += chunk;
+            len -= chunk;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        flushBuffer();
+    }
+
+    @Override
+    public void close() throws IOException {
+        flushBuffer();
+    }
+
+    private void flushBuffer() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+        buffer.clear();
+    }
+}
@@ -0,0 +1,103 @@
+package org.jenkinsci.plugins.infonovabuildstats.storage;
+
+import org.jenkinsci.plugins.infonovabuildstats.storage.BinaryRecordFormat.StringColumn;
+
+/**
+ * Layout of the compacted monthly segments (agentStatistics-yyyy-MM.col).
+ *
+ * <pre>
+ * segment  := columnBlock* footer trailer
+ * footer   := version:short recordCount:int
+ *             coveredFileCount:int (name:UTF length:long)*
+ *             dictionarySize:int value:UTF*
+ *             rowGroupCount:int rowGroup*
+ * rowGroup := rowCount:int zoneMap (offset:long compressedLength:int)[column count]
+ * zoneMap  := min/max offlineDate:long, min/max onlineTimeMillis:long, min/max cpus:double, min/max memory:int
+ * trailer  := footerOffset:long magic:int
+ * </pre>
+ *
+ * Every column block is a big-endian primitive array of one column of one row group, compressed with
+ * {@link java.util.zip.Deflater}. String columns hold ids into the dictionary of the segment, -1 stands for null.
+ * The covered files are the day files (and their lengths) whose records are contained in the segment.
+ *
+ * Version 2 added the provisioning latency as last column, version 1 segments have one column less and read back
+ * a latency of 0.
+ */
+public final class ColumnarSegmentFormat {
+
+    public static final String SEGMENT_FILE_EXTENSION = ".col";
+
+    public static final int MAGIC = 0x49425343; // "IBSC"
+
+    public static final short VERSION = 2;
+
+    public static final int TRAILER_SIZE = 12;
+
+    public static final int ROW_GROUP_SIZE = 65536;
+
+    public enum Type {
+        LONG(8), DOUBLE(8), INT(4);
+
+        private final int width;
+
+        Type(int width) {
+            this.width = width;
+        }
+
+        public int getWidth() {
+            return width;
+        }
+    }
+
+    /**
+     * The columns of a segment, in block order.
+     */
+    public enum Column {
+        ONLINE_DATE(Type.LONG, null),
+        OFFLINE_DATE(Type.LONG, null),
+        ONLINE_TIME_MILLIS(Type.LONG, null),
+        CPUS(Type.DOUBLE, null),
+        MEMORY(Type.INT, null),
+        LAST_JOB_NAME(Type.INT, StringColumn.LAST_JOB_NAME),
+        AGENT_LABEL(Type.INT, StringColumn.AGENT_LABEL),
+        AGENT_NAME(Type.INT, StringColumn.AGENT_NAME),
+        MESOS_AGENT(Type.INT, StringColumn.MESOS_AGENT),
+        PRINCIPAL(Type.INT, StringColumn.PRINCIPAL),
+        FRAMEWORK(Type.INT, StringColumn.FRAMEWORK),
+        PROJECT(Type.INT, StringColumn.PROJECT),
+        JENKINS_URL(Type.INT, StringColumn.JENKINS_URL),
+        PROVISIONING_MILLIS(Type.LONG, null);
+
+        private final Type type;
+
+        private final StringColumn stringColumn;
+
+        Column(Type type, StringColumn stringColumn) {
+            this.type = type;
+            this.stringColumn = stringColumn;
+        }
+
+        public Type getType() {
+            return type;
+        }
+
+        /**
+         * @return int - number of columns in segments of the given version
+         */
+        public static int countOf(short version) {
+            return version == 1 ? PROVISIONING_MILLIS.ordinal() : values().length;
+        }
+
+        public static Column of(StringColumn stringColumn) {
+            for (Column column : values()) {
+                if (column.stringColumn == stringColumn) {
+                    return column;
+                }
+            }
+            throw new IllegalArgumentException(String.valueOf(stringColumn));
+        }
+    }
+
+    private ColumnarSegmentFormat() {
+    }
+}
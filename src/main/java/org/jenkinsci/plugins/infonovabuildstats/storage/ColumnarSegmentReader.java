@@ -0,0 +1,329 @@
+package org.jenkinsci.plugins.infonovabuildstats.storage;
+
+import org.jenkinsci.plugins.infonovabuildstats.model.AgentStatistic;
+import org.jenkinsci.plugins.infonovabuildstats.query.AgentStatisticCollector;
+import org.jenkinsci.plugins.infonovabuildstats.query.AgentStatisticFilter;
+import org.jenkinsci.plugins.infonovabuildstats.storage.ColumnarSegmentFormat.Column;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reader of a compacted segment, see {@link ColumnarSegmentFormat}.
+ * Opening a segment reads the footer only, the column blocks are read and inflated on demand:
+ * row groups are skipped by their zone map and within a row group only the columns needed by the filter
+ * are inflated until a record matches.
+ *
+ * The file stays open until {@link #close()}, so a reader keeps seeing the segment it opened
+ * even if the compactor replaces it meanwhile. Instances are not thread-safe.
+ */
+public class ColumnarSegmentReader implements Closeable {
+
+    private static final int ANY = Integer.MIN_VALUE;
+
+    private final File file;
+
+    private final RandomAccessFile raf;
+
+    private final FileChannel channel;
+
+    private final int recordCount;
+
+    private final List<CoveredFile> coveredFiles;
+
+    private final SegmentDictionary dictionary = new SegmentDictionary();
+
+    private final List<RowGroup> rowGroups;
+
+    public ColumnarSegmentReader(File file) throws IOException {
+        this.file = file;
+        this.raf = new RandomAccessFile(file, "r");
+        this.channel = raf.getChannel();
+        try {
+            long size = channel.size();
+            if (size < ColumnarSegmentFormat.TRAILER_SIZE) {
+                throw new IOException("Not a columnar history segment: " + file);
+            }
+            ByteBuffer trailer = read(size - ColumnarSegmentFormat.TRAILER_SIZE, ColumnarSegmentFormat.TRAILER_SIZE);
+            long footerOffset = trailer.getLong();
+            if (trailer.getInt() != ColumnarSegmentFormat.MAGIC || footerOffset < 0
+                || footerOffset > size - ColumnarSegmentFormat.TRAILER_SIZE) {
+                throw new IOException("Not a columnar history segment: " + file);
+            }
+
+            ByteBuffer footer = read(footerOffset, (int) (size - ColumnarSegmentFormat.TRAILER_SIZE - footerOffset));
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(footer.array()));
+            short version = in.readShort();
+            if (version < 1 || version > ColumnarSegmentFormat.VERSION) {
+                throw new IOException("Unsupported segment version " + version + " in " + file);
+            }
+            this.recordCount = in.readInt();
+
+            int coveredFileCount = in.readInt();
+            List<CoveredFile> covered = new ArrayList<CoveredFile>(coveredFileCount);
+            for (int i = 0; i < coveredFileCount; i++) {
+                covered.add(new CoveredFile(in.readUTF(), in.readLong()));
+            }
+            this.coveredFiles = Collections.unmodifiableList(covered);
+
+            int dictionarySize = in.readInt();
+            for (int i = 0; i < dictionarySize; i++) {
+                dictionary.getOrAdd(in.readUTF());
+            }
+
+            int rowGroupCount = in.readInt();
+            List<RowGroup> groups = new ArrayList<RowGroup>(rowGroupCount);
+            for (int i = 0; i < rowGroupCount; i++) {
+                groups.add(new RowGroup(in, Column.countOf(version)));
+            }
+            this.rowGroups = groups;
+        } catch (EOFException e) {
+            raf.close();
+            throw new IOException("Truncated footer in columnar history segment " + file, e);
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public int getRecordCount() {
+        return recordCount;
+    }
+
+    public List<CoveredFile> getCoveredFiles() {
+        return coveredFiles;
+    }
+
+    /**
+     * @return boolean - false if the zone maps rule out every record of the segment
+     */
+    public boolean mayMatch(AgentStatisticFilter filter) {
+        for (RowGroup rowGroup : rowGroups) {
+            if (rowGroup.mayMatch(filter)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Accumulates every record matching the filter into the container.
+     */
+    public <A> void scan(AgentStatisticFilter filter, AgentStatisticCollector<A> collector, A container)
+        throws IOException {
+        int agentLabel = resolve(filter.getAgentLabel());
+        int project = resolve(filter.getProject());
+        int framework = resolve(filter.getFramework());
+        int mesosAgent = resolve(filter.getMesosAgent());
+        if (agentLabel == BinaryRecordFormat.NULL_ID || project == BinaryRecordFormat.NULL_ID
+            || framework == BinaryRecordFormat.NULL_ID || mesosAgent == BinaryRecordFormat.NULL_ID) {
+            // a criterion refers to a value which does not occur in this segment
+            return;
+        }
+
+        boolean onlineTimeRange = filter.getMinOnlineTimeMillis() != Long.MIN_VALUE
+            || filter.getMaxOnlineTimeMillis() != Long.MAX_VALUE;
+        boolean cpusRange = filter.getMinCpus() != Double.NEGATIVE_INFINITY
+            || filter.getMaxCpus() != Double.POSITIVE_INFINITY;
+        boolean memoryRange = filter.getMinMemory() != Integer.MIN_VALUE
+            || filter.getMaxMemory() != Integer.MAX_VALUE;
+
+        for (RowGroup rowGroup : rowGroups) {
+            if (!rowGroup.mayMatch(filter)) {
+                continue;
+            }
+            ColumnData data = new ColumnData(rowGroup);
+            ByteBuffer offline = data.get(Column.OFFLINE_DATE);
+            ByteBuffer onlineTime = onlineTimeRange ? data.get(Column.ONLINE_TIME_MILLIS) : null;
+            ByteBuffer cpus = cpusRange ? data.get(Column.CPUS) : null;
+            ByteBuffer memory = memoryRange ? data.get(Column.MEMORY) : null;
+            ByteBuffer agentLabels = agentLabel != ANY ? data.get(Column.AGENT_LABEL) : null;
+            ByteBuffer projects = project != ANY ? data.get(Column.PROJECT) : null;
+            ByteBuffer frameworks = framework != ANY ? data.get(Column.FRAMEWORK) : null;
+            ByteBuffer mesosAgents = mesosAgent != ANY ? data.get(Column.MESOS_AGENT) : null;
+
+            for (int row = 0; row < rowGroup.rowCount; row++) {
+                long offlineMillis = offline.getLong(row * 8);
+                // columns without a range criterion are not inflated, their unbounded minimum always matches
+                if (offlineMillis == BinaryRecordFormat.NULL_DATE || !filter.matchesValues(offlineMillis,
+                    onlineTime == null ? filter.getMinOnlineTimeMillis() : onlineTime.getLong(row * 8),
+                    cpus == null ? filter.getMinCpus() : cpus.getDouble(row * 8),
+                    memory == null ? filter.getMinMemory() : memory.getInt(row * 4))) {
+                    continue;
+                }
+                if (matches(agentLabel, agentLabels, row) && matches(project, projects, row)
+                    && matches(framework, frameworks, row) && matches(mesosAgent, mesosAgents, row)) {
+                    collector.accumulate(container, data.materialize(row));
+                }
+            }
+        }
+    }
+
+    private int resolve(String value) {
+        return value == null ? ANY : dictionary.idOf(value);
+    }
+
+    private static boolean matches(int expected, ByteBuffer ids, int row) {
+        return expected == ANY || expected == ids.getInt(row * 4);
+    }
+
+    /**
+     * Reads every record of the segment, used by the compactor to carry the segment over into its successor.
+     */
+    public void readAll(ColumnarSegmentWriter writer) throws IOException {
+        for (RowGroup rowGroup : rowGroups) {
+            ColumnData data = new ColumnData(rowGroup);
+            for (int row = 0; row < rowGroup.rowCount; row++) {
+                writer.add(data.materialize(row));
+            }
+        }
+    }
+
+    private ByteBuffer read(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Unexpected end of " + file);
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    @Override
+    public void close() throws IOException {
+        raf.close();
+    }
+
+    private static class RowGroup {
+
+        final int rowCount;
+
+        final long minOffline, maxOffline;
+        final long minOnlineTime, maxOnlineTime;
+        final double minCpus, maxCpus;
+        final int minMemory, maxMemory;
+
+        final long[] blockOffsets = new long[Column.values().length];
+        final int[] blockLengths = new int[Column.values().length];
+
+        /* columns added after the version of the segment have no block */
+        final int columnCount;
+
+        RowGroup(DataInputStream in, int columnCount) throws IOException {
+            this.columnCount = columnCount;
+            this.rowCount = in.readInt();
+            this.minOffline = in.readLong();
+            this.maxOffline = in.readLong();
+            this.minOnlineTime = in.readLong();
+            this.maxOnlineTime = in.readLong();
+            this.minCpus = in.readDouble();
+            this.maxCpus = in.readDouble();
+            this.minMemory = in.readInt();
+            this.maxMemory = in.readInt();
+            for (int i = 0; i < columnCount; i++) {
+                blockOffsets[i] = in.readLong();
+                blockLengths[i] = in.readInt();
+            }
+        }
+
+        boolean mayMatch(AgentStatisticFilter filter) {
+            return filter.mayMatchRanges(minOffline, maxOffline, minOnlineTime, maxOnlineTime,
+                minCpus, maxCpus, minMemory, maxMemory);
+        }
+    }
+
+    /**
+     * The inflated columns of one row group, every column is inflated at most once.
+     */
+    private class ColumnData {
+
+        private final RowGroup rowGroup;
+
+        private final ByteBuffer[] columns = new ByteBuffer[Column.values().length];
+
+        ColumnData(RowGroup rowGroup) {
+            this.rowGroup = rowGroup;
+        }
+
+        ByteBuffer get(Column column) throws IOException {
+            ByteBuffer data = columns[column.ordinal()];
+            if (data == null) {
+                data = inflate(column);
+                columns[column.ordinal()] = data;
+            }
+            return data;
+        }
+
+        private ByteBuffer inflate(Column column) throws IOException {
+            if (column.ordinal() >= rowGroup.columnCount) {
+                // all zero, the default of a column the segment predates
+                return ByteBuffer.allocate(rowGroup.rowCount * column.getType().getWidth());
+            }
+            ByteBuffer compressed = read(rowGroup.blockOffsets[column.ordinal()],
+                rowGroup.blockLengths[column.ordinal()]);
+            byte[] raw = new byte[rowGroup.rowCount * column.getType().getWidth()];
+            Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(compressed.array());
+                int length = 0;
+                while (length < raw.length && !inflater.finished()) {
+                    int inflated = inflater.inflate(raw, length, raw.length - length);
+                    if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        break;
+                    }
+                    length += inflated;
+                }
+                if (length != raw.length) {
+                    throw new IOException("Corrupt column " + column + " in " + file);
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("Corrupt column " + column + " in " + file, e);
+            } finally {
+                inflater.end();
+            }
+            return ByteBuffer.wrap(raw);
+        }
+
+        private String getString(Column column, int row) throws IOException {
+            return dictionary.get(get(column).getInt(row * 4));
+        }
+
+        AgentStatistic materialize(int row) throws IOException {
+            return AgentStatistic.createPersistedAgentStatistic(
+                getString(Column.AGENT_NAME, row),
+                getString(Column.AGENT_LABEL, row),
+                getString(Column.LAST_JOB_NAME, row),
+                toDate(get(Column.ONLINE_DATE).getLong(row * 8)),
+                toDate(get(Column.OFFLINE_DATE).getLong(row * 8)),
+                getString(Column.MESOS_AGENT, row),
+                getString(Column.FRAMEWORK, row),
+                getString(Column.PRINCIPAL, row),
+                getString(Column.JENKINS_URL, row),
+                get(Column.MEMORY).getInt(row * 4),
+                get(Column.CPUS).getDouble(row * 8),
+                get(Column.PROVISIONING_MILLIS).getLong(row * 8));
+        }
+    }
+
+    private static Date toDate(long millis) {
+        return millis == BinaryRecordFormat.NULL_DATE ? null : new Date(millis);
+    }
+}
@@ -0,0 +1,235 @@
+package org.jenkinsci.plugins.infonovabuildstats.storage;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.jenkinsci.plugins.infonovabuildstats.model.AgentStatistic;
+import org.jenkinsci.plugins.infonovabuildstats.storage.ColumnarSegmentFormat.Column;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Builds a compacted segment in memory (one primitive array per column) and writes it atomically,
+ * see {@link ColumnarSegmentFormat}.
+ */
+public class ColumnarSegmentWriter {
+
+    private static final String TMP_SUFFIX = ".tmp";
+
+    private final SegmentDictionary dictionary = new SegmentDictionary();
+
+    private final List<CoveredFile> coveredFiles = new ArrayList<CoveredFile>();
+
+    private long[] onlineDates = new long[1024];
+    private long[] offlineDates = new long[1024];
+    private long[] onlineTimes = new long[1024];
+    private double[] cpus = new double[1024];
+    private int[] memory = new int[1024];
+    private long[] provisioningTimes = new long[1024];
+    private int[][] strings = new int[BinaryRecordFormat.StringColumn.values().length][1024];
+
+    private int size;
+
+    public void add(AgentStatistic agentStatistic) {
+        if (size == offlineDates.length) {
+            grow();
+        }
+        onlineDates[size] = toMillis(agentStatistic.getOnlineDate());
+        offlineDates[size] = toMillis(agentStatistic.getOfflineDate());
+        onlineTimes[size] = agentStatistic.getOnlineTimeMillis();
+        cpus[size] = agentStatistic.getCpus();
+        memory[size] = agentStatistic.getMemory();
+        provisioningTimes[size] = agentStatistic.getProvisioningMillis();
+
+        putString(BinaryRecordFormat.StringColumn.LAST_JOB_NAME, agentStatistic.getLastJobName());
+        putString(BinaryRecordFormat.StringColumn.AGENT_LABEL, agentStatistic.getAgentLabel());
+        putString(BinaryRecordFormat.StringColumn.AGENT_NAME, agentStatistic.getAgentName());
+        putString(BinaryRecordFormat.StringColumn.MESOS_AGENT, agentStatistic.getMesosAgent());
+        putString(BinaryRecordFormat.StringColumn.PRINCIPAL, agentStatistic.getPrincipal());
+        putString(BinaryRecordFormat.StringColumn.FRAMEWORK, agentStatistic.getFramework());
+        putString(BinaryRecordFormat.StringColumn.PROJECT, agentStatistic.getProject());
+        putString(BinaryRecordFormat.StringColumn.JENKINS_URL, agentStatistic.getJenkinsUrl());
+
+        size++;
+    }
+
+    public void addCoveredFile(String name, long length) {
+        coveredFiles.add(new CoveredFile(name, length));
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private void putString(BinaryRecordFormat.StringColumn column, String value) {
+        strings[column.ordinal()][size] = dictionary.getOrAdd(value);
+    }
+
+    private void grow() {
+        int capacity = offlineDates.length * 2;
+        onlineDates = Arrays.copyOf(onlineDates, capacity);
+        offlineDates = Arrays.copyOf(offlineDates, capacity);
+        onlineTimes = Arrays.copyOf(onlineTimes, capacity);
+        cpus = Arrays.copyOf(cpus, capacity);
+        memory = Arrays.copyOf(memory, capacity);
+        provisioningTimes = Arrays.copyOf(provisioningTimes, capacity);
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = Arrays.copyOf(strings[i], capacity);
+        }
+    }
+
+    /**
+     * Writes the segment to a temporary file, forces it to disk and moves it over the target in one atomic step.
+     * Readers which opened the previous segment keep reading it unchanged.
+     */
+    public void writeTo(File target) throws IOException {
+        File tmp = new File(target.getParentFile(), target.getName() + TMP_SUFFIX);
+        FileOutputStream fos = new FileOutputStream(tmp);
+        try {
+            CountingOutputStream counter = new CountingOutputStream(new BufferedOutputStream(fos, 256 * 1024));
+            DataOutputStream out = new DataOutputStream(counter);
+
+            List<long[]> blocks = new ArrayList<long[]>();
+            for (int from = 0; from < size; from += ColumnarSegmentFormat.ROW_GROUP_SIZE) {
+                int to = Math.min(size, from + ColumnarSegmentFormat.ROW_GROUP_SIZE);
+                long[] rowGroupBlocks = new long[Column.values().length * 2];
+                for (Column column : Column.values()) {
+                    long offset = counter.getByteCount();
+                    byte[] compressed = compress(column, from, to);
+                    out.write(compressed);
+                    rowGroupBlocks[column.ordinal() * 2] = offset;
+                    rowGroupBlocks[column.ordinal() * 2 + 1] = compressed.length;
+                }
+                blocks.add(rowGroupBlocks);
+            }
+
+            long footerOffset = counter.getByteCount();
+            writeFooter(out, blocks);
+            out.writeLong(footerOffset);
+            out.writeInt(ColumnarSegmentFormat.MAGIC);
+            out.flush();
+
+            fos.getChannel().force(true);
+        } finally {
+            fos.close();
+        }
+
+        try {
+            Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            FileUtils.deleteQuietly(tmp);
+            throw e;
+        }
+    }
+
+    private void writeFooter(DataOutputStream out, List<long[]> blocks) throws IOException {
+        out.writeShort(ColumnarSegmentFormat.VERSION);
+        out.writeInt(size);
+
+        out.writeInt(coveredFiles.size());
+        for (CoveredFile coveredFile : coveredFiles) {
+            out.writeUTF(coveredFile.getName());
+            out.writeLong(coveredFile.getLength());
+        }
+
+        out.writeInt(dictionary.size());
+        for (int id = 0; id < dictionary.size(); id++) {
+            out.writeUTF(dictionary.get(id));
+        }
+
+        out.writeInt(blocks.size());
+        for (int rowGroup = 0; rowGroup < blocks.size(); rowGroup++) {
+            int from = rowGroup * ColumnarSegmentFormat.ROW_GROUP_SIZE;
+            int to = Math.min(size, from + ColumnarSegmentFormat.ROW_GROUP_SIZE);
+            out.writeInt(to - from);
+            writeZoneMap(out, from, to);
+            long[] rowGroupBlocks = blocks.get(rowGroup);
+            for (int i = 0; i < rowGroupBlocks.length; i += 2) {
+                out.writeLong(rowGroupBlocks[i]);
+                out.writeInt((int) rowGroupBlocks[i + 1]);
+            }
+        }
+    }
+
+    private void writeZoneMap(DataOutputStream out, int from, int to) throws IOException {
+        long minOffline = Long.MAX_VALUE, maxOffline = Long.MIN_VALUE;
+        long minOnlineTime = Long.MAX_VALUE, maxOnlineTime = Long.MIN_VALUE;
+        double minCpus = Double.POSITIVE_INFINITY, maxCpus = Double.NEGATIVE_INFINITY;
+        int minMemory = Integer.MAX_VALUE, maxMemory = Integer.MIN_VALUE;
+        for (int i = from; i < to; i++) {
+            minOffline = Math.min(minOffline, offlineDates[i]);
+            maxOffline = Math.max(maxOffline, offlineDates[i]);
+            minOnlineTime = Math.min(minOnlineTime, onlineTimes[i]);
+            maxOnlineTime = Math.max(maxOnlineTime, onlineTimes[i]);
+            minCpus = Math.min(minCpus, cpus[i]);
+            maxCpus = Math.max(maxCpus, cpus[i]);
+            minMemory = Math.min(minMemory, memory[i]);
+            maxMemory = Math.max(maxMemory, memory[i]);
+        }
+        out.writeLong(minOffline);
+        out.writeLong(maxOffline);
+        out.writeLong(minOnlineTime);
+        out.writeLong(maxOnlineTime);
+        out.writeDouble(minCpus);
+        out.writeDouble(maxCpus);
+        out.writeInt(minMemory);
+        out.writeInt(maxMemory);
+    }
+
+    private byte[] compress(Column column, int from, int to) throws IOException {
+        ByteBuffer raw = ByteBuffer.allocate((to - from) * column.getType().getWidth());
+        for (int i = from; i < to; i++) {
+            switch (column) {
+                case ONLINE_DATE:
+                    raw.putLong(onlineDates[i]);
+                    break;
+                case OFFLINE_DATE:
+                    raw.putLong(offlineDates[i]);
+                    break;
+                case ONLINE_TIME_MILLIS:
+                    raw.putLong(onlineTimes[i]);
+                    break;
+                case CPUS:
+                    raw.putDouble(cpus[i]);
+                    break;
+                case MEMORY:
+                    raw.putInt(memory[i]);
+                    break;
+                case PROVISIONING_MILLIS:
+                    raw.putLong(provisioningTimes[i]);
+                    break;
+                default:
+                    raw.putInt(strings[column.ordinal() - Column.LAST_JOB_NAME.ordinal()][i]);
+            }
+        }
+
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(raw.capacity() / 4 + 64);
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            DeflaterOutputStream out = new DeflaterOutputStream(compressed, deflater);
+            out.write(raw.array());
+            out.finish();
+        } finally {
+            deflater.end();
+        }
+        return compressed.toByteArray();
+    }
+
+    private static long toMillis(Date date) {
+        return date == null ? BinaryRecordFormat.NULL_DATE : date.getTime();
+    }
+}
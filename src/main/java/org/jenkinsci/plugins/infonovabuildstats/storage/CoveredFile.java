@@ -0,0 +1,29 @@
+package org.jenkinsci.plugins.infonovabuildstats.storage;
+
+/**
+ * A day file whose first {@link #getLength() length} bytes are contained in a compacted segment.
+ */
+public class CoveredFile {
+
+    private final String name;
+
+    private final long length;
+
+    public CoveredFile(String name, long length) {
+        this.name = name;
+        this.length = length;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    @Override
+    public String toString() {
+        return name + "[" + length + "]";
+    }
+}
@@ -0,0 +1,264 @@
+package org.jenkinsci.plugins.infonovabuildstats.storage;
+
+import hudson.Extension;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.TaskListener;
+import org.apache.commons.io.IOUtils;
+import org.jenkinsci.plugins.infonovabuildstats.InfonovaBuildStatsConfig;
+import org.jenkinsci.plugins.infonovabuildstats.InfonovaBuildStatsPlugin;
+import org.jenkinsci.plugins.infonovabuildstats.history.AgentStatisticXmlReader;
+import org.jenkinsci.plugins.infonovabuildstats.history.HistoryFile;
+import org.jenkinsci.plugins.infonovabuildstats.model.AgentStatistic;
+import org.jenkinsci.plugins.infonovabuildstats.model.JobBuildResultSharder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Compacts the day files of closed days into one columnar segment per month (agentStatistics-yyyy-MM.col).
+ * When further days of a month close, the segment is rewritten with the records of the previous segment
+ * and of the new day files. The segment lists the day files it covers together with their lengths, queries
+ * skip a covered day file (see {@link org.jenkinsci.plugins.infonovabuildstats.query.HistorySnapshot}).
+ * A covered day file is deleted once the segment is older than {@link #DELETE_GRACE_MILLIS}, so queries which
+ * listed the day file before the segment was written can still read it.
+ */
+public class HistoryCompactor {
+
+    private static final Logger LOGGER = Logger.getLogger(HistoryCompactor.class.getName());
+
+    public static final long DELETE_GRACE_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    /**
+     * Compacts all months with closed day files which are not yet covered and deletes the covered day files
+     * of segments older than the grace period.
+     *
+     * @param folder - the history folder
+     * @param writeLock - monitor of the writer of the history files
+     * @return int - number of written segments
+     */
+    public static int compact(File folder, Object writeLock) {
+        long todayStart = HistoryFile.startOfToday();
+
+        Map<String, List<HistoryFile>> dayFilesByMonth = new TreeMap<String, List<HistoryFile>>();
+        Map<String, HistoryFile> segmentsByMonth = new HashMap<String, HistoryFile>();
+        for (HistoryFile historyFile : HistoryFile.list(folder)) {
+            if (historyFile.getFormat() == StorageFormat.COLUMNAR) {
+                segmentsByMonth.put(historyFile.getMonthKey(), historyFile);
+            } else if (historyFile.isClosed(todayStart)) {
+                List<HistoryFile> dayFiles = dayFilesByMonth.get(historyFile.getMonthKey());
+                if (dayFiles == null) {
+                    dayFiles = new ArrayList<HistoryFile>();
+                    dayFilesByMonth.put(historyFile.getMonthKey(), dayFiles);
+                }
+                dayFiles.add(historyFile);
+            }
+        }
+
+        int written = 0;
+        for (Map.Entry<String, List<HistoryFile>> entry : dayFilesByMonth.entrySet()) {
+            File segmentFile = new File(folder, JobBuildResultSharder.JOB_RESULT_FILENAME_PREFIX + entry.getKey()
+                + ColumnarSegmentFormat.SEGMENT_FILE_EXTENSION);
+            try {
+                if (compactMonth(segmentFile, entry.getValue(), writeLock)) {
+                    written++;
+                }
+            } catch (IOException e) {
+                LOGGER.log(Level.SEVERE, "Unable to compact history of " + entry.getKey() + " into " + segmentFile, e);
+            }
+        }
+
+        for (HistoryFile segment : segmentsByMonth.values()) {
+            deleteCoveredFiles(segment.getFile(), writeLock);
+        }
+        return written;
+    }
+
+    /**
+     * @return boolean - true if the segment was (re-) written, false if it already covered all day files
+     */
+    private static boolean compactMonth(File segmentFile, List<HistoryFile> dayFiles, Object writeLock)
+        throws IOException {
+        ColumnarSegmentReader previous = segmentFile.exists() ? new ColumnarSegmentReader(segmentFile) : null;
+        try {
+            Map<String, Long> coveredLengths = previous == null
+                ? new HashMap<String, Long>() : toCoveredLengths(previous.getCoveredFiles());
+
+            // closed days are not written anymore, the lock only orders this with a flush still in progress
+            Map<String, Long> lengths = new HashMap<String, Long>();
+            synchronized (writeLock) {
+                for (HistoryFile dayFile : dayFiles) {
+                    lengths.put(dayFile.getFile().getName(), dayFile.getFile().length());
+                }
+            }
+
+            boolean uncovered = false;
+            for (HistoryFile dayFile : dayFiles) {
+                Long covered = coveredLengths.get(dayFile.getFile().getName());
+                if (covered == null || lengths.get(dayFile.getFile().getName()) > covered) {
+                    uncovered = true;
+                }
+            }
+            if (!uncovered) {
+                return false;
+            }
+
+            ColumnarSegmentWriter writer = new ColumnarSegmentWriter();
+            if (previous != null) {
+                previous.readAll(writer);
+            }
+            int previousSize = writer.size();
+            for (HistoryFile dayFile : dayFiles) {
+                String name = dayFile.getFile().getName();
+                Long covered = coveredLengths.get(name);
+                long from = covered == null ? 0L : covered;
+                writer.addCoveredFile(name, read(dayFile, from, lengths.get(name), writer));
+            }
+
+            writer.writeTo(segmentFile);
+
+            LOGGER.log(Level.INFO, "Compacted " + (writer.size() - previousSize) + " records of " + dayFiles.size()
+                + " day files into " + segmentFile.getName() + " (" + writer.size() + " records)");
+            return true;
+        } finally {
+            IOUtils.closeQuietly(previous);
+        }
+    }
+
+    /**
+     * Adds the records between the byte offsets of a day file to the writer.
+     *
+     * @return long - the covered length of the day file after reading
+     */
+    private static long read(HistoryFile dayFile, long from, long to, ColumnarSegmentWriter writer)
+        throws IOException {
+        if (to <= from) {
+            return from;
+        }
+        if (dayFile.getFormat() == StorageFormat.BINARY) {
+            BinarySegmentReader reader = new BinarySegmentReader(dayFile.getFile());
+            // a torn record at the end is left uncovered, it is completed or truncated by the next append
+            int end = reader.recordCountWithin(to);
+            for (int record = reader.firstRecordAt(from); record < end; record++) {
+                writer.add(reader.materialize(record));
+            }
+            return Math.max(from, reader.offsetOf(end));
+        }
+        AgentStatisticXmlReader reader = AgentStatisticXmlReader.openRange(dayFile.getFile(), from, to);
+        try {
+            AgentStatistic agentStatistic;
+            while ((agentStatistic = reader.next()) != null) {
+                writer.add(agentStatistic);
+            }
+        } finally {
+            IOUtils.closeQuietly(reader);
+        }
+        return to;
+    }
+
+    /**
+     * Deletes the day files covered by the segment if the segment is older than the grace period.
+     * A day file is only deleted if its length still equals the covered length.
+     */
+    private static void deleteCoveredFiles(File segmentFile, Object writeLock) {
+        if (System.currentTimeMillis() - segmentFile.lastModified() < DELETE_GRACE_MILLIS) {
+            return;
+        }
+        ColumnarSegmentReader segment;
+        try {
+            segment = new ColumnarSegmentReader(segmentFile);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Unable to read covered files of " + segmentFile, e);
+            return;
+        }
+        try {
+            for (CoveredFile coveredFile : segment.getCoveredFiles()) {
+                File dayFile = new File(segmentFile.getParentFile(), coveredFile.getName());
+                synchronized (writeLock) {
+                    if (!dayFile.exists() || dayFile.length() != coveredFile.getLength()) {
+                        continue;
+                    }
+                    if (!dayFile.delete()) {
+                        LOGGER.log(Level.WARNING, "Unable to delete compacted day file " + dayFile);
+                        continue;
+                    }
+                    if (dayFile.getName().endsWith(BinaryRecordFormat.RECORD_FILE_EXTENSION)) {
+                        File dictionary = BinaryRecordFormat.dictionaryFileOf(dayFile);
+                        if (dictionary.exists() && !dictionary.delete()) {
+                            LOGGER.log(Level.WARNING, "Unable to delete compacted dictionary " + dictionary);
+                        }
+                    } else {
+                        XmlOffsetIndex.delete(dayFile);
+                    }
+                }
+                LOGGER.log(Level.FINE, "Deleted compacted day file " + dayFile);
+            }
+        } finally {
+            IOUtils.closeQuietly(segment);
+        }
+    }
+
+    /**
+     * @return Map of the names of all day files covered by a segment of the folder to their covered lengths
+     */
+    public static Map<String, Long> coveredLengths(File folder) {
+        Map<String, Long> coveredLengths = new HashMap<String, Long>();
+        for (HistoryFile historyFile : HistoryFile.list(folder)) {
+            if (historyFile.getFormat() != StorageFormat.COLUMNAR) {
+                continue;
+            }
+            ColumnarSegmentReader segment = null;
+            try {
+                segment = new ColumnarSegmentReader(historyFile.getFile());
+                coveredLengths.putAll(toCoveredLengths(segment.getCoveredFiles()));
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Unable to read covered files of " + historyFile, e);
+            } finally {
+                IOUtils.closeQuietly(segment);
+            }
+        }
+        return coveredLengths;
+    }
+
+    private static Map<String, Long> toCoveredLengths(List<CoveredFile> coveredFiles) {
+        Map<String, Long> coveredLengths = new HashMap<String, Long>();
+        for (CoveredFile coveredFile : coveredFiles) {
+            coveredLengths.put(coveredFile.getName(), coveredFile.getLength());
+        }
+        return coveredLengths;
+    }
+
+    /**
+     * Runs the compaction hourly if it is enabled in the config.
+     */
+    @Extension
+    public static class CompactionWork extends AsyncPeriodicWork {
+
+        public CompactionWork() {
+            super("Infonova build stats history compaction");
+        }
+
+        @Override
+        public long getRecurrencePeriod() {
+            return HOUR;
+        }
+
+        @Override
+        protected void execute(TaskListener listener) throws IOException, InterruptedException {
+            InfonovaBuildStatsConfig config = InfonovaBuildStatsConfig.get();
+            InfonovaBuildStatsPlugin plugin = InfonovaBuildStatsPlugin.getInstance();
+            if (config == null || !config.isCompactHistory() || plugin == null) {
+                return;
+            }
+            int written = compact(JobBuildResultSharder.getJobResultFolder(), plugin.getJobBuildResultsSharder());
+            listener.getLogger().println("Wrote " + written + " compacted history segments");
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package org.jenkinsci.plugins.infonovabuildstats.storage;
+
+import hudson.Extension;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.TaskListener;
+import org.jenkinsci.plugins.infonovabuildstats.InfonovaBuildStatsConfig;
+import org.jenkinsci.plugins.infonovabuildstats.InfonovaBuildStatsPlugin;
+import org.jenkinsci.plugins.infonovabuildstats.business.InfonovaBuildStatsBusiness;
+import org.jenkinsci.plugins.infonovabuildstats.history.HistoryFile;
+import org.jenkinsci.plugins.infonovabuildstats.model.JobBuildResultSharder;
+import org.jenkinsci.plugins.infonovabuildstats.query.AgentStatisticFilter;
+import org.jenkinsci.plugins.infonovabuildstats.query.AgentStatisticQueryEngine;
+import org.jenkinsci.plugins.infonovabuildstats.rollup.RollupStore;
+import org.jenkinsci.plugins.infonovabuildstats.rollup.RollupTable;
+import org.jenkinsci.plugins.infonovabuildstats.utils.IoThrottle;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Tiered retention of the history: the raw agent records are kept for a number of days, the hourly rollups for a
+ * number of months, older hourly rollups are downsampled to daily rollups which are kept for ever.
+ *
+ * Before the raw records of a month are deleted the month is rolled up from the history if it has no rollups
+ * yet, e.g. for history written before the rollups were introduced. A month whose rollups were started in the
+ * middle of the month is not completed, run {@link InfonovaBuildStatsBusiness#rebuildRollups()} before enabling
+ * the retention to cover it.
+ *
+ * The retention works oldest month first and stops after {@link #MAX_RUN_MILLIS}, the next run continues where
+ * it stopped. All reads and writes are charged to an {@link IoThrottle}, so it never competes with the builds
+ * for the disk.
+ */
+public class HistoryRetention {
+
+    private static final Logger LOGGER = Logger.getLogger(HistoryRetention.class.getName());
+
+    public static final long MAX_RUN_MILLIS = TimeUnit.MINUTES.toMillis(15);
+
+    private final File folder;
+
+    private final RollupStore rollupStore;
+
+    private final Object writeLock;
+
+    private final IoThrottle throttle;
+
+    private final long deadline;
+
+    /**
+     * @param folder - the history folder
+     * @param rollupStore - the rollups the raw records are rolled up into
+     * @param writeLock - monitor of the writer of the history files
+     * @param throttle - limits the disk bandwidth of the retention
+     * @param deadline - time at which the retention stops, the remaining work is left for the next run
+     */
+    public HistoryRetention(File folder, RollupStore rollupStore, Object writeLock, IoThrottle throttle,
+                            long deadline) {
+        this.folder = folder;
+        this.rollupStore = rollupStore;
+        this.writeLock = writeLock;
+        this.throttle = throttle;
+        this.deadline = deadline;
+    }
+
+    /**
+     * Deletes the history files which only hold records offline before the cutoff. The months of these files are
+     * rolled up first if they have no rollups yet, a file is only deleted once every month it overlaps is done.
+     *
+     * @param cutoffMillis - records offline before the cutoff are expired
+     * @return int - number of deleted history files
+     */
+    public int expireRawHistory(long cutoffMillis) throws InterruptedException {
+        long todayStart = HistoryFile.startOfToday();
+        List<HistoryFile> expired = new ArrayList<HistoryFile>();
+        for (HistoryFile historyFile : HistoryFile.list(folder)) {
+            if (historyFile.isExpired(cutoffMillis, todayStart)) {
+                expired.add(historyFile);
+            }
+        }
+        if (expired.isEmpty()) {
+            return 0;
+        }
+
+        int deleted = 0;
+        int next = 0;
+        Calendar month = utcMonthOf(expired.get(0).getPeriodStartMillis());
+        while (next < expired.size() && System.currentTimeMillis() < deadline) {
+            long monthStart = month.getTimeInMillis();
+            month.add(Calendar.MONTH, 1);
+            long monthEnd = month.getTimeInMillis();
+
+            String monthKey = rollupStore.monthKeyOf(monthStart);
+            if (!rollupStore.hasRollups(monthKey) && !rollUp(monthKey, monthStart, monthEnd)) {
+                LOGGER.log(Level.WARNING, "Unable to roll up " + monthKey + ", its history is not expired");
+                break;
+            }
+
+            while (next < expired.size() && expired.get(next).getPeriodEndMillis() <= monthEnd) {
+                if (delete(expired.get(next).getFile())) {
+                    deleted++;
+                }
+                next++;
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * Rolls the history of the month up with the throttled bandwidth.
+     *
+     * @return boolean - true if the month is rolled up or has no records
+     */
+    private boolean rollUp(String monthKey, long monthStart, long monthEnd) throws InterruptedException {
+        LOGGER.log(Level.INFO, "Rolling up the history of " + monthKey + " before it expires");
+        AgentStatisticFilter filter = new AgentStatisticFilter().from(new Date(monthStart)).to(new Date(monthEnd));
+        RollupTable rollups = AgentStatisticQueryEngine.executeThrottled(folder, filter,
+            rollupStore.newCollector(), throttle);
+        return rollups.isEmpty() || rollupStore.rewriteMonths(rollups) == 1;
+    }
+
+    /**
+     * Deletes a history file together with its dictionary or offset index.
+     */
+    private boolean delete(File file) {
+        synchronized (writeLock) {
+            if (!file.delete()) {
+                LOGGER.log(Level.WARNING, "Unable to delete expired history file " + file);
+                return false;
+            }
+            if (file.getName().endsWith(BinaryRecordFormat.RECORD_FILE_EXTENSION)) {
+                File dictionary = BinaryRecordFormat.dictionaryFileOf(file);
+                if (dictionary.exists() && !dictionary.delete()) {
+                    LOGGER.log(Level.WARNING, "Unable to delete expired dictionary " + dictionary);
+                }
+            } else if (file.getName().endsWith(StorageFormat.XML.getExtension())) {
+                XmlOffsetIndex.delete(file);
+            }
+        }
+        LOGGER.log(Level.FINE, "Deleted expired history file " + file);
+        return true;
+    }
+
+    /**
+     * Downsamples the hourly rollups of the months before the cutoff month to daily rollups.
+     *
+     * @param cutoffMonthKey - first month (yyyy-MM, UTC) whose hourly rollups are kept
+     * @return int - number of downsampled months
+     */
+    public int downsampleRollups(String cutoffMonthKey) throws InterruptedException {
+        int downsampled = 0;
+        for (String monthKey : rollupStore.listHourlyMonths()) {
+            if (monthKey.compareTo(cutoffMonthKey) >= 0 || System.currentTimeMillis() >= deadline) {
+                break;
+            }
+            try {
+                long written = rollupStore.downsample(monthKey);
+                throttle.acquire(written);
+                downsampled++;
+            } catch (IOException e) {
+                LOGGER.log(Level.SEVERE, "Unable to downsample rollups of " + monthKey, e);
+            }
+        }
+        return downsampled;
+    }
+
+    private static Calendar utcMonthOf(long millis) {
+        Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        calendar.setTimeInMillis(millis);
+        calendar.set(Calendar.DAY_OF_MONTH, 1);
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        return calendar;
+    }
+
+    /**
+     * @return long - start of the local day the given number of days before today
+     */
+    public static long rawCutoffMillis(int retentionDays) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(HistoryFile.startOfToday());
+        calendar.add(Calendar.DAY_OF_MONTH, -retentionDays);
+        return calendar.getTimeInMillis();
+    }
+
+    /**
+     * @return String - the UTC month the given number of months before the current one
+     */
+    String rollupCutoffMonthKey(int retentionMonths) {
+        Calendar calendar = utcMonthOf(System.currentTimeMillis());
+        calendar.add(Calendar.MONTH, -retentionMonths);
+        return rollupStore.monthKeyOf(calendar.getTimeInMillis());
+    }
+
+    /**
+     * Runs the retention hourly if a retention period is configured.
+     */
+    @Extension
+    public static class RetentionWork extends AsyncPeriodicWork {
+
+        public RetentionWork() {
+            super("Infonova build stats history retention");
+        }
+
+        @Override
+        public long getRecurrencePeriod() {
+            return HOUR;
+        }
+
+        @Override
+        protected void execute(TaskListener listener) throws IOException, InterruptedException {
+            InfonovaBuildStatsConfig config = InfonovaBuildStatsConfig.get();
+            InfonovaBuildStatsPlugin plugin = InfonovaBuildStatsPlugin.getInstance();
+            if (config == null || plugin == null
+                || (config.getRawRetentionDays() == 0 && config.getHourlyRollupRetentionMonths() == 0)) {
+                return;
+            }
+            InfonovaBuildStatsBusiness business = InfonovaBuildStatsPlugin.getPluginBusiness();
+            if (business == null) {
+                return;
+            }
+            HistoryRetention retention = new HistoryRetention(JobBuildResultSharder.getJobResultFolder(),
+                business.getRollupStore(), plugin.getJobBuildResultsSharder(),
+                new IoThrottle(config.getRetentionBandwidthKbPerSecond() * 1024L),
+                System.currentTimeMillis() + MAX_RUN_MILLIS);
+
+            if (config.getRawRetentionDays() > 0) {
+                int deleted = retention.expireRawHistory(rawCutoffMillis(config.getRawRetentionDays()));
+                listener.getLogger().println("Deleted " + deleted + " expired history files");
+            }
+            if (config.getHourlyRollupRetentionMonths() > 0) {
+                int downsampled = retention.downsampleRollups(
+                    retention.rollupCutoffMonthKey(config.getHourlyRollupRetentionMonths()));
+                listener.getLogger().println("Downsampled the rollups of " + downsampled + " months");
+            }
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package org.jenkinsci.plugins.infonovabuildstats.storage;
+
+/**
+ * When the {@link AgentStatisticJournal} forces its group commits to disk.
+ */
+public enum JournalFsyncPolicy {
+
+    /**
+     * Every group commit is forced before its records are handed to the flush scheduler.
+     */
+    ALWAYS,
+
+    /**
+     * A group commit is forced if the last force is older than a second, otherwise once that second is over, so a
+     * crash loses at most the last second.
+     */
+    INTERVAL,
+
+    /**
+     * Left to the operating system, the journal only survives a restart of the controller, not of the machine.
+     */
+    NEVER;
+
+    /**
+     * @return JournalFsyncPolicy - the policy with the given name, ALWAYS if the name is unknown
+     */
+    public static JournalFsyncPolicy fromName(String name) {
+        for (JournalFsyncPolicy policy : values()) {
+            if (policy.name().equalsIgnoreCase(name)) {
+                return policy;
+            }
+        }
+        return ALWAYS;
+    }
+}
@@ -0,0 +1,146 @@
+package org.jenkinsci.plugins.infonovabuildstats.storage;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.output.CountingOutputStream;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * String dictionary of one binary segment, see {@link BinaryRecordFormat}.
+ * Not thread-safe: a dictionary is either loaded by a single reader or owned by the writer thread.
+ */
+public class SegmentDictionary {
+
+    private final List<String> values = new ArrayList<String>();
+
+    private final Map<String, Integer> ids = new HashMap<String, Integer>();
+
+    /* number of entries which are already stored in the dictionary file */
+    private int persistedCount;
+
+    /* length of the complete entries of the dictionary file */
+    private long persistedLength;
+
+    /**
+     * Loads the dictionary file, an entry which was only partially written is ignored.
+     *
+     * @param dictionaryFile - the file to load, may not exist yet
+     */
+    public static SegmentDictionary load(File dictionaryFile) throws IOException {
+        SegmentDictionary dictionary = new SegmentDictionary();
+        if (!dictionaryFile.exists()) {
+            return dictionary;
+        }
+        byte[] content = FileUtils.readFileToByteArray(dictionaryFile);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(content));
+        try {
+            while (in.available() > 0) {
+                dictionary.add(in.readUTF());
+                dictionary.persistedLength = content.length - in.available();
+            }
+        } catch (EOFException e) {
+            // entry was only partially written, it is truncated on the next append
+        }
+        dictionary.persistedCount = dictionary.values.size();
+        return dictionary;
+    }
+
+    private int add(String value) {
+        int id = values.size();
+        values.add(value);
+        ids.put(value, id);
+        return id;
+    }
+
+    /**
+     * @return int - id of the value or {@link BinaryRecordFormat#NULL_ID} if it is not contained
+     */
+    public int idOf(String value) {
+        if (value == null) {
+            return BinaryRecordFormat.NULL_ID;
+        }
+        Integer id = ids.get(value);
+        return id == null ? BinaryRecordFormat.NULL_ID : id;
+    }
+
+    /**
+     * @return int - id of the value, the value is added if it is not contained yet
+     */
+    public int getOrAdd(String value) {
+        if (value == null) {
+            return BinaryRecordFormat.NULL_ID;
+        }
+        Integer id = ids.get(value);
+        return id == null ? add(value) : id;
+    }
+
+    /**
+     * @return String - the value of the id, null for {@link BinaryRecordFormat#NULL_ID}
+     */
+    public String get(int id) {
+        return id == BinaryRecordFormat.NULL_ID ? null : values.get(id);
+    }
+
+    public int size() {
+        return values.size();
+    }
+
+    /**
+     * A dictionary kept between appends is only reused while the dictionary file holds exactly its persisted
+     * entries, i.e. nobody else wrote, truncated or replaced the file meanwhile.
+     *
+     * @return boolean - true if the dictionary still matches the dictionary file
+     */
+    public boolean isCurrent(File dictionaryFile) {
+        if (persistedCount != values.size()) {
+            // entries added by a failed append
+            return false;
+        }
+        return dictionaryFile.exists() ? dictionaryFile.length() == persistedLength : persistedLength == 0L;
+    }
+
+    /**
+     * Appends the entries added since loading (or the last append) to the dictionary file.
+     */
+    public void appendNewEntries(File dictionaryFile) throws IOException {
+        if (persistedCount == values.size()) {
+            return;
+        }
+        if (dictionaryFile.length() > persistedLength) {
+            truncate(dictionaryFile, persistedLength);
+        }
+        CountingOutputStream counter = new CountingOutputStream(new FileOutputStream(dictionaryFile, true));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(counter));
+        try {
+            for (int i = persistedCount; i < values.size(); i++) {
+                out.writeUTF(values.get(i));
+            }
+            out.flush();
+        } finally {
+            out.close();
+        }
+        persistedCount = values.size();
+        persistedLength += counter.getByteCount();
+    }
+
+    static void truncate(File file, long length) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(length);
+        } finally {
+            raf.close();
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package org.jenkinsci.plugins.infonovabuildstats.storage;
+
+/**
+ * Format of the history files written by
+ * {@link org.jenkinsci.plugins.infonovabuildstats.model.JobBuildResultSharder JobBuildResultSharder}.
+ */
+public enum StorageFormat {
+
+    /**
+     * Concatenated &lt;jbr&gt; fragments in the XStream layout, the original format, see
+     * {@link org.jenkinsci.plugins.infonovabuildstats.history.AgentStatisticXmlWriter AgentStatisticXmlWriter}.
+     */
+    XML(".xml"),
+
+    /**
+     * Fixed-width binary records with a per-segment string dictionary, see {@link BinaryRecordFormat}.
+     */
+    BINARY(BinaryRecordFormat.RECORD_FILE_EXTENSION),
+
+    /**
+     * Compressed monthly column segments, see {@link ColumnarSegmentFormat}.
+     * Only written by the {@link HistoryCompactor}, never by the sharder.
+     */
+    COLUMNAR(ColumnarSegmentFormat.SEGMENT_FILE_EXTENSION);
+
+    private final String extension;
+
+    StorageFormat(String extension) {
+        this.extension = extension;
+    }
+
+    public String getExtension() {
+        return extension;
+    }
+
+    /**
+     * @return StorageFormat - the format of the sharder with the given name, XML if the name is unknown
+     */
+    public static StorageFormat fromName(String name) {
+        return BINARY.name().equalsIgnoreCase(name) ? BINARY : XML;
+    }
+}
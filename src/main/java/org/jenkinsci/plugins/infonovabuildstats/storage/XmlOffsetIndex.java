@@ -0,0 +1,334 @@
+package org.jenkinsci.plugins.infonovabuildstats.storage;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang.StringUtils;
+import org.jenkinsci.plugins.infonovabuildstats.query.AgentStatisticFilter;
+
+import javax.annotation.CheckForNull;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Sidecar offset index of an XML history file, written by {@link XmlOffsetIndexWriter} during the append.
+ *
+ * The index consists of a record file (*.idx) and a dictionary file (*.idx.dict, see {@link SegmentDictionary}).
+ * The record file starts with a header (magic, version, record size) followed by one fixed-width big-endian entry
+ * per &lt;jbr&gt; fragment: byte offset and length of the fragment, offline date and the dictionary ids of project,
+ * agent label and mesos agent. Both files are append-only, the entries are in file order.
+ *
+ * A loaded index holds posting lists per project, agent label and mesos agent, so a query only reads the
+ * fragments which can match. Loaded indexes are immutable and shared between the query workers, see
+ * {@link #open(File)}.
+ */
+public final class XmlOffsetIndex {
+
+    private static final Logger LOGGER = Logger.getLogger(XmlOffsetIndex.class.getName());
+
+    public static final String INDEX_FILE_EXTENSION = ".idx";
+
+    public static final String DICTIONARY_FILE_EXTENSION = ".idx.dict";
+
+    public static final int MAGIC = 0x49425349; // "IBSI"
+
+    public static final short VERSION = 1;
+
+    public static final int HEADER_SIZE = 8;
+
+    public static final int OFFSET_OFFSET = 0;
+    public static final int LENGTH_OFFSET = 8;
+    public static final int OFFLINE_DATE_OFFSET = 12;
+    public static final int PROJECT_OFFSET = 20;
+    public static final int AGENT_LABEL_OFFSET = 24;
+    public static final int MESOS_AGENT_OFFSET = 28;
+
+    public static final int RECORD_SIZE = 32;
+
+    private static final int CACHE_SIZE = 64;
+
+    /**
+     * Recently loaded indexes by XML file, an entry is only reused while the index file length is unchanged.
+     */
+    private static final Map<File, XmlOffsetIndex> CACHE = new LinkedHashMap<File, XmlOffsetIndex>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<File, XmlOffsetIndex> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    private final long indexLength;
+
+    private final long coveredEnd;
+
+    private final long[] offsets;
+
+    private final int[] lengths;
+
+    private final long[] offlineDates;
+
+    private final SegmentDictionary dictionary;
+
+    private final Postings projects;
+
+    private final Postings agentLabels;
+
+    private final Postings mesosAgents;
+
+    private XmlOffsetIndex(long indexLength, long[] offsets, int[] lengths, long[] offlineDates, int[] projectIds,
+                           int[] agentLabelIds, int[] mesosAgentIds, SegmentDictionary dictionary) {
+        this.indexLength = indexLength;
+        this.offsets = offsets;
+        this.lengths = lengths;
+        this.offlineDates = offlineDates;
+        this.dictionary = dictionary;
+        this.projects = new Postings(projectIds, dictionary.size());
+        this.agentLabels = new Postings(agentLabelIds, dictionary.size());
+        this.mesosAgents = new Postings(mesosAgentIds, dictionary.size());
+        int count = offsets.length;
+        this.coveredEnd = count == 0 ? 0L : offsets[count - 1] + lengths[count - 1];
+    }
+
+    /**
+     * @return File - the index record file belonging to the XML history file
+     */
+    public static File indexFileOf(File xmlFile) {
+        return new File(xmlFile.getParentFile(), baseNameOf(xmlFile) + INDEX_FILE_EXTENSION);
+    }
+
+    /**
+     * @return File - the index dictionary file belonging to the XML history file
+     */
+    public static File dictionaryFileOf(File xmlFile) {
+        return new File(xmlFile.getParentFile(), baseNameOf(xmlFile) + DICTIONARY_FILE_EXTENSION);
+    }
+
+    private static String baseNameOf(File xmlFile) {
+        return StringUtils.removeEnd(xmlFile.getName(), StorageFormat.XML.getExtension());
+    }
+
+    /**
+     * Deletes the index of the XML history file, e.g. after the file was converted or compacted.
+     */
+    public static void delete(File xmlFile) {
+        synchronized (CACHE) {
+            CACHE.remove(xmlFile);
+        }
+        File indexFile = indexFileOf(xmlFile);
+        File dictionaryFile = dictionaryFileOf(xmlFile);
+        if (indexFile.exists() && !indexFile.delete()) {
+            LOGGER.log(Level.WARNING, "Unable to delete offset index " + indexFile);
+        }
+        if (dictionaryFile.exists() && !dictionaryFile.delete()) {
+            LOGGER.log(Level.WARNING, "Unable to delete offset index dictionary " + dictionaryFile);
+        }
+    }
+
+    /**
+     * Returns the index of the XML history file, loaded or taken from the cache.
+     *
+     * @return XmlOffsetIndex - the index or null if the file has no usable index, it has to be scanned completely
+     */
+    @CheckForNull
+    public static XmlOffsetIndex open(File xmlFile) {
+        File indexFile = indexFileOf(xmlFile);
+        long indexLength = indexFile.length();
+        if (indexLength < HEADER_SIZE) {
+            return null;
+        }
+        XmlOffsetIndex index;
+        synchronized (CACHE) {
+            index = CACHE.get(xmlFile);
+        }
+        if (index == null || index.indexLength != indexLength) {
+            try {
+                index = load(xmlFile, indexFile);
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Unable to load offset index " + indexFile + ", scanning the whole file", e);
+                return null;
+            }
+            if (index == null) {
+                return null;
+            }
+            synchronized (CACHE) {
+                CACHE.put(xmlFile, index);
+            }
+        }
+        // an index which covers more than the file belongs to a rewritten file
+        return index.coveredEnd <= xmlFile.length() ? index : null;
+    }
+
+    @CheckForNull
+    private static XmlOffsetIndex load(File xmlFile, File indexFile) throws IOException {
+        // the dictionary is loaded first, it is always appended before the entries referring to it
+        SegmentDictionary dictionary = SegmentDictionary.load(dictionaryFileOf(xmlFile));
+        ByteBuffer content = ByteBuffer.wrap(FileUtils.readFileToByteArray(indexFile));
+        if (content.remaining() < HEADER_SIZE || content.getInt() != MAGIC || content.getShort() != VERSION
+            || content.getShort() != RECORD_SIZE) {
+            LOGGER.log(Level.WARNING, "Ignoring offset index " + indexFile + " with unknown header");
+            return null;
+        }
+        // an entry which was only partially written is ignored
+        int count = content.remaining() / RECORD_SIZE;
+        long[] offsets = new long[count];
+        int[] lengths = new int[count];
+        long[] offlineDates = new long[count];
+        int[] projectIds = new int[count];
+        int[] agentLabelIds = new int[count];
+        int[] mesosAgentIds = new int[count];
+        int dictionarySize = dictionary.size();
+        for (int i = 0; i < count; i++) {
+            int position = HEADER_SIZE + i * RECORD_SIZE;
+            offsets[i] = content.getLong(position + OFFSET_OFFSET);
+            lengths[i] = content.getInt(position + LENGTH_OFFSET);
+            offlineDates[i] = content.getLong(position + OFFLINE_DATE_OFFSET);
+            projectIds[i] = content.getInt(position + PROJECT_OFFSET);
+            agentLabelIds[i] = content.getInt(position + AGENT_LABEL_OFFSET);
+            mesosAgentIds[i] = content.getInt(position + MESOS_AGENT_OFFSET);
+            if (projectIds[i] >= dictionarySize || agentLabelIds[i] >= dictionarySize
+                || mesosAgentIds[i] >= dictionarySize) {
+                LOGGER.log(Level.WARNING, "Ignoring offset index " + indexFile + " with unknown dictionary ids");
+                return null;
+            }
+        }
+        return new XmlOffsetIndex(content.capacity(), offsets, lengths, offlineDates, projectIds, agentLabelIds,
+            mesosAgentIds, dictionary);
+    }
+
+    /**
+     * @return int - number of indexed fragments
+     */
+    public int getRecordCount() {
+        return offsets.length;
+    }
+
+    /**
+     * @return long - end of the last indexed fragment, fragments appended after it are not indexed yet
+     */
+    public long getCoveredEnd() {
+        return coveredEnd;
+    }
+
+    public long getOffset(int record) {
+        return offsets[record];
+    }
+
+    public int getLength(int record) {
+        return lengths[record];
+    }
+
+    /**
+     * Selects the fragments which may match the filter: offline date, project, agent label and mesos agent are
+     * decided by the index, all other criteria have to be checked on the parsed records.
+     *
+     * @param filter - the records to select
+     * @param fromOffset - only fragments starting at or after the offset are selected
+     * @return int[] - the selected fragments in file order
+     */
+    public int[] select(AgentStatisticFilter filter, long fromOffset) {
+        int first = firstRecordAt(fromOffset);
+
+        Postings[] constrained = new Postings[3];
+        int[] ids = new int[3];
+        int constraints = 0;
+        String[] values = {filter.getProject(), filter.getAgentLabel(), filter.getMesosAgent()};
+        Postings[] postings = {projects, agentLabels, mesosAgents};
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] == null) {
+                continue;
+            }
+            int id = dictionary.idOf(values[i]);
+            if (id == BinaryRecordFormat.NULL_ID) {
+                // the value does not occur in the file
+                return new int[0];
+            }
+            constrained[constraints] = postings[i];
+            ids[constraints] = id;
+            constraints++;
+        }
+
+        // drive the selection by the shortest posting list, the other constraints are checked on the id columns
+        Postings driver = null;
+        int driverId = 0;
+        for (int i = 0; i < constraints; i++) {
+            if (driver == null || constrained[i].sizeOf(ids[i]) < driver.sizeOf(driverId)) {
+                driver = constrained[i];
+                driverId = ids[i];
+            }
+        }
+
+        int[] selected = new int[driver == null ? offsets.length - first : driver.sizeOf(driverId)];
+        int size = 0;
+        int start = driver == null ? first : driver.startOf(driverId);
+        int end = driver == null ? offsets.length : driver.endOf(driverId);
+        for (int p = start; p < end; p++) {
+            int record = driver == null ? p : driver.records[p];
+            if (record < first) {
+                continue;
+            }
+            long offline = offlineDates[record];
+            if (offline < filter.getFromMillis() || offline >= filter.getToMillis()) {
+                continue;
+            }
+            boolean matches = true;
+            for (int i = 0; i < constraints && matches; i++) {
+                matches = constrained[i].ids[record] == ids[i];
+            }
+            if (matches) {
+                selected[size++] = record;
+            }
+        }
+        return size == selected.length ? selected : Arrays.copyOf(selected, size);
+    }
+
+    private int firstRecordAt(long offset) {
+        int position = Arrays.binarySearch(offsets, offset);
+        return position >= 0 ? position : -position - 1;
+    }
+
+    /**
+     * Posting lists of one dictionary column: the records of every id in ascending order, stored back to back.
+     */
+    private static final class Postings {
+
+        /* dictionary id per record */
+        private final int[] ids;
+
+        /* start of the posting list of id in records, at starts[id + 1] as null has id -1 */
+        private final int[] starts;
+
+        private final int[] records;
+
+        Postings(int[] ids, int dictionarySize) {
+            this.ids = ids;
+            this.starts = new int[dictionarySize + 2];
+            for (int id : ids) {
+                starts[id + 2]++;
+            }
+            for (int slot = 1; slot < starts.length; slot++) {
+                starts[slot] += starts[slot - 1];
+            }
+            int[] next = Arrays.copyOf(starts, starts.length);
+            this.records = new int[ids.length];
+            for (int record = 0; record < ids.length; record++) {
+                records[next[ids[record] + 1]++] = record;
+            }
+        }
+
+        int startOf(int id) {
+            return starts[id + 1];
+        }
+
+        int endOf(int id) {
+            return starts[id + 2];
+        }
+
+        int sizeOf(int id) {
+            return endOf(id) - startOf(id);
+        }
+    }
+}
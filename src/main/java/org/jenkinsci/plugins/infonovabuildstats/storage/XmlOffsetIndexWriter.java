@@ -0,0 +1,179 @@
+package org.jenkinsci.plugins.infonovabuildstats.storage;
+
+import org.jenkinsci.plugins.infonovabuildstats.model.AgentStatistic;
+
+import javax.annotation.CheckForNull;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Collects the fragments appended to an XML history file and appends their entries to the
+ * {@link XmlOffsetIndex offset index} of the file, after the fragments were written.
+ *
+ * An index is only started together with its file. If the index does not end where the appended fragments start
+ * (e.g. the file was written by an older version or the index append failed), the index is deleted and the file
+ * is scanned completely by the queries from then on.
+ *
+ * The sidecar dictionary of the index is kept with the cached append channel of the XML file, like the dictionary
+ * of a binary segment (see {@link BinarySegmentWriter}), so an append only writes the new entries and never reads
+ * the whole dictionary again while it still matches its file.
+ */
+public class XmlOffsetIndexWriter {
+
+    private static final Logger LOGGER = Logger.getLogger(XmlOffsetIndexWriter.class.getName());
+
+    private final File xmlFile;
+
+    private final File indexFile;
+
+    private final File dictionaryFile;
+
+    private final long lengthBefore;
+
+    @CheckForNull
+    private final SegmentDictionary cached;
+
+    private final List<AgentStatistic> records = new ArrayList<AgentStatistic>();
+
+    private final List<long[]> positions = new ArrayList<long[]>();
+
+    /**
+     * @param xmlFile - the XML history file
+     * @param lengthBefore - length of the XML file before the append, where the first fragment starts
+     * @param cached - the dictionary returned by the previous append to the same index or null
+     */
+    public XmlOffsetIndexWriter(File xmlFile, long lengthBefore, @CheckForNull SegmentDictionary cached) {
+        this.xmlFile = xmlFile;
+        this.indexFile = XmlOffsetIndex.indexFileOf(xmlFile);
+        this.dictionaryFile = XmlOffsetIndex.dictionaryFileOf(xmlFile);
+        this.lengthBefore = lengthBefore;
+        this.cached = cached;
+    }
+
+    /**
+     * Adds a fragment which was written to the XML file.
+     */
+    public void add(AgentStatistic agentStatistic, long offset, int length) {
+        records.add(agentStatistic);
+        positions.add(new long[]{offset, length});
+    }
+
+    /**
+     * Appends the entries of the added fragments to the index. Failures are logged, the index is deleted then.
+     *
+     * @return SegmentDictionary - the dictionary including the new entries, for the next append, null if the file
+     * has no index (any more)
+     */
+    @CheckForNull
+    public SegmentDictionary append() {
+        try {
+            if (lengthBefore == 0L) {
+                // a new file, an index left over from a deleted file with the same name is dropped
+                XmlOffsetIndex.delete(xmlFile);
+            } else if (!indexFile.exists()) {
+                LOGGER.log(Level.FINER, "History file " + xmlFile + " has no offset index");
+                return null;
+            } else if (coveredEnd() != lengthBefore) {
+                LOGGER.log(Level.WARNING, "Offset index " + indexFile + " does not cover " + xmlFile
+                    + ", the file is scanned completely from now on");
+                XmlOffsetIndex.delete(xmlFile);
+                return null;
+            }
+            return write();
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Unable to append to offset index " + indexFile
+                + ", the file is scanned completely from now on", e);
+            XmlOffsetIndex.delete(xmlFile);
+            return null;
+        }
+    }
+
+    /**
+     * @return long - end of the last complete entry's fragment, -1 if the index header is invalid
+     */
+    private long coveredEnd() throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(indexFile, "r");
+        try {
+            long length = raf.length();
+            if (length < XmlOffsetIndex.HEADER_SIZE || raf.readInt() != XmlOffsetIndex.MAGIC
+                || raf.readShort() != XmlOffsetIndex.VERSION || raf.readShort() != XmlOffsetIndex.RECORD_SIZE) {
+                return -1L;
+            }
+            long count = (length - XmlOffsetIndex.HEADER_SIZE) / XmlOffsetIndex.RECORD_SIZE;
+            if (count == 0) {
+                return 0L;
+            }
+            raf.seek(XmlOffsetIndex.HEADER_SIZE + (count - 1) * XmlOffsetIndex.RECORD_SIZE);
+            long offset = raf.readLong();
+            return offset + raf.readInt();
+        } finally {
+            raf.close();
+        }
+    }
+
+    private SegmentDictionary write() throws IOException {
+        // the cached dictionary is loaded again if the index was just deleted or the file changed behind its back
+        SegmentDictionary dictionary = cached != null && cached.isCurrent(dictionaryFile)
+            ? cached : SegmentDictionary.load(dictionaryFile);
+
+        ByteBuffer entries = ByteBuffer.allocate(records.size() * XmlOffsetIndex.RECORD_SIZE);
+        for (int i = 0; i < records.size(); i++) {
+            AgentStatistic agentStatistic = records.get(i);
+            long[] position = positions.get(i);
+            entries.putLong(position[0]);
+            entries.putInt((int) position[1]);
+            entries.putLong(agentStatistic.getOfflineDate() == null
+                ? BinaryRecordFormat.NULL_DATE : agentStatistic.getOfflineDate().getTime());
+            entries.putInt(dictionary.getOrAdd(agentStatistic.getProject()));
+            entries.putInt(dictionary.getOrAdd(agentStatistic.getAgentLabel()));
+            entries.putInt(dictionary.getOrAdd(agentStatistic.getMesosAgent()));
+        }
+        entries.flip();
+
+        dictionary.appendNewEntries(dictionaryFile);
+
+        RandomAccessFile raf = new RandomAccessFile(indexFile, "rw");
+        try {
+            FileChannel channel = raf.getChannel();
+            long length = channel.size();
+            if (length < XmlOffsetIndex.HEADER_SIZE) {
+                channel.truncate(0);
+                writeFully(channel, header(), 0);
+                length = XmlOffsetIndex.HEADER_SIZE;
+            } else {
+                long complete = XmlOffsetIndex.HEADER_SIZE
+                    + (length - XmlOffsetIndex.HEADER_SIZE) / XmlOffsetIndex.RECORD_SIZE * XmlOffsetIndex.RECORD_SIZE;
+                if (complete != length) {
+                    channel.truncate(complete);
+                    length = complete;
+                }
+            }
+            writeFully(channel, entries, length);
+        } finally {
+            raf.close();
+        }
+        return dictionary;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private static ByteBuffer header() {
+        ByteBuffer header = ByteBuffer.allocate(XmlOffsetIndex.HEADER_SIZE);
+        header.putInt(XmlOffsetIndex.MAGIC);
+        header.putShort(XmlOffsetIndex.VERSION);
+        header.putShort((short) XmlOffsetIndex.RECORD_SIZE);
+        header.flip();
+        return header;
+    }
+}
@@ -0,0 +1,186 @@
+package org.jenkinsci.plugins.infonovabuildstats.timeline;
+
+import org.jenkinsci.plugins.infonovabuildstats.model.AgentStatistic;
+import org.jenkinsci.plugins.infonovabuildstats.query.CacheableAgentStatisticCollector;
+import org.jenkinsci.plugins.infonovabuildstats.rollup.RollupDimension;
+import org.jenkinsci.plugins.infonovabuildstats.utils.StringDictionary;
+
+import java.util.Arrays;
+
+/**
+ * The online intervals of agents in parallel arrays: online and offline millis, cpus, memory and the group (e.g. the
+ * agent label) of every agent, as the shared instance of the {@link StringDictionary} while it has room.
+ * Growable, not thread-safe.
+ */
+public class AgentIntervals {
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    long[] starts;
+
+    long[] ends;
+
+    double[] cpus;
+
+    int[] memory;
+
+    String[] groups;
+
+    int size;
+
+    public AgentIntervals() {
+        this(INITIAL_CAPACITY);
+    }
+
+    AgentIntervals(int capacity) {
+        starts = new long[capacity];
+        ends = new long[capacity];
+        cpus = new double[capacity];
+        memory = new int[capacity];
+        groups = new String[capacity];
+    }
+
+    /**
+     * Adds an interval, empty and negative intervals are ignored.
+     *
+     * @param group - the group, null for no group
+     */
+    public void add(long start, long end, double cpus, int memory, String group) {
+        if (end <= start) {
+            return;
+        }
+        if (size == starts.length) {
+            grow(size + 1);
+        }
+        this.starts[size] = start;
+        this.ends[size] = end;
+        this.cpus[size] = cpus;
+        this.memory[size] = memory;
+        this.groups[size] = group;
+        size++;
+    }
+
+    /**
+     * Appends all intervals of other.
+     */
+    public void addAll(AgentIntervals other) {
+        grow(size + other.size);
+        System.arraycopy(other.starts, 0, starts, size, other.size);
+        System.arraycopy(other.ends, 0, ends, size, other.size);
+        System.arraycopy(other.cpus, 0, cpus, size, other.size);
+        System.arraycopy(other.memory, 0, memory, size, other.size);
+        System.arraycopy(other.groups, 0, groups, size, other.size);
+        size += other.size;
+    }
+
+    private void grow(int minCapacity) {
+        if (minCapacity <= starts.length) {
+            return;
+        }
+        int capacity = Math.max(minCapacity, starts.length + (starts.length >> 1));
+        starts = Arrays.copyOf(starts, capacity);
+        ends = Arrays.copyOf(ends, capacity);
+        cpus = Arrays.copyOf(cpus, capacity);
+        memory = Arrays.copyOf(memory, capacity);
+        groups = Arrays.copyOf(groups, capacity);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return long - approximate heap size of the arrays in bytes
+     */
+    public long estimateBytes() {
+        // a long start and end, a double cpus, an int memory and a reference to the group per slot
+        return starts.length * (8L + 8L + 8L + 4L + 8L);
+    }
+
+    /**
+     * @return AgentIntervals - an independent copy
+     */
+    public AgentIntervals copy() {
+        AgentIntervals copy = new AgentIntervals(Math.max(1, size));
+        copy.addAll(this);
+        return copy;
+    }
+
+    /**
+     * @return AgentIntervals - a copy of the intervals which overlap the window [from, to)
+     */
+    public AgentIntervals within(long from, long to) {
+        AgentIntervals within = new AgentIntervals(Math.max(1, size));
+        for (int i = 0; i < size; i++) {
+            if (starts[i] < to && ends[i] > from) {
+                within.add(starts[i], ends[i], cpus[i], memory[i], groups[i]);
+            }
+        }
+        return within;
+    }
+
+    /**
+     * @return IntervalIndex - an index over a copy of the intervals
+     */
+    public IntervalIndex index() {
+        return new IntervalIndex(this);
+    }
+
+    /**
+     * Collects the intervals of the records which were online at some time of the window. Combine with a filter
+     * from the window start on: a record online in the window went offline after the window start. The results are
+     * cached per group dimension and window, see {@link CacheableAgentStatisticCollector}.
+     *
+     * @param groupBy - the dimension the intervals are grouped by
+     * @param windowStart - start of the window in millis
+     * @param windowEnd - end of the window in millis (exclusive)
+     */
+    public static CacheableAgentStatisticCollector<AgentIntervals> collector(final RollupDimension groupBy,
+                                                                             final long windowStart,
+                                                                             final long windowEnd) {
+        return new CacheableAgentStatisticCollector<AgentIntervals>() {
+            @Override
+            public AgentIntervals create() {
+                return new AgentIntervals();
+            }
+
+            @Override
+            public void accumulate(AgentIntervals container, AgentStatistic agentStatistic) {
+                if (agentStatistic.getOnlineDate() == null || agentStatistic.getOfflineDate() == null) {
+                    return;
+                }
+                long start = agentStatistic.getOnlineDate().getTime();
+                long end = agentStatistic.getOfflineDate().getTime();
+                if (start < windowEnd && end > windowStart) {
+                    container.add(start, end, agentStatistic.getCpus(), agentStatistic.getMemory(),
+                        StringDictionary.INSTANCE.canonicalize(groupBy.valueOf(agentStatistic)));
+                }
+            }
+
+            @Override
+            public AgentIntervals combine(AgentIntervals left, AgentIntervals right) {
+                if (left.size < right.size) {
+                    right.addAll(left);
+                    return right;
+                }
+                left.addAll(right);
+                return left;
+            }
+
+            @Override
+            public String getCacheKey() {
+                return "agentIntervals:" + groupBy + ":" + windowStart + ":" + windowEnd;
+            }
+
+            @Override
+            public AgentIntervals copy(AgentIntervals container) {
+                return container.copy();
+            }
+
+            @Override
+            public long estimateBytes(AgentIntervals container) {
+                return container.estimateBytes();
+            }
+        };
+    }
+}
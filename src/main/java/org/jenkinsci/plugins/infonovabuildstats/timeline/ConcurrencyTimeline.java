@@ -0,0 +1,306 @@
+package org.jenkinsci.plugins.infonovabuildstats.timeline;
+
+import net.sf.json.util.JSONUtils;
+import org.jenkinsci.plugins.infonovabuildstats.PendingAgentStatistic;
+import org.jenkinsci.plugins.infonovabuildstats.model.AgentStatistic;
+import org.jenkinsci.plugins.infonovabuildstats.query.AgentStatisticFilter;
+import org.jenkinsci.plugins.infonovabuildstats.query.AgentStatisticQueryEngine;
+import org.jenkinsci.plugins.infonovabuildstats.rollup.RollupDimension;
+import org.jenkinsci.plugins.infonovabuildstats.utils.StringDictionary;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Date;
+
+/**
+ * Concurrently online agents, cpus and memory of a window, bucket by bucket for every group and in total, see
+ * {@link IntervalIndex#timeline(long, long, long, int)}. The daily statistics (peak and percentiles of the bucket
+ * peaks) are computed per local day.
+ */
+public class ConcurrencyTimeline {
+
+    /**
+     * Percentiles of the daily statistics.
+     */
+    static final int[] PERCENTILES = {50, 90, 95, 99};
+
+    private final long from;
+
+    private final long to;
+
+    private final long bucketMillis;
+
+    private final int intervalCount;
+
+    /* names of the groups, the last series is the total */
+    private final String[] groupNames;
+
+    private final int[][] agents;
+
+    private final double[][] cpus;
+
+    private final long[][] memory;
+
+    ConcurrencyTimeline(long from, long to, long bucketMillis, int intervalCount, String[] groupNames,
+                        int[][] agents, double[][] cpus, long[][] memory) {
+        this.from = from;
+        this.to = to;
+        this.bucketMillis = bucketMillis;
+        this.intervalCount = intervalCount;
+        this.groupNames = groupNames;
+        this.agents = agents;
+        this.cpus = cpus;
+        this.memory = memory;
+    }
+
+    /**
+     * Collects the intervals of the window from the history, adds the agents which are still online and sweeps
+     * them. The window is checked before the history is read.
+     *
+     * @param filter - further restrictions of the records (e.g. a project), its date range is replaced by the window
+     * @param groupBy - the dimension the series are grouped by
+     * @param online - the agents which are online now, their intervals are open until now
+     * @throws IllegalArgumentException - if the window is empty or has more than maxBuckets buckets
+     */
+    public static ConcurrencyTimeline query(AgentStatisticQueryEngine queryEngine, AgentStatisticFilter filter,
+                                            RollupDimension groupBy, long from, long to, long bucketMillis,
+                                            int maxBuckets, Collection<PendingAgentStatistic> online) {
+        IntervalIndex.checkWindow(from, to, bucketMillis, maxBuckets);
+        // whole days are collected, so the requests of a sliding window share the cached intervals of the closed
+        // history files, the window is cut out afterwards
+        Calendar day = startOfDay(from);
+        long firstDay = day.getTimeInMillis();
+        day = startOfDay(to - 1);
+        day.add(Calendar.DAY_OF_MONTH, 1);
+        long endDay = day.getTimeInMillis();
+        // a record online in the window went offline after the window start, no matter how much later
+        filter.from(new Date(firstDay)).to(null);
+        AgentIntervals intervals = queryEngine.execute(filter, AgentIntervals.collector(groupBy, firstDay, endDay));
+        AgentIntervals window = intervals.within(from, to);
+        addOnline(window, online, filter, groupBy, from, to, System.currentTimeMillis());
+        return window.index().timeline(from, to, bucketMillis, maxBuckets);
+    }
+
+    /**
+     * Adds the open intervals of the online agents which match the filter and were online in the window. An agent
+     * whose mesos details are not resolved yet counts without cpus and memory and only matches a filter of its
+     * label.
+     */
+    static void addOnline(AgentIntervals window, Collection<PendingAgentStatistic> online, AgentStatisticFilter filter,
+                          RollupDimension groupBy, long from, long to, long now) {
+        for (PendingAgentStatistic agent : online) {
+            long start = agent.getOnlineDate().getTime();
+            if (start >= to || now <= from) {
+                continue;
+            }
+            AgentStatistic resolved = agent.getResolved();
+            AgentStatistic open = resolved != null
+                ? AgentStatistic.createOnOfflineAgentStatistic(resolved, new Date(now))
+                : AgentStatistic.createPersistedAgentStatistic(agent.getAgentName(), agent.getAgentLabel(), null,
+                    agent.getOnlineDate(), new Date(now), null, null, null, null, 0, 0.0);
+            if (filter.matches(open)) {
+                window.add(start, now, open.getCpus(), open.getMemory(),
+                    StringDictionary.INSTANCE.canonicalize(groupBy.valueOf(open)));
+            }
+        }
+    }
+
+    public long getFrom() {
+        return from;
+    }
+
+    public long getTo() {
+        return to;
+    }
+
+    public long getBucketMillis() {
+        return bucketMillis;
+    }
+
+    public int getBucketCount() {
+        return (int) ((to - from + bucketMillis - 1) / bucketMillis);
+    }
+
+    /**
+     * @return int - number of intervals online at some time of the window
+     */
+    public int getIntervalCount() {
+        return intervalCount;
+    }
+
+    public int getGroupCount() {
+        return groupNames.length;
+    }
+
+    /**
+     * @return String - the name of the group, null for the agents without a value of the dimension
+     */
+    public String getGroupName(int group) {
+        return groupNames[group];
+    }
+
+    /**
+     * @param group - the group, {@link #getGroupCount()} for the total
+     * @return int[] - peak of concurrently online agents per bucket
+     */
+    public int[] getAgents(int group) {
+        return agents[group] != null ? agents[group] : new int[getBucketCount()];
+    }
+
+    /**
+     * @param group - the group, {@link #getGroupCount()} for the total
+     * @return double[] - peak of concurrently online cpus per bucket
+     */
+    public double[] getCpus(int group) {
+        return cpus[group] != null ? cpus[group] : new double[getBucketCount()];
+    }
+
+    /**
+     * @param group - the group, {@link #getGroupCount()} for the total
+     * @return long[] - peak of concurrently online memory per bucket
+     */
+    public long[] getMemory(int group) {
+        return memory[group] != null ? memory[group] : new long[getBucketCount()];
+    }
+
+    /**
+     * Writes the timeline as JSON: the window, the series of the total and of every group and the statistics of
+     * every local day of the window.
+     */
+    public void writeJSON(Writer out, RollupDimension groupBy) throws IOException {
+        out.write("{\"from\":" + from + ",\"to\":" + to + ",\"bucketMillis\":" + bucketMillis
+            + ",\"groupBy\":" + JSONUtils.quote(groupBy.name()) + ",\"intervals\":" + intervalCount);
+        out.write(",\"total\":");
+        writeSeries(out, groupNames.length);
+        out.write(",\"groups\":[");
+        for (int group = 0; group < groupNames.length; group++) {
+            if (group > 0) {
+                out.write(',');
+            }
+            writeSeries(out, group);
+        }
+        out.write("],\"days\":[");
+        SimpleDateFormat dayFormat = new SimpleDateFormat("yyyy-MM-dd");
+        Calendar day = startOfDay(from);
+        boolean first = true;
+        while (day.getTimeInMillis() < to) {
+            long dayStart = day.getTimeInMillis();
+            day.add(Calendar.DAY_OF_MONTH, 1);
+            int firstBucket = bucketAtOrAfter(dayStart);
+            int endBucket = bucketAtOrAfter(day.getTimeInMillis());
+            if (firstBucket >= endBucket) {
+                continue;
+            }
+            if (!first) {
+                out.write(',');
+            }
+            first = false;
+            out.write("{\"date\":\"" + dayFormat.format(new Date(dayStart)) + "\",\"total\":");
+            writeDay(out, groupNames.length, firstBucket, endBucket);
+            out.write(",\"groups\":[");
+            for (int group = 0; group < groupNames.length; group++) {
+                if (group > 0) {
+                    out.write(',');
+                }
+                writeDay(out, group, firstBucket, endBucket);
+            }
+            out.write("]}");
+        }
+        out.write("]}");
+    }
+
+    private void writeSeries(Writer out, int group) throws IOException {
+        out.write('{');
+        writeName(out, group);
+        out.write("\"agents\":[");
+        int[] groupAgents = getAgents(group);
+        for (int i = 0; i < groupAgents.length; i++) {
+            if (i > 0) {
+                out.write(',');
+            }
+            out.write(Integer.toString(groupAgents[i]));
+        }
+        out.write("],\"cpus\":[");
+        double[] groupCpus = getCpus(group);
+        for (int i = 0; i < groupCpus.length; i++) {
+            if (i > 0) {
+                out.write(',');
+            }
+            out.write(formatCpus(groupCpus[i]));
+        }
+        out.write("],\"memory\":[");
+        long[] groupMemory = getMemory(group);
+        for (int i = 0; i < groupMemory.length; i++) {
+            if (i > 0) {
+                out.write(',');
+            }
+            out.write(Long.toString(groupMemory[i]));
+        }
+        out.write("]}");
+    }
+
+    /**
+     * Peaks and agent percentiles of the buckets starting within a day.
+     */
+    private void writeDay(Writer out, int group, int firstBucket, int endBucket) throws IOException {
+        int[] dayAgents = Arrays.copyOfRange(getAgents(group), firstBucket, endBucket);
+        Arrays.sort(dayAgents);
+        double peakCpus = 0;
+        long peakMemory = 0;
+        double[] groupCpus = getCpus(group);
+        long[] groupMemory = getMemory(group);
+        for (int b = firstBucket; b < endBucket; b++) {
+            peakCpus = Math.max(peakCpus, groupCpus[b]);
+            peakMemory = Math.max(peakMemory, groupMemory[b]);
+        }
+        out.write('{');
+        writeName(out, group);
+        out.write("\"peakAgents\":" + dayAgents[dayAgents.length - 1]);
+        for (int percentile : PERCENTILES) {
+            out.write(",\"p" + percentile + "Agents\":" + percentile(dayAgents, percentile));
+        }
+        out.write(",\"peakCpus\":" + formatCpus(peakCpus) + ",\"peakMemory\":" + peakMemory + "}");
+    }
+
+    private void writeName(Writer out, int group) throws IOException {
+        if (group < groupNames.length) {
+            String name = groupNames[group];
+            out.write("\"name\":" + (name == null ? "null" : JSONUtils.quote(name)) + ",");
+        }
+    }
+
+    /**
+     * @return int - the nearest-rank percentile of the sorted values
+     */
+    static int percentile(int[] sorted, int percentile) {
+        int rank = (int) Math.ceil(percentile / 100.0 * sorted.length);
+        return sorted[Math.max(0, rank - 1)];
+    }
+
+    /* the running sums of the sweep drift by a few ulps */
+    private static String formatCpus(double value) {
+        double rounded = Math.round(value * 1000) / 1000.0;
+        return rounded <= 0 ? "0" : Double.toString(rounded);
+    }
+
+    private int bucketAtOrAfter(long millis) {
+        if (millis <= from) {
+            return 0;
+        }
+        return (int) Math.min(getBucketCount(), (millis - from + bucketMillis - 1) / bucketMillis);
+    }
+
+    private static Calendar startOfDay(long millis) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(millis);
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        return calendar;
+    }
+}
@@ -0,0 +1,322 @@
+package org.jenkinsci.plugins.infonovabuildstats.timeline;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Immutable index over agent intervals for the concurrency of arbitrary windows.
+ *
+ * The intervals are sorted by online millis and carry the running maximum of the offline millis, so the
+ * intervals overlapping a window are found with two binary searches: everything before the first interval whose
+ * running maximum ends after the window start ended before the window, everything from the first interval
+ * starting at or after the window end started after it. Only the intervals in between are checked one by one.
+ *
+ * The timeline of a window is a sort-and-sweep: every overlapping interval becomes an online and an offline
+ * event packed into a long, the events are sorted with {@link Arrays#sort(long[])} and swept once while the
+ * running counts are recorded per bucket. The sort is the only O(n log n) step, the rest is linear in the
+ * number of events plus buckets.
+ */
+public class IntervalIndex {
+
+    /* Events hold the second relative to the window start above the event type bit and the interval position */
+    private static final int EVENT_SECOND_SHIFT = 32;
+
+    private static final long EVENT_START_BIT = 1L << 31;
+
+    private static final long EVENT_POSITION_MASK = EVENT_START_BIT - 1;
+
+    private static final long MAX_WINDOW_MILLIS = TimeUnit.SECONDS.toMillis(Integer.MAX_VALUE);
+
+    private final long[] starts;
+
+    private final long[] ends;
+
+    /* maxEnds[i] is the maximum of ends[0..i] */
+    private final long[] maxEnds;
+
+    private final double[] cpus;
+
+    private final int[] memory;
+
+    /* dense group of every interval, index into groupNames */
+    private final int[] groups;
+
+    /* value of every dense group, null for the intervals without a group */
+    private final String[] groupNames;
+
+    IntervalIndex(AgentIntervals intervals) {
+        int size = intervals.size;
+        long base = Long.MAX_VALUE;
+        for (int i = 0; i < size; i++) {
+            base = Math.min(base, intervals.starts[i]);
+        }
+        base = base == Long.MAX_VALUE ? 0 : base - base % 1000;
+
+        // sort by the online second, the position keeps the keys unique and finds the interval again
+        long[] keys = new long[size];
+        for (int i = 0; i < size; i++) {
+            keys[i] = ((intervals.starts[i] - base) / 1000) << 31 | i;
+        }
+        Arrays.sort(keys);
+
+        starts = new long[size];
+        ends = new long[size];
+        maxEnds = new long[size];
+        cpus = new double[size];
+        memory = new int[size];
+        groups = new int[size];
+        Map<String, Integer> denseGroups = new HashMap<String, Integer>();
+        for (int i = 0; i < size; i++) {
+            int from = (int) (keys[i] & EVENT_POSITION_MASK);
+            starts[i] = intervals.starts[from];
+            ends[i] = intervals.ends[from];
+            cpus[i] = intervals.cpus[from];
+            memory[i] = intervals.memory[from];
+            Integer group = denseGroups.get(intervals.groups[from]);
+            if (group == null) {
+                group = denseGroups.size();
+                denseGroups.put(intervals.groups[from], group);
+            }
+            groups[i] = group;
+        }
+        sortWithinSeconds();
+
+        for (int i = 0; i < size; i++) {
+            maxEnds[i] = i == 0 ? ends[i] : Math.max(maxEnds[i - 1], ends[i]);
+        }
+        groupNames = new String[denseGroups.size()];
+        for (Map.Entry<String, Integer> entry : denseGroups.entrySet()) {
+            groupNames[entry.getValue()] = entry.getKey();
+        }
+    }
+
+    /**
+     * The keys only order by second, an insertion sort puts the few intervals starting within the same second in
+     * millisecond order.
+     */
+    private void sortWithinSeconds() {
+        for (int i = 1; i < starts.length; i++) {
+            for (int j = i; j > 0 && starts[j - 1] > starts[j]; j--) {
+                swap(j - 1, j);
+            }
+        }
+    }
+
+    private void swap(int i, int j) {
+        long start = starts[i];
+        starts[i] = starts[j];
+        starts[j] = start;
+        long end = ends[i];
+        ends[i] = ends[j];
+        ends[j] = end;
+        double cpu = cpus[i];
+        cpus[i] = cpus[j];
+        cpus[j] = cpu;
+        int mem = memory[i];
+        memory[i] = memory[j];
+        memory[j] = mem;
+        int group = groups[i];
+        groups[i] = groups[j];
+        groups[j] = group;
+    }
+
+    public int size() {
+        return starts.length;
+    }
+
+    int getGroupCount() {
+        return groupNames.length;
+    }
+
+    /**
+     * @return String - the value of the dense group, null for the intervals without a group
+     */
+    String getGroupName(int group) {
+        return groupNames[group];
+    }
+
+    /**
+     * @return int[] - positions of the intervals online at some time of [from, to), in online order
+     */
+    public int[] overlapping(long from, long to) {
+        int first = firstEndingAfter(from);
+        int end = firstStartingAt(to);
+        int[] positions = new int[Math.max(0, end - first)];
+        int count = 0;
+        for (int i = first; i < end; i++) {
+            if (ends[i] > from) {
+                positions[count++] = i;
+            }
+        }
+        return count == positions.length ? positions : Arrays.copyOf(positions, count);
+    }
+
+    /**
+     * @return int - number of intervals online at the given time
+     */
+    public int concurrencyAt(long millis) {
+        return overlapping(millis, millis + 1).length;
+    }
+
+    /* first position whose running maximum end is after millis */
+    private int firstEndingAfter(long millis) {
+        int low = 0;
+        int high = maxEnds.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (maxEnds[middle] > millis) {
+                high = middle;
+            } else {
+                low = middle + 1;
+            }
+        }
+        return low;
+    }
+
+    /* first position starting at or after millis */
+    private int firstStartingAt(long millis) {
+        int low = 0;
+        int high = starts.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (starts[middle] >= millis) {
+                high = middle;
+            } else {
+                low = middle + 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return int - the number of buckets of the window
+     * @throws IllegalArgumentException - if the window is empty or has more than maxBuckets buckets
+     */
+    static int checkWindow(long from, long to, long bucketMillis, int maxBuckets) {
+        if (to <= from || bucketMillis <= 0) {
+            throw new IllegalArgumentException("Empty timeline window");
+        }
+        long bucketCount = (to - from + bucketMillis - 1) / bucketMillis;
+        if (bucketCount > maxBuckets || to - from > MAX_WINDOW_MILLIS) {
+            throw new IllegalArgumentException("Timeline window has " + bucketCount + " buckets, at most "
+                + maxBuckets + " are allowed, use a shorter window or a coarser resolution");
+        }
+        return (int) bucketCount;
+    }
+
+    /**
+     * Sweeps the intervals of the window. The value of a bucket is the peak within the bucket: the most agents,
+     * cpus and memory online at the same time, an agent going offline and another coming online within the same
+     * second are not counted as concurrent.
+     *
+     * @param from - start of the window in millis
+     * @param to - end of the window in millis (exclusive)
+     * @param bucketMillis - length of a bucket, e.g. one minute
+     * @param maxBuckets - upper limit of the bucket count, bounds the memory of the result
+     * @throws IllegalArgumentException - if the window is empty or has more than maxBuckets buckets
+     */
+    public ConcurrencyTimeline timeline(long from, long to, long bucketMillis, int maxBuckets) {
+        int bucketCount = checkWindow(from, to, bucketMillis, maxBuckets);
+
+        int[] positions = overlapping(from, to);
+        long[] events = new long[positions.length * 2];
+        int eventCount = 0;
+        for (int position : positions) {
+            long start = Math.max(starts[position], from);
+            events[eventCount++] = ((start - from) / 1000) << EVENT_SECOND_SHIFT | EVENT_START_BIT | position;
+            if (ends[position] < to) {
+                events[eventCount++] = ((ends[position] - from) / 1000) << EVENT_SECOND_SHIFT | position;
+            }
+        }
+        // ends sort before starts of the same second
+        Arrays.sort(events, 0, eventCount);
+
+        Sweep sweep = new Sweep(groupNames.length + 1, bucketCount);
+        int total = groupNames.length;
+        for (int i = 0; i < eventCount; i++) {
+            long event = events[i];
+            int position = (int) (event & EVENT_POSITION_MASK);
+            int bucket = (int) (TimeUnit.SECONDS.toMillis(event >>> EVENT_SECOND_SHIFT) / bucketMillis);
+            int sign = (event & EVENT_START_BIT) != 0 ? 1 : -1;
+            sweep.apply(groups[position], bucket, sign, cpus[position], memory[position]);
+            sweep.apply(total, bucket, sign, cpus[position], memory[position]);
+        }
+        sweep.finish();
+
+        return new ConcurrencyTimeline(from, to, bucketMillis, positions.length, groupNames.clone(), sweep.agents,
+            sweep.cpus, sweep.memory);
+    }
+
+    /**
+     * Running counts and bucket peaks of every series of a sweep, the arrays of a series are allocated with its
+     * first event.
+     */
+    private static final class Sweep {
+
+        private final int bucketCount;
+
+        private final int[] currentAgents;
+
+        private final double[] currentCpus;
+
+        private final long[] currentMemory;
+
+        /* last bucket of every series whose peak is initialized */
+        private final int[] filled;
+
+        final int[][] agents;
+
+        final double[][] cpus;
+
+        final long[][] memory;
+
+        Sweep(int seriesCount, int bucketCount) {
+            this.bucketCount = bucketCount;
+            currentAgents = new int[seriesCount];
+            currentCpus = new double[seriesCount];
+            currentMemory = new long[seriesCount];
+            filled = new int[seriesCount];
+            Arrays.fill(filled, -1);
+            agents = new int[seriesCount][];
+            cpus = new double[seriesCount][];
+            memory = new long[seriesCount][];
+        }
+
+        void apply(int series, int bucket, int sign, double cpu, int mem) {
+            if (agents[series] == null) {
+                agents[series] = new int[bucketCount];
+                cpus[series] = new double[bucketCount];
+                memory[series] = new long[bucketCount];
+            }
+            fill(series, bucket);
+            currentAgents[series] += sign;
+            currentCpus[series] += sign * cpu;
+            currentMemory[series] += sign * mem;
+            if (sign > 0) {
+                agents[series][bucket] = Math.max(agents[series][bucket], currentAgents[series]);
+                cpus[series][bucket] = Math.max(cpus[series][bucket], currentCpus[series]);
+                memory[series][bucket] = Math.max(memory[series][bucket], currentMemory[series]);
+            }
+        }
+
+        /* the buckets without events of the series hold the running counts */
+        private void fill(int series, int bucket) {
+            for (int b = filled[series] + 1; b <= bucket; b++) {
+                agents[series][b] = currentAgents[series];
+                cpus[series][b] = currentCpus[series];
+                memory[series][b] = currentMemory[series];
+            }
+            filled[series] = Math.max(filled[series], bucket);
+        }
+
+        void finish() {
+            for (int series = 0; series < agents.length; series++) {
+                if (agents[series] != null) {
+                    fill(series, bucketCount - 1);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package org.jenkinsci.plugins.infonovabuildstats.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hierarchical timing wheel of timers with a fixed tick, e.g. one minute. Scheduling and cancelling a timer cost
+ * O(1), no matter how many timers are pending or how far their deadline is.
+ *
+ * There are {@value #LEVELS} wheels of {@value #WHEEL_SIZE} slots, a slot of level l spans 64^l ticks, so the
+ * wheels cover 64^4 ticks (about 32 years of minutes). A timer is put into the lowest wheel whose span reaches its
+ * deadline and moves down a wheel whenever the lower wheel wraps around (cascade), it expires from the slot of
+ * the lowest wheel. Timers further away than the wheels reach are parked in the last slot of the top wheel and
+ * cascade again. Timers never expire before their deadline, at most one tick after it.
+ *
+ * All operations are synchronized, they are short.
+ *
+ * @param <T> the payload of the timers
+ */
+public class HierarchicalTimingWheel<T> {
+
+    private static final int WHEEL_BITS = 6;
+
+    private static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+
+    private static final int LEVELS = 4;
+
+    private static final long MAX_DELTA = (1L << (WHEEL_BITS * LEVELS)) - 1;
+
+    private final long tickMillis;
+
+    /* sentinel of the timer list of every slot */
+    private final Timer<T>[][] slots;
+
+    /* last tick whose timers expired */
+    private long currentTick;
+
+    private int size;
+
+    /**
+     * @param tickMillis - resolution of the deadlines
+     * @param nowMillis - the current time
+     */
+    @SuppressWarnings("unchecked")
+    public HierarchicalTimingWheel(long tickMillis, long nowMillis) {
+        this.tickMillis = tickMillis;
+        this.currentTick = nowMillis / tickMillis;
+        this.slots = new Timer[LEVELS][WHEEL_SIZE];
+        for (int level = 0; level < LEVELS; level++) {
+            for (int slot = 0; slot < WHEEL_SIZE; slot++) {
+                Timer<T> sentinel = new Timer<T>(null, 0L);
+                sentinel.previous = sentinel;
+                sentinel.next = sentinel;
+                slots[level][slot] = sentinel;
+            }
+        }
+    }
+
+    /**
+     * A pending timer, the handle to cancel it.
+     */
+    public static final class Timer<T> {
+
+        private final T payload;
+
+        private final long deadlineTick;
+
+        private Timer<T> previous;
+
+        private Timer<T> next;
+
+        Timer(T payload, long deadlineTick) {
+            this.payload = payload;
+            this.deadlineTick = deadlineTick;
+        }
+
+        public T getPayload() {
+            return payload;
+        }
+
+        boolean isPending() {
+            return next != null;
+        }
+    }
+
+    /**
+     * Schedules a timer, a deadline in the past expires with the next tick.
+     *
+     * @return Timer - the handle to cancel the timer
+     */
+    public synchronized Timer<T> schedule(T payload, long deadlineMillis) {
+        long deadlineTick = (deadlineMillis + tickMillis - 1) / tickMillis;
+        Timer<T> timer = new Timer<T>(payload, Math.max(deadlineTick, currentTick + 1));
+        insert(timer);
+        size++;
+        return timer;
+    }
+
+    /**
+     * @return boolean - true if the timer was pending, false if it expired or was cancelled before
+     */
+    public synchronized boolean cancel(Timer<T> timer) {
+        if (!timer.isPending()) {
+            return false;
+        }
+        unlink(timer);
+        size--;
+        return true;
+    }
+
+    /**
+     * Advances the wheels to the given time.
+     *
+     * @return List - the payloads of the expired timers, tick by tick
+     */
+    public synchronized List<T> advance(long nowMillis) {
+        List<T> expired = new ArrayList<T>();
+        long targetTick = nowMillis / tickMillis;
+        while (currentTick < targetTick) {
+            if (size == 0) {
+                // nothing to cascade or expire on the way
+                currentTick = targetTick;
+                break;
+            }
+            currentTick++;
+            for (int level = LEVELS - 1; level > 0; level--) {
+                if ((currentTick & ((1L << (WHEEL_BITS * level)) - 1)) == 0) {
+                    cascade(level, (int) ((currentTick >>> (WHEEL_BITS * level)) & WHEEL_MASK));
+                }
+            }
+            Timer<T> sentinel = slots[0][(int) (currentTick & WHEEL_MASK)];
+            while (sentinel.next != sentinel) {
+                Timer<T> timer = sentinel.next;
+                unlink(timer);
+                size--;
+                expired.add(timer.payload);
+            }
+        }
+        return expired;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    private void cascade(int level, int slot) {
+        Timer<T> sentinel = slots[level][slot];
+        Timer<T> timer = sentinel.next;
+        // detach the whole list first, the timers are inserted into lower wheels (or the same slot if parked)
+        sentinel.next = sentinel;
+        sentinel.previous = sentinel;
+        while (timer != sentinel) {
+            Timer<T> next = timer.next;
+            timer.previous = null;
+            timer.next = null;
+            insert(timer);
+            timer = next;
+        }
+    }
+
+    private void insert(Timer<T> timer) {
+        // cascaded timers due now expire with the current tick, whose slot is processed after the cascades
+        long delta = Math.max(0L, timer.deadlineTick - currentTick);
+        long slotTick = delta > MAX_DELTA ? currentTick + MAX_DELTA : Math.max(timer.deadlineTick, currentTick);
+        int level = 0;
+        while (level < LEVELS - 1 && Math.min(delta, MAX_DELTA) >= 1L << (WHEEL_BITS * (level + 1))) {
+            level++;
+        }
+        Timer<T> sentinel = slots[level][(int) ((slotTick >>> (WHEEL_BITS * level)) & WHEEL_MASK)];
+        timer.previous = sentinel.previous;
+        timer.next = sentinel;
+        sentinel.previous.next = timer;
+        sentinel.previous = timer;
+    }
+
+    private void unlink(Timer<T> timer) {
+        timer.previous.next = timer.next;
+        timer.next.previous = timer.previous;
+        timer.previous = null;
+        timer.next = null;
+    }
+}
@@ -0,0 +1,47 @@
+package org.jenkinsci.plugins.infonovabuildstats.utils;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the average I/O bandwidth of background work. Every read or write is charged with its bytes, a caller
+ * waits until the bytes charged before it are paid off at the configured rate. So the first charge never waits
+ * and a large charge delays the following ones.
+ */
+public class IoThrottle {
+
+    private final long bytesPerSecond;
+
+    /* time at which all bytes charged so far are paid off */
+    private long paidOffNanos;
+
+    /**
+     * @param bytesPerSecond - the bandwidth, 0 or less for unlimited
+     */
+    public IoThrottle(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+        this.paidOffNanos = System.nanoTime();
+    }
+
+    /**
+     * Charges the bytes, waits for the bytes charged before if they are not paid off yet.
+     */
+    public void acquire(long bytes) throws InterruptedException {
+        if (bytesPerSecond <= 0 || bytes <= 0) {
+            return;
+        }
+        long waitNanos;
+        synchronized (this) {
+            long now = System.nanoTime();
+            long start = paidOffNanos - now > 0 ? paidOffNanos : now;
+            paidOffNanos = start + (long) (bytes * ((double) TimeUnit.SECONDS.toNanos(1) / bytesPerSecond));
+            waitNanos = start - now;
+        }
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+
+    public long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+}
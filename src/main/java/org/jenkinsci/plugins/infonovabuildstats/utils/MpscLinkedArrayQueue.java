@@ -0,0 +1,168 @@
+package org.jenkinsci.plugins.infonovabuildstats.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Unbounded lock-free multi-producer / single-consumer queue made of linked array segments.
+ * Producers claim a slot with a single atomic increment on the tail segment and only race on a CAS
+ * when a segment is full. The consumer drains element by element straight out of the segments, without
+ * copying the queue and without taking a lock.
+ *
+ * {@link #offer(Object)} may be called from any thread, {@link #drain(Consumer, int)} from one thread at a time.
+ * {@link #size()}, {@link #isEmpty()} and {@link #snapshot()} are wait-free and may be called from any thread.
+ *
+ * @param <E> the element type
+ */
+public class MpscLinkedArrayQueue<E> {
+
+    /**
+     * Callback of {@link #drain(Consumer, int)}.
+     */
+    public interface Consumer<E> {
+        void accept(E element);
+    }
+
+    static final int DEFAULT_SEGMENT_SIZE = 1024;
+
+    private final int segmentSize;
+
+    /* only moved forward by producers */
+    private final AtomicReference<Segment<E>> tail;
+
+    /* written by the consumer only, head is published for snapshots */
+    private volatile Segment<E> head;
+    private int headIndex;
+
+    private final AtomicLong offered = new AtomicLong();
+    private volatile long drained;
+
+    public MpscLinkedArrayQueue() {
+        this(DEFAULT_SEGMENT_SIZE);
+    }
+
+    public MpscLinkedArrayQueue(int segmentSize) {
+        this.segmentSize = segmentSize;
+        Segment<E> first = new Segment<E>(segmentSize);
+        this.head = first;
+        this.tail = new AtomicReference<Segment<E>>(first);
+    }
+
+    public void offer(E element) {
+        if (element == null) {
+            throw new NullPointerException("element");
+        }
+        while (true) {
+            Segment<E> segment = tail.get();
+            int index = segment.claimed.getAndIncrement();
+            if (index < segmentSize) {
+                segment.slots.set(index, element);
+                offered.incrementAndGet();
+                return;
+            }
+            // segment is full, link (or help linking) the next one and retry there
+            Segment<E> next = segment.next.get();
+            if (next == null) {
+                Segment<E> candidate = new Segment<E>(segmentSize);
+                next = segment.next.compareAndSet(null, candidate) ? candidate : segment.next.get();
+            }
+            tail.compareAndSet(segment, next);
+        }
+    }
+
+    /**
+     * Hands the queued elements to the consumer in FIFO order per producer.
+     * Stops at a slot which is claimed but not yet published, that element is returned by the next drain.
+     *
+     * @param consumer - receives the elements
+     * @param limit - maximum number of elements to drain
+     * @return int - the number of drained elements
+     */
+    public int drain(Consumer<? super E> consumer, int limit) {
+        Segment<E> segment = head;
+        int index = headIndex;
+        int count = 0;
+
+        while (count < limit) {
+            if (index == segmentSize) {
+                Segment<E> next = segment.next.get();
+                if (next == null) {
+                    break;
+                }
+                segment = next;
+                index = 0;
+                head = segment;
+            }
+            E element = segment.slots.get(index);
+            if (element == null) {
+                break;
+            }
+            // release the slot for GC and snapshots
+            segment.slots.lazySet(index, null);
+            index++;
+            count++;
+            consumer.accept(element);
+        }
+
+        headIndex = index;
+        drained += count;
+        return count;
+    }
+
+    public int drain(Consumer<? super E> consumer) {
+        return drain(consumer, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @return int - approximate number of queued elements
+     */
+    public int size() {
+        long size = offered.get() - drained;
+        return size <= 0 ? 0 : (size >= Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) size);
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Weakly consistent copy of the queued elements: an element which is drained concurrently may be missed.
+     * Visits each slot at most once, so the call never waits for producers or the consumer.
+     *
+     * @return List - unmodifiable copy of the queued elements
+     */
+    public List<E> snapshot() {
+        List<E> elements = new ArrayList<E>(size());
+        // drained slots are cleared, so the head segment can be scanned from its start
+        Segment<E> segment = head;
+        while (segment != null) {
+            int end = Math.min(segment.claimed.get(), segmentSize);
+            for (int i = 0; i < end; i++) {
+                E element = segment.slots.get(i);
+                if (element != null) {
+                    elements.add(element);
+                }
+            }
+            segment = segment.next.get();
+        }
+        return Collections.unmodifiableList(elements);
+    }
+
+    private static final class Segment<E> {
+
+        final AtomicReferenceArray<E> slots;
+
+        final AtomicInteger claimed = new AtomicInteger();
+
+        final AtomicReference<Segment<E>> next = new AtomicReference<Segment<E>>();
+
+        Segment(int size) {
+            this.slots = new AtomicReferenceArray<E>(size);
+        }
+    }
+}
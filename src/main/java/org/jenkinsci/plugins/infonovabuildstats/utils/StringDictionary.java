@@ -0,0 +1,110 @@
+package org.jenkinsci.plugins.infonovabuildstats.utils;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded, concurrent dictionary of the low-cardinality strings of the agent statistics (jenkins url, framework,
+ * principal, agent label, project, mesos agent). {@link #canonicalize(String)} returns one shared instance per
+ * value, so the records of the queue, the journal and the query path do not hold their own copies.
+ * Every value also gets a compact int id, which primitive-array structures can store instead of the string
+ * and resolve lazily with {@link #valueOf(int)}.
+ *
+ * Once {@value #DEFAULT_CAPACITY} values are known, further values are returned as they are and get no id,
+ * so an unexpectedly high-cardinality field can not grow the dictionary without bound. Ids are never reused.
+ * Structures which outlive a single query keep the canonical strings instead of the ids, an id of
+ * {@link #NO_ID} would lose the value.
+ */
+public class StringDictionary {
+
+    public static final int DEFAULT_CAPACITY = 1 << 16;
+
+    /**
+     * Id of null and of the values which did not fit into the dictionary.
+     */
+    public static final int NO_ID = -1;
+
+    public static final StringDictionary INSTANCE = new StringDictionary(DEFAULT_CAPACITY);
+
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+    private final AtomicReferenceArray<String> values;
+
+    private final AtomicInteger nextId = new AtomicInteger();
+
+    public StringDictionary(int capacity) {
+        this.values = new AtomicReferenceArray<String>(capacity);
+    }
+
+    private static final class Entry {
+
+        private final int id;
+
+        private final String value;
+
+        Entry(int id, String value) {
+            this.id = id;
+            this.value = value;
+        }
+    }
+
+    /**
+     * @return String - the shared instance equal to value, value itself if the dictionary is full, null for null
+     */
+    public String canonicalize(String value) {
+        if (value == null) {
+            return null;
+        }
+        Entry entry = lookup(value);
+        return entry != null ? entry.value : value;
+    }
+
+    /**
+     * @return int - the id of value, {@link #NO_ID} for null or if the dictionary is full
+     */
+    public int idOf(String value) {
+        if (value == null) {
+            return NO_ID;
+        }
+        Entry entry = lookup(value);
+        return entry != null ? entry.id : NO_ID;
+    }
+
+    /**
+     * @return String - the value of the id, null for {@link #NO_ID}
+     */
+    public String valueOf(int id) {
+        return id == NO_ID ? null : values.get(id);
+    }
+
+    /**
+     * @return int - number of values in the dictionary
+     */
+    public int size() {
+        return Math.min(nextId.get(), values.length());
+    }
+
+    private Entry lookup(String value) {
+        Entry entry = entries.get(value);
+        if (entry != null) {
+            return entry;
+        }
+        int id = nextId.getAndIncrement();
+        if (id >= values.length()) {
+            // keeps nextId from overflowing while the dictionary is full
+            nextId.set(values.length());
+            return null;
+        }
+        // published before the id can be handed out
+        values.set(id, value);
+        Entry created = new Entry(id, value);
+        Entry existing = entries.putIfAbsent(value, created);
+        if (existing != null) {
+            // lost the race, the claimed id is never handed out
+            return existing;
+        }
+        return created;
+    }
+}
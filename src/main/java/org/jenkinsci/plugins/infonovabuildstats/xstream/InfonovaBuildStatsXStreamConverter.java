@@ -31,18 +31,9 @@ public class InfonovaBuildStatsXStreamConverter implements Converter {
     @Override
     public void marshal(Object source, HierarchicalStreamWriter writer, MarshallingContext context) {
 
-        LOGGER.log(Level.FINE, "Start marshalling plugin.");
-
-        InfonovaBuildStatsPlugin plugin = (InfonovaBuildStatsPlugin)source;
-
-        //only persist job build results to files, if we have pending changes
-        if(plugin.getJobBuildResultsSharder().pendingChanges()){
-
-        	plugin.getJobBuildResultsSharder().applyQueuedResultsInFiles();
-
-        }
-
-        LOGGER.log(Level.FINE, "Finished marshalling plugin.");
+        // The plugin itself has no state to marshal. The job build results are persisted by
+        // InfonovaBuildStatsPersister and are no longer written as a side effect of saving the plugin.
+        LOGGER.log(Level.FINE, "Marshalling plugin, nothing to write.");
 
     }
 
@@ -0,0 +1,83 @@
+package org.jenkinsci.plugins.infonovabuildstats.history;
+
+import org.jenkinsci.plugins.infonovabuildstats.storage.StorageFormat;
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class HistoryFileTest {
+
+    @Test
+    public void parsesDailyShards() {
+        HistoryFile xml = parse("agentStatistics-2016-03-03.xml");
+        assertEquals(StorageFormat.XML, xml.getFormat());
+        assertFalse(xml.isMonthly());
+        assertFalse(xml.isHourly());
+        assertNull(xml.getPartition());
+        assertEquals("2016-03", xml.getMonthKey());
+
+        HistoryFile bin = parse("agentStatistics-2016-03-03.bin");
+        assertEquals(StorageFormat.BINARY, bin.getFormat());
+        assertFalse(bin.isMonthly());
+    }
+
+    @Test
+    public void parsesHourlyAndPartitionedShards() {
+        HistoryFile hourly = parse("agentStatistics-2016-03-03-17.bin");
+        assertTrue(hourly.isHourly());
+        assertNull(hourly.getPartition());
+
+        HistoryFile partitioned = parse("agentStatistics-2016-03-03_my-project.xml");
+        assertFalse(partitioned.isHourly());
+        assertEquals("my-project", partitioned.getPartition());
+
+        HistoryFile both = parse("agentStatistics-2016-03-03-05_my_project.bin");
+        assertTrue(both.isHourly());
+        assertEquals("my_project", both.getPartition());
+    }
+
+    @Test
+    public void parsesMonthlyShardsAndSegments() {
+        HistoryFile monthly = parse("agentStatistics-2016-03.bin");
+        assertEquals(StorageFormat.BINARY, monthly.getFormat());
+        assertTrue(monthly.isMonthly());
+
+        HistoryFile columnar = parse("agentStatistics-2016-03.col");
+        assertEquals(StorageFormat.COLUMNAR, columnar.getFormat());
+        assertTrue(columnar.isMonthly());
+        assertEquals("2016-03", columnar.getMonthKey());
+    }
+
+    @Test
+    public void ignoresTemporaryFilesOfTheConverterAndCompactor() {
+        assertNull(HistoryFile.parse(new File("agentStatistics-2016-03-03.bin.tmp")));
+        assertNull(HistoryFile.parse(new File("agentStatistics-2016-03-03.bin.tmp.dict")));
+        assertNull(HistoryFile.parse(new File("agentStatistics-2016-03-03.xml.tmp")));
+        assertNull(HistoryFile.parse(new File("agentStatistics-2016-03.col.tmp")));
+    }
+
+    @Test
+    public void ignoresOtherFiles() {
+        assertNull(HistoryFile.parse(new File("agentStatistics-2016-03-03.xml.idx")));
+        assertNull(HistoryFile.parse(new File("agentStatistics-2016-03-03.col")));
+        assertNull(HistoryFile.parse(new File("agentStatistics-2016-03-03_my.project.xml")));
+        assertNull(HistoryFile.parse(new File("backfill.checkpoint")));
+    }
+
+    @Test
+    public void ordersByPeriod() {
+        assertTrue(parse("agentStatistics-2016-03-03.xml").compareTo(parse("agentStatistics-2016-03-04.bin")) < 0);
+        assertTrue(parse("agentStatistics-2016-02.col").compareTo(parse("agentStatistics-2016-03-01.bin")) < 0);
+    }
+
+    private static HistoryFile parse(String name) {
+        HistoryFile historyFile = HistoryFile.parse(new File(name));
+        assertTrue("Not parsed: " + name, historyFile != null);
+        return historyFile;
+    }
+}
@@ -0,0 +1,133 @@
+package org.jenkinsci.plugins.infonovabuildstats.merge;
+
+import org.jenkinsci.plugins.infonovabuildstats.model.AgentStatistic;
+import org.jenkinsci.plugins.infonovabuildstats.query.AgentStatisticFilter;
+import org.jenkinsci.plugins.infonovabuildstats.storage.BinarySegmentWriter;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HistoryMergerTest {
+
+    private static final long ONLINE_MILLIS = 1457000000000L;
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void mergesInMergeOrderAndDropsDuplicates() throws IOException {
+        File first = temp.newFolder("first");
+        File second = temp.newFolder("second");
+        List<AgentStatistic> records = records(0, 10);
+        // the second history has records 5 to 14, records 5 to 9 are in both
+        write(first, "agentStatistics-2016-03-03.bin", records);
+        write(second, "agentStatistics-2016-03-03.bin", records(5, 10));
+
+        List<AgentStatistic> merged = merge(Arrays.asList(first, second), new AgentStatisticFilter());
+
+        assertEquals(15, merged.size());
+        for (int i = 0; i < merged.size(); i++) {
+            assertEquals("mesos-jenkins-" + i, merged.get(i).getAgentName());
+        }
+    }
+
+    @Test
+    public void keepsRecordsOfOtherAgentsOrMasters() throws IOException {
+        File first = temp.newFolder("first");
+        File second = temp.newFolder("second");
+        AgentStatistic record = record(1, "http://jenkins/");
+        write(first, "agentStatistics-2016-03-03.bin", Arrays.asList(record, record(2, "http://jenkins/")));
+        // same agent and dates on another master
+        write(second, "agentStatistics-2016-03-03.bin", Arrays.asList(record(1, "http://other/"), record));
+
+        HistoryMerger merger = new HistoryMerger(Arrays.asList(first, second), new AgentStatisticFilter(),
+            temp.newFolder("runs"));
+        List<AgentStatistic> merged = merge(merger);
+
+        assertEquals(3, merged.size());
+        assertEquals(3L, merger.getMergedRecords());
+        assertEquals(1L, merger.getDuplicateRecords());
+        assertEquals("http://jenkins/", merged.get(0).getJenkinsUrl());
+        assertEquals("http://other/", merged.get(1).getJenkinsUrl());
+        assertEquals("mesos-jenkins-2", merged.get(2).getAgentName());
+    }
+
+    @Test
+    public void mergesMoreRecordsThanFitIntoOneRun() throws IOException {
+        File first = temp.newFolder("first");
+        File second = temp.newFolder("second");
+        int count = HistoryMerger.RUN_CAPACITY + 100;
+        // files are read in period order, the later day holds the earlier records
+        write(first, "agentStatistics-2016-03-03.bin", records(count, count));
+        write(first, "agentStatistics-2016-03-04.bin", records(0, count));
+        write(second, "agentStatistics-2016-03-03.bin", records(count / 2, count));
+
+        HistoryMerger merger = new HistoryMerger(Arrays.asList(first, second), new AgentStatisticFilter(),
+            temp.newFolder("runs"));
+        List<AgentStatistic> merged = merge(merger);
+
+        assertTrue(merger.getRuns() > 2);
+        assertEquals(2 * count, merged.size());
+        assertEquals(count, merger.getDuplicateRecords());
+        for (int i = 1; i < merged.size(); i++) {
+            assertTrue(HistoryMerger.MERGE_ORDER.compare(merged.get(i - 1), merged.get(i)) < 0);
+        }
+        assertEquals(0, new File(temp.getRoot(), "runs").list().length);
+    }
+
+    @Test
+    public void mergesOnlyMatchingRecords() throws IOException {
+        File first = temp.newFolder("first");
+        write(first, "agentStatistics-2016-03-03.bin", records(0, 30));
+
+        List<AgentStatistic> merged = merge(Arrays.asList(first), new AgentStatisticFilter().agentLabel("label-1"));
+
+        assertEquals(10, merged.size());
+        for (AgentStatistic agentStatistic : merged) {
+            assertEquals("label-1", agentStatistic.getAgentLabel());
+        }
+    }
+
+    private List<AgentStatistic> merge(List<File> folders, AgentStatisticFilter filter) throws IOException {
+        return merge(new HistoryMerger(folders, filter, temp.newFolder()));
+    }
+
+    private static List<AgentStatistic> merge(HistoryMerger merger) throws IOException {
+        final List<AgentStatistic> merged = new ArrayList<AgentStatistic>();
+        merger.merge(new HistoryMerger.Sink() {
+            public void accept(AgentStatistic agentStatistic) {
+                merged.add(agentStatistic);
+            }
+        });
+        return merged;
+    }
+
+    private static void write(File folder, String name, List<AgentStatistic> records) throws IOException {
+        new BinarySegmentWriter(new File(folder, name)).append(records);
+    }
+
+    private static List<AgentStatistic> records(int first, int count) {
+        List<AgentStatistic> records = new ArrayList<AgentStatistic>();
+        for (int i = first; i < first + count; i++) {
+            records.add(record(i, "http://jenkins/"));
+        }
+        return records;
+    }
+
+    private static AgentStatistic record(int i, String jenkinsUrl) {
+        long online = ONLINE_MILLIS + i * 1000L;
+        return AgentStatistic.createPersistedAgentStatistic(String.format("mesos-jenkins-%d", i),
+            "label-" + (i % 3), "project/job-" + i, new Date(online), new Date(online + 60000), "mesos-agent",
+            "framework", "principal", jenkinsUrl, 1024, 0.5, 100L);
+    }
+}
@@ -0,0 +1,79 @@
+package org.jenkinsci.plugins.infonovabuildstats.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HistogramTest {
+
+    @Test
+    public void countsSmallValuesExactly() {
+        Histogram histogram = new Histogram();
+        for (long value = 1; value <= 100; value++) {
+            histogram.record(value);
+        }
+
+        assertEquals(50L, histogram.getValueAtPercentile(50.0));
+        assertEquals(90L, histogram.getValueAtPercentile(90.0));
+        assertEquals(100L, histogram.getValueAtPercentile(100.0));
+        assertEquals(1L, histogram.getValueAtPercentile(0.0));
+        assertEquals(50.5, histogram.getMean(), 1e-9);
+        assertEquals(100L, histogram.getMax());
+    }
+
+    @Test
+    public void reportsLargeValuesWithinTheBucketPrecision() {
+        Histogram histogram = new Histogram();
+        for (long value = 1; value <= 1000000; value++) {
+            histogram.record(value * 1000);
+        }
+
+        for (double percentile : new double[] {50.0, 90.0, 99.0, 99.9}) {
+            long exact = (long) Math.ceil(percentile / 100.0 * 1000000) * 1000;
+            long reported = histogram.getValueAtPercentile(percentile);
+            assertTrue(percentile + "th percentile " + reported + " below " + exact, reported >= exact);
+            assertTrue(percentile + "th percentile " + reported + " too far above " + exact,
+                reported <= exact * 1.016);
+        }
+        assertEquals(1000000000L, histogram.getValueAtPercentile(100.0));
+    }
+
+    @Test
+    public void isEmptyWithoutValues() {
+        Histogram histogram = new Histogram();
+
+        assertEquals(0L, histogram.getValueAtPercentile(99.0));
+        assertEquals(0L, histogram.getCount());
+        assertEquals(0.0, histogram.getMean(), 0.0);
+    }
+
+    @Test
+    public void addsTheValuesOfAnotherHistogram() {
+        Histogram low = new Histogram();
+        Histogram high = new Histogram();
+        for (long value = 1; value <= 50; value++) {
+            low.record(value);
+            high.record(value + 50);
+        }
+        low.add(high);
+
+        assertEquals(100L, low.getCount());
+        assertEquals(50L, low.getValueAtPercentile(50.0));
+        assertEquals(100L, low.getMax());
+        // the copy is independent
+        Histogram copy = low.copy();
+        copy.record(1000);
+        assertEquals(100L, low.getCount());
+        assertEquals(101L, copy.getCount());
+    }
+
+    @Test
+    public void clampsNegativeValues() {
+        Histogram histogram = new Histogram();
+        histogram.record(-5);
+
+        assertEquals(0L, histogram.getValueAtPercentile(100.0));
+        assertEquals(1L, histogram.getCount());
+    }
+}
@@ -0,0 +1,195 @@
+package org.jenkinsci.plugins.infonovabuildstats.storage;
+
+import org.jenkinsci.plugins.infonovabuildstats.model.AgentStatistic;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AgentStatisticJournalTest {
+
+    private static final long ONLINE_MILLIS = 1457000000000L;
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void replaysOnlyTheRecordsWhichWereNotApplied() throws Exception {
+        File historyFolder = temp.getRoot();
+        RecordingSink sink = new RecordingSink();
+        AgentStatisticJournal journal = new AgentStatisticJournal(sink);
+        journal.start(historyFolder);
+        AgentStatistic first = record("agent-1");
+        journal.offer(first);
+        journal.offer(record("agent-2"));
+        journal.offer(record("agent-3"));
+        sink.awaitAccepted(3);
+        journal.markApplied(Collections.singletonList(first));
+        journal.shutdown();
+        journal.close();
+
+        RecordingSink replayed = new RecordingSink();
+        AgentStatisticJournal restarted = new AgentStatisticJournal(replayed);
+        restarted.start(historyFolder);
+        try {
+            assertEquals(Arrays.asList("agent-2", "agent-3"), replayed.acceptedNames());
+            assertEquals(2, restarted.pendingCount());
+        } finally {
+            restarted.shutdown();
+            restarted.close();
+        }
+    }
+
+    @Test
+    public void cutsOffATornRecordAtTheEndOfASegment() throws Exception {
+        File historyFolder = temp.getRoot();
+        RecordingSink sink = new RecordingSink();
+        AgentStatisticJournal journal = new AgentStatisticJournal(sink);
+        journal.start(historyFolder);
+        journal.offer(record("agent-1"));
+        journal.offer(record("agent-2"));
+        sink.awaitAccepted(2);
+        journal.shutdown();
+        journal.close();
+
+        File segment = onlySegment(historyFolder);
+        long validLength = segment.length();
+        // a commit which crashed after the length and a part of the checksum
+        FileOutputStream out = new FileOutputStream(segment, true);
+        try {
+            out.write(new byte[] {0, 0, 0, 100, 1, 2});
+        } finally {
+            out.close();
+        }
+
+        RecordingSink replayed = new RecordingSink();
+        AgentStatisticJournal restarted = new AgentStatisticJournal(replayed);
+        restarted.start(historyFolder);
+        try {
+            assertEquals(Arrays.asList("agent-1", "agent-2"), replayed.acceptedNames());
+            assertEquals(validLength, segment.length());
+        } finally {
+            restarted.shutdown();
+            restarted.close();
+        }
+    }
+
+    @Test
+    public void doesNotReplayRecordsWhichAreInTheHistoryFilesAlready() throws Exception {
+        File historyFolder = temp.getRoot();
+        RecordingSink sink = new RecordingSink();
+        AgentStatisticJournal journal = new AgentStatisticJournal(sink);
+        journal.start(historyFolder);
+        AgentStatistic written = record("agent-1");
+        journal.offer(written);
+        journal.offer(record("agent-2"));
+        sink.awaitAccepted(2);
+        // a flush which crashed after the append, before the checkpoint
+        new BinarySegmentWriter(new File(historyFolder, "agentStatistics-2016-03-03.bin"))
+            .append(Collections.singletonList(written));
+        journal.shutdown();
+
+        RecordingSink replayed = new RecordingSink();
+        AgentStatisticJournal restarted = new AgentStatisticJournal(replayed);
+        restarted.start(historyFolder);
+        try {
+            assertEquals(Collections.singletonList("agent-2"), replayed.acceptedNames());
+            assertEquals(1, replayed.written.size());
+            assertEquals("agent-1", replayed.written.get(0).getAgentName());
+        } finally {
+            restarted.shutdown();
+            restarted.close();
+        }
+    }
+
+    @Test
+    public void redeliversDeferredRecordsFromTheSegments() throws Exception {
+        File historyFolder = temp.getRoot();
+        RecordingSink sink = new RecordingSink();
+        AgentStatisticJournal journal = new AgentStatisticJournal(sink);
+        journal.start(historyFolder);
+        try {
+            journal.offer(record("agent-1"));
+            journal.offer(record("agent-2"));
+            sink.awaitAccepted(2);
+            for (AgentStatistic agentStatistic : sink.accepted()) {
+                journal.defer(agentStatistic);
+            }
+            assertEquals(2, journal.deferredCount());
+
+            assertEquals(1, journal.redeliverDeferred(1));
+            assertEquals(1, journal.deferredCount());
+            assertEquals(Arrays.asList("agent-1", "agent-2", "agent-1"), sink.acceptedNames());
+            assertEquals(2, journal.pendingCount());
+        } finally {
+            journal.shutdown();
+            journal.close();
+        }
+    }
+
+    private static File onlySegment(File historyFolder) {
+        File[] segments = new File(historyFolder, AgentStatisticJournal.JOURNAL_FOLDER).listFiles();
+        List<File> logs = new ArrayList<File>();
+        for (File file : segments) {
+            if (file.getName().endsWith(".log")) {
+                logs.add(file);
+            }
+        }
+        assertEquals(1, logs.size());
+        return logs.get(0);
+    }
+
+    private static AgentStatistic record(String agentName) {
+        return AgentStatistic.createPersistedAgentStatistic(agentName, "label", "project/job", new Date(ONLINE_MILLIS),
+            new Date(ONLINE_MILLIS + 60000), "mesos-agent", "framework", "principal", "http://jenkins/", 1024, 2.0);
+    }
+
+    private static class RecordingSink implements AgentStatisticJournal.Sink {
+
+        private final List<AgentStatistic> accepted = new ArrayList<AgentStatistic>();
+
+        final List<AgentStatistic> written = new ArrayList<AgentStatistic>();
+
+        public synchronized void accept(AgentStatistic agentStatistic) {
+            accepted.add(agentStatistic);
+            notifyAll();
+        }
+
+        public synchronized void acceptWritten(Collection<AgentStatistic> agentStatistics) {
+            written.addAll(agentStatistics);
+        }
+
+        synchronized List<AgentStatistic> accepted() {
+            return new ArrayList<AgentStatistic>(accepted);
+        }
+
+        synchronized List<String> acceptedNames() {
+            List<String> names = new ArrayList<String>();
+            for (AgentStatistic agentStatistic : accepted) {
+                names.add(agentStatistic.getAgentName());
+            }
+            return names;
+        }
+
+        /* records are handed on by the committer thread */
+        synchronized void awaitAccepted(int count) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 10000;
+            while (accepted.size() < count) {
+                long remaining = deadline - System.currentTimeMillis();
+                assertTrue("Journal did not commit in time", remaining > 0);
+                wait(remaining);
+            }
+        }
+    }
+}
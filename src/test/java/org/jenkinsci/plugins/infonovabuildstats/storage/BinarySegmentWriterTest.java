@@ -0,0 +1,187 @@
+package org.jenkinsci.plugins.infonovabuildstats.storage;
+
+import org.jenkinsci.plugins.infonovabuildstats.model.AgentStatistic;
+import org.jenkinsci.plugins.infonovabuildstats.query.AgentStatisticFilter;
+import org.jenkinsci.plugins.infonovabuildstats.storage.BinaryRecordFormat.StringColumn;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class BinarySegmentWriterTest {
+
+    private static final long ONLINE_MILLIS = 1457000000000L;
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void readsBackWhatWasAppended() throws Exception {
+        File segment = new File(temp.getRoot(), "agentStatistics-2016-03-03.bin");
+        List<AgentStatistic> records = records(500);
+        BinarySegmentWriter writer = new BinarySegmentWriter(segment);
+        writer.append(records.subList(0, 200));
+        writer.append(records.subList(200, 500));
+
+        BinarySegmentReader reader = new BinarySegmentReader(segment);
+        assertEquals(500, reader.getRecordCount());
+        for (int i = 0; i < records.size(); i++) {
+            assertRecord(records.get(i), reader.materialize(i));
+        }
+        assertTrue(reader.isInline(StringColumn.AGENT_NAME));
+        assertTrue(reader.isInline(StringColumn.LAST_JOB_NAME));
+        assertFalse(reader.isInline(StringColumn.AGENT_LABEL));
+        // only the low-cardinality values end up in the dictionary
+        assertTrue(reader.getDictionary().size() < 20);
+    }
+
+    @Test
+    public void keepsNullValues() throws Exception {
+        File segment = new File(temp.getRoot(), "agentStatistics-2016-03-03.bin");
+        AgentStatistic record = AgentStatistic.createPersistedAgentStatistic("agent", null, null,
+            new Date(ONLINE_MILLIS), null, null, null, null, null, 0, 0.0);
+        List<AgentStatistic> records = new ArrayList<AgentStatistic>();
+        records.add(record);
+        new BinarySegmentWriter(segment).append(records);
+
+        AgentStatistic read = new BinarySegmentReader(segment).materialize(0);
+        assertNull(read.getLastJobName());
+        assertNull(read.getAgentLabel());
+        assertNull(read.getOfflineDate());
+        assertEquals("agent", read.getAgentName());
+    }
+
+    @Test
+    public void writesNamesInlineAsUtf8() throws Exception {
+        File segment = new File(temp.getRoot(), "agentStatistics-2016-03-03.bin");
+        List<AgentStatistic> records = new ArrayList<AgentStatistic>();
+        records.add(AgentStatistic.createPersistedAgentStatistic("agent-\u00e4\u20ac", "label", "project/j\u00f6b",
+            new Date(ONLINE_MILLIS), new Date(ONLINE_MILLIS + 1000), null, null, null, null, 0, 0.0));
+        records.add(AgentStatistic.createPersistedAgentStatistic("agent", "label", "",
+            new Date(ONLINE_MILLIS), new Date(ONLINE_MILLIS + 1000), null, null, null, null, 0, 0.0));
+        new BinarySegmentWriter(segment).append(records);
+
+        BinarySegmentReader reader = new BinarySegmentReader(segment);
+        assertEquals(2, reader.getRecordCount());
+        assertRecord(records.get(0), reader.materialize(0));
+        assertRecord(records.get(1), reader.materialize(1));
+    }
+
+    @Test
+    public void locatesTheRecordsByByteOffset() throws Exception {
+        File segment = new File(temp.getRoot(), "agentStatistics-2016-03-03.bin");
+        new BinarySegmentWriter(segment).append(records(50));
+
+        BinarySegmentReader reader = new BinarySegmentReader(segment);
+        long offset = reader.offsetOf(10);
+        assertEquals(10, reader.firstRecordAt(offset));
+        assertEquals(11, reader.firstRecordAt(offset + 1));
+        assertEquals(10, reader.recordCountWithin(offset));
+        assertEquals(9, reader.recordCountWithin(offset - 1));
+        assertEquals(50, reader.recordCountWithin(segment.length()));
+        assertEquals(segment.length(), reader.offsetOf(50));
+    }
+
+    @Test
+    public void cutsOffATornRecordBeforeAppending() throws Exception {
+        File segment = new File(temp.getRoot(), "agentStatistics-2016-03-03.bin");
+        List<AgentStatistic> records = records(11);
+        BinarySegmentWriter writer = new BinarySegmentWriter(segment);
+        writer.append(records.subList(0, 10));
+        RandomAccessFile raf = new RandomAccessFile(segment, "rw");
+        try {
+            // a crash during the last record
+            raf.setLength(raf.length() - 3);
+            assertEquals(9, new BinarySegmentReader(segment).getRecordCount());
+            writer.append(raf.getChannel(), null, records.subList(10, 11));
+        } finally {
+            raf.close();
+        }
+
+        BinarySegmentReader reader = new BinarySegmentReader(segment);
+        assertEquals(10, reader.getRecordCount());
+        assertRecord(records.get(8), reader.materialize(8));
+        assertRecord(records.get(10), reader.materialize(9));
+    }
+
+    @Test
+    public void appendsToOlderSegmentsInTheirLayout() throws Exception {
+        File segment = new File(temp.getRoot(), "agentStatistics-2016-03-03.bin");
+        ByteBuffer header = ByteBuffer.allocate(BinaryRecordFormat.HEADER_SIZE);
+        header.putInt(BinaryRecordFormat.MAGIC);
+        header.putShort((short) 2);
+        header.putShort((short) BinaryRecordFormat.RECORD_SIZE);
+        FileOutputStream out = new FileOutputStream(segment);
+        try {
+            out.write(header.array());
+        } finally {
+            out.close();
+        }
+        List<AgentStatistic> records = records(20);
+        new BinarySegmentWriter(segment).append(records);
+
+        assertEquals(BinaryRecordFormat.HEADER_SIZE + 20 * BinaryRecordFormat.RECORD_SIZE, segment.length());
+        BinarySegmentReader reader = new BinarySegmentReader(segment);
+        assertFalse(reader.isInline(StringColumn.AGENT_NAME));
+        for (int i = 0; i < records.size(); i++) {
+            assertRecord(records.get(i), reader.materialize(i));
+        }
+    }
+
+    @Test
+    public void matchesFiltersOnTheDictionaryIds() throws Exception {
+        File segment = new File(temp.getRoot(), "agentStatistics-2016-03-03.bin");
+        new BinarySegmentWriter(segment).append(records(30));
+
+        BinarySegmentReader reader = new BinarySegmentReader(segment);
+        BinarySegmentReader.Matcher matcher = reader.matcher(new AgentStatisticFilter().agentLabel("label-1"));
+        int matching = 0;
+        for (int i = 0; i < reader.getRecordCount(); i++) {
+            if (matcher.matches(i)) {
+                assertEquals("label-1", reader.getString(i, StringColumn.AGENT_LABEL));
+                matching++;
+            }
+        }
+        assertEquals(10, matching);
+        assertTrue(reader.matcher(new AgentStatisticFilter().agentLabel("unknown")).isImpossible());
+    }
+
+    static List<AgentStatistic> records(int count) {
+        List<AgentStatistic> records = new ArrayList<AgentStatistic>();
+        for (int i = 0; i < count; i++) {
+            long online = ONLINE_MILLIS + i * 1000L;
+            records.add(AgentStatistic.createPersistedAgentStatistic("mesos-jenkins-" + i, "label-" + (i % 3),
+                "project-" + (i % 2) + "/job-" + i, new Date(online), new Date(online + 60000 + i), "mesos-agent",
+                "framework", "principal", "http://jenkins/", 1024 + i, 0.5 * i, 100L * i));
+        }
+        return records;
+    }
+
+    static void assertRecord(AgentStatistic expected, AgentStatistic actual) {
+        assertEquals(expected.getAgentName(), actual.getAgentName());
+        assertEquals(expected.getAgentLabel(), actual.getAgentLabel());
+        assertEquals(expected.getLastJobName(), actual.getLastJobName());
+        assertEquals(expected.getOnlineDate(), actual.getOnlineDate());
+        assertEquals(expected.getOfflineDate(), actual.getOfflineDate());
+        assertEquals(expected.getMesosAgent(), actual.getMesosAgent());
+        assertEquals(expected.getFramework(), actual.getFramework());
+        assertEquals(expected.getPrincipal(), actual.getPrincipal());
+        assertEquals(expected.getProject(), actual.getProject());
+        assertEquals(expected.getJenkinsUrl(), actual.getJenkinsUrl());
+        assertEquals(expected.getMemory(), actual.getMemory());
+        assertEquals(expected.getCpus(), actual.getCpus(), 0.0);
+        assertEquals(expected.getProvisioningMillis(), actual.getProvisioningMillis());
+    }
+}
@@ -0,0 +1,116 @@
+package org.jenkinsci.plugins.infonovabuildstats.storage;
+
+import org.jenkinsci.plugins.infonovabuildstats.model.AgentStatistic;
+import org.jenkinsci.plugins.infonovabuildstats.query.AgentStatisticCollector;
+import org.jenkinsci.plugins.infonovabuildstats.query.AgentStatisticFilter;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ColumnarSegmentWriterTest {
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void readsBackWhatWasWritten() throws Exception {
+        List<AgentStatistic> records = BinarySegmentWriterTest.records(3 * ColumnarSegmentFormat.ROW_GROUP_SIZE / 2);
+        File segment = write(records);
+
+        ColumnarSegmentReader reader = new ColumnarSegmentReader(segment);
+        try {
+            assertEquals(records.size(), reader.getRecordCount());
+            List<AgentStatistic> read = scan(reader, new AgentStatisticFilter());
+            assertEquals(records.size(), read.size());
+            for (int i = 0; i < records.size(); i++) {
+                BinarySegmentWriterTest.assertRecord(records.get(i), read.get(i));
+            }
+            assertEquals(1, reader.getCoveredFiles().size());
+            assertEquals("agentStatistics-2016-03-03.bin", reader.getCoveredFiles().get(0).getName());
+            assertEquals(4711L, reader.getCoveredFiles().get(0).getLength());
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void scansOnlyTheMatchingRecords() throws Exception {
+        List<AgentStatistic> records = BinarySegmentWriterTest.records(300);
+        File segment = write(records);
+
+        ColumnarSegmentReader reader = new ColumnarSegmentReader(segment);
+        try {
+            List<AgentStatistic> label = scan(reader, new AgentStatisticFilter().agentLabel("label-2"));
+            assertEquals(100, label.size());
+            for (AgentStatistic agentStatistic : label) {
+                assertEquals("label-2", agentStatistic.getAgentLabel());
+            }
+            AgentStatisticFilter both = new AgentStatisticFilter().agentLabel("label-2").project("project-1");
+            assertEquals(50, scan(reader, both).size());
+            assertEquals(0, scan(reader, new AgentStatisticFilter().project("unknown")).size());
+            assertEquals(100, scan(reader, new AgentStatisticFilter().memory(1024, 1123)).size());
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void zoneMapsRuleOutSegmentsOutsideTheRange() throws Exception {
+        List<AgentStatistic> records = BinarySegmentWriterTest.records(10);
+        File segment = write(records);
+        Date lastOffline = records.get(records.size() - 1).getOfflineDate();
+
+        ColumnarSegmentReader reader = new ColumnarSegmentReader(segment);
+        try {
+            assertTrue(reader.mayMatch(new AgentStatisticFilter()));
+            assertFalse(reader.mayMatch(new AgentStatisticFilter().from(new Date(lastOffline.getTime() + 1))));
+            assertFalse(reader.mayMatch(new AgentStatisticFilter().cpus(100.0, 200.0)));
+        } finally {
+            reader.close();
+        }
+    }
+
+    private File write(List<AgentStatistic> records) throws Exception {
+        ColumnarSegmentWriter writer = new ColumnarSegmentWriter();
+        for (AgentStatistic agentStatistic : records) {
+            writer.add(agentStatistic);
+        }
+        writer.addCoveredFile("agentStatistics-2016-03-03.bin", 4711L);
+        File segment = new File(temp.getRoot(), "agentStatistics-2016-03.col");
+        writer.writeTo(segment);
+        assertFalse(new File(temp.getRoot(), "agentStatistics-2016-03.col.tmp").exists());
+        return segment;
+    }
+
+    private static List<AgentStatistic> scan(ColumnarSegmentReader reader, AgentStatisticFilter filter)
+        throws Exception {
+        List<AgentStatistic> records = new ArrayList<AgentStatistic>();
+        reader.scan(filter, new AgentStatisticCollector<List<AgentStatistic>>() {
+            @Override
+            public List<AgentStatistic> create() {
+                return new ArrayList<AgentStatistic>();
+            }
+
+            @Override
+            public void accumulate(List<AgentStatistic> container, AgentStatistic agentStatistic) {
+                container.add(agentStatistic);
+            }
+
+            @Override
+            public List<AgentStatistic> combine(List<AgentStatistic> left, List<AgentStatistic> right) {
+                left.addAll(right);
+                return left;
+            }
+        }, records);
+        return records;
+    }
+}
@@ -0,0 +1,117 @@
+package org.jenkinsci.plugins.infonovabuildstats.storage;
+
+import org.jenkinsci.plugins.infonovabuildstats.history.AgentStatisticXmlReader;
+import org.jenkinsci.plugins.infonovabuildstats.history.AgentStatisticXmlWriter;
+import org.jenkinsci.plugins.infonovabuildstats.model.AgentStatistic;
+import org.jenkinsci.plugins.infonovabuildstats.query.AgentStatisticFilter;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class XmlOffsetIndexTest {
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void coversEveryIndexedFragment() throws Exception {
+        File xmlFile = new File(temp.getRoot(), "agentStatistics-2016-03-03.xml");
+        List<AgentStatistic> records = BinarySegmentWriterTest.records(30);
+        append(xmlFile, records.subList(0, 10), true);
+        append(xmlFile, records.subList(10, 30), true);
+
+        XmlOffsetIndex index = XmlOffsetIndex.open(xmlFile);
+        assertNotNull(index);
+        assertEquals(30, index.getRecordCount());
+        assertEquals(xmlFile.length(), index.getCoveredEnd());
+        for (int i = 0; i < records.size(); i++) {
+            AgentStatisticXmlReader reader = AgentStatisticXmlReader.openRange(xmlFile, index.getOffset(i),
+                index.getOffset(i) + index.getLength(i));
+            try {
+                BinarySegmentWriterTest.assertRecord(records.get(i), reader.next());
+                assertNull(reader.next());
+            } finally {
+                reader.close();
+            }
+        }
+    }
+
+    @Test
+    public void leavesFragmentsAppendedWithoutIndexUncovered() throws Exception {
+        File xmlFile = new File(temp.getRoot(), "agentStatistics-2016-03-03.xml");
+        List<AgentStatistic> records = BinarySegmentWriterTest.records(15);
+        append(xmlFile, records.subList(0, 10), true);
+        long indexedEnd = xmlFile.length();
+        append(xmlFile, records.subList(10, 15), false);
+
+        XmlOffsetIndex index = XmlOffsetIndex.open(xmlFile);
+        assertNotNull(index);
+        assertEquals(10, index.getRecordCount());
+        assertEquals(indexedEnd, index.getCoveredEnd());
+    }
+
+    @Test
+    public void isIgnoredForARewrittenFile() throws Exception {
+        File xmlFile = new File(temp.getRoot(), "agentStatistics-2016-03-03.xml");
+        append(xmlFile, BinarySegmentWriterTest.records(10), true);
+        RandomAccessFile raf = new RandomAccessFile(xmlFile, "rw");
+        try {
+            raf.setLength(raf.length() / 2);
+        } finally {
+            raf.close();
+        }
+
+        assertNull(XmlOffsetIndex.open(xmlFile));
+    }
+
+    @Test
+    public void selectsTheFragmentsOfTheFilter() throws Exception {
+        File xmlFile = new File(temp.getRoot(), "agentStatistics-2016-03-03.xml");
+        List<AgentStatistic> records = BinarySegmentWriterTest.records(30);
+        append(xmlFile, records, true);
+
+        XmlOffsetIndex index = XmlOffsetIndex.open(xmlFile);
+        assertNotNull(index);
+        int[] selected = index.select(new AgentStatisticFilter().agentLabel("label-1").project("project-0"), 0L);
+        assertEquals(5, selected.length);
+        for (int record : selected) {
+            assertEquals(1, record % 3);
+            assertEquals(0, record % 2);
+        }
+        assertEquals(0, index.select(new AgentStatisticFilter().agentLabel("unknown"), 0L).length);
+        // fragments before the offset were read already
+        assertEquals(20, index.select(new AgentStatisticFilter(), index.getOffset(10)).length);
+    }
+
+    /**
+     * Appends the fragments like the sharder does, with or without the entries of the index.
+     */
+    private static void append(File xmlFile, List<AgentStatistic> records, boolean indexed) throws Exception {
+        long lengthBefore = xmlFile.length();
+        AgentStatisticXmlWriter xmlWriter = new AgentStatisticXmlWriter(null);
+        XmlOffsetIndexWriter index = new XmlOffsetIndexWriter(xmlFile, lengthBefore, null);
+        FileOutputStream out = new FileOutputStream(xmlFile, true);
+        try {
+            long offset = lengthBefore;
+            for (AgentStatistic agentStatistic : records) {
+                int length = xmlWriter.write(agentStatistic, out);
+                index.add(agentStatistic, offset, length);
+                offset += length;
+            }
+        } finally {
+            out.close();
+        }
+        if (indexed) {
+            assertNotNull(index.append());
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package org.jenkinsci.plugins.infonovabuildstats.utils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class HierarchicalTimingWheelTest {
+
+    private static final long TICK = 60000L;
+
+    private static final long START = 1000L * TICK;
+
+    @Test
+    public void expiresTimersOfEveryLevelAtTheirDeadline() {
+        HierarchicalTimingWheel<Long> wheel = new HierarchicalTimingWheel<Long>(TICK, START);
+        // deadlines in ticks from now: the lowest wheel, its edges and every higher level
+        long[] ticks = {1, 2, 63, 64, 65, 100, 4095, 4096, 4097, 262143, 262144, 262145, 300000};
+        for (long tick : ticks) {
+            wheel.schedule(tick, START + tick * TICK);
+        }
+        assertEquals(ticks.length, wheel.size());
+
+        // advanced tick by tick, so every cascade on the way is taken
+        List<Long> expired = new ArrayList<Long>();
+        for (long tick = 1; tick <= 300000; tick++) {
+            for (Long payload : wheel.advance(START + tick * TICK)) {
+                assertEquals("Timer expired in the wrong tick", payload.longValue(), tick);
+                expired.add(payload);
+            }
+        }
+        assertEquals(ticks.length, expired.size());
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void cascadesWhenAdvancedByALargeStep() {
+        HierarchicalTimingWheel<String> wheel = new HierarchicalTimingWheel<String>(TICK, START);
+        wheel.schedule("soon", START + 5 * TICK);
+        wheel.schedule("later", START + 5000 * TICK);
+        wheel.schedule("much later", START + 300000 * TICK);
+
+        assertEquals(Collections.emptyList(), wheel.advance(START + 4 * TICK));
+        assertEquals(Collections.singletonList("soon"), wheel.advance(START + 4999 * TICK));
+        assertEquals(Collections.singletonList("later"), wheel.advance(START + 5000 * TICK));
+        assertEquals(Collections.singletonList("much later"), wheel.advance(START + 400000 * TICK));
+    }
+
+    @Test
+    public void neverExpiresATimerBeforeItsDeadline() {
+        HierarchicalTimingWheel<String> wheel = new HierarchicalTimingWheel<String>(TICK, START);
+        // rounded up to the next tick
+        wheel.schedule("timer", START + 10 * TICK + 1);
+
+        assertEquals(Collections.emptyList(), wheel.advance(START + 10 * TICK));
+        assertEquals(Collections.singletonList("timer"), wheel.advance(START + 11 * TICK));
+    }
+
+    @Test
+    public void expiresPastDeadlinesWithTheNextTick() {
+        HierarchicalTimingWheel<String> wheel = new HierarchicalTimingWheel<String>(TICK, START);
+        wheel.schedule("past", START - 10 * TICK);
+
+        assertEquals(Collections.singletonList("past"), wheel.advance(START + TICK));
+    }
+
+    @Test
+    public void parksTimersBeyondTheTopWheel() {
+        HierarchicalTimingWheel<String> wheel = new HierarchicalTimingWheel<String>(TICK, START);
+        long beyond = (1L << 24) + 100;
+        wheel.schedule("beyond", START + beyond * TICK);
+
+        assertEquals(Collections.emptyList(), wheel.advance(START + (beyond - 1) * TICK));
+        assertEquals(Collections.singletonList("beyond"), wheel.advance(START + beyond * TICK));
+    }
+
+    @Test
+    public void cancelledTimersDoNotExpire() {
+        HierarchicalTimingWheel<String> wheel = new HierarchicalTimingWheel<String>(TICK, START);
+        HierarchicalTimingWheel.Timer<String> cancelled = wheel.schedule("cancelled", START + 100 * TICK);
+        wheel.schedule("kept", START + 100 * TICK);
+
+        assertTrue(wheel.cancel(cancelled));
+        assertFalse(wheel.cancel(cancelled));
+        assertEquals(Arrays.asList("kept"), wheel.advance(START + 100 * TICK));
+        assertEquals(0, wheel.size());
+    }
+}